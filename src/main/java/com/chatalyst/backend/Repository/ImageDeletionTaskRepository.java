@@ -0,0 +1,24 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.ImageDeletionTask;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ImageDeletionTaskRepository extends JpaRepository<ImageDeletionTask, Long> {
+
+    // Задачи, которым пора выполняться. SKIP LOCKED: несколько экземпляров разбирают outbox, не мешая друг другу
+    @Query(value = """
+      SELECT * FROM image_deletion_outbox
+      WHERE next_attempt_at <= :now
+      ORDER BY next_attempt_at
+      LIMIT :limit
+      FOR UPDATE SKIP LOCKED
+      """, nativeQuery = true)
+    List<ImageDeletionTask> lockDue(@Param("now") LocalDateTime now, @Param("limit") int limit);
+}
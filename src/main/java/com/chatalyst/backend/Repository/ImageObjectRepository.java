@@ -0,0 +1,95 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.ImageObject;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImageObjectRepository extends JpaRepository<ImageObject, String> {
+
+    /**
+     * Отмечает начало загрузки объекта: создает запись без ссылок или обновляет updated_at существующей.
+     * Пока не истек срок ожидания после этой отметки, объект без ссылок не удаляется —
+     * у загрузившего есть время сохранить товар с этим URL.
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO image_objects (object_key, ref_count, size_bytes, stored, created_at, updated_at)
+        VALUES (:objectKey, 0, :sizeBytes, false, now(), now())
+        ON CONFLICT (object_key) DO UPDATE
+           SET size_bytes = GREATEST(image_objects.size_bytes, EXCLUDED.size_bytes),
+               updated_at = now()
+      """, nativeQuery = true)
+    int touch(@Param("objectKey") String objectKey, @Param("sizeBytes") long sizeBytes);
+
+    // Объект и миниатюра записаны в хранилище: следующие загрузки того же содержимого его переиспользуют
+    @Modifying
+    @Query(value = "UPDATE image_objects SET stored = true, updated_at = now() WHERE object_key = :objectKey",
+           nativeQuery = true)
+    int markStored(@Param("objectKey") String objectKey);
+
+    /**
+     * Добавляет ссылку товара на объект, создавая запись при отсутствии.
+     * Вызывается в транзакции, которая записывает products.image_url.
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO image_objects (object_key, ref_count, size_bytes, stored, created_at, updated_at)
+        VALUES (:objectKey, :count, 0, false, now(), now())
+        ON CONFLICT (object_key) DO UPDATE
+           SET ref_count = GREATEST(image_objects.ref_count, 0) + :count,
+               updated_at = now()
+      """, nativeQuery = true)
+    int acquire(@Param("objectKey") String objectKey, @Param("count") int count);
+
+    @Modifying
+    @Query(value = """
+        UPDATE image_objects SET ref_count = ref_count - :count, updated_at = now()
+        WHERE object_key = :objectKey
+      """, nativeQuery = true)
+    int release(@Param("objectKey") String objectKey, @Param("count") int count);
+
+    // Блокирует строки всех ключей до конца транзакции; решение об удалении принимается уже после блокировки
+    @Query(value = "SELECT * FROM image_objects WHERE object_key IN (:objectKeys) FOR UPDATE", nativeQuery = true)
+    List<ImageObject> lockAll(@Param("objectKeys") Collection<String> objectKeys);
+
+    /**
+     * Снимает отметку stored у объектов, которые собираются удалить: без ссылок и старше срока ожидания.
+     * Фиксируется до удаления из хранилища, поэтому после сбоя удаления загрузка того же содержимого
+     * не переиспользует объект, которого уже может не быть. updated_at не меняется.
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE image_objects SET stored = false
+        WHERE object_key IN (:objectKeys) AND ref_count <= 0 AND updated_at < :before
+      """, nativeQuery = true)
+    int markUnstored(@Param("objectKeys") Collection<String> objectKeys, @Param("before") LocalDateTime before);
+
+    @Modifying
+    @Query(value = "DELETE FROM image_objects WHERE object_key IN (:objectKeys)", nativeQuery = true)
+    int deleteByKeys(@Param("objectKeys") Collection<String> objectKeys);
+
+    // Объекты без ссылок, которые дольше срока ожидания не получили товар и еще не стоят в очереди на удаление
+    @Query(value = """
+        SELECT o.object_key FROM image_objects o
+        WHERE o.ref_count <= 0 AND o.updated_at < :before
+          AND NOT EXISTS (SELECT 1 FROM image_deletion_outbox t WHERE t.image_url = :urlPrefix || o.object_key)
+        ORDER BY o.updated_at
+        LIMIT :limit
+      """, nativeQuery = true)
+    List<String> findOrphans(@Param("before") LocalDateTime before, @Param("urlPrefix") String urlPrefix,
+                             @Param("limit") int limit);
+
+    @Query(value = "SELECT COALESCE(SUM(size_bytes), 0) FROM image_objects WHERE stored", nativeQuery = true)
+    long sumStoredBytes();
+
+    @Query(value = "SELECT COALESCE(SUM(GREATEST(ref_count - 1, 0) * size_bytes), 0) FROM image_objects", nativeQuery = true)
+    long sumDeduplicatedBytes();
+}
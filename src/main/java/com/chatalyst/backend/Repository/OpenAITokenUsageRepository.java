@@ -1,12 +1,23 @@
 package com.chatalyst.backend.Repository;
 
 import com.chatalyst.backend.model.OpenAITokenUsage;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
 public interface OpenAITokenUsageRepository extends JpaRepository<OpenAITokenUsage, Long> {
-    List<OpenAITokenUsage> findByBotIdentifier(String botIdentifier);
+
+    /**
+     * Следующая порция записей, еще не учтенных в агрегатах (для backfill).
+     * Строки блокируются, чтобы параллельный backfill на другом экземпляре не учел их дважды.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT u FROM OpenAITokenUsage u WHERE u.rolledUp IS NULL OR u.rolledUp = false ORDER BY u.id")
+    List<OpenAITokenUsage> findNotRolledUp(Pageable pageable);
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.ProductImportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ProductImportJobRepository extends JpaRepository<ProductImportJob, Long> {
+
+    Optional<ProductImportJob> findByIdAndUserId(Long id, Long userId);
+
+    long countByUserIdAndStatusIn(Long userId, Collection<ProductImportJob.Status> statuses);
+
+    List<ProductImportJob> findByStatusInOrderByIdAsc(Collection<ProductImportJob.Status> statuses);
+
+    /**
+     * Забирает незавершенную задачу экземпляру: свободную, уже принадлежащую ему или с истекшей отметкой владельца.
+     * @return 1, если задача закреплена за экземпляром.
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE product_import_jobs SET owner_id = :ownerId, heartbeat_at = :now
+        WHERE id = :id AND status IN ('QUEUED', 'RUNNING')
+          AND (owner_id IS NULL OR owner_id = :ownerId OR heartbeat_at IS NULL OR heartbeat_at < :expiredBefore)
+      """, nativeQuery = true)
+    int claim(@Param("id") Long id, @Param("ownerId") String ownerId, @Param("now") LocalDateTime now,
+              @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    @Modifying
+    @Query(value = """
+        UPDATE product_import_jobs SET heartbeat_at = :now
+        WHERE id IN (:ids) AND owner_id = :ownerId AND status IN ('QUEUED', 'RUNNING')
+      """, nativeQuery = true)
+    int heartbeat(@Param("ids") Collection<Long> ids, @Param("ownerId") String ownerId, @Param("now") LocalDateTime now);
+
+    /**
+     * Запрашивает отмену незавершенной задачи, не затрагивая прогресс, который пишет поток импорта.
+     * @return 1, если отмена запрошена.
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE product_import_jobs SET cancel_requested = true, updated_at = :now
+        WHERE id = :id AND user_id = :userId AND status IN ('QUEUED', 'RUNNING')
+      """, nativeQuery = true)
+    int requestCancel(@Param("id") Long id, @Param("userId") Long userId, @Param("now") LocalDateTime now);
+
+    /**
+     * Отменяет задачу, которая еще ждет в очереди.
+     * @return 1, если задача не была начата и теперь отменена.
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE product_import_jobs SET status = 'CANCELLED', message = :message, finished_at = :now, updated_at = :now
+        WHERE id = :id AND status = 'QUEUED'
+      """, nativeQuery = true)
+    int cancelQueued(@Param("id") Long id, @Param("message") String message, @Param("now") LocalDateTime now);
+
+    /**
+     * Переводит задачу из очереди в выполнение; не срабатывает, если задачу успели отменить.
+     * @return 1, если задача начата.
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE product_import_jobs SET status = 'RUNNING', started_at = :now, updated_at = :now
+        WHERE id = :id AND status = 'QUEUED'
+      """, nativeQuery = true)
+    int start(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Query(value = "SELECT cancel_requested FROM product_import_jobs WHERE id = :id", nativeQuery = true)
+    boolean isCancelRequested(@Param("id") Long id);
+}
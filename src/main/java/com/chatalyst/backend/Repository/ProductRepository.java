@@ -16,6 +16,12 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     // Найти все товары, привязанные к определенному боту
     List<Product> findByBot(Bot bot);
 
+    // Найти все товары бота по его ID (для построения снимка каталога без загрузки бота)
+    List<Product> findByBotId(Long botId);
+
+    // Есть ли товар (любого бота) с этим изображением
+    boolean existsByImageUrl(String imageUrl);
+
     // Найти товар по имени и боту
     Optional<Product> findByNameAndBot(String name, Bot bot);
 
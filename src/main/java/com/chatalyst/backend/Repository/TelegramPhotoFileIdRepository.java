@@ -0,0 +1,35 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.model.TelegramPhotoFileId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface TelegramPhotoFileIdRepository extends JpaRepository<TelegramPhotoFileId, Long> {
+
+    Optional<TelegramPhotoFileId> findByBotIdAndImageUrl(Long botId, String imageUrl);
+
+    @Modifying
+    @Query(value = """
+        INSERT INTO telegram_photo_file_ids (bot_id, image_url, file_id, updated_at)
+        VALUES (:botId, :imageUrl, :fileId, now())
+        ON CONFLICT (bot_id, image_url) DO UPDATE
+           SET file_id = EXCLUDED.file_id,
+               updated_at = now()
+      """, nativeQuery = true)
+    int upsert(@Param("botId") Long botId, @Param("imageUrl") String imageUrl, @Param("fileId") String fileId);
+
+    @Modifying
+    @Query(value = "DELETE FROM telegram_photo_file_ids WHERE bot_id = :botId AND image_url = :imageUrl AND file_id = :fileId",
+           nativeQuery = true)
+    int deleteRejected(@Param("botId") Long botId, @Param("imageUrl") String imageUrl, @Param("fileId") String fileId);
+
+    @Modifying
+    @Query(value = "DELETE FROM telegram_photo_file_ids WHERE bot_id = :botId", nativeQuery = true)
+    int deleteByBot(@Param("botId") Long botId);
+}
@@ -0,0 +1,79 @@
+package com.chatalyst.backend.Repository;
+
+import com.chatalyst.backend.dto.ChatTokenUsageDTO;
+import com.chatalyst.backend.model.TokenUsageRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface TokenUsageRollupRepository extends JpaRepository<TokenUsageRollup, Long> {
+
+    /**
+     * Прибавляет значения к строке агрегата (создает ее при отсутствии) одним запросом.
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO token_usage_rollup (granularity, bucket_start, bot_identifier, chat_id,
+                                        requests, prompt_tokens, completion_tokens, total_tokens, usd_cost, kzt_cost)
+        VALUES (:granularity, :bucketStart, :botIdentifier, :chatId,
+                :requests, :promptTokens, :completionTokens, :totalTokens, :usdCost, :kztCost)
+        ON CONFLICT (granularity, bot_identifier, chat_id, bucket_start) DO UPDATE
+           SET requests = token_usage_rollup.requests + EXCLUDED.requests,
+               prompt_tokens = token_usage_rollup.prompt_tokens + EXCLUDED.prompt_tokens,
+               completion_tokens = token_usage_rollup.completion_tokens + EXCLUDED.completion_tokens,
+               total_tokens = token_usage_rollup.total_tokens + EXCLUDED.total_tokens,
+               usd_cost = token_usage_rollup.usd_cost + EXCLUDED.usd_cost,
+               kzt_cost = token_usage_rollup.kzt_cost + EXCLUDED.kzt_cost
+      """, nativeQuery = true)
+    int increment(@Param("granularity") String granularity,
+                  @Param("bucketStart") LocalDateTime bucketStart,
+                  @Param("botIdentifier") String botIdentifier,
+                  @Param("chatId") long chatId,
+                  @Param("requests") long requests,
+                  @Param("promptTokens") long promptTokens,
+                  @Param("completionTokens") long completionTokens,
+                  @Param("totalTokens") long totalTokens,
+                  @Param("usdCost") double usdCost,
+                  @Param("kztCost") double kztCost);
+
+    Optional<TokenUsageRollup> findByGranularityAndBotIdentifierAndChatId(
+            TokenUsageRollup.Granularity granularity, String botIdentifier, Long chatId);
+
+    @Query("""
+        SELECT r FROM TokenUsageRollup r
+         WHERE r.botIdentifier = :botIdentifier
+           AND r.chatId = 0
+           AND r.granularity = :granularity
+           AND r.bucketStart >= :from AND r.bucketStart < :to
+         ORDER BY r.bucketStart
+      """)
+    List<TokenUsageRollup> findBotSeries(@Param("botIdentifier") String botIdentifier,
+                                         @Param("granularity") TokenUsageRollup.Granularity granularity,
+                                         @Param("from") LocalDateTime from,
+                                         @Param("to") LocalDateTime to);
+
+    @Query("""
+        SELECT new com.chatalyst.backend.dto.ChatTokenUsageDTO(r.chatId, SUM(r.requests), SUM(r.totalTokens),
+                                                               SUM(r.usdCost), SUM(r.kztCost))
+          FROM TokenUsageRollup r
+         WHERE r.botIdentifier = :botIdentifier
+           AND r.chatId <> 0
+           AND r.granularity = :granularity
+           AND r.bucketStart >= :from AND r.bucketStart < :to
+         GROUP BY r.chatId
+         ORDER BY SUM(r.usdCost) DESC
+      """)
+    List<ChatTokenUsageDTO> findTopChats(@Param("botIdentifier") String botIdentifier,
+                                         @Param("granularity") TokenUsageRollup.Granularity granularity,
+                                         @Param("from") LocalDateTime from,
+                                         @Param("to") LocalDateTime to,
+                                         Pageable pageable);
+}
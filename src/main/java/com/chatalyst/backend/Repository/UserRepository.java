@@ -24,6 +24,18 @@ public interface UserRepository extends JpaRepository<User, Long> {
       """)
     int tryConsumeMessages(@Param("userId") Long userId, @Param("units") int units);
 
+    /**
+     * Возвращает в лимит неиспользованный остаток аренды (см. QuotaService).
+     */
+    @Modifying
+    @Query("""
+        UPDATE User u
+           SET u.monthlyMessagesUsed = u.monthlyMessagesUsed - :units
+         WHERE u.id = :userId
+           AND u.monthlyMessagesUsed >= :units
+      """)
+    int releaseMessages(@Param("userId") Long userId, @Param("units") int units);
+
     @Query("""
         SELECT COUNT(b) FROM Bot b 
         WHERE b.owner.id = :userId
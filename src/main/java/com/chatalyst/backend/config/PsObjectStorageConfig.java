@@ -5,9 +5,12 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import java.net.URI;
+import java.time.Duration;
 
 @Configuration
 public class PsObjectStorageConfig {
@@ -21,6 +24,10 @@ public class PsObjectStorageConfig {
     @Value("${ps.endpoint-url}")
     private String endpointUrl;
 
+    // Максимум одновременных HTTP-соединений асинхронного клиента
+    @Value("${ps.upload.max-connections:64}")
+    private int maxConnections;
+
     @Bean
 public S3Client s3Client() {
     return S3Client.builder()
@@ -30,6 +37,21 @@ public S3Client s3Client() {
             .region(Region.US_EAST_1) // или нужный регион
             .build();
 }
-}
-
 
+    /**
+     * Асинхронный клиент для загрузки изображений: тело запроса передается потоком,
+     * без промежуточного буфера в памяти.
+     */
+    @Bean(destroyMethod = "close")
+    public S3AsyncClient s3AsyncClient() {
+        return S3AsyncClient.builder()
+                .endpointOverride(URI.create(endpointUrl))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(accessKeyId, secretAccessKey)))
+                .region(Region.US_EAST_1)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(maxConnections)
+                        .connectionAcquisitionTimeout(Duration.ofSeconds(30)))
+                .build();
+    }
+}
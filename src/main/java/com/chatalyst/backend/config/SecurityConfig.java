@@ -72,7 +72,6 @@ public class SecurityConfig {
                         "/swagger-ui.html",
                         "/v3/api-docs/**",
                         "/api-docs/**",
-                        "/api/token-usage/**",
                         "/h2-console/**",
                         "/error",
                         "/"
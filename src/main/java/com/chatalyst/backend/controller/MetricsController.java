@@ -0,0 +1,173 @@
+package com.chatalyst.backend.controller;
+
+import com.chatalyst.backend.security.services.OpenAIService;
+import com.chatalyst.backend.security.services.PsObjectStorageService;
+import com.chatalyst.backend.security.services.UserPrincipalCache;
+import com.chatalyst.backend.service.CatalogSnapshotCache;
+import com.chatalyst.backend.service.ChatHistoryCache;
+import com.chatalyst.backend.service.ImageDeletionOutbox;
+import com.chatalyst.backend.service.ImageIngestionService;
+import com.chatalyst.backend.service.ImageProcessingService;
+import com.chatalyst.backend.service.ImportMappingService;
+import com.chatalyst.backend.service.ProductSearchService;
+import com.chatalyst.backend.service.QuotaService;
+import com.chatalyst.backend.service.TelegramFileIdCache;
+import com.chatalyst.backend.service.TelegramOutboundClient;
+import com.chatalyst.backend.service.TelegramUpdateDispatcher;
+import com.chatalyst.backend.service.WriteBehindPersister;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Контроллер внутренних метрик (очереди, кэши, задержки). Доступен только администраторам.
+ */
+@RestController
+@RequestMapping("/api/admin/metrics")
+@RequiredArgsConstructor
+@Tag(name = "Metrics", description = "Внутренние метрики сервиса")
+public class MetricsController {
+
+    private final TelegramUpdateDispatcher telegramUpdateDispatcher;
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final TelegramOutboundClient telegramOutboundClient;
+    private final ProductSearchService productSearchService;
+    private final OpenAIService openAIService;
+    private final ChatHistoryCache chatHistoryCache;
+    private final WriteBehindPersister writeBehindPersister;
+    private final QuotaService quotaService;
+    private final UserPrincipalCache userPrincipalCache;
+    private final ImportMappingService importMappingService;
+    private final ImageIngestionService imageIngestionService;
+    private final ImageDeletionOutbox imageDeletionOutbox;
+    private final PsObjectStorageService psObjectStorageService;
+    private final ImageProcessingService imageProcessingService;
+    private final TelegramFileIdCache telegramFileIdCache;
+
+    @GetMapping("/telegram-dispatcher")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики очереди вебхуков Telegram",
+               description = "Глубина очередей по ботам, время ожидания и время обработки обновлений")
+    public ResponseEntity<Map<String, Object>> getDispatcherStats() {
+        return ResponseEntity.ok(telegramUpdateDispatcher.getStats());
+    }
+
+    @GetMapping("/catalog-cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики кэша каталогов",
+               description = "Размер кэша снимков каталога, попадания, промахи, вытеснения и инвалидации")
+    public ResponseEntity<Map<String, Object>> getCatalogCacheStats() {
+        return ResponseEntity.ok(catalogSnapshotCache.getStats());
+    }
+
+    @GetMapping("/telegram-outbound")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики исходящих сообщений Telegram",
+               description = "Отправлено, ошибки, повторы после 429, пропускная способность и задержки доставки")
+    public ResponseEntity<Map<String, Object>> getTelegramOutboundStats() {
+        return ResponseEntity.ok(telegramOutboundClient.getStats());
+    }
+
+    @GetMapping("/product-search")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики поиска товаров",
+               description = "Количество индексов, запросов, среднее время поиска и инкрементальные обновления")
+    public ResponseEntity<Map<String, Object>> getProductSearchStats() {
+        return ResponseEntity.ok(productSearchService.getStats());
+    }
+
+    @GetMapping("/openai-streaming")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики потоковых ответов OpenAI",
+               description = "Время до первого токена и полное время генерации по ботам")
+    public ResponseEntity<Map<String, Object>> getOpenAiStreamingStats() {
+        return ResponseEntity.ok(openAIService.getStreamingStats());
+    }
+
+    @GetMapping("/chat-history")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики кэша истории диалогов",
+               description = "Количество чатов в памяти, попадания, загрузки из БД и вытеснения")
+    public ResponseEntity<Map<String, Object>> getChatHistoryStats() {
+        return ResponseEntity.ok(chatHistoryCache.getStats());
+    }
+
+    @GetMapping("/write-behind")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики отложенной записи в БД",
+               description = "Глубина очередей, возраст самой старой записи, задержка до коммита, размер пачек и потери")
+    public ResponseEntity<Map<String, Object>> getWriteBehindStats() {
+        return ResponseEntity.ok(writeBehindPersister.getStats());
+    }
+
+    @GetMapping("/quota")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики аренды лимитов сообщений",
+               description = "Локальные списания, пополнения из БД, точные списания, отказы и ожидание блокировки аренды")
+    public ResponseEntity<Map<String, Object>> getQuotaStats() {
+        return ResponseEntity.ok(quotaService.getStats());
+    }
+
+    @GetMapping("/auth-cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики кэша аутентификации",
+               description = "Размер кэша пользователей для JWT-запросов, попадания, промахи и инвалидации")
+    public ResponseEntity<Map<String, Object>> getAuthCacheStats() {
+        return ResponseEntity.ok(userPrincipalCache.getStats());
+    }
+
+    @GetMapping("/import-mapping")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики схем импорта товаров",
+               description = "Размер кэша схем колонок, попадания, схемы по словарю заголовков и через OpenAI")
+    public ResponseEntity<Map<String, Object>> getImportMappingStats() {
+        return ResponseEntity.ok(importMappingService.getStats());
+    }
+
+    @GetMapping("/image-ingestion")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики загрузки изображений при импорте",
+               description = "Загружено изображений, ошибки, повторные URL, превышения лимита размера и текущая нагрузка")
+    public ResponseEntity<Map<String, Object>> getImageIngestionStats() {
+        return ResponseEntity.ok(imageIngestionService.getStats());
+    }
+
+    @GetMapping("/image-deletes")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики удаления изображений из хранилища",
+               description = "Поставлено в outbox, удалено, неудачные попытки, снятые задачи, запросы DeleteObjects и глубина очереди")
+    public ResponseEntity<Map<String, Object>> getImageDeletionStats() {
+        return ResponseEntity.ok(imageDeletionOutbox.getStats());
+    }
+
+    @GetMapping("/image-uploads")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики загрузки изображений в хранилище",
+               description = "Количество и объем загрузок, скорость, длительность, multipart-загрузки, ошибки и текущая нагрузка")
+    public ResponseEntity<Map<String, Object>> getImageUploadStats() {
+        return ResponseEntity.ok(psObjectStorageService.getUploadStats());
+    }
+
+    @GetMapping("/image-processing")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики обработки изображений",
+               description = "Нормализовано и пропущено без изменений, отказы из-за очереди, объем до и после, длительность и загрузка пула")
+    public ResponseEntity<Map<String, Object>> getImageProcessingStats() {
+        return ResponseEntity.ok(imageProcessingService.getStats());
+    }
+
+    @GetMapping("/telegram-file-ids")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Метрики кэша file_id фотографий Telegram",
+               description = "Попадания в памяти и в БД, промахи (отправка по URL), сохраненные и отклоненные Telegram file_id")
+    public ResponseEntity<Map<String, Object>> getTelegramFileIdStats() {
+        return ResponseEntity.ok(telegramFileIdCache.getStats());
+    }
+}
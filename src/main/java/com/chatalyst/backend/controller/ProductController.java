@@ -5,11 +5,13 @@ import com.chatalyst.backend.dto.CreateProductRequest;
 import com.chatalyst.backend.dto.MessageResponse;
 import com.chatalyst.backend.dto.ProductResponse;
 import com.chatalyst.backend.dto.UpdateProductRequest;
-import com.chatalyst.backend.dto.ExcelImportResponse;
+import com.chatalyst.backend.model.ProductImportJob;
+import com.chatalyst.backend.dto.ProductImportJobResponse;
 import com.chatalyst.backend.security.services.ProductService;
 import com.chatalyst.backend.security.services.UserPrincipal;
 import com.chatalyst.backend.security.services.PsObjectStorageService; // Изменено: используем PsObjectStorageService
-import com.chatalyst.backend.security.services.ExcelProductImportService;
+import com.chatalyst.backend.service.ProductImportJobService;
+import com.chatalyst.backend.util.SpreadsheetRowStream;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -38,7 +40,7 @@ public class ProductController {
 
     private final ProductService productService;
     private final PsObjectStorageService psObjectStorageService; // Изменено: используем PsObjectStorageService
-    private final ExcelProductImportService excelProductImportService;
+    private final ProductImportJobService productImportJobService;
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
@@ -138,20 +140,16 @@ public class ProductController {
             if (inStock != null) request.setInStock(inStock);
 
             // Обработка изображения
+            // Старое изображение снимается с товара в ProductService и удаляется через outbox, если на него больше нет ссылок
             if (deleteCurrentImage && oldImageUrl != null && !oldImageUrl.isEmpty()) {
-                // Удаляем старое изображение
-                psObjectStorageService.deleteImage(oldImageUrl); // Изменено
-                request.setImageUrl(null);
-                log.info("Старое изображение удалено для товара с ID {}: {}", id, oldImageUrl);
+                request.setImageUrl("");
+                log.info("Изображение снято с товара с ID {}: {}", id, oldImageUrl);
             } else if (imageFile != null && !imageFile.isEmpty()) {
                 // Загружаем новое изображение
                 String productName = name != null ? name : currentProduct.getName();
                 String newImageUrl = psObjectStorageService.uploadImage(imageFile, productName); // Изменено
                 request.setImageUrl(newImageUrl);
-                
-                // Удаляем старое изображение, если оно было
                 if (oldImageUrl != null && !oldImageUrl.isEmpty()) {
-                    psObjectStorageService.deleteImage(oldImageUrl); // Изменено
                     log.info("Старое изображение заменено для товара с ID {}: {} -> {}", 
                             id, oldImageUrl, newImageUrl);
                 }
@@ -213,19 +211,9 @@ public class ProductController {
     public ResponseEntity<?> deleteProduct(@PathVariable Long id,
                                            @AuthenticationPrincipal UserPrincipal userPrincipal) {
         try {
-            // Получаем товар для удаления его изображения
-            ProductResponse product = productService.getProductById(id);
-            String imageUrl = product.getImageUrl();
-            
-            // Удаляем товар
+            // Удаляем товар; изображение удаляется из хранилища после коммита, если на него не ссылаются другие товары
             productService.deleteProduct(id, userPrincipal.getId());
             
-            // Удаляем изображение из PS.kz Object Storage, если оно есть
-            if (imageUrl != null && !imageUrl.isEmpty()) {
-                psObjectStorageService.deleteImage(imageUrl); // Изменено
-                log.info("Изображение удалено вместе с товаром ID {}: {}", id, imageUrl);
-            }
-            
             return ResponseEntity.noContent().build();
         } catch (RuntimeException e) {
             log.error("Ошибка при удалении товара с ID {} для пользователя {}: {}", id, userPrincipal.getEmail(), e.getMessage());
@@ -331,6 +319,35 @@ public class ProductController {
         }
     }
 
+    @GetMapping("/bot/{botId}/search")
+    @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
+    @Operation(summary = "Поиск товаров бота",
+               description = "Полнотекстовый поиск по названию, описанию, каталогу и подкаталогу с учетом опечаток и фильтром по цене.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Результаты поиска по убыванию релевантности",
+                    content = @Content(schema = @Schema(implementation = ProductResponse.class, type = "array"))),
+            @ApiResponse(responseCode = "401", description = "Неавторизованный доступ",
+                    content = @Content(schema = @Schema(implementation = MessageResponse.class))),
+            @ApiResponse(responseCode = "404", description = "Бот не найден",
+                    content = @Content(schema = @Schema(implementation = MessageResponse.class)))
+    })
+    public ResponseEntity<?> searchProducts(@PathVariable Long botId,
+                                            @RequestParam(value = "q", defaultValue = "") String query,
+                                            @RequestParam(value = "minPrice", required = false) java.math.BigDecimal minPrice,
+                                            @RequestParam(value = "maxPrice", required = false) java.math.BigDecimal maxPrice,
+                                            @RequestParam(value = "inStock", defaultValue = "false") boolean inStockOnly,
+                                            @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            List<ProductResponse> products = productService.searchProducts(botId, query, minPrice, maxPrice,
+                    inStockOnly, Math.max(1, Math.min(limit, 100)), userPrincipal.getId());
+            return ResponseEntity.ok(products);
+        } catch (RuntimeException e) {
+            log.error("Ошибка при поиске товаров для бота с ID {} для пользователя {}: {}", botId, userPrincipal.getEmail(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
+    }
+
     // Новый эндпоинт для получения уникальных каталогов
     @GetMapping("/bot/{botId}/catalogs")
     @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
@@ -406,7 +423,7 @@ public class ProductController {
     @DeleteMapping(value = "/images/delete")
     @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
     @Operation(summary = "Удалить изображение отдельно", 
-               description = "Удаляет изображение из хранилища по его URL.")
+               description = "Удаляет из хранилища по URL изображение, которое не привязано ни к одному товару.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Изображение успешно удалено",
                     content = @Content(schema = @Schema(implementation = MessageResponse.class))),
@@ -415,12 +432,12 @@ public class ProductController {
     })
     public ResponseEntity<?> deleteImage(@RequestParam("imageUrl") String imageUrl) {
         try {
-            boolean deleted = psObjectStorageService.deleteImage(imageUrl); // Изменено
+            boolean deleted = productService.deleteUnusedImage(imageUrl);
             if (deleted) {
                 return ResponseEntity.ok(new MessageResponse("Изображение успешно удалено."));
             } else {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(new MessageResponse("Не удалось удалить изображение."));
+                        .body(new MessageResponse("Изображение используется товаром."));
             }
         } catch (Exception e) {
             log.error("Ошибка удаления изображения: {}", e.getMessage());
@@ -429,14 +446,14 @@ public class ProductController {
         }
     }
 
-    // Новый эндпоинт для импорта товаров из Excel файла
+    // Импорт товаров из Excel файла выполняется фоновой задачей
     @PostMapping(value = "/import/excel", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
     @Operation(summary = "Импорт товаров из Excel файла", 
-               description = "Загружает Excel файл с товарами и автоматически создает товары с помощью OpenAI для обработки данных.")
+               description = "Загружает Excel (.xlsx, .xls) или CSV файл с товарами и ставит импорт в очередь. mode=UPSERT обновляет существующие товары по артикулу или названию вместо создания дублей (deleteMissing=true удаляет товары, которых нет в файле). Возвращает задачу, прогресс которой доступен по /api/products/import/jobs/{jobId}.")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Товары успешно импортированы",
-                    content = @Content(schema = @Schema(implementation = ExcelImportResponse.class))),
+            @ApiResponse(responseCode = "202", description = "Задача импорта поставлена в очередь",
+                    content = @Content(schema = @Schema(implementation = ProductImportJobResponse.class))),
             @ApiResponse(responseCode = "400", description = "Ошибка при импорте товаров",
                     content = @Content(schema = @Schema(implementation = MessageResponse.class))),
             @ApiResponse(responseCode = "401", description = "Неавторизованный доступ",
@@ -447,14 +464,16 @@ public class ProductController {
     public ResponseEntity<?> importProductsFromExcel(
             @RequestParam("file") MultipartFile excelFile,
             @RequestParam("botId") Long botId,
+            @RequestParam(value = "mode", defaultValue = "CREATE") ProductImportJob.Mode mode,
+            @RequestParam(value = "deleteMissing", defaultValue = "false") boolean deleteMissing,
             @AuthenticationPrincipal UserPrincipal userPrincipal) {
         
         try {
-            // Проверяем, что файл является Excel файлом
+            // Проверяем, что файл является Excel или CSV файлом
             String filename = excelFile.getOriginalFilename();
-            if (filename == null || (!filename.endsWith(".xlsx") && !filename.endsWith(".xls"))) {
+            if (!SpreadsheetRowStream.isSupported(filename)) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(new MessageResponse("Файл должен быть в формате Excel (.xlsx или .xls)"));
+                        .body(new MessageResponse("Файл должен быть в формате Excel (.xlsx или .xls) или CSV"));
             }
 
             // Проверяем размер файла (максимум 10MB)
@@ -463,25 +482,12 @@ public class ProductController {
                         .body(new MessageResponse("Размер файла не должен превышать 10MB"));
             }
 
-            log.info("Начинается импорт товаров из Excel файла '{}' для бота ID {} пользователем {}", 
+            log.info("Импорт товаров из Excel файла '{}' для бота ID {} пользователем {}", 
                     filename, botId, userPrincipal.getEmail());
 
-            // Импортируем товары
-            List<ProductResponse> createdProducts = excelProductImportService.importProductsFromExcel(
-                    excelFile, botId, userPrincipal.getId());
-
-            // Формируем ответ
-            ExcelImportResponse response = new ExcelImportResponse();
-            response.setTotalProcessed(createdProducts.size());
-            response.setSuccessfullyCreated(createdProducts.size());
-            response.setFailed(0);
-            response.setCreatedProducts(createdProducts);
-            response.setMessage("Импорт завершен успешно. Создано товаров: " + createdProducts.size());
-
-            log.info("Импорт товаров завершен успешно. Создано товаров: {} для бота ID {}", 
-                    createdProducts.size(), botId);
-
-            return ResponseEntity.ok(response);
+            ProductImportJobResponse job = productImportJobService.submit(excelFile, botId, userPrincipal.getId(),
+                    mode, deleteMissing);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
             
         } catch (RuntimeException e) {
             log.error("Ошибка при импорте товаров для пользователя {}: {}", userPrincipal.getEmail(), e.getMessage());
@@ -494,4 +500,42 @@ public class ProductController {
                     .body(new MessageResponse("Внутренняя ошибка сервера при импорте товаров"));
         }
     }
+
+    @GetMapping("/import/jobs/{jobId}")
+    @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
+    @Operation(summary = "Состояние задачи импорта",
+               description = "Статус задачи импорта товаров: обработано строк, создано товаров, ошибки по строкам и скорость.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Состояние задачи",
+                    content = @Content(schema = @Schema(implementation = ProductImportJobResponse.class))),
+            @ApiResponse(responseCode = "404", description = "Задача не найдена",
+                    content = @Content(schema = @Schema(implementation = MessageResponse.class)))
+    })
+    public ResponseEntity<?> getImportJob(@PathVariable Long jobId,
+                                          @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            return ResponseEntity.ok(productImportJobService.getJob(jobId, userPrincipal.getId()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(e.getMessage()));
+        }
+    }
+
+    @PostMapping("/import/jobs/{jobId}/cancel")
+    @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
+    @Operation(summary = "Отмена задачи импорта",
+               description = "Останавливает импорт; уже созданные товары сохраняются.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Отмена принята",
+                    content = @Content(schema = @Schema(implementation = ProductImportJobResponse.class))),
+            @ApiResponse(responseCode = "404", description = "Задача не найдена",
+                    content = @Content(schema = @Schema(implementation = MessageResponse.class)))
+    })
+    public ResponseEntity<?> cancelImportJob(@PathVariable Long jobId,
+                                             @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            return ResponseEntity.ok(productImportJobService.cancel(jobId, userPrincipal.getId()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(e.getMessage()));
+        }
+    }
 }
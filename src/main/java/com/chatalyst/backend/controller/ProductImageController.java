@@ -105,7 +105,7 @@ public class ProductImageController {
     @DeleteMapping
     @PreAuthorize("hasRole(\'USER\') or hasRole(\'ADMIN\')")
     @Operation(summary = "Удалить изображение товара", 
-               description = "Удаляет изображение товара из PS.kz Object Storage.")
+               description = "Удаляет из PS.kz Object Storage загруженное изображение, которое не привязано ни к одному товару.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Изображение успешно удалено",
                     content = @Content(schema = @Schema(implementation = MessageResponse.class))),
@@ -124,14 +124,15 @@ public class ProductImageController {
                         .body(new MessageResponse("URL изображения не может быть пустым"));
             }
 
-            boolean deleted = psObjectStorageService.deleteImage(imageUrl.trim()); // Изменено: используем PsObjectStorageService
+            // Изображение товара удаляется вместе с товаром или при замене; здесь — только загруженные без товара
+            boolean deleted = productService.deleteUnusedImage(imageUrl.trim());
             
             if (deleted) {
                 log.info("Пользователь {} удалил изображение: {}", userPrincipal.getEmail(), imageUrl);
                 return ResponseEntity.ok(new MessageResponse("Изображение успешно удалено"));
             } else {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(new MessageResponse("Не удалось удалить изображение"));
+                        .body(new MessageResponse("Изображение используется товаром. Удалите товар или замените его изображение"));
             }
             
         } catch (Exception e) {
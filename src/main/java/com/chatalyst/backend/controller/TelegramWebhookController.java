@@ -1,10 +1,12 @@
 // src/main/java/com/chatalyst/backend/controller/TelegramWebhookController.java
 package com.chatalyst.backend.controller;
 
-import com.chatalyst.backend.security.services.TelegramService;
+import com.chatalyst.backend.service.TelegramUpdateDispatcher;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -15,7 +17,7 @@ import org.springframework.web.bind.annotation.*;
 @CrossOrigin(origins = "*", maxAge = 3600)
 public class TelegramWebhookController {
 
-    private final TelegramService telegramService;
+    private final TelegramUpdateDispatcher telegramUpdateDispatcher;
 
     /**
      * Эндпоинт для обработки входящих вебхуков от Telegram.
@@ -24,12 +26,18 @@ public class TelegramWebhookController {
      * @param botIdentifier Идентификатор бота (username) из URL.
      * @param updateJson JSON-объект входящего обновления от Telegram.
      * @return ResponseEntity с пустым ответом (Telegram ожидает 200 OK).
+     *         Если очередь бота переполнена — 429, чтобы Telegram повторил доставку позже.
      */
     @PostMapping("/webhook/{botIdentifier}") // ИЗМЕНЕНО: теперь принимает botIdentifier из пути
     public ResponseEntity<?> handleTelegramWebhook(@PathVariable String botIdentifier, @RequestBody JsonNode updateJson) {
         log.info("Received webhook for bot {}: {}", botIdentifier, updateJson.toString());
         try {
-            telegramService.processUpdate(botIdentifier, updateJson); // Передаем botIdentifier в сервис
+            // Обработка выполняется асинхронно, вебхук подтверждается сразу
+            if (!telegramUpdateDispatcher.submit(botIdentifier, updateJson)) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, "5")
+                        .build();
+            }
             return ResponseEntity.ok().build(); // Telegram ожидает 200 OK
         } catch (Exception e) {
             log.error("Error processing Telegram webhook for bot {}: {}", botIdentifier, e.getMessage(), e);
@@ -1,24 +1,97 @@
 package com.chatalyst.backend.controller;
 
+import com.chatalyst.backend.dto.ChatTokenUsageDTO;
+import com.chatalyst.backend.dto.MessageResponse;
+import com.chatalyst.backend.dto.TokenUsageRangeDTO;
 import com.chatalyst.backend.dto.TokenUsageStatsDTO;
+import com.chatalyst.backend.model.TokenUsageRollup;
 import com.chatalyst.backend.security.services.TokenUsageService;
+import com.chatalyst.backend.security.services.UserPrincipal;
+import com.chatalyst.backend.service.TokenUsageRollupService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.LocalDate;
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/token-usage")
 @RequiredArgsConstructor
 public class TokenUsageController {
 
     private final TokenUsageService tokenUsageService;
+    private final TokenUsageRollupService tokenUsageRollupService;
 
     @GetMapping("/stats/{botIdentifier}")
-    public ResponseEntity<TokenUsageStatsDTO> getBotStats(@PathVariable String botIdentifier) {
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getBotStats(@PathVariable String botIdentifier,
+                                         @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            tokenUsageService.checkBotAccess(botIdentifier, userPrincipal);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
         TokenUsageStatsDTO stats = tokenUsageService.getBotTokenUsageStats(botIdentifier);
         return ResponseEntity.ok(stats);
     }
+
+    @GetMapping("/stats/{botIdentifier}/range")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getBotStatsRange(@PathVariable String botIdentifier,
+                                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                              @RequestParam(defaultValue = "DAY") TokenUsageRollup.Granularity granularity,
+                                              @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            tokenUsageService.checkBotAccess(botIdentifier, userPrincipal);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
+        try {
+            TokenUsageRangeDTO range = tokenUsageService.getBotTokenUsageRange(botIdentifier, from, to, granularity);
+            return ResponseEntity.ok(range);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/stats/{botIdentifier}/top-chats")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getTopChats(@PathVariable String botIdentifier,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                         @RequestParam(defaultValue = "10") int limit,
+                                         @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            tokenUsageService.checkBotAccess(botIdentifier, userPrincipal);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
+        try {
+            List<ChatTokenUsageDTO> chats = tokenUsageService.getTopChatsByCost(botIdentifier, from, to, limit);
+            return ResponseEntity.ok(chats);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Ошибка: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Учитывает в агрегатах записи, сделанные до их появления (обычно выполняется автоматически при старте).
+     */
+    @PostMapping("/rollups/backfill")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MessageResponse> backfillRollups() {
+        long processed = tokenUsageRollupService.backfill();
+        return ResponseEntity.ok(new MessageResponse("Учтено записей: " + processed));
+    }
 }
@@ -0,0 +1,16 @@
+package com.chatalyst.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatTokenUsageDTO {
+    private Long chatId;
+    private Long requests;
+    private Long totalTokens;
+    private Double usdCost;
+    private Double kztCost;
+}
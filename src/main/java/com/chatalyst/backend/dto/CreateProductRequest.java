@@ -1,6 +1,7 @@
 // src/main/java/com/chatalyst/backend/dto/CreateProductRequest.java
 package com.chatalyst.backend.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.DecimalMin;
@@ -31,6 +32,16 @@ public class CreateProductRequest {
 
     private boolean inStock = true; // Статус наличия товара
 
+    @Size(max = 100, message = "Артикул не может превышать 100 символов")
+    private String sku; // Артикул товара (необязательно)
+
+    // Заполняются только импортом: исходный URL изображения и SHA-256 его содержимого
+    @JsonIgnore
+    private String sourceImageUrl;
+
+    @JsonIgnore
+    private String imageHash;
+
     @NotNull(message = "ID бота не может быть пустым")
     private Long botId; // ID бота, к которому привязывается товар
 }
@@ -0,0 +1,35 @@
+package com.chatalyst.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Состояние фоновой задачи импорта товаров.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportJobResponse {
+    private Long id;
+    private Long botId;
+    private String filename;
+    private String status; // QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    private String mode; // CREATE, UPSERT
+    private int processedRows;
+    private int lastCommittedRow;
+    private int successfullyCreated;
+    private int updated;
+    private int unchanged;
+    private int deleted;
+    private int failed;
+    private Double rowsPerSecond;
+    private List<String> errors;
+    private String message;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,18 @@
+package com.chatalyst.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Результат импорта одной строки: созданный товар или текст ошибки.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportRowResult {
+    private int rowNumber;
+    private boolean success;
+    private ProductResponse product;
+    private String error;
+}
@@ -21,6 +21,7 @@ public class ProductResponse {
     private String catalog;
     private String subcategory;
     private String imageUrl; // URL изображения товара
+    private String thumbnailUrl; // URL миниатюры для превью; null, если миниатюры нет
     private boolean inStock;
     private Long botId;
 }
@@ -0,0 +1,20 @@
+package com.chatalyst.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TokenUsagePointDTO {
+    // Начало часа или дня
+    private LocalDateTime bucketStart;
+    private Long requests;
+    private Long promptTokens;
+    private Long completionTokens;
+    private Double usdCost;
+    private Double kztCost;
+}
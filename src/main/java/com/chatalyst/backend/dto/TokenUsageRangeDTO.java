@@ -0,0 +1,25 @@
+package com.chatalyst.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TokenUsageRangeDTO {
+    private String botIdentifier;
+    // Границы периода включительно
+    private LocalDate from;
+    private LocalDate to;
+    private String granularity;
+    private Long totalRequests;
+    private Long totalPromptTokens;
+    private Long totalCompletionTokens;
+    private Double totalUsdCost;
+    private Double totalKztCost;
+    private List<TokenUsagePointDTO> series;
+}
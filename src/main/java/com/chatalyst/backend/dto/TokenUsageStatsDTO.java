@@ -14,4 +14,9 @@ public class TokenUsageStatsDTO {
     private Long totalCompletionTokens;
     private Double totalUsdCost;
     private Double totalKztCost;
+    // Кэш ответов AI: обращения без вызова OpenAI и сэкономленные токены (оценка)
+    private Long cacheHits;
+    private Long cacheMisses;
+    private Double cacheHitRate;
+    private Long tokensSavedByCache;
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.chatalyst.backend.exception;
+
+/**
+ * Ошибка, возвращенная Telegram Bot API (ok=false или HTTP-ошибка).
+ */
+public class TelegramApiException extends RuntimeException {
+
+    private final int errorCode;
+
+    public TelegramApiException(int errorCode, String description) {
+        super("Telegram API error " + errorCode + ": " + description);
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
@@ -15,7 +15,9 @@ import lombok.*;
 public class ChatMessage {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Последовательность с выделением блоками: id известен до INSERT, поэтому пачки пишутся JDBC batch
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chatMessageSeq")
+    @SequenceGenerator(name = "chatMessageSeq", sequenceName = "chat_message_seq", allocationSize = 50)
     private Long id;
 
     // Роль отправителя: "user" или "assistant"
@@ -0,0 +1,43 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Запись outbox на удаление изображения из Object Storage.
+ * Создается в той же транзакции, что и удаление товаров, и обрабатывается после коммита
+ * пачками DeleteObjects; неудачные удаления повторяются с нарастающей паузой.
+ */
+@Entity
+@Table(name = "image_deletion_outbox",
+       indexes = @Index(name = "idx_image_deletion_outbox_next_attempt", columnList = "next_attempt_at"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageDeletionTask {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "image_url", nullable = false, length = 2048)
+    private String imageUrl;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
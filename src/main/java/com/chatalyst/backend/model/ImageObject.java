@@ -0,0 +1,43 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Объект изображения в Object Storage с ключом по SHA-256 содержимого и счетчиком ссылок.
+ * Одно и то же изображение у нескольких товаров хранится один раз. Ссылки держат только товары
+ * (products.image_url); объект удаляется, когда ссылок не осталось и истек срок ожидания после загрузки.
+ */
+@Entity
+@Table(name = "image_objects")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageObject {
+
+    @Id
+    @Column(name = "object_key", length = 128)
+    private String objectKey;
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;
+
+    @Column(name = "size_bytes", nullable = false)
+    private Long sizeBytes;
+
+    // true, когда объект и миниатюра записаны в хранилище; только такие объекты переиспользуются при загрузке
+    @Column(name = "stored", nullable = false, columnDefinition = "boolean not null default true")
+    private Boolean stored;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -15,13 +15,16 @@ import java.time.LocalDateTime;
 public class OpenAITokenUsage {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tokenUsageSeq")
+    @SequenceGenerator(name = "tokenUsageSeq", sequenceName = "openai_token_usage_seq", allocationSize = 50)
     private Long id;
 
     private String botIdentifier;
     private Long chatId;
     
     private Integer promptTokens;
+    // Оценка prompt_tokens, сделанная PromptBuilder до запроса (для контроля точности оценки)
+    private Integer estimatedPromptTokens;
     private Integer completionTokens;
     private Integer totalTokens;
     
@@ -29,4 +32,7 @@ public class OpenAITokenUsage {
     private Double kztCost;
     
     private LocalDateTime timestamp;
+
+    // Запись уже учтена в TokenUsageRollup (null — старые строки, которые еще не прошли backfill)
+    private Boolean rolledUp;
 }
@@ -38,6 +38,18 @@ public class Product {
     @Column
     private String imageUrl; // URL к изображению товара
 
+    // Артикул из импортируемого прайса; по нему повторный импорт находит существующий товар
+    @Column(name = "sku", length = 100)
+    private String sku;
+
+    // Исходный URL изображения из прайса и SHA-256 его содержимого: при повторном импорте
+    // изображение загружается заново, только если изменились URL и содержимое
+    @Column(name = "source_image_url", length = 2048)
+    private String sourceImageUrl;
+
+    @Column(name = "image_hash", length = 64)
+    private String imageHash;
+
     // Исправлено: добавлена колонка со значением по умолчанию 'true'
     // Это предотвратит ошибку, когда DDL пытается добавить NOT NULL колонку
     // в таблицу с уже существующими данными.
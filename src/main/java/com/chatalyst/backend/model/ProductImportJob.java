@@ -0,0 +1,128 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Фоновая задача импорта товаров из файла.
+ * Счетчики и lastCommittedRow обновляются в транзакции каждой записанной пачки товаров,
+ * поэтому после перезапуска задача продолжается со следующей строки. Задачу выполняет экземпляр,
+ * записанный в ownerId; он регулярно обновляет heartbeatAt, а задачу с истекшей отметкой может забрать другой.
+ */
+@Entity
+@Table(name = "product_import_jobs",
+       indexes = {
+               @Index(name = "idx_product_import_jobs_user_status", columnList = "user_id, status"),
+               @Index(name = "idx_product_import_jobs_status", columnList = "status")
+       })
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED;
+
+        public boolean isActive() {
+            return this == QUEUED || this == RUNNING;
+        }
+    }
+
+    public enum Mode {
+        // Каждая строка создает новый товар
+        CREATE,
+        // Строки сопоставляются с каталогом по артикулу или названию: новые создаются, измененные обновляются
+        UPSERT
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "bot_id", nullable = false)
+    private Long botId;
+
+    @Column(name = "filename", nullable = false)
+    private String filename;
+
+    // Копия загруженного файла, из которой задача читается (в том числе после перезапуска)
+    @Column(name = "stored_file", nullable = false, length = 1024)
+    private String storedFile;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private Status status;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "mode", nullable = false, columnDefinition = "varchar(16) default 'CREATE'")
+    private Mode mode;
+
+    // Для UPSERT: удалить товары бота, которых нет в файле
+    @Column(name = "delete_missing", nullable = false, columnDefinition = "boolean default false")
+    private Boolean deleteMissing;
+
+    // Номер последней строки, до которой (включительно) все строки уже обработаны и записаны
+    @Column(name = "last_committed_row", nullable = false)
+    private Integer lastCommittedRow;
+
+    @Column(name = "processed_rows", nullable = false)
+    private Integer processedRows;
+
+    @Column(name = "created_count", nullable = false)
+    private Integer createdCount;
+
+    @Column(name = "updated_count", nullable = false, columnDefinition = "integer default 0")
+    private Integer updatedCount;
+
+    @Column(name = "unchanged_count", nullable = false, columnDefinition = "integer default 0")
+    private Integer unchangedCount;
+
+    @Column(name = "deleted_count", nullable = false, columnDefinition = "integer default 0")
+    private Integer deletedCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private Integer failedCount;
+
+    // Ошибки по строкам, по одной на строку текста (не больше ProductImportJobService.MAX_STORED_ERRORS)
+    @Column(name = "errors", columnDefinition = "TEXT")
+    private String errors;
+
+    @Column(name = "message", length = 1000)
+    private String message;
+
+    // Ставится только запросом ProductImportJobRepository.requestCancel: сохранение задачи потоком импорта его не сбрасывает
+    @Column(name = "cancel_requested", nullable = false, updatable = false)
+    private Boolean cancelRequested;
+
+    // Экземпляр приложения, который выполняет задачу
+    @Column(name = "owner_id", length = 255)
+    private String ownerId;
+
+    @Column(name = "heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
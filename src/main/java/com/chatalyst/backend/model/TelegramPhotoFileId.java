@@ -0,0 +1,41 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * file_id фотографии, полученный от Telegram после первой отправки изображения ботом.
+ * Ключ — бот и URL изображения: при смене Product.imageUrl запись для нового URL
+ * отсутствует, и фото снова отправляется по ссылке.
+ */
+@Entity
+@Table(name = "telegram_photo_file_ids",
+       uniqueConstraints = @UniqueConstraint(name = "uk_telegram_photo_file_ids_bot_image",
+                                             columnNames = {"bot_id", "image_url"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TelegramPhotoFileId {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "bot_id", nullable = false)
+    private Long botId;
+
+    @Column(name = "image_url", nullable = false, length = 2048)
+    private String imageUrl;
+
+    @Column(name = "file_id", nullable = false, length = 255)
+    private String fileId;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,75 @@
+package com.chatalyst.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Предагрегированная статистика токенов за период (час, день или все время)
+ * по боту целиком (chatId = ALL_CHATS) или по отдельному чату.
+ * Обновляется инкрементально вместе с записью OpenAITokenUsage.
+ */
+@Entity
+@Table(name = "token_usage_rollup",
+       uniqueConstraints = @UniqueConstraint(name = "uk_token_usage_rollup_bucket",
+               columnNames = {"granularity", "bot_identifier", "chat_id", "bucket_start"}),
+       indexes = @Index(name = "idx_token_usage_rollup_cost",
+               columnList = "bot_identifier, granularity, bucket_start, usd_cost"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenUsageRollup {
+
+    // Значение chatId для строк по боту целиком (id чатов Telegram не бывают нулевыми)
+    public static final long ALL_CHATS = 0L;
+
+    // Начало "периода" для строк TOTAL
+    public static final LocalDateTime TOTAL_BUCKET_START = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    public enum Granularity {
+        HOUR,
+        DAY,
+        // Одна строка на бота (и на чат) за все время; bucketStart фиксирован
+        TOTAL
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "granularity", nullable = false, length = 8)
+    private Granularity granularity;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "bot_identifier", nullable = false)
+    private String botIdentifier;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    @Column(name = "requests", nullable = false)
+    private Long requests;
+
+    @Column(name = "prompt_tokens", nullable = false)
+    private Long promptTokens;
+
+    @Column(name = "completion_tokens", nullable = false)
+    private Long completionTokens;
+
+    @Column(name = "total_tokens", nullable = false)
+    private Long totalTokens;
+
+    @Column(name = "usd_cost", nullable = false)
+    private Double usdCost;
+
+    @Column(name = "kzt_cost", nullable = false)
+    private Double kztCost;
+}
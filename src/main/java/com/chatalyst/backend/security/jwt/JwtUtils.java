@@ -3,59 +3,86 @@ package com.chatalyst.backend.security.jwt;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Component;
 import com.chatalyst.backend.security.services.UserPrincipal;
 
 import javax.crypto.SecretKey;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 @Component
 @Slf4j
 public class JwtUtils {
+
+    // Дополнительные claims для аутентификации без обращения к БД (app.jwt.embed-claims)
+    private static final String USER_ID_CLAIM = "uid";
+    private static final String ROLES_CLAIM = "roles";
     
     @Value("${app.jwt.secret}")
     private String jwtSecret;
     
     @Value("${app.jwt.expiration-ms}")
     private int jwtExpirationMs;
+
+    // Если включено, id и роли пользователя кладутся в токен, и фильтр не загружает пользователя.
+    // Цена: смена ролей вступает в силу только с новым токеном
+    @Value("${app.jwt.embed-claims:false}")
+    private boolean embedClaims;
+
+    // Ключ и парсер неизменяемы и потокобезопасны: строим один раз, а не на каждый запрос
+    private SecretKey key;
+    private JwtParser parser;
+
+    @PostConstruct
+    public void init() {
+        key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+        parser = Jwts.parser()
+                .verifyWith(key)
+                .build();
+    }
     
     public String generateJwtToken(Authentication authentication) {
         UserPrincipal userPrincipal = (UserPrincipal) authentication.getPrincipal();
         
         // Новый синтаксис для JJWT 0.12.x
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .subject(userPrincipal.getEmail())
                 .issuedAt(new Date())
-                .expiration(new Date((new Date()).getTime() + jwtExpirationMs))
-                .signWith(key())
-                .compact();
-    }
-    
-    private SecretKey key() {
-        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+                .expiration(new Date((new Date()).getTime() + jwtExpirationMs));
+        if (embedClaims) {
+            builder.claim(USER_ID_CLAIM, userPrincipal.getId())
+                    .claim(ROLES_CLAIM, userPrincipal.getAuthorities().stream()
+                            .map(GrantedAuthority::getAuthority)
+                            .toList());
+        }
+        return builder.signWith(key).compact();
     }
     
     public String getEmailFromJwtToken(String token) {
-        // Новый синтаксис для JJWT 0.12.x
-        return Jwts.parser()
-                .verifyWith(key())
-                .build()
-                .parseSignedClaims(token)
+        return parser.parseSignedClaims(token)
                 .getPayload()
                 .getSubject();
     }
     
     public boolean validateJwtToken(String authToken) {
+        return parseClaims(authToken) != null;
+    }
+
+    /**
+     * Проверяет подпись и срок действия токена и возвращает его claims за один разбор.
+     * @param authToken JWT.
+     * @return Claims или null, если токен недействителен.
+     */
+    public Claims parseClaims(String authToken) {
         try {
-            // Новый синтаксис для JJWT 0.12.x
-            Jwts.parser()
-                    .verifyWith(key())
-                    .build()
-                    .parseSignedClaims(authToken);
-            return true;
+            return parser.parseSignedClaims(authToken).getPayload();
         } catch (MalformedJwtException e) {
             log.error("Invalid JWT token: {}", e.getMessage());
         } catch (ExpiredJwtException e) {
@@ -68,6 +95,25 @@ public class JwtUtils {
             log.error("JWT token validation error: {}", e.getMessage());
         }
         
-        return false;
+        return null;
+    }
+
+    /**
+     * Собирает UserPrincipal из claims, если в токене есть id и роли пользователя.
+     * @return Principal без пароля и имени или null, если claims не встроены.
+     */
+    public UserPrincipal principalFromClaims(Claims claims) {
+        if (!embedClaims) {
+            return null;
+        }
+        Object userId = claims.get(USER_ID_CLAIM);
+        Object roles = claims.get(ROLES_CLAIM);
+        if (!(userId instanceof Number id) || !(roles instanceof Collection<?> roleNames)) {
+            return null;
+        }
+        List<GrantedAuthority> authorities = roleNames.stream()
+                .map(role -> (GrantedAuthority) new SimpleGrantedAuthority(String.valueOf(role)))
+                .toList();
+        return new UserPrincipal(id.longValue(), claims.getSubject(), null, null, null, authorities);
     }
-}
\ No newline at end of file
+}
@@ -39,6 +39,7 @@ public class AuthService {
     private final JwtUtils jwtUtils;
     private final PasswordResetTokenRepository passwordResetTokenRepository;
     private final EmailService emailService;
+    private final UserPrincipalCache userPrincipalCache;
 
     @Transactional
     public JwtResponse authenticateUser(LoginRequest loginRequest) {
@@ -137,6 +138,7 @@ public class AuthService {
         // Обновляем пароль пользователя
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        userPrincipalCache.invalidate(user.getEmail());
 
         // Удаляем токен после использования
         passwordResetTokenRepository.delete(resetToken);
@@ -25,8 +25,8 @@ import reactor.core.publisher.Mono;
 import java.util.List;
 import java.util.Optional;
 
-import com.chatalyst.backend.dto.ProductResponse;
 import com.chatalyst.backend.service.QuotaService;
+import com.chatalyst.backend.service.TelegramFileIdCache;
 
 @Service
 @RequiredArgsConstructor
@@ -40,8 +40,8 @@ public class BotService {
     private final WebClient telegramWebClient;
     private final ChatMessageRepository chatMessageRepository;
     private final ProductService productService;
-    private final PsObjectStorageService psObjectStorageService;
     private final QuotaService quotaService;
+    private final TelegramFileIdCache telegramFileIdCache;
 
     @Value("${telegram.webhook.base-url}")
     private String telegramWebhookBaseUrl;
@@ -252,16 +252,9 @@ public class BotService {
             throw new RuntimeException("У вас нет прав для удаления этого бота.");
         }
         
-                // Удаляем все продукты, связанные с ботом, и их изображения
-        List<ProductResponse> productsToDelete = productService.getProductsByBotId(botId, userId);
-        for (ProductResponse product : productsToDelete) {
-            if (product.getImageUrl() != null && !product.getImageUrl().isEmpty()) {
-                psObjectStorageService.deleteImage(product.getImageUrl());
-                log.info("Изображение {} удалено для продукта ID {}", product.getImageUrl(), product.getId());
-            }
-            productService.deleteProduct(product.getId(), userId);
-            log.info("Продукт ID {} удален.", product.getId());
-        }
+        // Удаляем все продукты бота одним запросом; изображения удаляются пачками после коммита
+        productService.deleteAllProductsOfBot(botId);
+        telegramFileIdCache.invalidateBot(botId);
 
         // ИЗМЕНЕНИЕ: Удаляем Webhook из Telegram перед удалением бота из БД
         deleteTelegramWebhook(bot.getAccessToken());
@@ -2,30 +2,28 @@
 package com.chatalyst.backend.security.services;
 
 import com.chatalyst.backend.dto.CreateProductRequest;
-import com.chatalyst.backend.dto.ProductResponse;
+import com.chatalyst.backend.dto.ProductImportRowResult;
 import com.chatalyst.backend.model.Bot;
+import com.chatalyst.backend.model.ProductImportJob;
 import com.chatalyst.backend.Repository.BotRepository;
-import com.chatalyst.backend.util.CustomMultipartFile;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.chatalyst.backend.service.CatalogSnapshot;
+import com.chatalyst.backend.service.CatalogSnapshotCache;
+import com.chatalyst.backend.service.ImageIngestionService;
+import com.chatalyst.backend.service.ImportColumnMapping;
+import com.chatalyst.backend.service.ImportMappingService;
+import com.chatalyst.backend.util.SpreadsheetRowStream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigDecimal;
-import java.net.URL;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 @Service
 @RequiredArgsConstructor
@@ -34,25 +32,76 @@ public class ExcelProductImportService {
 
     private final ProductService productService;
     private final BotRepository botRepository;
-    private final ObjectMapper objectMapper;
-    private final RestTemplate restTemplate;
-    private final PsObjectStorageService psObjectStorageService;
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final ImportMappingService importMappingService;
+    private final ImageIngestionService imageIngestionService;
+    private final TransactionTemplate transactionTemplate;
 
-    @Value("${openai.api.key}")
-    private String openaiApiKey;
+    // Емкость очереди строк между разбором файла и обработкой
+    @Value("${import.excel.row-queue-capacity:256}")
+    private int rowQueueCapacity;
 
-    @Value("${openai.model:gpt-3.5-turbo}")
-    private String openaiModel;
+    // Сколько строк могут ждать загрузки своих изображений, прежде чем создаются товары
+    @Value("${import.images.window:64}")
+    private int imageWindow;
+
+    // Размер пачки товаров, создаваемых одним вызовом ProductService.createProductsBulk
+    @Value("${import.products.batch-size:500}")
+    private int productBatchSize;
+
+    private static final int MAPPING_SAMPLE_ROWS = 5;
+    private static final int PROGRESS_LOG_ROWS = 500;
 
     /**
-     * Импортирует товары из Excel файла с использованием OpenAI для маппинга данных.
-     * @param excelFile Excel файл с товарами.
+     * Прогресс импорта с момента предыдущего отчета.
+     * @param lastCommittedRow Номер строки, до которой (включительно) все строки обработаны.
+     * @param processedRows Прочитано строк.
+     * @param created Создано товаров.
+     * @param updated Обновлено товаров.
+     * @param unchanged Товаров без изменений (режим UPSERT).
+     * @param deleted Удалено товаров, которых нет в файле (режим UPSERT с deleteMissing).
+     * @param failed Строк с ошибкой.
+     * @param errors Описания ошибок.
+     */
+    public record ImportProgress(int lastCommittedRow, int processedRows, int created, int updated, int unchanged,
+                                 int deleted, int failed, List<String> errors) {
+    }
+
+    /**
+     * Получает прогресс импорта и сообщает, не отменен ли он.
+     */
+    public interface ImportListener {
+
+        /**
+         * Вызывается после каждой пачки товаров в транзакции, которая ее записывает:
+         * сохраненный здесь прогресс фиксируется вместе с товарами.
+         */
+        void onBatchCommitted(ImportProgress progress);
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Импортирует товары из Excel или CSV файла.
+     * По заголовкам и первым строкам определяется схема колонок (локально или одним запросом к OpenAI),
+     * затем схема применяется ко всем строкам. Файл читается потоково, поэтому память не зависит от количества строк.
+     *
+     * В режиме UPSERT строки сопоставляются с текущим каталогом бота по артикулу (если есть колонка)
+     * или по нормализованному названию: записываются только новые и измененные товары, изображения
+     * загружаются заново только при смене URL и содержимого.
+     * @param file Файл с товарами на диске.
+     * @param filename Исходное имя файла (по расширению определяется формат: .xlsx, .xls или .csv).
      * @param botId ID бота, к которому привязываются товары.
      * @param userId ID пользователя (для проверки прав).
-     * @return Список созданных товаров.
+     * @param mode CREATE — все строки создают новые товары, UPSERT — обновление каталога.
+     * @param deleteMissing В режиме UPSERT удалить товары бота, которых нет в файле.
+     * @param resumeAfterRow Строки с номером не больше этого уже импортированы и пропускаются (0 — импорт с начала).
+     * @param listener Получает прогресс после каждой пачки.
+     * @return false, если импорт остановлен отменой.
      * @throws RuntimeException если произошла ошибка при обработке файла.
      */
-    public List<ProductResponse> importProductsFromExcel(MultipartFile excelFile, Long botId, Long userId) {
+    public boolean importFromFile(Path file, String filename, Long botId, Long userId, ProductImportJob.Mode mode,
+                                  boolean deleteMissing, int resumeAfterRow, ImportListener listener) {
         try {
             // Проверяем права пользователя на бота
             Bot bot = botRepository.findById(botId)
@@ -62,280 +111,334 @@ public class ExcelProductImportService {
                 throw new RuntimeException("У вас нет прав для добавления товаров в этого бота.");
             }
 
-            // Парсим Excel файл
-            List<Map<String, Object>> excelData = parseExcelFile(excelFile);
-            log.info("Извлечено {} строк из Excel файла", excelData.size());
-
-            // Используем OpenAI для маппинга данных
-            List<Map<String, Object>> mappedData = mapDataWithOpenAI(excelData);
-            log.info("Данные успешно обработаны через OpenAI");
-
-            // Создаем товары
-            List<ProductResponse> createdProducts = new ArrayList<>();
-            for (Map<String, Object> productData : mappedData) {
-                try {
-                    CreateProductRequest request = convertToCreateProductRequest(productData, botId);
-                    ProductResponse product = productService.createProduct(request, userId);
-                    createdProducts.add(product);
-                    log.info("Товар создан: {}", product.getName());
-                } catch (Exception e) {
-                    log.error("Ошибка при создании товара: {}", e.getMessage());
-                    // Продолжаем обработку остальных товаров
+            CatalogSnapshot existing = mode == ProductImportJob.Mode.UPSERT ? catalogSnapshotCache.get(botId) : null;
+            ImportState state = new ImportState(botId, userId, listener, resumeAfterRow, existing);
+            // Изображения скачиваются параллельно, пока создаются товары из предыдущих строк
+            ImageIngestionService.Batch images = imageIngestionService.newBatch();
+            Deque<PendingProduct> pending = new ArrayDeque<>();
+            boolean completed = true;
+            try (SpreadsheetRowStream rows = SpreadsheetRowStream.open(file, filename, rowQueueCapacity)) {
+                List<String> headers = rows.getHeaders();
+
+                // Первые строки нужны для определения схемы, дальше строки обрабатываются по мере чтения
+                List<SpreadsheetRowStream.SheetRow> sampleRows = new ArrayList<>();
+                while (sampleRows.size() < MAPPING_SAMPLE_ROWS && rows.hasNext()) {
+                    sampleRows.add(rows.next());
+                }
+                ImportColumnMapping mapping = importMappingService.resolve(botId, headers, sampleRows);
+
+                Iterator<SpreadsheetRowStream.SheetRow> sample = sampleRows.iterator();
+                while (sample.hasNext() || rows.hasNext()) {
+                    if (listener.isCancelled()) {
+                        completed = false;
+                        break;
+                    }
+                    SpreadsheetRowStream.SheetRow row = sample.hasNext() ? sample.next() : rows.next();
+                    state.lastReadRow = row.rowNumber();
+                    if (row.rowNumber() <= resumeAfterRow) {
+                        // Строка уже записана до перезапуска; для UPSERT помечаем ее товар как найденный в файле
+                        if (state.upsert()) {
+                            markCommitted(mapping, row, botId, state);
+                        }
+                        continue;
+                    }
+                    state.processedRows++;
+                    enqueueRow(mapping, row, botId, images, pending, state);
+                    // Окно ограничивает число строк, ожидающих свои изображения
+                    while (pending.size() > imageWindow) {
+                        addReady(pending.poll(), state, pending);
+                    }
+                    if (state.processedRows % PROGRESS_LOG_ROWS == 0) {
+                        log.info("Импорт для бота {}: обработано строк {}, изображения {}",
+                                botId, state.processedRows, images.getProgress());
+                    }
                 }
             }
+            if (completed) {
+                while (!pending.isEmpty()) {
+                    addReady(pending.poll(), state, pending);
+                }
+                flushReady(state, pending);
+                if (state.upsert() && deleteMissing) {
+                    deleteMissing(state);
+                }
+            }
+            log.info("Импорт из файла '{}' для бота {} {}: прочитано строк {}, изображения: {}", filename, botId,
+                    completed ? "завершен" : "отменен", state.processedRows, images.getProgress());
 
-            log.info("Импорт завершен. Создано товаров: {}", createdProducts.size());
-            return createdProducts;
+            // Каталог перестраивается один раз после импорта, даже если часть строк не прошла
+            catalogSnapshotCache.invalidate(botId);
+            return completed;
 
         } catch (IOException e) {
             log.error("Ошибка при чтении Excel файла: {}", e.getMessage());
             throw new RuntimeException("Ошибка при чтении Excel файла: " + e.getMessage());
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             log.error("Ошибка при импорте товаров: {}", e.getMessage());
             throw new RuntimeException("Ошибка при импорте товаров: " + e.getMessage());
         }
     }
 
     /**
-     * Парсит Excel файл и извлекает данные в виде списка карт.
-     * @param excelFile Excel файл.
-     * @return Список карт с данными из Excel.
-     * @throws IOException если произошла ошибка при чтении файла.
+     * Готовит товар из строки таблицы и ставит его изображение в очередь на загрузку.
+     * Пустые строки пропускаются, ошибка в строке не прерывает импорт.
      */
-    private List<Map<String, Object>> parseExcelFile(MultipartFile excelFile) throws IOException {
-        List<Map<String, Object>> data = new ArrayList<>();
-        
-        try (Workbook workbook = new XSSFWorkbook(excelFile.getInputStream())) {
-            Sheet sheet = workbook.getSheetAt(0); // Берем первый лист
-            
-            if (sheet.getPhysicalNumberOfRows() == 0) {
-                throw new RuntimeException("Excel файл пуст");
-            }
-
-            // Получаем заголовки из первой строки
-            Row headerRow = sheet.getRow(0);
-            if (headerRow == null) {
-                throw new RuntimeException("Не найдена строка с заголовками");
-            }
-
-            List<String> headers = new ArrayList<>();
-            for (Cell cell : headerRow) {
-                headers.add(getCellValueAsString(cell));
+    private void enqueueRow(ImportColumnMapping mapping, SpreadsheetRowStream.SheetRow row, Long botId,
+                            ImageIngestionService.Batch images, Deque<PendingProduct> pending, ImportState state) {
+        Map<String, Object> productData = mapping.apply(row);
+        if (getStringValue(productData, "name").isEmpty()) {
+            // Пустые и служебные строки (итоги, разделители) пропускаем
+            return;
+        }
+        try {
+            CreateProductRequest request = convertToCreateProductRequest(productData, botId);
+            CatalogSnapshot.Item current = state.upsert() ? matchExisting(state, request, row.rowNumber()) : null;
+
+            String imageUrl = getStringValue(productData, "imageUrl");
+            CompletableFuture<ImageIngestionService.IngestedImage> image = null;
+            if (current != null && (!isValidUrl(imageUrl) || imageUrl.equals(current.sourceImageUrl()))) {
+                // Изображение не менялось (или в строке его нет): оставляем текущее без скачивания
+                request.setImageUrl(current.imageUrl());
+                request.setSourceImageUrl(current.sourceImageUrl());
+                request.setImageHash(current.imageHash());
+            } else if (isValidUrl(imageUrl)) {
+                request.setSourceImageUrl(imageUrl);
+                image = current != null
+                        ? images.submit(imageUrl, request.getName(), current.imageUrl(), current.imageHash())
+                        : images.submit(imageUrl, request.getName());
             }
 
-            // Читаем данные из остальных строк
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-
-                Map<String, Object> rowData = new HashMap<>();
-                for (int j = 0; j < headers.size() && j < row.getLastCellNum(); j++) {
-                    Cell cell = row.getCell(j);
-                    String header = headers.get(j);
-                    Object value = getCellValue(cell);
-                    rowData.put(header, value);
-                }
-                
-                // Добавляем строку только если она не пустая
-                if (!rowData.values().stream().allMatch(v -> v == null || v.toString().trim().isEmpty())) {
-                    data.add(rowData);
-                }
+            if (current != null && image == null && sameProduct(current, request)) {
+                state.unchanged++;
+                return;
             }
+            pending.add(new PendingProduct(row.rowNumber(), request, image, current));
+        } catch (Exception e) {
+            state.fail(row.rowNumber(), e.getMessage());
         }
-
-        return data;
     }
 
     /**
-     * Получает значение ячейки как объект.
-     * @param cell Ячейка Excel.
-     * @return Значение ячейки.
+     * Находит товар каталога для строки: по артикулу, а если его нет — по нормализованному названию.
+     * Повтор одного и того же товара в файле считается ошибкой строки.
+     * @return Существующий товар или null, если строка добавляет новый товар.
      */
-    private Object getCellValue(Cell cell) {
-        if (cell == null) return null;
-        
-        switch (cell.getCellType()) {
-            case STRING:
-                return cell.getStringCellValue();
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue();
-                } else {
-                    return cell.getNumericCellValue();
-                }
-            case BOOLEAN:
-                return cell.getBooleanCellValue();
-            case FORMULA:
-                return cell.getCellFormula();
-            default:
-                return null;
+    private CatalogSnapshot.Item matchExisting(ImportState state, CreateProductRequest request, int rowNumber) {
+        String name = normalizeKey(request.getName());
+        String sku = request.getSku() != null ? normalizeKey(request.getSku()) : null;
+        String key = sku != null ? "sku:" + sku : "name:" + name;
+        Integer previousRow = state.seenKeys.putIfAbsent(key, rowNumber);
+        if (previousRow != null && previousRow != rowNumber) {
+            throw new RuntimeException("товар уже встречался в строке " + previousRow);
+        }
+
+        CatalogSnapshot.Item current = sku != null ? state.existingBySku.get(sku) : null;
+        if (current == null) {
+            CatalogSnapshot.Item byName = state.existingByName.get(name);
+            // По названию сопоставляем только товары без артикула или с тем же артикулом
+            if (byName != null && (byName.sku() == null || sku == null || sku.equals(normalizeKey(byName.sku())))) {
+                current = byName;
+            }
+        }
+        if (current != null && !state.matchedIds.add(current.id())) {
+            throw new RuntimeException("товар уже обновлен другой строкой файла");
         }
+        return current;
     }
 
-    /**
-     * Получает значение ячейки как строку.
-     * @param cell Ячейка Excel.
-     * @return Строковое значение ячейки.
-     */
-    private String getCellValueAsString(Cell cell) {
-        if (cell == null) return "";
-        
-        switch (cell.getCellType()) {
-            case STRING:
-                return cell.getStringCellValue();
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue().toString();
-                } else {
-                    return String.valueOf(cell.getNumericCellValue());
-                }
-            case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                return cell.getCellFormula();
-            default:
-                return "";
+    private void markCommitted(ImportColumnMapping mapping, SpreadsheetRowStream.SheetRow row, Long botId,
+                               ImportState state) {
+        Map<String, Object> productData = mapping.apply(row);
+        if (getStringValue(productData, "name").isEmpty()) {
+            return;
         }
+        try {
+            matchExisting(state, convertToCreateProductRequest(productData, botId), row.rowNumber());
+        } catch (RuntimeException e) {
+            // Ошибка этой строки уже учтена до перезапуска
+        }
+    }
+
+    private static boolean sameProduct(CatalogSnapshot.Item current, CreateProductRequest request) {
+        return Objects.equals(current.name(), request.getName())
+                && current.price() != null && request.getPrice() != null && current.price().compareTo(request.getPrice()) == 0
+                && Objects.equals(emptyToNull(current.description()), emptyToNull(request.getDescription()))
+                && Objects.equals(emptyToNull(current.catalog()), emptyToNull(request.getCatalog()))
+                && Objects.equals(emptyToNull(current.subcategory()), emptyToNull(request.getSubcategory()))
+                && Objects.equals(emptyToNull(current.sku()), emptyToNull(request.getSku()))
+                && Objects.equals(current.sourceImageUrl(), request.getSourceImageUrl())
+                && current.inStock() == request.isInStock();
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static String normalizeKey(String value) {
+        return value.toLowerCase(Locale.ROOT).replace('ё', 'е').replaceAll("\\s+", " ").trim();
     }
 
     /**
-     * Использует OpenAI для маппинга данных из Excel в нужный формат.
-     * @param excelData Данные из Excel.
-     * @return Обработанные данные.
+     * Дожидается изображения товара и добавляет товар в пачку на запись.
+     * Если изображение загрузить не удалось, новый товар создается без него, а существующий сохраняет прежнее.
      */
-    private List<Map<String, Object>> mapDataWithOpenAI(List<Map<String, Object>> excelData) {
-        try {
-            // Подготавливаем промпт для OpenAI
-            String prompt = createMappingPrompt(excelData);
-            
-            // Отправляем запрос к OpenAI
-            String response = callOpenAI(prompt);
-            
-            // Парсим ответ от OpenAI
-            return parseOpenAIResponse(response);
-            
-        } catch (Exception e) {
-            log.error("Ошибка при обработке данных через OpenAI: {}", e.getMessage());
-            throw new RuntimeException("Ошибка при обработке данных через OpenAI: " + e.getMessage());
+    private void addReady(PendingProduct product, ImportState state, Deque<PendingProduct> pending) {
+        CreateProductRequest request = product.request();
+        if (product.image() != null) {
+            try {
+                ImageIngestionService.IngestedImage image = product.image().get();
+                request.setImageUrl(image.url());
+                request.setImageHash(image.sha256());
+            } catch (ExecutionException e) {
+                // Причина уже записана в лог при загрузке
+                CatalogSnapshot.Item current = product.current();
+                request.setImageUrl(current != null ? current.imageUrl() : null);
+                request.setSourceImageUrl(current != null ? current.sourceImageUrl() : null);
+                request.setImageHash(current != null ? current.imageHash() : null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Импорт прерван");
+            }
+        }
+        state.ready.add(product);
+        if (state.ready.size() >= productBatchSize) {
+            flushReady(state, pending);
         }
     }
 
     /**
-     * Создает промпт для OpenAI на основе данных из Excel.
-     * @param excelData Данные из Excel.
-     * @return Промпт для OpenAI.
+     * Записывает накопленные товары: новые одной пачкой вставок, существующие одной пачкой обновлений
+     * (права на бота проверяются один раз на пачку), и сообщает слушателю прогресс. Товары и прогресс
+     * записываются в одной транзакции, поэтому после перезапуска строки не импортируются повторно.
      */
-    private String createMappingPrompt(List<Map<String, Object>> excelData) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("Ты помощник для обработки данных о товарах. ");
-        prompt.append("Мне нужно преобразовать данные из Excel файла в стандартный формат для товаров.\n\n");
-        prompt.append("Требуемый формат товара:\n");
-        prompt.append("- name (string): название товара\n");
-        prompt.append("- price (number): цена товара\n");
-        prompt.append("- description (string): описание товара\n");
-        prompt.append("- catalog (string): основная категория товара (например: 'Электроника', 'Одежда', 'Дом и сад')\n");
-        prompt.append("- subcategory (string): подкатегория товара (например: 'Ноутбуки', 'Мужская одежда', 'Кухонная техника')\n");
-        prompt.append("- imageUrl (string): URL изображения товара (если есть в данных)\n");
-        prompt.append("- inStock (boolean): есть ли товар в наличии\n\n");
-        
-        prompt.append("Данные из Excel файла:\n");
-        
-        // Добавляем первые несколько строк как пример
-        int sampleSize = Math.min(5, excelData.size());
-        for (int i = 0; i < sampleSize; i++) {
-            prompt.append("Строка ").append(i + 1).append(": ").append(excelData.get(i)).append("\n");
+    private void flushReady(ImportState state, Deque<PendingProduct> pending) {
+        transactionTemplate.executeWithoutResult(status -> writeReady(state, pending));
+    }
+
+    private void writeReady(ImportState state, Deque<PendingProduct> pending) {
+        List<PendingProduct> inserts = new ArrayList<>();
+        List<PendingProduct> updates = new ArrayList<>();
+        for (PendingProduct product : state.ready) {
+            (product.current() == null ? inserts : updates).add(product);
         }
-        
-        prompt.append("\nПожалуйста, проанализируй данные и верни JSON массив с товарами в требуемом формате. ");
-        prompt.append("Если какое-то поле не найдено, используй разумные значения по умолчанию. ");
-        prompt.append("Для цены извлеки только числовое значение. ");
-        prompt.append("Для inStock используй true, если не указано иначе. ");
-        prompt.append("Для catalog и subcategory постарайся определить подходящие категории на основе названия и описания товара. ");
-        prompt.append("Для imageUrl используй только если в данных есть прямая ссылка на изображение (URL начинающийся с http/https). ");
-        prompt.append("Если imageUrl не найден или это не URL, оставь поле пустым. ");
-        prompt.append("Верни только JSON массив без дополнительного текста.");
-        
-        return prompt.toString();
+        state.ready.clear();
+
+        if (!inserts.isEmpty()) {
+            List<CreateProductRequest> requests = new ArrayList<>(inserts.size());
+            inserts.forEach(product -> requests.add(product.request()));
+            List<ProductImportRowResult> results = productService.createProductsBulk(state.botId, requests, state.userId);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isSuccess()) {
+                    state.created++;
+                } else {
+                    state.fail(inserts.get(i).rowNumber(), results.get(i).getError());
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            List<ProductService.BulkUpdate> changes = new ArrayList<>(updates.size());
+            updates.forEach(product -> changes.add(new ProductService.BulkUpdate(
+                    product.current().id(), product.request(), product.current().imageUrl())));
+            List<ProductImportRowResult> results = productService.updateProductsBulk(state.botId, changes, state.userId);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isSuccess()) {
+                    state.updated++;
+                } else {
+                    state.fail(updates.get(i).rowNumber(), results.get(i).getError());
+                }
+            }
+        }
+        // Все строки до первой, еще ждущей изображение, обработаны
+        int lastCommittedRow = pending.isEmpty() ? state.lastReadRow : pending.peek().rowNumber() - 1;
+        state.report(Math.max(lastCommittedRow, state.resumeAfterRow));
     }
 
     /**
-     * Отправляет запрос к OpenAI API.
-     * @param prompt Промпт для OpenAI.
-     * @return Ответ от OpenAI.
+     * Удаляет товары бота, которые были в каталоге до импорта, но не встретились в файле.
      */
-    private String callOpenAI(String prompt) {
-        try {
-            String url = "https://api.openai.com/v1/chat/completions";
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(openaiApiKey);
-            
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", openaiModel);
-            requestBody.put("max_tokens", 4000);
-            requestBody.put("temperature", 0.1);
-            
-            List<Map<String, String>> messages = new ArrayList<>();
-            Map<String, String> message = new HashMap<>();
-            message.put("role", "user");
-            message.put("content", prompt);
-            messages.add(message);
-            requestBody.put("messages", messages);
-            
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
-            
-            if (!response.getStatusCode().is2xxSuccessful()) {
-                throw new RuntimeException("Ошибка при вызове OpenAI API: " + response.getStatusCode());
+    private void deleteMissing(ImportState state) {
+        List<Long> missing = new ArrayList<>();
+        for (CatalogSnapshot.Item item : state.existingItems) {
+            if (!state.matchedIds.contains(item.id())) {
+                missing.add(item.id());
             }
-            
-            // Парсим ответ и извлекаем содержимое
-            JsonNode responseJson = objectMapper.readTree(response.getBody());
-            return responseJson.path("choices").get(0).path("message").path("content").asText();
-            
-        } catch (Exception e) {
-            log.error("Ошибка при вызове OpenAI API: {}", e.getMessage());
-            throw new RuntimeException("Ошибка при вызове OpenAI API: " + e.getMessage());
         }
+        if (!missing.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                state.deleted += productService.deleteProductsBulk(state.botId, missing, state.userId);
+                state.report(state.lastReadRow);
+            });
+        }
+    }
+
+    private record PendingProduct(int rowNumber, CreateProductRequest request,
+                                  CompletableFuture<ImageIngestionService.IngestedImage> image,
+                                  CatalogSnapshot.Item current) {
     }
 
     /**
-     * Парсит ответ от OpenAI и преобразует его в список карт.
-     * @param response Ответ от OpenAI.
-     * @return Список обработанных данных.
+     * Состояние одного импорта и счетчики с момента последнего отчета слушателю.
      */
-    @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> parseOpenAIResponse(String response) {
-        try {
-            // Очищаем ответ от возможных markdown блоков
-            String cleanResponse = response.trim();
-            if (cleanResponse.startsWith("```json")) {
-                cleanResponse = cleanResponse.substring(7);
-            }
-            if (cleanResponse.endsWith("```")) {
-                cleanResponse = cleanResponse.substring(0, cleanResponse.length() - 3);
-            }
-            cleanResponse = cleanResponse.trim();
-            
-            // Парсим JSON
-            JsonNode jsonNode = objectMapper.readTree(cleanResponse);
-            
-            if (jsonNode.isArray()) {
-                List<Map<String, Object>> result = new ArrayList<>();
-                for (JsonNode item : jsonNode) {
-                    Map<String, Object> map = objectMapper.convertValue(item, Map.class);
-                    result.add(map);
+    private static final class ImportState {
+        private final Long botId;
+        private final Long userId;
+        private final ImportListener listener;
+        private final int resumeAfterRow;
+        private final List<PendingProduct> ready = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+
+        // Только для UPSERT: каталог до импорта и уже сопоставленные строки файла
+        private final List<CatalogSnapshot.Item> existingItems;
+        private final Map<String, CatalogSnapshot.Item> existingBySku = new HashMap<>();
+        private final Map<String, CatalogSnapshot.Item> existingByName = new HashMap<>();
+        private final Map<String, Integer> seenKeys = new HashMap<>();
+        private final Set<Long> matchedIds = new HashSet<>();
+
+        private int lastReadRow;
+        private int processedRows;
+        private int reportedRows;
+        private int created;
+        private int updated;
+        private int unchanged;
+        private int deleted;
+        private int failed;
+
+        private ImportState(Long botId, Long userId, ImportListener listener, int resumeAfterRow, CatalogSnapshot existing) {
+            this.botId = botId;
+            this.userId = userId;
+            this.listener = listener;
+            this.resumeAfterRow = resumeAfterRow;
+            this.existingItems = existing != null ? existing.getItems() : null;
+            if (existingItems != null) {
+                for (CatalogSnapshot.Item item : existingItems) {
+                    if (item.sku() != null && !item.sku().isBlank()) {
+                        existingBySku.putIfAbsent(normalizeKey(item.sku()), item);
+                    }
+                    existingByName.putIfAbsent(normalizeKey(item.name()), item);
                 }
-                return result;
-            } else {
-                throw new RuntimeException("Ответ от OpenAI не является JSON массивом");
             }
-            
-        } catch (Exception e) {
-            log.error("Ошибка при парсинге ответа от OpenAI: {}", e.getMessage());
-            log.error("Ответ от OpenAI: {}", response);
-            throw new RuntimeException("Ошибка при парсинге ответа от OpenAI: " + e.getMessage());
+        }
+
+        private boolean upsert() {
+            return existingItems != null;
+        }
+
+        private void fail(int rowNumber, String error) {
+            failed++;
+            log.warn("Строка {} не импортирована: {}", rowNumber, error);
+            errors.add("Строка " + rowNumber + ": " + error);
+        }
+
+        private void report(int lastCommittedRow) {
+            listener.onBatchCommitted(new ImportProgress(lastCommittedRow, processedRows - reportedRows,
+                    created, updated, unchanged, deleted, failed, List.copyOf(errors)));
+            reportedRows = processedRows;
+            created = 0;
+            updated = 0;
+            unchanged = 0;
+            deleted = 0;
+            failed = 0;
+            errors.clear();
         }
     }
 
@@ -354,113 +457,17 @@ public class ExcelProductImportService {
         request.setCatalog(getStringValue(productData, "catalog"));
         request.setSubcategory(getStringValue(productData, "subcategory"));
         
-        // Обрабатываем imageUrl - скачиваем и загружаем в PsObjectStorageService
-        String imageUrl = getStringValue(productData, "imageUrl");
-        if (imageUrl != null && !imageUrl.isEmpty() && isValidUrl(imageUrl)) {
-            try {
-                String uploadedImageUrl = downloadAndUploadImage(imageUrl, request.getName());
-                request.setImageUrl(uploadedImageUrl);
-                log.info("Изображение успешно загружено для товара '{}': {}", request.getName(), uploadedImageUrl);
-            } catch (Exception e) {
-                log.warn("Не удалось загрузить изображение для товара '{}' с URL '{}': {}", 
-                        request.getName(), imageUrl, e.getMessage());
-                request.setImageUrl(null);
-            }
-        } else {
-            request.setImageUrl(null);
-        }
+        // imageUrl заполняется после загрузки изображения в хранилище (ImageIngestionService)
+        request.setImageUrl(null);
         
         request.setInStock(getBooleanValue(productData, "inStock", true));
+        String sku = getStringValue(productData, "sku");
+        request.setSku(sku.isEmpty() ? null : sku);
         request.setBotId(botId);
         
         return request;
     }
 
-    /**
-     * Скачивает изображение по URL и загружает его в PsObjectStorageService.
-     * @param imageUrl URL изображения для скачивания.
-     * @param productName Название товара (для генерации имени файла).
-     * @return URL загруженного изображения в хранилище.
-     * @throws Exception если произошла ошибка при скачивании или загрузке.
-     */
-    private String downloadAndUploadImage(String imageUrl, String productName) throws Exception {
-        try {
-            log.info("Скачивание изображения с URL: {}", imageUrl);
-            
-            // Скачиваем изображение
-            URL url = new URL(imageUrl);
-            try (InputStream inputStream = url.openStream()) {
-                byte[] imageBytes = inputStream.readAllBytes();
-                
-                // Определяем тип контента на основе URL или используем по умолчанию
-                String contentType = determineContentType(imageUrl);
-                String filename = generateFilename(imageUrl, productName);
-                
-                // Создаем CustomMultipartFile для передачи в PsObjectStorageService
-                MultipartFile multipartFile = new CustomMultipartFile(
-                    imageBytes,
-                    "image",
-                    filename,
-                    contentType
-                );
-                
-                // Загружаем в хранилище
-                return psObjectStorageService.uploadImage(multipartFile, productName);
-            }
-            
-        } catch (Exception e) {
-            log.error("Ошибка при скачивании/загрузке изображения с URL '{}': {}", imageUrl, e.getMessage());
-            throw new Exception("Не удалось обработать изображение: " + e.getMessage());
-        }
-    }
-
-    /**
-     * Определяет тип контента на основе URL изображения.
-     * @param imageUrl URL изображения.
-     * @return MIME тип контента.
-     */
-    private String determineContentType(String imageUrl) {
-        String lowerUrl = imageUrl.toLowerCase();
-        if (lowerUrl.contains(".png")) {
-            return "image/png";
-        } else if (lowerUrl.contains(".jpg") || lowerUrl.contains(".jpeg")) {
-            return "image/jpeg";
-        } else if (lowerUrl.contains(".gif")) {
-            return "image/gif";
-        } else if (lowerUrl.contains(".webp")) {
-            return "image/webp";
-        } else {
-            return "image/jpeg"; // По умолчанию
-        }
-    }
-
-    /**
-     * Генерирует имя файла на основе URL и названия товара.
-     * @param imageUrl URL изображения.
-     * @param productName Название товара.
-     * @return Имя файла.
-     */
-    private String generateFilename(String imageUrl, String productName) {
-        String extension = ".jpg"; // По умолчанию
-        
-        String lowerUrl = imageUrl.toLowerCase();
-        if (lowerUrl.contains(".png")) {
-            extension = ".png";
-        } else if (lowerUrl.contains(".jpg") || lowerUrl.contains(".jpeg")) {
-            extension = ".jpg";
-        } else if (lowerUrl.contains(".gif")) {
-            extension = ".gif";
-        } else if (lowerUrl.contains(".webp")) {
-            extension = ".webp";
-        }
-        
-        String cleanProductName = productName.replaceAll("[^a-zA-Z0-9а-яА-Я\\s]", "")
-                                            .replaceAll("\\s+", "_")
-                                            .toLowerCase();
-        
-        return cleanProductName + "_image" + extension;
-    }
-
     /**
      * Проверяет, является ли строка валидным URL.
      * @param url Строка для проверки.
@@ -501,10 +508,23 @@ public class ExcelProductImportService {
                 return BigDecimal.valueOf(((Number) value).doubleValue());
             } else {
                 String stringValue = value.toString().trim();
-                // Удаляем все нечисловые символы кроме точки и запятой
+                // Удаляем все нечисловые символы кроме точки и запятой (пробелы-разделители разрядов, валюту)
                 stringValue = stringValue.replaceAll("[^0-9.,]", "");
-                // Заменяем запятую на точку
-                stringValue = stringValue.replace(",", ".");
+                int lastDot = stringValue.lastIndexOf('.');
+                int lastComma = stringValue.lastIndexOf(',');
+                if (lastDot >= 0 && lastComma >= 0) {
+                    // "1,200.50" и "1.200,50": десятичный разделитель тот, что стоит последним
+                    char thousands = lastDot > lastComma ? ',' : '.';
+                    stringValue = stringValue.replace(String.valueOf(thousands), "").replace(',', '.');
+                } else if (lastComma >= 0 && stringValue.indexOf(',') != lastComma) {
+                    // "1,200,000" — только разделители разрядов
+                    stringValue = stringValue.replace(",", "");
+                } else if (lastDot >= 0 && stringValue.indexOf('.') != lastDot) {
+                    stringValue = stringValue.replace(".", "");
+                } else {
+                    // Заменяем запятую на точку
+                    stringValue = stringValue.replace(",", ".");
+                }
                 return new BigDecimal(stringValue);
             }
         } catch (Exception e) {
@@ -528,7 +548,23 @@ public class ExcelProductImportService {
             return (Boolean) value;
         } else {
             String stringValue = value.toString().toLowerCase().trim();
-            return "true".equals(stringValue) || "да".equals(stringValue) || "1".equals(stringValue);
+            if (stringValue.isEmpty()) {
+                return defaultValue;
+            }
+            if (stringValue.startsWith("нет") || stringValue.startsWith("отсутств") || stringValue.startsWith("false")
+                    || stringValue.equals("no") || stringValue.startsWith("out of stock")) {
+                return false;
+            }
+            if ("true".equals(stringValue) || "yes".equals(stringValue) || stringValue.startsWith("да")
+                    || stringValue.startsWith("есть") || stringValue.contains("в наличии") || stringValue.startsWith("in stock")) {
+                return true;
+            }
+            // В колонке остатка — количество: в наличии, если больше нуля
+            try {
+                return new BigDecimal(stringValue.replace(',', '.').replaceAll("[^0-9.\\-]", "")).signum() > 0;
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
         }
     }
 }
@@ -1,8 +1,11 @@
 // src/main/java/com/chatalyst/backend/security/services/OpenAIService.java
 package com.chatalyst.backend.security.services;
 
-import com.chatalyst.backend.Repository.OpenAITokenUsageRepository;
 import com.chatalyst.backend.model.OpenAITokenUsage;
+import com.chatalyst.backend.service.ChatPrompt;
+import com.chatalyst.backend.service.WriteBehindPersister;
+import com.chatalyst.backend.util.LatencyRecorder;
+import com.chatalyst.backend.util.TokenEstimator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -10,12 +13,21 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @Slf4j
@@ -26,6 +38,9 @@ public class OpenAIService {
     private static final double USD_PER_1K_COMPLETION_TOKENS = 0.002;
     private static final double KZT_EXCHANGE_RATE = 540.0; // Курс тенге
 
+    // Ответ при ошибке OpenAI: его нельзя кэшировать как обычный ответ
+    public static final String FALLBACK_RESPONSE = "Извините, произошла ошибка при обработке вашего запроса. Попробуйте позже.";
+
     @Value("${openai.api.key}")
     private String openaiApiKey;
 
@@ -35,12 +50,13 @@ public class OpenAIService {
     @Qualifier("openAiWebClient")
     private final WebClient openAiWebClient;
     private final ObjectMapper objectMapper;
-    private final OpenAITokenUsageRepository tokenUsageRepository;
+    private final WriteBehindPersister writeBehindPersister;
+    private final ConcurrentHashMap<String, StreamingLatency> streamingLatencies = new ConcurrentHashMap<>();
 
-    public OpenAIService(WebClient openAiWebClient, ObjectMapper objectMapper, OpenAITokenUsageRepository tokenUsageRepository) {
+    public OpenAIService(WebClient openAiWebClient, ObjectMapper objectMapper, WriteBehindPersister writeBehindPersister) {
         this.openAiWebClient = openAiWebClient;
         this.objectMapper = objectMapper;
-        this.tokenUsageRepository = tokenUsageRepository;
+        this.writeBehindPersister = writeBehindPersister;
     }
 
     /**
@@ -115,14 +131,145 @@ public class OpenAIService {
         return callOpenAI(messages, botIdentifier, chatId);
     }
 
+    /**
+     * Ответ по готовому промпту, собранному PromptBuilder в пределах бюджета токенов.
+     * @param prompt Сообщения для AI и оценка их размера.
+     * @param botIdentifier Идентификатор бота.
+     * @param chatId ID чата.
+     * @return Ответ от AI.
+     */
+    public String getChatResponse(ChatPrompt prompt, String botIdentifier, Long chatId) {
+        return callOpenAI(toMessages(prompt), botIdentifier, chatId, prompt.estimatedTokens());
+    }
+
+    private ArrayNode toMessages(ChatPrompt prompt) {
+        ArrayNode messages = objectMapper.createArrayNode();
+        for (ChatPrompt.Message message : prompt.messages()) {
+            ObjectNode messageNode = objectMapper.createObjectNode();
+            messageNode.put("role", message.role());
+            messageNode.put("content", message.content());
+            messages.add(messageNode);
+        }
+        return messages;
+    }
+
+    /**
+     * Потоковый ответ по готовому промпту (SSE, stream=true).
+     * Возвращает фрагменты текста по мере генерации; использование токенов сохраняется
+     * по итоговому чанку usage в конце потока. Ошибки OpenAI логируются и передаются подписчику,
+     * чтобы оборванный ответ можно было отличить от полного.
+     * @param prompt Сообщения для AI и оценка их размера.
+     * @param botIdentifier Идентификатор бота.
+     * @param chatId ID чата.
+     * @return Поток фрагментов ответа.
+     */
+    public Flux<String> streamChatResponse(ChatPrompt prompt, String botIdentifier, Long chatId) {
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("model", openaiModel);
+        requestBody.set("messages", toMessages(prompt));
+        requestBody.put("temperature", 0.7);
+        requestBody.put("stream", true);
+        requestBody.putObject("stream_options").put("include_usage", true);
+
+        log.info("⏳ Sending streaming OpenAI request for bot: {}", botIdentifier);
+
+        return Flux.defer(() -> {
+            long startedAt = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean(true);
+            AtomicBoolean usageSaved = new AtomicBoolean();
+            StringBuffer received = new StringBuffer();
+            return openAiWebClient.post()
+                    .uri("/chat/completions")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + openaiApiKey)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(requestBody.toString())
+                    .retrieve()
+                    .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                    .map(ServerSentEvent::data)
+                    .takeWhile(data -> data != null && !"[DONE]".equals(data))
+                    // Разбор чанков и сохранение статистики — вне event loop WebClient
+                    .publishOn(Schedulers.boundedElastic())
+                    .concatMap(data -> {
+                        JsonNode chunk;
+                        try {
+                            chunk = objectMapper.readTree(data);
+                        } catch (Exception e) {
+                            log.warn("Skipping malformed OpenAI stream chunk for bot {}: {}", botIdentifier, e.getMessage());
+                            return Flux.empty();
+                        }
+                        JsonNode usageNode = chunk.path("usage");
+                        if (usageNode.isObject() && botIdentifier != null && chatId != null
+                                && usageSaved.compareAndSet(false, true)) {
+                            saveTokenUsage(usageNode, botIdentifier, chatId, prompt.estimatedTokens());
+                        }
+                        String delta = chunk.path("choices").path(0).path("delta").path("content").asText("");
+                        if (delta.isEmpty()) {
+                            return Flux.empty();
+                        }
+                        received.append(delta);
+                        if (firstToken.compareAndSet(true, false)) {
+                            streamingLatency(botIdentifier).firstToken().record(System.nanoTime() - startedAt);
+                        }
+                        return Flux.just(delta);
+                    })
+                    .doOnComplete(() -> streamingLatency(botIdentifier).total().record(System.nanoTime() - startedAt))
+                    // Итоговый чанк с usage не пришел (таймаут, отмена, обрыв): сохраняем оценку по полученному тексту
+                    .doFinally(signal -> {
+                        if (botIdentifier != null && chatId != null && received.length() > 0
+                                && usageSaved.compareAndSet(false, true)) {
+                            saveTokenUsage(estimatedUsage(prompt, received.toString()), botIdentifier, chatId,
+                                    prompt.estimatedTokens());
+                        }
+                    })
+                    .doOnError(e -> log.error("❌ OpenAI streaming error for bot {}: {}", botIdentifier, e.getMessage(), e));
+        });
+    }
+
+    private ObjectNode estimatedUsage(ChatPrompt prompt, String completion) {
+        int promptTokens = prompt.estimatedTokens();
+        int completionTokens = TokenEstimator.estimate(completion);
+        ObjectNode usage = objectMapper.createObjectNode();
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", completionTokens);
+        usage.put("total_tokens", promptTokens + completionTokens);
+        return usage;
+    }
+
+    private StreamingLatency streamingLatency(String botIdentifier) {
+        return streamingLatencies.computeIfAbsent(String.valueOf(botIdentifier),
+                k -> new StreamingLatency(new LatencyRecorder(), new LatencyRecorder()));
+    }
+
+    /**
+     * Возвращает время до первого токена и полное время генерации потоковых ответов по ботам.
+     */
+    public Map<String, Object> getStreamingStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        streamingLatencies.forEach((bot, latency) -> {
+            Map<String, Object> botStats = new LinkedHashMap<>();
+            botStats.put("timeToFirstToken", latency.firstToken().snapshot());
+            botStats.put("totalLatency", latency.total().snapshot());
+            stats.put(bot, botStats);
+        });
+        return stats;
+    }
+
+    private record StreamingLatency(LatencyRecorder firstToken, LatencyRecorder total) {
+    }
+
+    private String callOpenAI(ArrayNode messages, String botIdentifier, Long chatId) {
+        return callOpenAI(messages, botIdentifier, chatId, null);
+    }
+
     /**
      * Общий метод для вызова OpenAI API.
      * @param messages Массив сообщений для отправки.
      * @param botIdentifier Идентификатор бота.
      * @param chatId ID чата.
+     * @param estimatedPromptTokens Оценка prompt_tokens (для сверки с фактом) или null.
      * @return Ответ от AI.
      */
-    private String callOpenAI(ArrayNode messages, String botIdentifier, Long chatId) {
+    private String callOpenAI(ArrayNode messages, String botIdentifier, Long chatId, Integer estimatedPromptTokens) {
         ObjectNode requestBody = objectMapper.createObjectNode();
         requestBody.put("model", openaiModel);
         requestBody.set("messages", messages);
@@ -145,7 +292,7 @@ public class OpenAIService {
             // Извлекаем информацию об использовании токенов и сохраняем ее
             JsonNode usageNode = rootNode.path("usage");
             if (usageNode.isObject() && botIdentifier != null && chatId != null) {
-                saveTokenUsage(usageNode, botIdentifier, chatId);
+                saveTokenUsage(usageNode, botIdentifier, chatId, estimatedPromptTokens);
             }
 
             log.info("✅ AI response: {}", assistantResponse);
@@ -153,17 +300,18 @@ public class OpenAIService {
 
         } catch (Exception e) {
             log.error("❌ OpenAI error: {}", e.getMessage(), e);
-            return "Извините, произошла ошибка при обработке вашего запроса. Попробуйте позже.";
+            return FALLBACK_RESPONSE;
         }
     }
 
     /**
-     * Сохраняет статистику использования токенов.
+     * Сохраняет статистику использования токенов (через очередь отложенной записи).
      * @param usageNode Узел с информацией об использовании токенов.
      * @param botIdentifier Идентификатор бота.
      * @param chatId ID чата.
+     * @param estimatedPromptTokens Оценка prompt_tokens, сделанная до запроса, или null.
      */
-    private void saveTokenUsage(JsonNode usageNode, String botIdentifier, Long chatId) {
+    private void saveTokenUsage(JsonNode usageNode, String botIdentifier, Long chatId, Integer estimatedPromptTokens) {
         int promptTokens = usageNode.path("prompt_tokens").asInt();
         int completionTokens = usageNode.path("completion_tokens").asInt();
         int totalTokens = usageNode.path("total_tokens").asInt();
@@ -176,6 +324,7 @@ public class OpenAIService {
                 .botIdentifier(botIdentifier)
                 .chatId(chatId)
                 .promptTokens(promptTokens)
+                .estimatedPromptTokens(estimatedPromptTokens)
                 .completionTokens(completionTokens)
                 .totalTokens(totalTokens)
                 .usdCost(usdCost)
@@ -183,7 +332,11 @@ public class OpenAIService {
                 .timestamp(LocalDateTime.now())
                 .build();
 
-        tokenUsageRepository.save(tokenUsage);
+        writeBehindPersister.enqueueTokenUsage(tokenUsage);
+        if (estimatedPromptTokens != null && promptTokens > 0) {
+            log.debug("Prompt token estimate for bot {}: estimated={} actual={} ({}%)", botIdentifier,
+                    estimatedPromptTokens, promptTokens, Math.round(100.0 * estimatedPromptTokens / promptTokens));
+        }
         log.info("📊 Saved token usage for bot {}: prompt={} completion={} cost=${:.6f} (₸{:.2f})",
                 botIdentifier, promptTokens, completionTokens, usdCost, kztCost);
     }
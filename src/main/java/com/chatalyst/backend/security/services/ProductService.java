@@ -5,17 +5,47 @@ import com.chatalyst.backend.Repository.BotRepository;
 import com.chatalyst.backend.Repository.ProductRepository;
 import com.chatalyst.backend.Repository.UserRepository;
 import com.chatalyst.backend.dto.CreateProductRequest;
+import com.chatalyst.backend.dto.ProductImportRowResult;
 import com.chatalyst.backend.dto.ProductResponse;
 import com.chatalyst.backend.dto.UpdateProductRequest;
 import com.chatalyst.backend.model.Bot;
 import com.chatalyst.backend.model.Product;
+import com.chatalyst.backend.service.CatalogSnapshot;
+import com.chatalyst.backend.service.CatalogSnapshotCache;
+import com.chatalyst.backend.service.ImageDeletionOutbox;
+import com.chatalyst.backend.service.ProductSearchIndex;
+import com.chatalyst.backend.service.ProductSearchService;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,7 +56,43 @@ public class ProductService {
     private final ProductRepository productRepository;
     private final BotRepository botRepository;
     private final UserRepository userRepository;
-    private final PsObjectStorageService psObjectStorageService; // Изменено: используем PsObjectStorageService
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final ProductSearchService productSearchService;
+    private final ImageDeletionOutbox imageDeletionOutbox;
+    private final PsObjectStorageService psObjectStorageService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+
+    // Размер JDBC-пачки при массовом создании товаров
+    @Value("${import.products.batch-size:500}")
+    private int importBatchSize;
+
+    private static final String INSERT_PRODUCT_SQL = "INSERT INTO products "
+            + "(name, price, description, catalog, subcategory, image_url, in_stock, sku, source_image_url, image_hash, bot_id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_PRODUCT_SQL = "UPDATE products SET name = ?, price = ?, description = ?, "
+            + "catalog = ?, subcategory = ?, image_url = ?, in_stock = ?, sku = ?, source_image_url = ?, image_hash = ? "
+            + "WHERE id = ? AND bot_id = ?";
+
+    private static final String DELETE_PRODUCTS_SQL = "DELETE FROM products WHERE bot_id = ? AND id = ANY(?) RETURNING image_url";
+
+    private static final String DELETE_BOT_PRODUCTS_SQL = "DELETE FROM products WHERE bot_id = ? RETURNING image_url";
+
+    private static final String DELETE_CATALOG_PRODUCTS_SQL = "DELETE FROM products WHERE bot_id = ? AND catalog = ? RETURNING image_url";
+
+    private static final String DELETE_SUBCATEGORY_PRODUCTS_SQL = "DELETE FROM products "
+            + "WHERE bot_id = ? AND catalog = ? AND subcategory = ? RETURNING image_url";
+
+    /**
+     * Изменение существующего товара при импорте.
+     * @param productId ID товара.
+     * @param values Новые значения всех полей.
+     * @param oldImageUrl Прежний URL изображения: ссылка на него снимается в транзакции записи, если изображение заменено.
+     */
+    public record BulkUpdate(Long productId, CreateProductRequest values, String oldImageUrl) {
+    }
 
     /**
      * Создает новый товар и привязывает его к указанному боту.
@@ -35,6 +101,7 @@ public class ProductService {
      * @return Созданный объект ProductResponse.
      * @throws RuntimeException если бот не найден или пользователь не является владельцем бота.
      */
+    @Transactional
     public ProductResponse createProduct(CreateProductRequest request, Long userId) {
         Bot bot = botRepository.findById(request.getBotId())
                 .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + request.getBotId()));
@@ -51,15 +118,323 @@ public class ProductService {
         product.setCatalog(request.getCatalog());
         product.setSubcategory(request.getSubcategory());
         product.setImageUrl(request.getImageUrl()); // URL изображения уже загружен в контроллере
+        product.setSku(request.getSku());
         product.setInStock(request.isInStock());
         product.setBot(bot);
 
         Product savedProduct = productRepository.save(product);
+        // Ссылка на изображение берется в той же транзакции, что и запись товара
+        psObjectStorageService.retainImages(Collections.singletonList(savedProduct.getImageUrl()));
+        catalogSnapshotCache.invalidate(bot.getId());
+        productSearchService.onProductSaved(savedProduct);
         log.info("Товар создан: {} для бота {}", savedProduct.getName(), bot.getBotIdentifier());
         
         return convertToResponse(savedProduct);
     }
 
+    /**
+     * Массово создает товары одного бота (импорт из файла).
+     * Права на бота проверяются один раз, строки вставляются JDBC-пачками по import.products.batch-size.
+     * Если пачка не вставилась, ее строки повторяются по одной, чтобы ошибка одной строки не отменила остальные.
+     * @param botId ID бота.
+     * @param requests Товары для создания.
+     * @param userId ID пользователя (для проверки прав).
+     * @return Результаты в порядке запросов: созданный товар или ошибка строки (rowNumber — позиция в списке с 1).
+     * @throws RuntimeException если бот не найден или пользователь не является владельцем бота.
+     */
+    public List<ProductImportRowResult> createProductsBulk(Long botId, List<CreateProductRequest> requests, Long userId) {
+        Bot bot = botRepository.findById(botId)
+                .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + botId));
+
+        if (!bot.getOwner().getId().equals(userId)) {
+            throw new RuntimeException("У вас нет прав для добавления товаров в этого бота.");
+        }
+
+        long start = System.nanoTime();
+        List<ProductImportRowResult> results = new ArrayList<>(requests.size());
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            CreateProductRequest request = requests.get(i);
+            request.setBotId(botId);
+            String error = validate(request);
+            results.add(new ProductImportRowResult(i + 1, error == null, null, error));
+            if (error == null) {
+                valid.add(i);
+            }
+        }
+
+        int created = writeInChunks(valid, results,
+                chunk -> {
+                    List<Long> ids = insertBatch(bot, requests, chunk);
+                    psObjectStorageService.retainImages(chunk.stream().map(index -> requests.get(index).getImageUrl()).toList());
+                    return ids;
+                },
+                (index, id) -> markCreated(results.get(index), requests.get(index), id, botId));
+
+        if (created > 0) {
+            // Каталог и поисковый индекс перестраиваются один раз на всю пачку
+            catalogSnapshotCache.invalidate(botId);
+            productSearchService.invalidate(botId);
+        }
+        log.info("Массовое создание товаров для бота {}: создано {}, ошибок {}, за {} мс",
+                bot.getBotIdentifier(), created, requests.size() - created, (System.nanoTime() - start) / 1_000_000);
+        return results;
+    }
+
+    /**
+     * Массово обновляет товары бота (повторный импорт прайса). Права проверяются один раз,
+     * изменения отправляются JDBC-пачками. Ссылки на новые изображения берутся, а замененные изображения
+     * ставятся в outbox удаления в транзакции той же пачки.
+     * @param botId ID бота.
+     * @param updates Изменения товаров.
+     * @param userId ID пользователя (для проверки прав).
+     * @return Результаты в порядке изменений.
+     * @throws RuntimeException если бот не найден или пользователь не является владельцем бота.
+     */
+    public List<ProductImportRowResult> updateProductsBulk(Long botId, List<BulkUpdate> updates, Long userId) {
+        Bot bot = botRepository.findById(botId)
+                .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + botId));
+
+        if (!bot.getOwner().getId().equals(userId)) {
+            throw new RuntimeException("У вас нет прав для обновления товаров этого бота.");
+        }
+
+        List<ProductImportRowResult> results = new ArrayList<>(updates.size());
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < updates.size(); i++) {
+            CreateProductRequest values = updates.get(i).values();
+            values.setBotId(botId);
+            String error = validate(values);
+            results.add(new ProductImportRowResult(i + 1, error == null, null, error));
+            if (error == null) {
+                valid.add(i);
+            }
+        }
+
+        int updated = writeInChunks(valid, results,
+                chunk -> {
+                    List<Boolean> written = updateBatch(bot, updates, chunk);
+                    List<String> newImages = new ArrayList<>();
+                    List<String> replacedImages = new ArrayList<>();
+                    for (Integer index : chunk) {
+                        BulkUpdate update = updates.get(index);
+                        String newImageUrl = update.values().getImageUrl();
+                        if (!Objects.equals(update.oldImageUrl(), newImageUrl)) {
+                            newImages.add(newImageUrl);
+                            replacedImages.add(update.oldImageUrl());
+                        }
+                    }
+                    psObjectStorageService.retainImages(newImages);
+                    imageDeletionOutbox.enqueue(replacedImages);
+                    return written;
+                },
+                (index, ignored) -> {
+                    BulkUpdate update = updates.get(index);
+                    markCreated(results.get(index), update.values(), update.productId(), botId);
+                });
+
+        if (updated > 0) {
+            catalogSnapshotCache.invalidate(botId);
+            productSearchService.invalidate(botId);
+        }
+        log.info("Массовое обновление товаров для бота {}: обновлено {}, ошибок {}",
+                bot.getBotIdentifier(), updated, updates.size() - updated);
+        return results;
+    }
+
+    /**
+     * Массово удаляет товары бота (позиции, которых больше нет в прайсе); изображения удаляются после коммита через outbox.
+     * @param botId ID бота.
+     * @param productIds ID товаров.
+     * @param userId ID пользователя (для проверки прав).
+     * @return Количество удаленных товаров.
+     * @throws RuntimeException если бот не найден или пользователь не является владельцем бота.
+     */
+    public int deleteProductsBulk(Long botId, List<Long> productIds, Long userId) {
+        Bot bot = botRepository.findById(botId)
+                .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + botId));
+
+        if (!bot.getOwner().getId().equals(userId)) {
+            throw new RuntimeException("У вас нет прав для удаления товаров этого бота.");
+        }
+
+        int deleted = 0;
+        for (int from = 0; from < productIds.size(); from += importBatchSize) {
+            Long[] chunk = productIds.subList(from, Math.min(from + importBatchSize, productIds.size())).toArray(new Long[0]);
+            Integer count = transactionTemplate.execute(status -> {
+                List<String> imageUrls = jdbcTemplate.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(DELETE_PRODUCTS_SQL);
+                    ps.setLong(1, botId);
+                    ps.setArray(2, connection.createArrayOf("bigint", chunk));
+                    return ps;
+                }, (rs, rowNum) -> rs.getString(1));
+                imageDeletionOutbox.enqueue(imageUrls);
+                return imageUrls.size();
+            });
+            deleted += count != null ? count : 0;
+        }
+
+        if (deleted > 0) {
+            catalogSnapshotCache.invalidate(botId);
+            productSearchService.invalidate(botId);
+        }
+        log.info("Массовое удаление товаров для бота {}: удалено {}", bot.getBotIdentifier(), deleted);
+        return deleted;
+    }
+
+    /**
+     * Записывает строки пачками по importBatchSize, каждую пачку атомарно (см. {@link #writeAtomically(Supplier)}).
+     * Если пачка не записалась, ее строки повторяются по одной, чтобы ошибка одной строки не отменила остальные.
+     * @return Количество записанных строк.
+     */
+    private <T> int writeInChunks(List<Integer> indexes, List<ProductImportRowResult> results,
+                                  Function<List<Integer>, List<T>> writer, BiConsumer<Integer, T> onWritten) {
+        int written = 0;
+        for (int from = 0; from < indexes.size(); from += importBatchSize) {
+            List<Integer> chunk = indexes.subList(from, Math.min(from + importBatchSize, indexes.size()));
+            try {
+                List<T> values = writeAtomically(() -> writer.apply(chunk));
+                for (int j = 0; j < chunk.size(); j++) {
+                    onWritten.accept(chunk.get(j), values.get(j));
+                }
+                written += chunk.size();
+            } catch (DataAccessException e) {
+                log.warn("Пачка из {} товаров не записана: {}. Повтор по одной строке",
+                        chunk.size(), e.getMostSpecificCause().getMessage());
+                for (Integer index : chunk) {
+                    try {
+                        List<T> values = writeAtomically(() -> writer.apply(List.of(index)));
+                        onWritten.accept(index, values.get(0));
+                        written++;
+                    } catch (DataAccessException single) {
+                        ProductImportRowResult result = results.get(index);
+                        result.setSuccess(false);
+                        result.setError(single.getMostSpecificCause().getMessage());
+                    }
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Выполняет запись в своей транзакции. Если вызывающий уже открыл транзакцию (импорт записывает пачку
+     * товаров и прогресс задачи вместе), запись идет под точкой сохранения: ошибка откатывает только ее.
+     */
+    private <T> T writeAtomically(Supplier<T> write) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return transactionTemplate.execute(status -> write.get());
+        }
+        Savepoint savepoint = jdbcTemplate.execute((ConnectionCallback<Savepoint>) Connection::setSavepoint);
+        T result;
+        try {
+            result = write.get();
+        } catch (DataAccessException e) {
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                connection.rollback(savepoint);
+                return null;
+            });
+            throw e;
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            connection.releaseSavepoint(savepoint);
+            return null;
+        });
+        return result;
+    }
+
+    private String validate(CreateProductRequest request) {
+        Set<ConstraintViolation<CreateProductRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+
+    private List<Long> insertBatch(Bot bot, List<CreateProductRequest> requests, List<Integer> indexes) {
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(
+                connection -> connection.prepareStatement(INSERT_PRODUCT_SQL, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        CreateProductRequest request = requests.get(indexes.get(i));
+                        ps.setString(1, request.getName());
+                        ps.setBigDecimal(2, request.getPrice());
+                        ps.setString(3, request.getDescription());
+                        ps.setString(4, request.getCatalog());
+                        ps.setString(5, request.getSubcategory());
+                        ps.setString(6, request.getImageUrl());
+                        ps.setBoolean(7, request.isInStock());
+                        ps.setString(8, request.getSku());
+                        ps.setString(9, request.getSourceImageUrl());
+                        ps.setString(10, request.getImageHash());
+                        ps.setLong(11, bot.getId());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return indexes.size();
+                    }
+                },
+                keyHolder);
+
+        List<Long> ids = new ArrayList<>(indexes.size());
+        for (Map<String, Object> keys : keyHolder.getKeyList()) {
+            ids.add(((Number) keys.get("id")).longValue());
+        }
+        return ids;
+    }
+
+    private List<Boolean> updateBatch(Bot bot, List<BulkUpdate> updates, List<Integer> indexes) {
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE_PRODUCT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                BulkUpdate update = updates.get(indexes.get(i));
+                CreateProductRequest values = update.values();
+                ps.setString(1, values.getName());
+                ps.setBigDecimal(2, values.getPrice());
+                ps.setString(3, values.getDescription());
+                ps.setString(4, values.getCatalog());
+                ps.setString(5, values.getSubcategory());
+                ps.setString(6, values.getImageUrl());
+                ps.setBoolean(7, values.isInStock());
+                ps.setString(8, values.getSku());
+                ps.setString(9, values.getSourceImageUrl());
+                ps.setString(10, values.getImageHash());
+                ps.setLong(11, update.productId());
+                ps.setLong(12, bot.getId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return indexes.size();
+            }
+        });
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                // Товар удален, пока шел импорт: откатываем пачку, повтор по одной строке покажет, какой именно
+                throw new EmptyResultDataAccessException("Товар не найден с ID: " + updates.get(indexes.get(i)).productId(), 1);
+            }
+        }
+        List<Boolean> written = new ArrayList<>(counts.length);
+        for (int ignored : counts) {
+            written.add(Boolean.TRUE);
+        }
+        return written;
+    }
+
+    private void markCreated(ProductImportRowResult result, CreateProductRequest request, Long id, Long botId) {
+        result.setSuccess(true);
+        result.setError(null);
+        result.setProduct(new ProductResponse(id, request.getName(), request.getPrice(), request.getDescription(),
+                request.getCatalog(), request.getSubcategory(), request.getImageUrl(),
+                psObjectStorageService.thumbnailUrl(request.getImageUrl()), request.isInStock(), botId));
+    }
+
     /**
      * Обновляет существующий товар.
      * @param productId ID товара для обновления.
@@ -78,7 +453,7 @@ public class ProductService {
             throw new RuntimeException("У вас нет прав для обновления этого товара.");
         }
 
-        // Сохраняем старый URL изображения для возможного удаления
+        // Сохраняем старый URL изображения: ссылка на него снимается, если изображение заменено
         String oldImageUrl = product.getImageUrl();
 
         Optional.ofNullable(request.getName()).ifPresent(product::setName);
@@ -87,14 +462,21 @@ public class ProductService {
         Optional.ofNullable(request.getCatalog()).ifPresent(product::setCatalog);
         Optional.ofNullable(request.getSubcategory()).ifPresent(product::setSubcategory);
         
-        // Обновляем URL изображения (может быть null для удаления)
+        // Обновляем URL изображения: null — без изменений, пустая строка — удалить изображение
         if (request.getImageUrl() != null) {
-            product.setImageUrl(request.getImageUrl());
+            String newImageUrl = request.getImageUrl().isEmpty() ? null : request.getImageUrl();
+            if (!Objects.equals(oldImageUrl, newImageUrl)) {
+                product.setImageUrl(newImageUrl);
+                psObjectStorageService.retainImages(Collections.singletonList(newImageUrl));
+                imageDeletionOutbox.enqueue(Collections.singletonList(oldImageUrl));
+            }
         }
         
         product.setInStock(request.isInStock());
 
         Product updatedProduct = productRepository.save(product);
+        catalogSnapshotCache.invalidate(product.getBot().getId());
+        productSearchService.onProductSaved(updatedProduct);
         log.info("Товар обновлен: {} для бота {}", updatedProduct.getName(), product.getBot().getBotIdentifier());
         
         return convertToResponse(updatedProduct);
@@ -115,21 +497,30 @@ public class ProductService {
             throw new RuntimeException("У вас нет прав для удаления этого товара.");
         }
 
-        // Удаляем изображение из PS.kz Object Storage, если оно есть
-        String imageUrl = product.getImageUrl();
-        if (imageUrl != null && !imageUrl.isEmpty()) {
-            boolean deleted = psObjectStorageService.deleteImage(imageUrl); // Изменено: используем PsObjectStorageService
-            if (deleted) {
-                log.info("Изображение товара удалено из PS.kz Object Storage: {}", imageUrl);
-            } else {
-                log.warn("Не удалось удалить изображение товара из PS.kz Object Storage: {}", imageUrl);
-            }
-        }
-
         productRepository.delete(product);
+        // Изображение удаляется из PS.kz Object Storage после коммита
+        imageDeletionOutbox.enqueue(Collections.singletonList(product.getImageUrl()));
+        catalogSnapshotCache.invalidate(product.getBot().getId());
+        productSearchService.onProductDeleted(product.getBot().getId(), productId);
         log.info("Товар удален: {} (ID: {})", product.getName(), productId);
     }
 
+    /**
+     * Ставит на удаление загруженное изображение, которое не привязано ни к одному товару.
+     * Ссылки товаров не снимаются: изображение товара удаляется только вместе с товаром или при замене,
+     * а общий объект удаляется, лишь когда на него нет ссылок и истек срок ожидания после загрузки.
+     * @param imageUrl URL изображения.
+     * @return false, если изображение используется товаром.
+     */
+    @Transactional
+    public boolean deleteUnusedImage(String imageUrl) {
+        if (productRepository.existsByImageUrl(imageUrl)) {
+            return false;
+        }
+        imageDeletionOutbox.scheduleDeletion(Collections.singletonList(imageUrl));
+        return true;
+    }
+
     // ========================================================================
     // НОВЫЕ МЕТОДЫ ДЛЯ УДАЛЕНИЯ КАТАЛОГОВ И ПОДКАТЕГОРИЙ
     // ========================================================================
@@ -150,22 +541,12 @@ public class ProductService {
             throw new RuntimeException("У вас нет прав для удаления товаров этого бота.");
         }
 
-        List<Product> productsToDelete = productRepository.findByBotAndCatalog(bot, catalog);
-
-        // Сначала удаляем изображения
-        productsToDelete.forEach(product -> {
-            String imageUrl = product.getImageUrl();
-            if (imageUrl != null && !imageUrl.isEmpty()) {
-                psObjectStorageService.deleteImage(imageUrl);
-                log.info("Изображение товара удалено из хранилища: {}", imageUrl);
-            }
-        });
-
-        // Затем удаляем сами товары
-        productRepository.deleteAll(productsToDelete);
-        log.info("Удалено {} товаров из каталога '{}' для бота ID {}", productsToDelete.size(), catalog, botId);
+        int deleted = deleteReturningImages(DELETE_CATALOG_PRODUCTS_SQL, botId, catalog);
+        catalogSnapshotCache.invalidate(botId);
+        productSearchService.invalidate(botId);
+        log.info("Удалено {} товаров из каталога '{}' для бота ID {}", deleted, catalog, botId);
 
-        return productsToDelete.size();
+        return deleted;
     }
 
     /**
@@ -185,23 +566,39 @@ public class ProductService {
             throw new RuntimeException("У вас нет прав для удаления товаров этого бота.");
         }
 
-        List<Product> productsToDelete = productRepository.findByBotAndCatalogAndSubcategory(bot, catalog, subcategory);
-        
-        // Сначала удаляем изображения
-        productsToDelete.forEach(product -> {
-            String imageUrl = product.getImageUrl();
-            if (imageUrl != null && !imageUrl.isEmpty()) {
-                psObjectStorageService.deleteImage(imageUrl);
-                log.info("Изображение товара удалено из хранилища: {}", imageUrl);
-            }
-        });
-        
-        // Затем удаляем сами товары
-        productRepository.deleteAll(productsToDelete);
+        int deleted = deleteReturningImages(DELETE_SUBCATEGORY_PRODUCTS_SQL, botId, catalog, subcategory);
+        catalogSnapshotCache.invalidate(botId);
+        productSearchService.invalidate(botId);
         log.info("Удалено {} товаров из подкатегории '{}' в каталоге '{}' для бота ID {}", 
-                productsToDelete.size(), subcategory, catalog, botId);
+                deleted, subcategory, catalog, botId);
+
+        return deleted;
+    }
 
-        return productsToDelete.size();
+    /**
+     * Удаляет все товары бота одним запросом (при удалении бота). Права проверяет вызывающий код.
+     * Изображения ставятся в outbox и удаляются из хранилища пачками после коммита.
+     * @param botId ID бота.
+     * @return Количество удаленных товаров.
+     */
+    @Transactional
+    public int deleteAllProductsOfBot(Long botId) {
+        int deleted = deleteReturningImages(DELETE_BOT_PRODUCTS_SQL, botId);
+        catalogSnapshotCache.invalidate(botId);
+        productSearchService.invalidate(botId);
+        log.info("Удалено {} товаров бота ID {}", deleted, botId);
+        return deleted;
+    }
+
+    /**
+     * Выполняет DELETE ... RETURNING image_url и ставит возвращенные изображения в outbox удаления
+     * в текущей транзакции.
+     * @return Количество удаленных товаров.
+     */
+    private int deleteReturningImages(String sql, Object... args) {
+        List<String> imageUrls = jdbcTemplate.query(sql, (rs, rowNum) -> rs.getString(1), args);
+        imageDeletionOutbox.enqueue(imageUrls);
+        return imageUrls.size();
     }
 
 
@@ -238,6 +635,34 @@ public class ProductService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Полнотекстовый поиск товаров бота по названию, описанию, каталогу и подкаталогу
+     * с учетом опечаток и фильтром по цене. Выполняется по индексу в памяти, без запросов к БД.
+     * @param botId ID бота.
+     * @param query Текст запроса.
+     * @param minPrice Минимальная цена (включительно) или null.
+     * @param maxPrice Максимальная цена (включительно) или null.
+     * @param inStockOnly Только товары в наличии.
+     * @param limit Максимальное количество результатов.
+     * @param userId ID пользователя (для проверки прав).
+     * @return Товары по убыванию релевантности.
+     * @throws RuntimeException если бот не найден или пользователь не является владельцем бота.
+     */
+    public List<ProductResponse> searchProducts(Long botId, String query, BigDecimal minPrice, BigDecimal maxPrice,
+                                                boolean inStockOnly, int limit, Long userId) {
+        Bot bot = botRepository.findById(botId)
+                .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + botId));
+
+        if (!bot.getOwner().getId().equals(userId)) {
+            throw new RuntimeException("У вас нет прав для просмотра товаров этого бота.");
+        }
+
+        ProductSearchIndex.Filter filter = new ProductSearchIndex.Filter(minPrice, maxPrice, inStockOnly);
+        return productSearchService.search(botId, query, filter, limit).stream()
+                .map(hit -> convertToResponse(hit.item(), botId))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Получает список уникальных каталогов для бота.
      * @param botId ID бота.
@@ -308,8 +733,14 @@ public class ProductService {
         response.setCatalog(product.getCatalog());
         response.setSubcategory(product.getSubcategory());
         response.setImageUrl(product.getImageUrl());
+        response.setThumbnailUrl(psObjectStorageService.thumbnailUrl(product.getImageUrl()));
         response.setInStock(product.isInStock());
         response.setBotId(product.getBot().getId());
         return response;
     }
+
+    private ProductResponse convertToResponse(CatalogSnapshot.Item item, Long botId) {
+        return new ProductResponse(item.id(), item.name(), item.price(), item.description(), item.catalog(),
+                item.subcategory(), item.imageUrl(), psObjectStorageService.thumbnailUrl(item.imageUrl()), item.inStock(), botId);
+    }
 }
@@ -1,38 +1,140 @@
 package com.chatalyst.backend.security.services;
 
+import com.chatalyst.backend.Repository.ImageDeletionTaskRepository;
+import com.chatalyst.backend.Repository.ImageObjectRepository;
+import com.chatalyst.backend.model.ImageDeletionTask;
+import com.chatalyst.backend.model.ImageObject;
+import com.chatalyst.backend.service.ImageProcessingService;
+import com.chatalyst.backend.util.LatencyRecorder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.BlockingInputStreamAsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 @Service
 @Slf4j
 public class PsObjectStorageService {
 
+    // Ограничение S3 DeleteObjects на число ключей в одном запросе
+    public static final int MAX_KEYS_PER_DELETE = 1000;
+
+    // Ключ по содержимому: SHA-256 нормализованного изображения и расширение
+    private static final Pattern CONTENT_KEY = Pattern.compile("[0-9a-f]{64}(_norm)?\\.[a-z0-9]+");
+    // Метка в ключе изображений, прошедших нормализацию: только у них есть миниатюра
+    private static final String NORMALIZED_SUFFIX = "_norm";
+
     @Value("${ps.bucket-name}")
     private String bucketName;
 
     @Value("${ps.endpoint-url}")
     private String endpointUrl;
 
+    // Выше этого размера изображение загружается по частям (multipart upload)
+    @Value("${ps.upload.multipart-threshold-bytes:16777216}")
+    private long multipartThresholdBytes;
+
+    // Размер части multipart upload; S3 требует не меньше 5 МБ для всех частей, кроме последней
+    @Value("${ps.upload.part-size-bytes:8388608}")
+    private int partSizeBytes;
+
+    // Сколько частей одной загрузки передается одновременно
+    @Value("${ps.upload.parts-in-flight:2}")
+    private int partsInFlight;
+
+    @Value("${ps.upload.acquire-timeout-ms:30000}")
+    private long acquireTimeoutMs;
+
+    // Сколько объект без ссылок хранится после загрузки, пока загрузивший сохраняет товар
+    @Value("${ps.images.unreferenced-grace-ms:3600000}")
+    private long unreferencedGraceMs;
+
     private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
+    private final ImageProcessingService imageProcessingService;
+    private final ImageObjectRepository imageObjectRepository;
+    // Напрямую, а не через ImageDeletionOutbox: outbox сам зависит от этого сервиса
+    private final ImageDeletionTaskRepository imageDeletionTaskRepository;
+    private final TransactionTemplate transactionTemplate;
+    // Ограничивает число одновременных загрузок со всех потоков
+    private final Semaphore uploadPermits;
+    private final int maxConcurrentUploads;
+
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong multipartUploads = new AtomicLong();
+    private final AtomicLong uploadFailures = new AtomicLong();
+    private final AtomicLong rejectedUploads = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong uploadNanos = new AtomicLong();
+    private final AtomicInteger uploadsInFlight = new AtomicInteger();
+    private final AtomicLong deduplicatedUploads = new AtomicLong();
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+    private final LatencyRecorder uploadTime = new LatencyRecorder();
 
-    // Внедряем только S3Client через конструктор (без S3Presigner)
-    public PsObjectStorageService(S3Client s3Client) {
+    // S3Client для удаления, S3AsyncClient для потоковой загрузки (без S3Presigner)
+    public PsObjectStorageService(S3Client s3Client, S3AsyncClient s3AsyncClient,
+                                  ImageProcessingService imageProcessingService,
+                                  ImageObjectRepository imageObjectRepository,
+                                  ImageDeletionTaskRepository imageDeletionTaskRepository,
+                                  TransactionTemplate transactionTemplate,
+                                  @Value("${ps.upload.max-concurrent:32}") int maxConcurrentUploads) {
         this.s3Client = s3Client;
-        log.info("PsObjectStorageService инициализирован с S3Client.");
+        this.s3AsyncClient = s3AsyncClient;
+        this.imageProcessingService = imageProcessingService;
+        this.imageObjectRepository = imageObjectRepository;
+        this.imageDeletionTaskRepository = imageDeletionTaskRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.uploadPermits = new Semaphore(maxConcurrentUploads);
+        log.info("PsObjectStorageService инициализирован с S3Client и S3AsyncClient.");
     }
 
     /**
-     * Загружает изображение в PS.kz Object Storage.
+     * Загружает изображение в PS.kz Object Storage. Изображение нормализуется (поворот, уменьшение,
+     * JPEG без метаданных), рядом сохраняется миниатюра — см. {@link #thumbnailUrl(String)}.
      * @param file Файл изображения для загрузки.
      * @param productName Название товара (используется для генерации имени файла).
      * @return URL загруженного изображения.
@@ -54,20 +156,9 @@ public class PsObjectStorageService {
                 ? originalFilename.substring(originalFilename.lastIndexOf("."))
                 : ".jpg";
             
-            String key = generateFileName(productName, fileExtension);
-
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(key)
-                    .contentType(contentType)
-                    .build();
-
-            s3Client.putObject(putObjectRequest, RequestBody.fromBytes(file.getBytes()));
-
-            log.info("Изображение успешно загружено в S3: {}", key);
-            
-            // Генерируем публичный URL для доступа к объекту
-            return String.format("%s/%s/%s", endpointUrl, bucketName, key);
+            try (InputStream content = file.getInputStream()) {
+                return storeImage(content, file.getSize(), contentType, fileExtension, productName);
+            }
 
         } catch (S3Exception e) {
             log.error("Ошибка S3 при загрузке изображения: {}", e.getMessage());
@@ -75,6 +166,8 @@ public class PsObjectStorageService {
         } catch (IOException e) {
             log.error("Ошибка при чтении файла изображения: {}", e.getMessage());
             throw new RuntimeException("Ошибка при обработке файла изображения: " + e.getMessage());
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Неожиданная ошибка при загрузке изображения: {}", e.getMessage());
             throw new RuntimeException("Неожиданная ошибка при загрузке изображения: " + e.getMessage());
@@ -82,36 +175,428 @@ public class PsObjectStorageService {
     }
 
     /**
-     * Удаляет изображение из PS.kz Object Storage.
-     * @param imageUrl URL изображения для удаления.
-     * @return true если удаление прошло успешно, false в противном случае.
+     * Загружает изображение из потока. Изображение нормализуется, как в {@link #uploadImage(MultipartFile, String)};
+     * файлы больше лимита обработки передаются в хранилище потоком без изменений.
+     * @param content Поток с содержимым изображения.
+     * @param contentLength Точный размер содержимого в байтах.
+     * @param contentType MIME тип изображения.
+     * @param fileExtension Расширение файла (например, ".png").
+     * @param productName Название товара (используется для генерации имени файла).
+     * @return URL загруженного изображения.
+     * @throws RuntimeException если загрузка не удалась.
+     */
+    public String uploadImage(InputStream content, long contentLength, String contentType,
+                              String fileExtension, String productName) {
+        if (contentLength <= 0) {
+            throw new RuntimeException("Файл изображения пуст");
+        }
+        if (contentType == null || !contentType.startsWith("image/")) {
+            throw new RuntimeException("Файл должен быть изображением");
+        }
+
+        try {
+            return storeImage(content, contentLength, contentType, fileExtension, productName);
+        } catch (S3Exception e) {
+            log.error("Ошибка S3 при загрузке изображения: {}", e.getMessage());
+            throw new RuntimeException("Ошибка S3 при загрузке изображения: " + e.getMessage());
+        } catch (IOException e) {
+            log.error("Ошибка при чтении изображения: {}", e.getMessage());
+            throw new RuntimeException("Ошибка при обработке файла изображения: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Нормализует изображение и сохраняет его вместе с миниатюрой под ключом SHA-256 содержимого.
+     * Если такое изображение уже полностью записано в хранилище, загрузка пропускается.
+     * Загрузка ссылку не берет: ее берет товар, когда сохраняет URL. Объект без ссылок живет
+     * не меньше ps.images.unreferenced-grace-ms после загрузки, затем его удаляет {@link #findOrphanUrls(int)}.
+     * Файлы, к которым обработка не применяется, передаются в хранилище потоком как есть, под случайным ключом.
+     * @return Публичный URL изображения.
      */
-    public boolean deleteImage(String imageUrl) {
-        if (imageUrl == null || imageUrl.isEmpty()) {
-            log.warn("Попытка удалить изображение с пустым URL");
-            return false;
+    private String storeImage(InputStream content, long contentLength, String contentType,
+                              String fileExtension, String productName) throws IOException {
+        if (!imageProcessingService.accepts(contentLength)) {
+            return streamObject(generateFileName(productName, fileExtension), contentType, content, contentLength);
+        }
+        ImageProcessingService.ProcessedImage processed = imageProcessingService.process(content, contentType, fileExtension);
+        byte[] image = processed.image();
+        String key = HexFormat.of().formatHex(sha256().digest(image))
+                + (processed.normalized() ? NORMALIZED_SUFFIX : "") + processed.extension().toLowerCase();
+
+        // Отметка продлевает срок ожидания; пока удаление держит строку, отметка ждет его коммита
+        // и затем создает запись заново, поэтому stored=true означает, что объект есть в хранилище
+        boolean stored = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            imageObjectRepository.touch(key, image.length);
+            return imageObjectRepository.findById(key).map(ImageObject::getStored).orElse(false);
+        }));
+        if (stored) {
+            deduplicatedUploads.incrementAndGet();
+            deduplicatedBytes.addAndGet(image.length);
+            log.info("Изображение уже есть в S3, загрузка пропущена: {}", key);
+            return objectUrl(key);
         }
 
+        // Параллельная загрузка того же содержимого запишет те же байты под тем же ключом
+        String url = streamObject(key, processed.contentType(), new ByteArrayInputStream(image), image.length);
+        if (processed.normalized()) {
+            try {
+                streamObject(thumbnailKey(key), ImageProcessingService.OUTPUT_CONTENT_TYPE,
+                        new ByteArrayInputStream(processed.thumbnail()), processed.thumbnail().length);
+            } catch (IOException | RuntimeException e) {
+                scheduleAbandonedDeletion(url);
+                throw e;
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> imageObjectRepository.markStored(key));
+        return url;
+    }
+
+    /**
+     * Ставит в outbox удаление основного объекта, миниатюру которого записать не удалось.
+     * Задача выполняется после срока ожидания: раньше удаление такой объект все равно пропустит,
+     * а если за это время товар сохранит тот же URL, объект останется.
+     */
+    private void scheduleAbandonedDeletion(String url) {
         try {
-            // Извлекаем ключ объекта из URL
-            String key = imageUrl.substring(imageUrl.lastIndexOf("/") + 1);
+            LocalDateTime now = LocalDateTime.now();
+            imageDeletionTaskRepository.save(ImageDeletionTask.builder()
+                    .imageUrl(url)
+                    .attempts(0)
+                    .nextAttemptAt(now.plusNanos(TimeUnit.MILLISECONDS.toNanos(unreferencedGraceMs)))
+                    .createdAt(now)
+                    .build());
+            log.warn("Миниатюра не загружена, изображение поставлено в очередь на удаление: {}", url);
+        } catch (RuntimeException e) {
+            // Объект без ссылок все равно найдет поиск сирот после срока ожидания
+            log.error("Не удалось поставить в очередь на удаление изображение {}: {}", url, e.getMessage());
+        }
+    }
 
-            DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder()
+    /**
+     * Добавляет ссылки товаров на изображения в текущей транзакции. Вызывается там же,
+     * где записывается products.image_url.
+     * @param imageUrls URL изображений по одному на товар; повторяющиеся URL добавляют несколько ссылок.
+     */
+    public void retainImages(Collection<String> imageUrls) {
+        Map<String, Integer> counts = countContentKeys(imageUrls);
+        if (!counts.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> counts.forEach(imageObjectRepository::acquire));
+        }
+    }
+
+    /**
+     * Снимает ссылки товаров на изображения в текущей транзакции. Объекты удаляются позже,
+     * через {@link #deleteImages(Collection)}, только если на них не осталось ссылок.
+     * @param imageUrls URL изображений; повторяющиеся URL снимают несколько ссылок.
+     */
+    public void releaseImages(Collection<String> imageUrls) {
+        Map<String, Integer> counts = countContentKeys(imageUrls);
+        if (!counts.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> counts.forEach(imageObjectRepository::release));
+        }
+    }
+
+    // Ключи сортируются, чтобы параллельные транзакции блокировали строки счетчиков в одном порядке
+    private Map<String, Integer> countContentKeys(Collection<String> imageUrls) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String imageUrl : imageUrls) {
+            if (imageUrl != null && !imageUrl.isEmpty()) {
+                String key = extractKey(imageUrl);
+                if (isContentAddressed(key)) {
+                    counts.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Возвращает URL объектов, на которые нет ссылок дольше срока ожидания: загрузки, после которых
+     * товар так и не был сохранен (ошибка записи, отмена импорта), и объекты, удаление которых было отложено.
+     * @param limit Максимальное количество URL.
+     */
+    public List<String> findOrphanUrls(int limit) {
+        LocalDateTime before = LocalDateTime.now().minusNanos(TimeUnit.MILLISECONDS.toNanos(unreferencedGraceMs));
+        return imageObjectRepository.findOrphans(before, objectUrl(""), limit).stream()
+                .map(this::objectUrl)
+                .toList();
+    }
+
+    private static boolean isContentAddressed(String key) {
+        return CONTENT_KEY.matcher(key).matches();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private String objectUrl(String key) {
+        // Генерируем публичный URL для доступа к объекту
+        return String.format("%s/%s/%s", endpointUrl, bucketName, key);
+    }
+
+    /**
+     * Возвращает URL миниатюры для URL изображения. Миниатюры есть только у изображений,
+     * прошедших нормализацию при загрузке: их ключ по содержимому помечен суффиксом _norm.
+     * Файлы, которые не удалось декодировать, загружаются как есть без метки, даже если это JPEG.
+     * @param imageUrl URL изображения.
+     * @return URL миниатюры или null, если у изображения миниатюры нет (внешний URL, файл без обработки).
+     */
+    public String thumbnailUrl(String imageUrl) {
+        if (imageUrl == null || !imageUrl.startsWith(objectUrl(""))) {
+            return null;
+        }
+        String key = extractKey(imageUrl);
+        if (!isContentAddressed(key) || !key.endsWith(NORMALIZED_SUFFIX + ImageProcessingService.OUTPUT_EXTENSION)) {
+            return null;
+        }
+        return objectUrl(thumbnailKey(key));
+    }
+
+    private static String thumbnailKey(String key) {
+        int dot = key.lastIndexOf(".");
+        String base = dot > 0 ? key.substring(0, dot) : key;
+        return base + "_thumb" + ImageProcessingService.OUTPUT_EXTENSION;
+    }
+
+    /**
+     * Передает содержимое в хранилище потоком через S3AsyncClient: поток читается в вызывающем потоке
+     * и сразу уходит в HTTP-запрос, файл целиком в память не загружается. Крупные файлы
+     * загружаются по частям. Число одновременных загрузок ограничено ps.upload.max-concurrent.
+     * @return Публичный URL объекта.
+     */
+    private String streamObject(String key, String contentType, InputStream content, long contentLength) throws IOException {
+        try {
+            if (!uploadPermits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejectedUploads.incrementAndGet();
+                throw new RuntimeException("Слишком много одновременных загрузок изображений, попробуйте позже");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Загрузка изображения прервана");
+        }
+
+        uploadsInFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            if (contentLength > multipartThresholdBytes) {
+                multipartUpload(key, contentType, content, contentLength);
+                multipartUploads.incrementAndGet();
+            } else {
+                singleUpload(key, contentType, content, contentLength);
+            }
+            long elapsed = System.nanoTime() - start;
+            uploadTime.record(elapsed);
+            uploadNanos.addAndGet(elapsed);
+            uploadedBytes.addAndGet(contentLength);
+            uploads.incrementAndGet();
+        } catch (CompletionException e) {
+            uploadFailures.incrementAndGet();
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        } catch (IOException | RuntimeException e) {
+            uploadFailures.incrementAndGet();
+            throw e;
+        } finally {
+            uploadsInFlight.decrementAndGet();
+            uploadPermits.release();
+        }
+
+        log.info("Изображение успешно загружено в S3: {}", key);
+        return objectUrl(key);
+    }
+
+    private void singleUpload(String key, String contentType, InputStream content, long contentLength) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .contentLength(contentLength)
+                .build();
+
+        BlockingInputStreamAsyncRequestBody body = AsyncRequestBody.forBlockingInputStream(contentLength);
+        CompletableFuture<?> response = s3AsyncClient.putObject(putObjectRequest, body);
+        // Блокирует до тех пор, пока HTTP-клиент не заберет все байты потока
+        body.writeInputStream(content);
+        response.join();
+    }
+
+    /**
+     * Загружает объект частями по partSizeBytes. В памяти одновременно не больше
+     * partsInFlight + 1 частей; при ошибке загрузка отменяется, чтобы не оставлять неполные части.
+     */
+    private void multipartUpload(String key, String contentType, InputStream content, long contentLength) throws IOException {
+        String uploadId = s3AsyncClient.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build()).join().uploadId();
+
+        try {
+            List<CompletedPart> completed = new ArrayList<>();
+            Deque<CompletableFuture<CompletedPart>> pending = new ArrayDeque<>();
+            long remaining = contentLength;
+            int partNumber = 1;
+            while (remaining > 0) {
+                int size = (int) Math.min(partSizeBytes, remaining);
+                byte[] part = content.readNBytes(size);
+                if (part.length != size) {
+                    throw new IOException("Поток изображения короче заявленного размера");
+                }
+                int number = partNumber++;
+                pending.add(s3AsyncClient.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucketName)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(number)
+                                .contentLength((long) size)
+                                .build(), AsyncRequestBody.fromBytes(part))
+                        .thenApply(response -> CompletedPart.builder().partNumber(number).eTag(response.eTag()).build()));
+                remaining -= size;
+                if (pending.size() >= partsInFlight) {
+                    completed.add(pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                completed.add(pending.poll().join());
+            }
+
+            s3AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
                     .bucket(bucketName)
                     .key(key)
-                    .build();
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build()).join();
+        } catch (IOException | RuntimeException e) {
+            s3AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                            .bucket(bucketName)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .build())
+                    .exceptionally(abortError -> {
+                        log.warn("Не удалось отменить multipart upload {}: {}", key, abortError.getMessage());
+                        return null;
+                    });
+            throw e;
+        }
+    }
 
-            s3Client.deleteObject(deleteObjectRequest);
-            log.info("Изображение успешно удалено из S3: {}", key);
-            return true;
+    /**
+     * Возвращает метрики загрузки: количество, объем, пропускная способность, длительность,
+     * multipart-загрузки, ошибки, отказы из-за лимита и текущее число загрузок.
+     */
+    public Map<String, Object> getUploadStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long bytes = uploadedBytes.get();
+        long nanos = uploadNanos.get();
+        stats.put("maxConcurrent", maxConcurrentUploads);
+        stats.put("inFlight", uploadsInFlight.get());
+        stats.put("uploads", uploads.get());
+        stats.put("multipartUploads", multipartUploads.get());
+        stats.put("failures", uploadFailures.get());
+        stats.put("rejected", rejectedUploads.get());
+        stats.put("uploadedBytes", bytes);
+        // Средняя скорость одной загрузки, МБ/с
+        stats.put("throughputMbPerSec", nanos == 0 ? 0.0 : bytes / 1_048_576.0 / (nanos / 1_000_000_000.0));
+        stats.put("uploadTime", uploadTime.snapshot());
+        stats.put("deduplicatedUploads", deduplicatedUploads.get());
+        stats.put("deduplicatedUploadBytes", deduplicatedBytes.get());
+        stats.put("storedObjects", imageObjectRepository.count());
+        stats.put("storedBytes", imageObjectRepository.sumStoredBytes());
+        // Сколько байт заняли бы копии одинаковых изображений без дедупликации
+        stats.put("savedBytes", imageObjectRepository.sumDeduplicatedBytes());
+        return stats;
+    }
 
-        } catch (S3Exception e) {
-            log.error("Ошибка S3 при удалении изображения: {}", e.getMessage());
-            return false;
-        } catch (Exception e) {
-            log.error("Неожиданная ошибка при удалении изображения: {}", e.getMessage());
-            return false;
+    /**
+     * Удаляет изображения вместе с миниатюрами пачками через DeleteObjects (до 1000 ключей за запрос).
+     * Изображения с ключом по содержимому, на которые еще есть ссылки или которые загружены позже срока ожидания,
+     * не удаляются и ошибкой не считаются; вторые удалит следующий проход {@link #findOrphanUrls(int)}.
+     * Ссылки перед этим снимаются через {@link #releaseImages(Collection)}.
+     * Отметка stored снимается отдельной транзакцией до обращения к хранилищу: если удаление из хранилища
+     * прошло, а транзакция удаления записей откатилась, запись не обещает объект, которого уже нет.
+     * @param imageUrls URL изображений для удаления.
+     * @return URL, которые удалить не удалось, с текстом ошибки. Пустая карта — все удалено.
+     */
+    public Map<String, String> deleteImages(Collection<String> imageUrls) {
+        Set<String> contentKeys = new TreeSet<>();
+        for (String imageUrl : imageUrls) {
+            if (imageUrl != null && !imageUrl.isEmpty() && isContentAddressed(extractKey(imageUrl))) {
+                contentKeys.add(extractKey(imageUrl));
+            }
+        }
+        LocalDateTime graceStart = LocalDateTime.now().minusNanos(TimeUnit.MILLISECONDS.toNanos(unreferencedGraceMs));
+        if (!contentKeys.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> imageObjectRepository.markUnstored(contentKeys, graceStart));
+        }
+        return transactionTemplate.execute(status -> deleteUnreferencedImages(imageUrls, contentKeys, graceStart));
+    }
+
+    private Map<String, String> deleteUnreferencedImages(Collection<String> imageUrls, Set<String> contentKeys,
+                                                         LocalDateTime graceStart) {
+        // Строки блокируются до конца транзакции независимо от счетчика: новая ссылка или загрузка
+        // того же содержимого дождется коммита, а решение принимается по заблокированным значениям.
+        // Загрузка между двумя транзакциями обновила updated_at, поэтому ее объект здесь не удаляется
+        Set<String> referenced = new HashSet<>();
+        if (!contentKeys.isEmpty()) {
+            for (ImageObject object : imageObjectRepository.lockAll(contentKeys)) {
+                if (object.getRefCount() > 0 || object.getUpdatedAt().isAfter(graceStart)) {
+                    referenced.add(object.getObjectKey());
+                }
+            }
+        }
+
+        Map<String, String> keyToUrl = new LinkedHashMap<>();
+        for (String imageUrl : imageUrls) {
+            if (imageUrl != null && !imageUrl.isEmpty()) {
+                String key = extractKey(imageUrl);
+                if (referenced.contains(key)) {
+                    continue;
+                }
+                keyToUrl.putIfAbsent(key, imageUrl);
+                keyToUrl.putIfAbsent(thumbnailKey(key), imageUrl);
+            }
+        }
+
+        Map<String, String> failed = new LinkedHashMap<>();
+        List<String> keys = new ArrayList<>(keyToUrl.keySet());
+        for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_DELETE) {
+            List<String> chunk = keys.subList(from, Math.min(from + MAX_KEYS_PER_DELETE, keys.size()));
+            List<ObjectIdentifier> objects = new ArrayList<>(chunk.size());
+            for (String key : chunk) {
+                objects.add(ObjectIdentifier.builder().key(key).build());
+            }
+            try {
+                // quiet: в ответе только ошибки, не список всех удаленных ключей
+                DeleteObjectsResponse response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                        .bucket(bucketName)
+                        .delete(Delete.builder().objects(objects).quiet(true).build())
+                        .build());
+                response.errors().forEach(error -> failed.put(
+                        keyToUrl.getOrDefault(error.key(), error.key()), error.code() + ": " + error.message()));
+                log.info("Пакетное удаление из S3: {} ключей, ошибок {}", chunk.size(), response.errors().size());
+            } catch (Exception e) {
+                log.error("Ошибка S3 при пакетном удалении {} изображений: {}", chunk.size(), e.getMessage());
+                for (String key : chunk) {
+                    failed.put(keyToUrl.get(key), e.getMessage());
+                }
+            }
         }
+
+        List<String> deletedKeys = contentKeys.stream()
+                .filter(key -> !referenced.contains(key) && !failed.containsKey(keyToUrl.get(key)))
+                .toList();
+        if (!deletedKeys.isEmpty()) {
+            imageObjectRepository.deleteByKeys(deletedKeys);
+        }
+        return failed;
+    }
+
+    private String extractKey(String imageUrl) {
+        return imageUrl.substring(imageUrl.lastIndexOf("/") + 1);
     }
 
     /**
@@ -2,25 +2,41 @@
 package com.chatalyst.backend.security.services;
 
 import com.chatalyst.backend.Repository.*;
+import com.chatalyst.backend.exception.TelegramApiException;
 import com.chatalyst.backend.model.Bot;
-import com.chatalyst.backend.model.Product;
 import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.service.CatalogSnapshot;
+import com.chatalyst.backend.service.CatalogSnapshotCache;
 import com.chatalyst.backend.service.ChatGateway;
+import com.chatalyst.backend.service.ChatHistoryCache;
+import com.chatalyst.backend.service.ChatPrompt;
+import com.chatalyst.backend.service.ProductSearchIndex;
+import com.chatalyst.backend.service.ProductSearchService;
+import com.chatalyst.backend.service.PromptBuilder;
+import com.chatalyst.backend.service.ResponseCache;
+import com.chatalyst.backend.service.TelegramFileIdCache;
+import com.chatalyst.backend.service.TelegramOutboundClient;
+import com.chatalyst.backend.util.TokenEstimator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.function.client.WebClientResponseException;
-
-import reactor.core.publisher.Mono;
+import reactor.core.publisher.Flux;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Сервис для взаимодействия с Telegram Bot API.
@@ -32,28 +48,58 @@ public class TelegramService {
     @Value("${telegram.bot.token}")
     private String defaultBotToken;
 
+    // Лимит sendMediaGroup и длины подписи к фото в Telegram
+    private static final int MEDIA_GROUP_LIMIT = 10;
+    private static final int CAPTION_LIMIT = 1024;
+    private static final String SUBCATEGORY_PAGE_CALLBACK = "sub";
+    // Максимальная длина текстового сообщения Telegram
+    private static final int MESSAGE_LIMIT = 4096;
+    // Сколько символов накопить перед отправкой первого фрагмента потокового ответа
+    private static final int STREAMING_FIRST_CHUNK_CHARS = 20;
+
+    @Value("${telegram.catalog.page-size:10}")
+    private int productPageSize;
+
+    @Value("${openai.streaming.enabled:true}")
+    private boolean streamingEnabled;
+
+    @Value("${telegram.streaming.edit-interval-ms:1000}")
+    private long streamingEditIntervalMs;
+
+    @Value("${openai.streaming.timeout-seconds:120}")
+    private long streamingTimeoutSeconds;
+
     private final ObjectMapper objectMapper;
     private final ChatGateway chatGateway;
+    private final PromptBuilder promptBuilder;
+    private final ProductSearchService productSearchService;
+    private final ResponseCache responseCache;
     private final BotRepository botRepository;
-    private final ProductRepository productRepository;
-    private final ChatMessageRepository chatMessageRepository;
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final ChatHistoryCache chatHistoryCache;
     private final PsObjectStorageService psObjectStorageService;
 
-    @Qualifier("telegramWebClient")
-    private final WebClient telegramWebClient;
+    private final TelegramOutboundClient telegramOutboundClient;
+    private final TelegramFileIdCache telegramFileIdCache;
 
-    public TelegramService(ObjectMapper objectMapper, ChatGateway chatGateway,
-                           BotRepository botRepository, ProductRepository productRepository,
-                           ChatMessageRepository chatMessageRepository,
-                           WebClient telegramWebClient,
-                           PsObjectStorageService psObjectStorageService) {
+    public TelegramService(ObjectMapper objectMapper, ChatGateway chatGateway, PromptBuilder promptBuilder,
+                           ProductSearchService productSearchService, ResponseCache responseCache,
+                           BotRepository botRepository, CatalogSnapshotCache catalogSnapshotCache,
+                           ChatHistoryCache chatHistoryCache,
+                           TelegramOutboundClient telegramOutboundClient,
+                           PsObjectStorageService psObjectStorageService,
+                           TelegramFileIdCache telegramFileIdCache) {
         this.objectMapper = objectMapper;
         this.chatGateway = chatGateway;
+        this.promptBuilder = promptBuilder;
+        this.productSearchService = productSearchService;
+        this.responseCache = responseCache;
         this.botRepository = botRepository;
-        this.productRepository = productRepository;
-        this.chatMessageRepository = chatMessageRepository;
-        this.telegramWebClient = telegramWebClient;
+        this.catalogSnapshotCache = catalogSnapshotCache;
+        this.chatHistoryCache = chatHistoryCache;
+        this.telegramOutboundClient = telegramOutboundClient;
         this.psObjectStorageService = psObjectStorageService;
+        this.telegramFileIdCache = telegramFileIdCache;
     }
 
     /**
@@ -75,7 +121,43 @@ public class TelegramService {
                 // Если это не команда, отправляем на обработку в AI
                 sendOpenAIResponse(botIdentifier, chatId, text);
             }
+        } else if (updateJson.has("callback_query")) {
+            handleCallbackQuery(botIdentifier, updateJson.get("callback_query"));
+        }
+    }
+
+    /**
+     * Обрабатывает нажатия на кнопки inline-клавиатуры (пагинация товаров).
+     * @param botIdentifier Идентификатор бота.
+     * @param callbackQuery JSON-объект callback_query.
+     */
+    private void handleCallbackQuery(String botIdentifier, JsonNode callbackQuery) {
+        String callbackId = callbackQuery.path("id").asText();
+        long chatId = callbackQuery.path("message").path("chat").path("id").asLong();
+        String data = callbackQuery.path("data").asText("");
+        log.info("Received callback for bot {} from chat {}: {}", botIdentifier, chatId, data);
+
+        Optional<Bot> botOptional = botRepository.findByBotIdentifier(botIdentifier);
+        if (botOptional.isEmpty()) {
+            return;
+        }
+        Bot bot = botOptional.get();
+
+        // Формат: sub:<ID первого товара подкаталога>:<номер страницы>
+        String[] parts = data.split(":");
+        if (parts.length == 3 && parts[0].equals(SUBCATEGORY_PAGE_CALLBACK)) {
+            try {
+                CatalogSnapshot.Item anchor = catalogSnapshotCache.get(bot.getId()).getItem(Long.parseLong(parts[1]));
+                if (anchor != null) {
+                    answerCallbackQuery(callbackId, null, bot.getAccessToken());
+                    sendSubcategoryPage(chatId, bot, anchor.subcategory(), Integer.parseInt(parts[2]));
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                log.warn("Invalid callback data from chat {}: {}", chatId, data);
+            }
         }
+        answerCallbackQuery(callbackId, "Каталог обновился. Откройте его заново: /catalog", bot.getAccessToken());
     }
 
     /**
@@ -108,8 +190,11 @@ public class TelegramService {
             String subcategory = command.substring("/subcategory_".length());
             sendSubcategoryProducts(chatId, bot, subcategory);
 
+        } else if (command.startsWith("/search")) {
+            sendSearchResults(chatId, bot, command.substring("/search".length()).trim());
+
         } else {
-            sendMessage(chatId, "Неизвестная команда. Пожалуйста, используйте /start или /catalog.", bot.getAccessToken());
+            sendMessage(chatId, "Неизвестная команда. Пожалуйста, используйте /start, /catalog или /search <запрос>.", bot.getAccessToken());
         }
     }
 
@@ -119,12 +204,7 @@ public class TelegramService {
      * @param bot Объект бота.
      */
     private void sendCatalogList(long chatId, Bot bot) {
-        List<String> catalogs = productRepository.findByBot(bot)
-                .stream()
-                .map(Product::getCatalog)
-                .filter(c -> c != null && !c.isBlank())
-                .distinct()
-                .collect(Collectors.toList());
+        List<String> catalogs = catalogSnapshotCache.get(bot.getId()).getCatalogs();
 
         if (catalogs.isEmpty()) {
             sendMessage(chatId, "В магазине нет доступных каталогов.", bot.getAccessToken());
@@ -143,12 +223,7 @@ public class TelegramService {
      * @param catalog Название каталога.
      */
     private void sendSubcategoriesFromCatalog(long chatId, Bot bot, String catalog) {
-        List<String> subcategories = productRepository.findByBotAndCatalog(bot, catalog)
-                .stream()
-                .map(Product::getSubcategory)
-                .filter(s -> s != null && !s.isBlank())
-                .distinct()
-                .collect(Collectors.toList());
+        List<String> subcategories = catalogSnapshotCache.get(bot.getId()).getSubcategories(catalog);
 
         if (subcategories.isEmpty()) {
             sendMessage(chatId, "В каталоге \"" + catalog + "\" нет подкаталогов.", bot.getAccessToken());
@@ -167,27 +242,192 @@ public class TelegramService {
      * @param subcategory Название подкаталога.
      */
     private void sendSubcategoryProducts(long chatId, Bot bot, String subcategory) {
-        List<Product> products = productRepository.findByBotAndSubcategory(bot, subcategory);
+        List<CatalogSnapshot.Item> products = catalogSnapshotCache.get(bot.getId()).getItemsBySubcategory(subcategory);
+        if (products.isEmpty()) {
+            sendMessage(chatId, "В подкаталоге \"" + subcategory + "\" нет товаров.", bot.getAccessToken());
+            return;
+        }
+        sendSubcategoryPage(chatId, bot, subcategory, 0);
+    }
+
+    /**
+     * Ищет товары по локальному индексу, без обращения к AI, и отправляет найденное.
+     * @param chatId ID чата.
+     * @param bot Объект бота.
+     * @param query Текст запроса.
+     */
+    private void sendSearchResults(long chatId, Bot bot, String query) {
+        if (query.isEmpty()) {
+            sendMessage(chatId, "Укажите, что найти, например: /search кроссовки", bot.getAccessToken());
+            return;
+        }
+        List<CatalogSnapshot.Item> found = productSearchService
+                .search(bot.getId(), query, ProductSearchIndex.Filter.NONE, productPageSize)
+                .stream()
+                .map(ProductSearchIndex.Hit::item)
+                .toList();
+        if (found.isEmpty()) {
+            sendMessage(chatId, "По запросу \"" + query + "\" ничего не найдено. Посмотрите каталог: /catalog", bot.getAccessToken());
+            return;
+        }
+
+        sendProductAlbums(chatId, bot, found.stream().filter(CatalogSnapshot.Item::hasImage).toList(),
+                "Описание отсутствует");
+        StringBuilder summary = new StringBuilder("Найдено по запросу \"" + query + "\": " + found.size());
+        found.stream()
+                .filter(product -> !product.hasImage())
+                .forEach(product -> summary.append("\n\n").append(formatProductCaption(product, "Описание отсутствует")));
+        sendMessage(chatId, summary.toString(), bot.getAccessToken());
+    }
+
+    /**
+     * Отправляет одну страницу товаров подкаталога: фото одним альбомом, товары без фото —
+     * текстом (несколько сообщений, если не помещаются в лимит Telegram), и кнопки перехода между страницами.
+     * @param chatId ID чата.
+     * @param bot Объект бота.
+     * @param subcategory Название подкаталога.
+     * @param page Номер страницы (с нуля).
+     */
+    private void sendSubcategoryPage(long chatId, Bot bot, String subcategory, int page) {
+        List<CatalogSnapshot.Item> products = catalogSnapshotCache.get(bot.getId()).getItemsBySubcategory(subcategory);
         if (products.isEmpty()) {
             sendMessage(chatId, "В подкаталоге \"" + subcategory + "\" нет товаров.", bot.getAccessToken());
             return;
         }
 
-        // Отправляем каждый товар отдельным сообщением с изображением (если есть)
-        for (Product product : products) {
-            String productInfo = String.format("📦 %s\n💰 %s тг.\n📝 %s", 
-                    product.getName(), 
-                    product.getPrice(), 
-                    product.getDescription() != null ? product.getDescription() : "Описание отсутствует");
-            
-            if (product.getImageUrl() != null && !product.getImageUrl().isEmpty()) {
-                // Отправляем фото с описанием
-                sendPhoto(chatId, product.getImageUrl(), productInfo, bot.getAccessToken());
+        int pageCount = (products.size() + productPageSize - 1) / productPageSize;
+        int currentPage = Math.max(0, Math.min(page, pageCount - 1));
+        int from = currentPage * productPageSize;
+        int to = Math.min(from + productPageSize, products.size());
+        List<CatalogSnapshot.Item> pageItems = products.subList(from, to);
+
+        List<CatalogSnapshot.Item> withImages = pageItems.stream().filter(CatalogSnapshot.Item::hasImage).toList();
+        sendProductAlbums(chatId, bot, withImages, "Описание отсутствует");
+
+        StringBuilder summary = new StringBuilder();
+        summary.append("Подкаталог \"").append(subcategory).append("\": товары ")
+                .append(from + 1).append("–").append(to).append(" из ").append(products.size());
+        for (CatalogSnapshot.Item product : pageItems) {
+            if (product.hasImage()) {
+                continue;
+            }
+            // Описание товара не длиннее CAPTION_LIMIT, поэтому каждая часть помещается в одно сообщение
+            String caption = formatProductCaption(product, "Описание отсутствует");
+            if (summary.length() + 2 + caption.length() > MESSAGE_LIMIT) {
+                sendMessage(chatId, summary.toString(), bot.getAccessToken());
+                summary.setLength(0);
             } else {
-                // Отправляем только текст, если изображения нет
-                sendMessage(chatId, productInfo, bot.getAccessToken());
+                summary.append("\n\n");
             }
+            summary.append(caption);
         }
+
+        ObjectNode keyboard = pageCount > 1
+                ? buildPaginationKeyboard(products.get(0).id(), currentPage, pageCount)
+                : null;
+        sendMessage(chatId, summary.toString(), bot.getAccessToken(), keyboard);
+    }
+
+    /**
+     * Строит inline-клавиатуру "Назад / Далее". В callback_data передается ID первого товара
+     * подкаталога вместо его названия, чтобы уложиться в лимит Telegram в 64 байта.
+     */
+    private ObjectNode buildPaginationKeyboard(Long anchorProductId, int page, int pageCount) {
+        ObjectNode keyboard = objectMapper.createObjectNode();
+        ArrayNode row = keyboard.putArray("inline_keyboard").addArray();
+        if (page > 0) {
+            row.addObject()
+                    .put("text", "◀ Назад")
+                    .put("callback_data", SUBCATEGORY_PAGE_CALLBACK + ":" + anchorProductId + ":" + (page - 1));
+        }
+        row.addObject()
+                .put("text", (page + 1) + " / " + pageCount)
+                .put("callback_data", SUBCATEGORY_PAGE_CALLBACK + ":" + anchorProductId + ":" + page);
+        if (page < pageCount - 1) {
+            row.addObject()
+                    .put("text", "Далее ▶")
+                    .put("callback_data", SUBCATEGORY_PAGE_CALLBACK + ":" + anchorProductId + ":" + (page + 1));
+        }
+        return keyboard;
+    }
+
+    /**
+     * Отправляет фото товаров альбомами по 10 штук (лимит sendMediaGroup), одиночное фото — через sendPhoto.
+     * Если фото уже отправлялось этим ботом, вместо URL используется сохраненный file_id.
+     */
+    private void sendProductAlbums(long chatId, Bot bot, List<CatalogSnapshot.Item> products, String missingDescription) {
+        for (int from = 0; from < products.size(); from += MEDIA_GROUP_LIMIT) {
+            List<CatalogSnapshot.Item> chunk = products.subList(from, Math.min(from + MEDIA_GROUP_LIMIT, products.size()));
+            List<String> fileIds = chunk.stream()
+                    .map(product -> telegramFileIdCache.get(bot.getId(), product.imageUrl()).orElse(null))
+                    .toList();
+            sendProductPhotos(chatId, bot, chunk, fileIds, missingDescription)
+                    .exceptionallyCompose(error -> {
+                        if (fileIds.stream().allMatch(fileId -> fileId == null) || !isRejectedFileId(error)) {
+                            return CompletableFuture.failedFuture(error);
+                        }
+                        // Telegram не принял сохраненный file_id: забываем его и отправляем по URL
+                        log.warn("Telegram отклонил file_id фото для бота {}, повтор по URL: {}", bot.getId(), error.getMessage());
+                        for (int i = 0; i < chunk.size(); i++) {
+                            if (fileIds.get(i) != null) {
+                                telegramFileIdCache.invalidate(bot.getId(), chunk.get(i).imageUrl(), fileIds.get(i));
+                            }
+                        }
+                        return sendProductPhotos(chatId, bot, chunk, null, missingDescription);
+                    });
+        }
+    }
+
+    /**
+     * Отправляет одно фото или альбом и запоминает file_id из ответа Telegram.
+     * @param fileIds Сохраненные file_id по товарам (null — отправка по URL).
+     */
+    private CompletableFuture<JsonNode> sendProductPhotos(long chatId, Bot bot, List<CatalogSnapshot.Item> products,
+                                                         List<String> fileIds, String missingDescription) {
+        List<String> photos = new ArrayList<>(products.size());
+        for (int i = 0; i < products.size(); i++) {
+            String fileId = fileIds != null ? fileIds.get(i) : null;
+            photos.add(fileId != null ? fileId : products.get(i).imageUrl());
+        }
+        if (products.size() == 1) {
+            CatalogSnapshot.Item product = products.get(0);
+            return sendPhoto(chatId, photos.get(0), formatProductCaption(product, missingDescription), bot.getAccessToken())
+                    .thenApply(message -> {
+                        rememberFileId(bot, product, message);
+                        return message;
+                    });
+        }
+        return sendMediaGroup(chatId, products, photos, missingDescription, bot.getAccessToken())
+                .thenApply(messages -> {
+                    for (int i = 0; i < products.size() && i < messages.size(); i++) {
+                        rememberFileId(bot, products.get(i), messages.get(i));
+                    }
+                    return messages;
+                });
+    }
+
+    private void rememberFileId(Bot bot, CatalogSnapshot.Item product, JsonNode message) {
+        JsonNode sizes = message.path("photo");
+        if (sizes.isArray() && !sizes.isEmpty()) {
+            // Размеры фото идут по возрастанию: берем самый большой
+            telegramFileIdCache.put(bot.getId(), product.imageUrl(), sizes.get(sizes.size() - 1).path("file_id").asText(null));
+        }
+    }
+
+    private static boolean isRejectedFileId(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        // Например: "Bad Request: wrong file identifier/HTTP URL specified"
+        return cause instanceof TelegramApiException telegramError
+                && telegramError.getErrorCode() == 400
+                && String.valueOf(telegramError.getMessage()).toLowerCase().contains("file");
+    }
+
+    private static String formatProductCaption(CatalogSnapshot.Item product, String missingDescription) {
+        String caption = String.format("📦 %s\n💰 %s тг.\n📝 %s",
+                product.name(),
+                product.price(),
+                product.description() != null ? product.description() : missingDescription);
+        return caption.length() > CAPTION_LIMIT ? caption.substring(0, CAPTION_LIMIT - 1) + "…" : caption;
     }
 
     /**
@@ -201,49 +441,43 @@ public class TelegramService {
         }
         Bot bot = botOptional.get();
 
-        // 1. Получаем историю диалога
-        List<ChatMessage> history = chatMessageRepository.findTop30ByChatIdAndBotIdentifierOrderByIdDesc(chatId, botIdentifier);
-
-        // 2. Формируем список истории для AI
-        List<String[]> chatHistory = history.stream()
-                .map(m -> new String[]{m.getRole(), m.getContent()})
-                .collect(Collectors.toList());
-
-        // Добавляем текущее сообщение пользователя в конец истории
-        chatHistory.add(new String[]{"user", userMessage});
-
-        // 3. Формируем информацию о товарах для AI с URL изображений
-        String productCatalogInfo = productRepository.findByBot(bot).stream()
-                .collect(Collectors.groupingBy(Product::getCatalog))
-                .entrySet().stream()
-                .map(entry -> {
-                    String catalog = entry.getKey();
-                    return "Каталог: " + catalog + "\n" +
-                            entry.getValue().stream()
-                                    .collect(Collectors.groupingBy(Product::getSubcategory))
-                                    .entrySet().stream()
-                                    .map(subEntry -> {
-                                        String subcategory = subEntry.getKey();
-                                        String products = subEntry.getValue().stream()
-                                                .map(p -> {
-                                                    String productInfo = "- " + p.getName() + " (" + p.getPrice() + " тг.): " + p.getDescription();
-                                                    if (p.getImageUrl() != null && !p.getImageUrl().isEmpty()) {
-                                                        productInfo += " [ИЗОБРАЖЕНИЕ: " + p.getImageUrl() + "]";
-                                                    }
-                                                    return productInfo;
-                                                })
-                                                .collect(Collectors.joining("\n"));
-                                        return "  Подкаталог: " + subcategory + "\n" + products;
-                                    }).collect(Collectors.joining("\n"));
-                }).collect(Collectors.joining("\n\n"));
-
-        // 4. Получаем ответ от AI с инструкциями о том, какие товары показать
-        // Формируем промпт для AI
-        String prompt = String.format("История чата: %s\n\nКаталог товаров: %s\n\nНазвание магазина: %s\n\nПользователь спрашивает: %s", 
-            chatHistory, productCatalogInfo, bot.getShopName(), userMessage);
-        
-        // Используем ChatGateway для проверки лимитов и получения ответа
-        String aiResponse = chatGateway.ask(bot.getOwner().getId(), prompt);
+        // 1. Получаем историю диалога (из кольцевого буфера, БД читается только при первом обращении к чату)
+        List<ChatMessage> history = chatHistoryCache.getRecent(botIdentifier, chatId);
+
+        // 2. Информация о товарах для AI берется из снимка каталога (без обращения к таблице products)
+        CatalogSnapshot catalog = catalogSnapshotCache.get(bot.getId());
+
+        // 3. Повторяющиеся вопросы обслуживаются из кэша ответов без обращения к OpenAI и списания квоты.
+        // Только первый вопрос диалога: ответ на продолжение зависит от истории
+        boolean firstTurn = history.isEmpty();
+        Optional<String> cachedResponse = responseCache.lookup(bot.getId(), botIdentifier, catalog.getVersion(), userMessage, firstTurn);
+        String aiResponse;
+        boolean textSent = false;
+        if (cachedResponse.isPresent()) {
+            aiResponse = cachedResponse.get();
+        } else {
+            // 4. Собираем промпт в пределах бюджета токенов: релевантные товары и свежая история
+            ChatPrompt prompt = promptBuilder.build(bot.getShopName(), catalog, history, userMessage);
+
+            // Используем ChatGateway для проверки лимитов и получения ответа
+            boolean completed;
+            if (streamingEnabled) {
+                // Пользователь видит ответ по мере генерации, а не после ее окончания
+                StreamedResponse streamed = relayStreamingResponse(chatId, bot,
+                        chatGateway.askStream(bot.getOwner().getId(), prompt, botIdentifier, chatId));
+                aiResponse = streamed.text();
+                completed = streamed.completed();
+                textSent = true;
+            } else {
+                aiResponse = chatGateway.ask(bot.getOwner().getId(), prompt, botIdentifier, chatId);
+                completed = !OpenAIService.FALLBACK_RESPONSE.equals(aiResponse);
+            }
+            // Оборванный ответ (таймаут или ошибка OpenAI) в кэш не попадает: иначе его получат и другие пользователи
+            if (completed) {
+                responseCache.put(bot.getId(), catalog.getVersion(), userMessage, aiResponse,
+                        prompt.estimatedTokens() + TokenEstimator.estimate(aiResponse), firstTurn);
+            }
+        }
 
         // 5. Сохраняем новое сообщение в историю
         ChatMessage userMsg = ChatMessage.builder()
@@ -260,11 +494,117 @@ public class TelegramService {
                 .content(aiResponse)
                 .build();
 
-        chatMessageRepository.save(userMsg);
-        chatMessageRepository.save(aiMsg);
+        chatHistoryCache.appendTurn(botIdentifier, chatId, userMsg, aiMsg);
 
         // 6. Парсим ответ AI и отправляем сообщение с изображениями, если нужно
-        sendAIResponseWithImages(chatId, aiResponse, bot);
+        if (textSent) {
+            sendMentionedProductImages(chatId, aiResponse, bot, catalog);
+        } else {
+            sendAIResponseWithImages(chatId, aiResponse, bot, catalog);
+        }
+    }
+
+    /**
+     * Передает потоковый ответ AI в Telegram: первое сообщение отправляется, как только
+     * накопится немного текста, затем оно дополняется через editMessageText не чаще,
+     * чем раз в telegram.streaming.edit-interval-ms. Очередная правка не ставится,
+     * пока не выполнена предыдущая, поэтому очередь чата не переполняется.
+     * Поток читается в рабочем потоке обработки обновлений, что сохраняет порядок сообщений в чате.
+     * @param chatId ID чата.
+     * @param bot Объект бота.
+     * @param stream Фрагменты ответа AI.
+     * @return Текст ответа (или текст ошибки, если AI ничего не вернул) и признак того, что поток завершился штатно.
+     */
+    private StreamedResponse relayStreamingResponse(long chatId, Bot bot, Flux<String> stream) {
+        StringBuilder text = new StringBuilder();
+        long editIntervalNanos = TimeUnit.MILLISECONDS.toNanos(streamingEditIntervalMs);
+        AtomicLong lastUpdateAt = new AtomicLong();
+        AtomicReference<CompletableFuture<JsonNode>> firstMessage = new AtomicReference<>();
+        AtomicReference<CompletableFuture<JsonNode>> lastEdit = new AtomicReference<>();
+
+        boolean completed = false;
+        try {
+            stream.doOnNext(delta -> {
+                text.append(delta);
+                long now = System.nanoTime();
+                if (firstMessage.get() == null) {
+                    if (text.length() >= STREAMING_FIRST_CHUNK_CHARS) {
+                        firstMessage.set(sendMessage(chatId, streamingPreview(text), bot.getAccessToken()));
+                        lastUpdateAt.set(now);
+                    }
+                } else if (now - lastUpdateAt.get() >= editIntervalNanos
+                        && (lastEdit.get() == null || lastEdit.get().isDone())) {
+                    String preview = streamingPreview(text);
+                    lastEdit.set(firstMessage.get().thenCompose(message ->
+                            editMessageText(chatId, message.path("message_id").asLong(), preview, bot.getAccessToken())));
+                    lastUpdateAt.set(now);
+                }
+            }).blockLast(Duration.ofSeconds(streamingTimeoutSeconds));
+            completed = text.length() > 0;
+        } catch (RuntimeException e) {
+            // Таймаут или ошибка OpenAI: отдаем пользователю то, что успело сгенерироваться
+            log.warn("OpenAI stream for chat {} ended early after {} chars: {}", chatId, text.length(), e.getMessage());
+        }
+
+        String response = text.length() == 0 ? OpenAIService.FALLBACK_RESPONSE : text.toString();
+        StreamedResponse streamed = new StreamedResponse(response, completed);
+        if (firstMessage.get() == null) {
+            sendMessage(chatId, response, bot.getAccessToken());
+            return streamed;
+        }
+
+        // Если первое сообщение не отправилось, править нечего: ответ уходит обычными сообщениями
+        if (!awaitFirstMessage(chatId, firstMessage.get())) {
+            for (int from = 0; from < response.length(); from += MESSAGE_LIMIT) {
+                sendMessage(chatId, response.substring(from, Math.min(from + MESSAGE_LIMIT, response.length())), bot.getAccessToken());
+            }
+            return streamed;
+        }
+
+        // Финальная правка с полным текстом; то, что не помещается в одно сообщение, отправляется отдельно
+        // Правка ставится после незавершенной промежуточной, чтобы та не затерла полный текст
+        String head = response.length() > MESSAGE_LIMIT ? response.substring(0, MESSAGE_LIMIT) : response;
+        CompletableFuture<JsonNode> previous = lastEdit.get() != null ? lastEdit.get() : firstMessage.get();
+        previous.handle((result, error) -> null)
+                .thenCompose(ignored -> firstMessage.get())
+                .thenCompose(message ->
+                        editMessageText(chatId, message.path("message_id").asLong(), head, bot.getAccessToken()));
+        for (int from = MESSAGE_LIMIT; from < response.length(); from += MESSAGE_LIMIT) {
+            sendMessage(chatId, response.substring(from, Math.min(from + MESSAGE_LIMIT, response.length())), bot.getAccessToken());
+        }
+        return streamed;
+    }
+
+    /**
+     * Результат потокового ответа: completed = false, если поток оборван таймаутом или ошибкой OpenAI.
+     */
+    private record StreamedResponse(String text, boolean completed) {
+    }
+
+    /**
+     * Ждет отправки первого сообщения потокового ответа.
+     * @return false, если Telegram отклонил сообщение; при таймауте ожидания — true, правка встанет в очередь за ним.
+     */
+    private boolean awaitFirstMessage(long chatId, CompletableFuture<JsonNode> firstMessage) {
+        try {
+            firstMessage.get(streamingTimeoutSeconds, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            log.warn("First streaming message for chat {} failed, sending the answer as plain messages: {}",
+                    chatId, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return false;
+        } catch (TimeoutException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private static String streamingPreview(StringBuilder text) {
+        // Курсор показывает, что ответ еще генерируется
+        int length = Math.min(text.length(), MESSAGE_LIMIT - 2);
+        return text.substring(0, length) + " ▌";
     }
 
     /**
@@ -272,109 +612,169 @@ public class TelegramService {
      * @param chatId ID чата.
      * @param aiResponse Ответ от AI.
      * @param bot Объект бота.
+     * @param catalog Снимок каталога, использованный для формирования ответа.
      */
-    private void sendAIResponseWithImages(long chatId, String aiResponse, Bot bot) {
-        // Ищем упоминания товаров в ответе AI и отправляем их изображения
-        List<Product> allProducts = productRepository.findByBot(bot);
-        
+    private void sendAIResponseWithImages(long chatId, String aiResponse, Bot bot, CatalogSnapshot catalog) {
         // Отправляем основной текстовый ответ
         sendMessage(chatId, aiResponse, bot.getAccessToken());
-        
-        // Ищем товары, которые упоминаются в ответе AI
-        for (Product product : allProducts) {
-            if (aiResponse.toLowerCase().contains(product.getName().toLowerCase()) && 
-                product.getImageUrl() != null && !product.getImageUrl().isEmpty()) {
-                
-                String productCaption = String.format("📦 %s\n💰 %s тг.\n📝 %s", 
-                        product.getName(), 
-                        product.getPrice(), 
-                        product.getDescription() != null ? product.getDescription() : "");
-                
-                sendPhoto(chatId, product.getImageUrl(), productCaption, bot.getAccessToken());
-                
-                // Небольшая задержка между отправкой изображений
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }
+        sendMentionedProductImages(chatId, aiResponse, bot, catalog);
+    }
+
+    /**
+     * Отправляет фото товаров, упомянутых в ответе AI.
+     */
+    private void sendMentionedProductImages(long chatId, String aiResponse, Bot bot, CatalogSnapshot catalog) {
+        // Ищем товары, которые упоминаются в ответе AI, за один проход по тексту,
+        // и отправляем их фото альбомами вместо отдельных сообщений
+        List<CatalogSnapshot.Item> mentionedWithImages = catalog.getMentionMatcher().findDistinctValues(aiResponse)
+                .stream()
+                .filter(CatalogSnapshot.Item::hasImage)
+                .toList();
+        sendProductAlbums(chatId, bot, mentionedWithImages, "");
     }
 
     /**
      * Sends a text message to a specific Telegram chat using a designated bot token.
+     * Отправка не блокирует вызывающий поток: сообщение ставится в очередь чата
+     * с учетом лимитов Telegram.
      * @param chatId The ID of the chat to which the message will be sent.
      * @param text The message text to send.
      * @param botAccessToken The access token for the bot.
+     * @return Future с отправленным сообщением Telegram.
      */
-    public void sendMessage(long chatId, String text, String botAccessToken) {
+    public CompletableFuture<JsonNode> sendMessage(long chatId, String text, String botAccessToken) {
+        return sendMessage(chatId, text, botAccessToken, null);
+    }
+
+    /**
+     * Отправляет текстовое сообщение с inline-клавиатурой.
+     * @param chatId ID чата.
+     * @param text Текст сообщения.
+     * @param botAccessToken Токен доступа бота.
+     * @param replyMarkup Разметка клавиатуры (reply_markup) или null.
+     * @return Future с отправленным сообщением Telegram.
+     */
+    public CompletableFuture<JsonNode> sendMessage(long chatId, String text, String botAccessToken, ObjectNode replyMarkup) {
         ObjectNode requestBody = objectMapper.createObjectNode();
         requestBody.put("chat_id", chatId);
         requestBody.put("text", text);
+        if (replyMarkup != null) {
+            requestBody.set("reply_markup", replyMarkup);
+        }
 
-        log.info("Sending message to Telegram chat {} with text: '{}' using bot token: {}", chatId, text, botAccessToken);
-
-        try {
-            Mono<String> responseMono = telegramWebClient.post()
-                    .uri(String.format("/bot%s/sendMessage", botAccessToken))
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class);
-
-            String responseString = responseMono.block();
-            JsonNode rootNode = objectMapper.readTree(responseString);
+        log.info("Sending message to Telegram chat {} with text: '{}'", chatId, text);
 
-            if (!rootNode.path("ok").asBoolean()) {
-                log.error("Failed to send message to Telegram chat {}: {}", chatId, rootNode.path("description").asText());
-            } else {
-                log.info("Message sent successfully to chat {}", chatId);
-            }
-        } catch (WebClientResponseException e) {
-            log.error("Failed to send message to Telegram chat {}: {} - Response body: {}", chatId, e.getStatusCode(), e.getResponseBodyAsString(), e);
-        } catch (Exception e) {
-            log.error("Failed to send message to Telegram chat {}: {}", chatId, e.getMessage(), e);
-        }
+        return telegramOutboundClient.send(botAccessToken, chatId, "sendMessage", requestBody)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failed to send message to Telegram chat {}: {}", chatId, error.getMessage());
+                    } else {
+                        log.info("Message sent successfully to chat {}", chatId);
+                    }
+                });
     }
 
     /**
      * Отправляет фотографию в Telegram.
      * @param chatId ID чата.
-     * @param photoUrl URL фотографии.
+     * @param photoUrl URL фотографии или file_id ранее отправленной фотографии.
      * @param caption Подпись к фотографии.
      * @param botAccessToken Токен доступа бота.
+     * @return Future с отправленным сообщением Telegram.
      */
-    public void sendPhoto(long chatId, String photoUrl, String caption, String botAccessToken) {
+    public CompletableFuture<JsonNode> sendPhoto(long chatId, String photoUrl, String caption, String botAccessToken) {
         ObjectNode requestBody = objectMapper.createObjectNode();
         requestBody.put("chat_id", chatId);
         requestBody.put("photo", photoUrl);
         if (caption != null && !caption.isEmpty()) {
             requestBody.put("caption", caption);
         }
-        
-        log.info("Sending photo to Telegram chat {} with URL: {} using bot token: {}", chatId, photoUrl, botAccessToken);
-        
-        try {
-            Mono<String> responseMono = telegramWebClient.post()
-                    .uri(String.format("/bot%s/sendPhoto", botAccessToken))
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class);
-                    
-            String responseString = responseMono.block();
-            JsonNode rootNode = objectMapper.readTree(responseString);
-            
-            if (!rootNode.path("ok").asBoolean()) {
-                log.error("Failed to send photo to Telegram chat {}: {}", chatId, rootNode.path("description").asText());
-            } else {
-                log.info("Photo sent successfully to chat {}", chatId);
-            }
-        } catch (WebClientResponseException e) {
-            log.error("Failed to send photo to Telegram chat {}: {} - Response body: {}", chatId, e.getStatusCode(), e.getResponseBodyAsString(), e);
-        } catch (Exception e) {
-            log.error("Failed to send photo to Telegram chat {}: {}", chatId, e.getMessage(), e);
+
+        log.info("Sending photo to Telegram chat {} with URL: {}", chatId, photoUrl);
+
+        return telegramOutboundClient.send(botAccessToken, chatId, "sendPhoto", requestBody)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failed to send photo to Telegram chat {}: {}", chatId, error.getMessage());
+                    } else {
+                        log.info("Photo sent successfully to chat {}", chatId);
+                    }
+                });
+    }
+
+    /**
+     * Отправляет альбом из 2–10 фотографий одним запросом с подписью у каждого фото.
+     * @param chatId ID чата.
+     * @param products Товары с изображениями.
+     * @param photos Фото товаров: URL или file_id (по одному на товар).
+     * @param missingDescription Текст вместо отсутствующего описания.
+     * @param botAccessToken Токен доступа бота.
+     * @return Future с массивом отправленных сообщений Telegram.
+     */
+    private CompletableFuture<JsonNode> sendMediaGroup(long chatId, List<CatalogSnapshot.Item> products, List<String> photos,
+                                                       String missingDescription, String botAccessToken) {
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("chat_id", chatId);
+        ArrayNode media = requestBody.putArray("media");
+        for (int i = 0; i < products.size(); i++) {
+            media.addObject()
+                    .put("type", "photo")
+                    .put("media", photos.get(i))
+                    .put("caption", formatProductCaption(products.get(i), missingDescription));
         }
+
+        log.info("Sending media group of {} photos to Telegram chat {}", products.size(), chatId);
+
+        return telegramOutboundClient.send(botAccessToken, chatId, "sendMediaGroup", requestBody)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failed to send media group to Telegram chat {}: {}", chatId, error.getMessage());
+                    } else {
+                        log.info("Media group sent successfully to chat {}", chatId);
+                    }
+                });
     }
-}
 
+    /**
+     * Заменяет текст ранее отправленного сообщения.
+     * @param chatId ID чата.
+     * @param messageId ID сообщения.
+     * @param text Новый текст.
+     * @param botAccessToken Токен доступа бота.
+     * @return Future с измененным сообщением Telegram.
+     */
+    public CompletableFuture<JsonNode> editMessageText(long chatId, long messageId, String text, String botAccessToken) {
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("chat_id", chatId);
+        requestBody.put("message_id", messageId);
+        requestBody.put("text", text);
+
+        return telegramOutboundClient.send(botAccessToken, chatId, "editMessageText", requestBody)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to edit message {} in Telegram chat {}: {}", messageId, chatId, error.getMessage());
+                    }
+                });
+    }
 
+    /**
+     * Подтверждает нажатие кнопки, чтобы Telegram убрал индикатор загрузки.
+     * @param callbackQueryId ID callback_query.
+     * @param text Всплывающий текст или null.
+     * @param botAccessToken Токен доступа бота.
+     */
+    private void answerCallbackQuery(String callbackQueryId, String text, String botAccessToken) {
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("callback_query_id", callbackQueryId);
+        if (text != null) {
+            requestBody.put("text", text);
+        }
+        // Ответ на callback не относится к чату: идет вне очереди чата, ограничивается только лимитом бота
+        telegramOutboundClient.sendOutsideChat(botAccessToken, "answerCallbackQuery", requestBody)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to answer callback query {}: {}", callbackQueryId, error.getMessage());
+                    }
+                });
+    }
+}
@@ -1,28 +1,142 @@
 package com.chatalyst.backend.security.services;
 
-import com.chatalyst.backend.Repository.OpenAITokenUsageRepository;
+import com.chatalyst.backend.Repository.BotRepository;
+import com.chatalyst.backend.Repository.TokenUsageRollupRepository;
+import com.chatalyst.backend.dto.ChatTokenUsageDTO;
+import com.chatalyst.backend.dto.TokenUsagePointDTO;
+import com.chatalyst.backend.dto.TokenUsageRangeDTO;
 import com.chatalyst.backend.dto.TokenUsageStatsDTO;
-import com.chatalyst.backend.model.OpenAITokenUsage;
+import com.chatalyst.backend.model.Bot;
+import com.chatalyst.backend.model.TokenUsageRollup;
+import com.chatalyst.backend.service.ResponseCache;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Статистика использования токенов. Все запросы читают предагрегированные строки
+ * TokenUsageRollup, поэтому их стоимость не зависит от объема истории.
+ */
 @Service
 @RequiredArgsConstructor
 public class TokenUsageService {
 
-    private final OpenAITokenUsageRepository tokenUsageRepository;
+    private static final int MAX_DAILY_RANGE_DAYS = 366;
+    private static final int MAX_HOURLY_RANGE_DAYS = 31;
+    private static final int MAX_TOP_CHATS = 100;
+
+    private final TokenUsageRollupRepository rollupRepository;
+    private final ResponseCache responseCache;
+    private final BotRepository botRepository;
+
+    /**
+     * Проверяет, что пользователь может смотреть статистику бота: владелец бота или администратор.
+     * @throws RuntimeException если бот не найден или пользователь не является его владельцем.
+     */
+    public void checkBotAccess(String botIdentifier, UserPrincipal userPrincipal) {
+        boolean admin = userPrincipal.getAuthorities().stream()
+                .anyMatch(authority -> "ROLE_ADMIN".equals(authority.getAuthority()));
+        if (admin) {
+            return;
+        }
+        Bot bot = botRepository.findByBotIdentifier(botIdentifier)
+                .orElseThrow(() -> new RuntimeException("Бот не найден: " + botIdentifier));
+        if (!bot.getOwner().getId().equals(userPrincipal.getId())) {
+            throw new RuntimeException("У вас нет прав для просмотра статистики этого бота.");
+        }
+    }
 
     public TokenUsageStatsDTO getBotTokenUsageStats(String botIdentifier) {
-        List<OpenAITokenUsage> usages = tokenUsageRepository.findByBotIdentifier(botIdentifier);
+        TokenUsageRollup total = rollupRepository.findByGranularityAndBotIdentifierAndChatId(
+                TokenUsageRollup.Granularity.TOTAL, botIdentifier, TokenUsageRollup.ALL_CHATS).orElse(null);
+
+        long totalRequests = total != null ? total.getRequests() : 0;
+        long totalPromptTokens = total != null ? total.getPromptTokens() : 0;
+        long totalCompletionTokens = total != null ? total.getCompletionTokens() : 0;
+        double totalUsdCost = total != null ? total.getUsdCost() : 0.0;
+        double totalKztCost = total != null ? total.getKztCost() : 0.0;
+
+        Map<String, Long> cacheStats = responseCache.getBotStats(botIdentifier);
+        long cacheHits = cacheStats.get("hits");
+        long cacheMisses = cacheStats.get("misses");
+        double cacheHitRate = cacheHits + cacheMisses == 0 ? 0.0 : cacheHits / (double) (cacheHits + cacheMisses);
+
+        return new TokenUsageStatsDTO(botIdentifier, totalRequests, totalPromptTokens, totalCompletionTokens, totalUsdCost, totalKztCost,
+                cacheHits, cacheMisses, cacheHitRate, cacheStats.get("tokensSaved"));
+    }
+
+    /**
+     * Статистика за период с разбивкой по дням или часам.
+     * @param botIdentifier Идентификатор бота.
+     * @param from Первый день периода.
+     * @param to Последний день периода (включительно).
+     * @param granularity DAY или HOUR.
+     */
+    public TokenUsageRangeDTO getBotTokenUsageRange(String botIdentifier, LocalDate from, LocalDate to,
+                                                    TokenUsageRollup.Granularity granularity) {
+        if (granularity == TokenUsageRollup.Granularity.TOTAL) {
+            throw new IllegalArgumentException("Разбивка возможна только по дням или часам");
+        }
+        validateRange(from, to, granularity == TokenUsageRollup.Granularity.HOUR ? MAX_HOURLY_RANGE_DAYS : MAX_DAILY_RANGE_DAYS);
+
+        List<TokenUsagePointDTO> series = rollupRepository
+                .findBotSeries(botIdentifier, granularity, from.atStartOfDay(), to.plusDays(1).atStartOfDay())
+                .stream()
+                .map(r -> new TokenUsagePointDTO(r.getBucketStart(), r.getRequests(), r.getPromptTokens(),
+                        r.getCompletionTokens(), r.getUsdCost(), r.getKztCost()))
+                .toList();
 
-        long totalRequests = usages.size();
-        long totalPromptTokens = usages.stream().mapToLong(OpenAITokenUsage::getPromptTokens).sum();
-        long totalCompletionTokens = usages.stream().mapToLong(OpenAITokenUsage::getCompletionTokens).sum();
-        double totalUsdCost = usages.stream().mapToDouble(OpenAITokenUsage::getUsdCost).sum();
-        double totalKztCost = usages.stream().mapToDouble(OpenAITokenUsage::getKztCost).sum();
+        // Серия ограничена длиной периода, поэтому суммирование в памяти дешевое
+        long requests = 0;
+        long promptTokens = 0;
+        long completionTokens = 0;
+        double usdCost = 0;
+        double kztCost = 0;
+        for (TokenUsagePointDTO point : series) {
+            requests += point.getRequests();
+            promptTokens += point.getPromptTokens();
+            completionTokens += point.getCompletionTokens();
+            usdCost += point.getUsdCost();
+            kztCost += point.getKztCost();
+        }
+        return new TokenUsageRangeDTO(botIdentifier, from, to, granularity.name(), requests, promptTokens,
+                completionTokens, usdCost, kztCost, series);
+    }
+
+    /**
+     * Самые дорогие чаты бота за период или за все время (если период не задан).
+     * @param botIdentifier Идентификатор бота.
+     * @param from Первый день периода или null.
+     * @param to Последний день периода (включительно) или null.
+     * @param limit Количество чатов.
+     */
+    public List<ChatTokenUsageDTO> getTopChatsByCost(String botIdentifier, LocalDate from, LocalDate to, int limit) {
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_TOP_CHATS)));
+        if (from == null && to == null) {
+            LocalDateTime start = TokenUsageRollup.TOTAL_BUCKET_START;
+            return rollupRepository.findTopChats(botIdentifier, TokenUsageRollup.Granularity.TOTAL,
+                    start, start.plusSeconds(1), page);
+        }
+        validateRange(from, to, MAX_DAILY_RANGE_DAYS);
+        return rollupRepository.findTopChats(botIdentifier, TokenUsageRollup.Granularity.DAY,
+                from.atStartOfDay(), to.plusDays(1).atStartOfDay(), page);
+    }
 
-        return new TokenUsageStatsDTO(botIdentifier, totalRequests, totalPromptTokens, totalCompletionTokens, totalUsdCost, totalKztCost);
+    private static void validateRange(LocalDate from, LocalDate to, int maxDays) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Нужно указать начало и конец периода");
+        }
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Конец периода раньше начала");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= maxDays) {
+            throw new IllegalArgumentException("Период не может быть длиннее " + maxDays + " дней");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+package com.chatalyst.backend.security.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш пользователей для AuthTokenFilter: запрос с JWT не загружает пользователя
+ * и его роли из БД, пока запись не устарела (короткий TTL) или не сброшена явно
+ * (смена пароля или ролей). Вход по паролю кэш не использует.
+ */
+@Service
+@Slf4j
+public class UserPrincipalCache {
+
+    private final UserDetailsServiceImpl userDetailsService;
+    private final long ttlNanos;
+    private final int maxSize;
+
+    // LRU по порядку доступа; все обращения синхронизированы на самой карте
+    private final LinkedHashMap<String, Entry> entries;
+    // Растет при каждой инвалидации: загрузка, начатая до нее, не попадает в кэш
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public UserPrincipalCache(UserDetailsServiceImpl userDetailsService,
+                              @Value("${app.auth.principal-cache.ttl-seconds:60}") long ttlSeconds,
+                              @Value("${app.auth.principal-cache.max-size:10000}") int maxSize) {
+        this.userDetailsService = userDetailsService;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > UserPrincipalCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Возвращает пользователя по email из кэша или загружает его из БД.
+     * @throws org.springframework.security.core.userdetails.UsernameNotFoundException если пользователь не найден
+     */
+    public UserDetails get(String email) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(email);
+            if (entry != null && now - entry.loadedAt() < ttlNanos) {
+                hits.incrementAndGet();
+                return entry.principal();
+            }
+        }
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        UserDetails principal = userDetailsService.loadUserByUsername(email);
+        synchronized (entries) {
+            if (generation.get() == loadGeneration) {
+                entries.put(email, new Entry(principal, now));
+            }
+        }
+        return principal;
+    }
+
+    /**
+     * Сбрасывает пользователя из кэша после коммита текущей транзакции.
+     * @param email Email пользователя.
+     */
+    public void invalidate(String email) {
+        Runnable evict = () -> {
+            generation.incrementAndGet();
+            synchronized (entries) {
+                entries.remove(email);
+            }
+            invalidations.incrementAndGet();
+            log.debug("Пользователь {} удален из кэша аутентификации", email);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        } else {
+            evict.run();
+        }
+    }
+
+    /**
+     * Возвращает метрики кэша: размер, попадания, промахи и инвалидации.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private record Entry(UserDetails principal, long loadedAt) {
+    }
+}
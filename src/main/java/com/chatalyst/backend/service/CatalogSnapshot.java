@@ -0,0 +1,177 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.model.Product;
+import com.chatalyst.backend.util.AhoCorasickMatcher;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Неизменяемый снимок каталога бота: каталоги, подкаталоги, товары и
+ * заранее подготовленный текст каталога для промпта AI.
+ * Каждый снимок имеет версию, которая растет при каждой перестройке.
+ */
+public final class CatalogSnapshot {
+
+    /**
+     * Неизменяемое представление товара внутри снимка (без связи с JPA-сессией).
+     */
+    public record Item(Long id, String name, BigDecimal price, String description,
+                       String catalog, String subcategory, String imageUrl, boolean inStock,
+                       String sku, String sourceImageUrl, String imageHash) {
+
+        public boolean hasImage() {
+            return imageUrl != null && !imageUrl.isEmpty();
+        }
+
+        static Item of(Product product) {
+            return new Item(product.getId(), product.getName(), product.getPrice(), product.getDescription(),
+                    product.getCatalog(), product.getSubcategory(), product.getImageUrl(), product.isInStock(),
+                    product.getSku(), product.getSourceImageUrl(), product.getImageHash());
+        }
+    }
+
+    private final Long botId;
+    private final long version;
+    private final List<Item> items;
+    private final List<String> catalogs;
+    private final Map<String, List<String>> subcategoriesByCatalog;
+    private final Map<String, List<Item>> itemsBySubcategory;
+    private final Map<Long, Item> itemsById;
+    private final String promptText;
+    // Строится лениво при первом поиске упоминаний и живет столько же, сколько снимок
+    private volatile AhoCorasickMatcher<Item> mentionMatcher;
+
+    private CatalogSnapshot(Long botId, long version, List<Item> items) {
+        this.botId = botId;
+        this.version = version;
+        this.items = Collections.unmodifiableList(items);
+
+        Map<String, List<String>> subcategories = new LinkedHashMap<>();
+        Map<String, List<Item>> bySubcategory = new LinkedHashMap<>();
+        Map<Long, Item> byId = new HashMap<>();
+        for (Item item : items) {
+            byId.put(item.id(), item);
+            if (isPresent(item.catalog())) {
+                List<String> subs = subcategories.computeIfAbsent(item.catalog(), k -> new ArrayList<>());
+                if (isPresent(item.subcategory()) && !subs.contains(item.subcategory())) {
+                    subs.add(item.subcategory());
+                }
+            }
+            if (item.subcategory() != null) {
+                bySubcategory.computeIfAbsent(item.subcategory(), k -> new ArrayList<>()).add(item);
+            }
+        }
+        subcategories.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        bySubcategory.replaceAll((k, v) -> Collections.unmodifiableList(v));
+
+        this.catalogs = List.copyOf(subcategories.keySet());
+        this.subcategoriesByCatalog = Collections.unmodifiableMap(subcategories);
+        this.itemsBySubcategory = Collections.unmodifiableMap(bySubcategory);
+        this.itemsById = Collections.unmodifiableMap(byId);
+        this.promptText = renderPromptText(items);
+    }
+
+    /**
+     * Строит снимок из списка товаров бота.
+     * @param botId ID бота.
+     * @param version Версия снимка.
+     * @param products Товары бота.
+     * @return Новый снимок.
+     */
+    public static CatalogSnapshot build(Long botId, long version, List<Product> products) {
+        List<Item> items = products.stream().map(Item::of).collect(Collectors.toCollection(ArrayList::new));
+        return new CatalogSnapshot(botId, version, items);
+    }
+
+    /**
+     * Формирует текст каталога для AI в том же формате, что и раньше:
+     * каталог -> подкаталог -> товары с ценой, описанием и ссылкой на изображение.
+     */
+    private static String renderPromptText(List<Item> items) {
+        Map<String, Map<String, List<Item>>> grouped = new LinkedHashMap<>();
+        for (Item item : items) {
+            grouped.computeIfAbsent(String.valueOf(item.catalog()), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(String.valueOf(item.subcategory()), k -> new ArrayList<>())
+                    .add(item);
+        }
+
+        return grouped.entrySet().stream()
+                .map(entry -> "Каталог: " + entry.getKey() + "\n" +
+                        entry.getValue().entrySet().stream()
+                                .map(subEntry -> "  Подкаталог: " + subEntry.getKey() + "\n" +
+                                        subEntry.getValue().stream()
+                                                .map(CatalogSnapshot::renderItem)
+                                                .collect(Collectors.joining("\n")))
+                                .collect(Collectors.joining("\n")))
+                .collect(Collectors.joining("\n\n"));
+    }
+
+    static String renderItem(Item p) {
+        String productInfo = "- " + p.name() + " (" + p.price() + " тг.): " + p.description();
+        if (p.hasImage()) {
+            productInfo += " [ИЗОБРАЖЕНИЕ: " + p.imageUrl() + "]";
+        }
+        return productInfo;
+    }
+
+    private static boolean isPresent(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    public Long getBotId() {
+        return botId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public List<String> getCatalogs() {
+        return catalogs;
+    }
+
+    public List<String> getSubcategories(String catalog) {
+        return subcategoriesByCatalog.getOrDefault(catalog, List.of());
+    }
+
+    public List<Item> getItemsBySubcategory(String subcategory) {
+        return itemsBySubcategory.getOrDefault(subcategory, List.of());
+    }
+
+    public Item getItem(Long id) {
+        return itemsById.get(id);
+    }
+
+    public String getPromptText() {
+        return promptText;
+    }
+
+    /**
+     * Возвращает автомат поиска упоминаний товаров по названию.
+     * Строится один раз на версию каталога.
+     */
+    public AhoCorasickMatcher<Item> getMentionMatcher() {
+        AhoCorasickMatcher<Item> matcher = mentionMatcher;
+        if (matcher == null) {
+            synchronized (this) {
+                matcher = mentionMatcher;
+                if (matcher == null) {
+                    matcher = AhoCorasickMatcher.build(items, Item::name);
+                    mentionMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+}
@@ -0,0 +1,158 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.ProductRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Кэш неизменяемых снимков каталога по ботам.
+ * Чат-обработка читает товары только отсюда, а все изменения товаров
+ * (ProductService, импорт из Excel) сбрасывают снимок после коммита транзакции.
+ * Размер ограничен: при превышении вытесняется давно не использованный бот.
+ */
+@Service
+@Slf4j
+public class CatalogSnapshotCache {
+
+    private final ProductRepository productRepository;
+    private final int maxBots;
+
+    // LRU по порядку доступа; все обращения синхронизированы на самой карте
+    private final LinkedHashMap<Long, CatalogSnapshot> snapshots;
+    // Счетчик инвалидаций по боту: снимок, загруженный до инвалидации, в кэш не попадет
+    private final ConcurrentHashMap<Long, Long> generations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Object> loadLocks = new ConcurrentHashMap<>();
+    private final AtomicLong versionSequence = new AtomicLong();
+    // Компоненты, которые держат данные, производные от каталога (например, кэш ответов AI)
+    private final List<Consumer<Long>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CatalogSnapshotCache(ProductRepository productRepository,
+                                @Value("${catalog.cache.max-bots:1000}") int maxBots) {
+        this.productRepository = productRepository;
+        this.maxBots = maxBots;
+        this.snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CatalogSnapshot> eldest) {
+                if (size() > CatalogSnapshotCache.this.maxBots) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Возвращает актуальный снимок каталога бота, загружая его из БД при промахе.
+     * @param botId ID бота.
+     * @return Снимок каталога.
+     */
+    public CatalogSnapshot get(Long botId) {
+        CatalogSnapshot snapshot = cached(botId);
+        if (snapshot != null) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+
+        // Один загрузчик на бота, остальные ждут и берут готовый снимок
+        synchronized (loadLocks.computeIfAbsent(botId, k -> new Object())) {
+            snapshot = cached(botId);
+            if (snapshot != null) {
+                hits.incrementAndGet();
+                return snapshot;
+            }
+            misses.incrementAndGet();
+
+            long generation = generations.getOrDefault(botId, 0L);
+            snapshot = CatalogSnapshot.build(botId, versionSequence.incrementAndGet(), productRepository.findByBotId(botId));
+
+            synchronized (snapshots) {
+                if (generations.getOrDefault(botId, 0L) == generation) {
+                    snapshots.put(botId, snapshot);
+                }
+            }
+            log.debug("Снимок каталога бота {} построен: версия {}, товаров {}", botId, snapshot.getVersion(), snapshot.getItems().size());
+            return snapshot;
+        }
+    }
+
+    /**
+     * Сбрасывает снимок каталога бота. Внутри транзакции сброс откладывается до коммита,
+     * чтобы параллельный читатель не закэшировал незакоммиченное состояние.
+     * @param botId ID бота.
+     */
+    public void invalidate(Long botId) {
+        if (botId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(botId);
+                }
+            });
+        } else {
+            evict(botId);
+        }
+    }
+
+    /**
+     * Регистрирует обработчик, вызываемый после сброса снимка каталога бота.
+     * @param listener Обработчик, получающий ID бота.
+     */
+    public void addInvalidationListener(Consumer<Long> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    private void evict(Long botId) {
+        synchronized (snapshots) {
+            generations.merge(botId, 1L, Long::sum);
+            snapshots.remove(botId);
+        }
+        invalidations.incrementAndGet();
+        invalidationListeners.forEach(listener -> listener.accept(botId));
+        log.debug("Снимок каталога бота {} сброшен", botId);
+    }
+
+    private CatalogSnapshot cached(Long botId) {
+        synchronized (snapshots) {
+            return snapshots.get(botId);
+        }
+    }
+
+    /**
+     * Возвращает метрики кэша: попадания, промахи, вытеснения и инвалидации.
+     */
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (snapshots) {
+            stats.put("size", snapshots.size());
+        }
+        stats.put("maxBots", maxBots);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", h + m == 0 ? 0.0 : h / (double) (h + m));
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+}
@@ -1,9 +1,11 @@
 package com.chatalyst.backend.service;
 
 import com.chatalyst.backend.exception.QuotaExceededException;
+import com.chatalyst.backend.security.services.OpenAIService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
 /**
  * Шлюз для чата, который управляет лимитами перед вызовом OpenAI
@@ -14,53 +16,42 @@ import org.springframework.stereotype.Service;
 public class ChatGateway {
     
     private final QuotaService quotaService;
-    // TODO: Заменить на ваш реальный OpenAIService
-    // private final OpenAIService openAIService;
+    private final OpenAIService openAIService;
 
     /**
-     * Отправляет запрос к OpenAI с предварительной проверкой лимитов
-     * 
+     * Отправляет в OpenAI промпт, собранный PromptBuilder, с предварительной проверкой лимитов.
+     * Фактическое использование токенов сохраняется вместе с оценкой промпта.
+     *
      * @param ownerUserId ID владельца бота
-     * @param prompt текст запроса
+     * @param prompt сообщения для AI
+     * @param botIdentifier идентификатор бота
+     * @param chatId ID чата
      * @return ответ от OpenAI
      * @throws QuotaExceededException если лимит исчерпан
      */
-    public String ask(Long ownerUserId, String prompt) {
-        log.debug("Попытка отправить запрос к OpenAI для пользователя {}: {}", ownerUserId, prompt);
-        
-        // 1) Списываем 1 сообщение (или другое число, если нужно)
+    public String ask(Long ownerUserId, ChatPrompt prompt, String botIdentifier, Long chatId) {
+        log.debug("Попытка отправить запрос к OpenAI для пользователя {} (~{} токенов)", ownerUserId, prompt.estimatedTokens());
+
         quotaService.consumeOrThrow(ownerUserId, 1);
-        
-        // 2) Вызываем OpenAI
-        // TODO: Раскомментировать и настроить под ваш OpenAIService
-        // return openAIService.ask(prompt);
-        
-        // Временная заглушка для тестирования
-        log.info("Лимит проверен, OpenAI вызов симулирован для пользователя {}", ownerUserId);
-        return "Это тестовый ответ от OpenAI. В реальной реализации здесь будет вызов вашего OpenAIService.";
+
+        return openAIService.getChatResponse(prompt, botIdentifier, chatId);
     }
 
     /**
-     * Отправляет запрос к OpenAI с указанным количеством единиц
-     * 
+     * Потоковый вариант ask: квота списывается до начала генерации, ответ приходит фрагментами.
+     *
      * @param ownerUserId ID владельца бота
-     * @param prompt текст запроса
-     * @param units количество единиц для списания
-     * @return ответ от OpenAI
+     * @param prompt сообщения для AI
+     * @param botIdentifier идентификатор бота
+     * @param chatId ID чата
+     * @return поток фрагментов ответа (пустой, если OpenAI вернул ошибку)
      * @throws QuotaExceededException если лимит исчерпан
      */
-    public String ask(Long ownerUserId, String prompt, int units) {
-        log.debug("Попытка отправить запрос к OpenAI для пользователя {} ({} единиц): {}", ownerUserId, units, prompt);
-        
-        // 1) Списываем указанное количество единиц
-        quotaService.consumeOrThrow(ownerUserId, units);
-        
-        // 2) Вызываем OpenAI
-        // TODO: Раскомментировать и настроить под ваш OpenAIService
-        // return openAIService.ask(prompt);
-        
-        // Временная заглушка для тестирования
-        log.info("Лимит проверен ({} единиц), OpenAI вызов симулирован для пользователя {}", units, ownerUserId);
-        return String.format("Это тестовый ответ от OpenAI (списано %d единиц). В реальной реализации здесь будет вызов вашего OpenAIService.", units);
+    public Flux<String> askStream(Long ownerUserId, ChatPrompt prompt, String botIdentifier, Long chatId) {
+        log.debug("Попытка отправить потоковый запрос к OpenAI для пользователя {} (~{} токенов)", ownerUserId, prompt.estimatedTokens());
+
+        quotaService.consumeOrThrow(ownerUserId, 1);
+
+        return openAIService.streamChatResponse(prompt, botIdentifier, chatId);
     }
 }
@@ -0,0 +1,162 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.ChatMessageRepository;
+import com.chatalyst.backend.model.ChatMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш последних сообщений диалогов: кольцевой буфер на каждую пару (бот, чат).
+ * История загружается из БД один раз при первом обращении к чату, дальше новые
+ * сообщения дописываются в буфер и ставятся в очередь отложенной записи
+ * ({@link WriteBehindPersister}), поэтому обычный ход диалога не обращается к БД.
+ * Давно неактивные чаты вытесняются (LRU).
+ */
+@Service
+@Slf4j
+public class ChatHistoryCache {
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final WriteBehindPersister writeBehindPersister;
+    private final int capacity;
+    private final int maxChats;
+
+    // LRU по порядку доступа; все обращения синхронизированы на самой карте
+    private final LinkedHashMap<String, RingBuffer> histories;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ChatHistoryCache(ChatMessageRepository chatMessageRepository,
+                            WriteBehindPersister writeBehindPersister,
+                            @Value("${chat.history.capacity:30}") int capacity,
+                            @Value("${chat.history.max-chats:10000}") int maxChats) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.writeBehindPersister = writeBehindPersister;
+        this.capacity = capacity;
+        this.maxChats = maxChats;
+        this.histories = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RingBuffer> eldest) {
+                if (size() > ChatHistoryCache.this.maxChats) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Возвращает последние сообщения диалога в хронологическом порядке.
+     * @param botIdentifier Идентификатор бота.
+     * @param chatId ID чата.
+     * @return Сообщения от старых к новым (не больше capacity).
+     */
+    public List<ChatMessage> getRecent(String botIdentifier, long chatId) {
+        return buffer(botIdentifier, chatId).toList();
+    }
+
+    /**
+     * Добавляет ход диалога (вопрос и ответ) в буфер и ставит оба сообщения в очередь записи.
+     * @param botIdentifier Идентификатор бота.
+     * @param chatId ID чата.
+     * @param userMessage Сообщение пользователя.
+     * @param assistantMessage Ответ бота.
+     */
+    public void appendTurn(String botIdentifier, long chatId, ChatMessage userMessage, ChatMessage assistantMessage) {
+        RingBuffer buffer = buffer(botIdentifier, chatId);
+        writeBehindPersister.enqueueChatMessages(List.of(userMessage, assistantMessage));
+        buffer.add(userMessage);
+        buffer.add(assistantMessage);
+    }
+
+    private RingBuffer buffer(String botIdentifier, long chatId) {
+        String key = botIdentifier + ":" + chatId;
+        synchronized (histories) {
+            RingBuffer buffer = histories.get(key);
+            if (buffer != null) {
+                hits.incrementAndGet();
+                return buffer;
+            }
+        }
+
+        // Загрузка вне блокировки карты; сообщения одного чата обрабатываются последовательно,
+        // поэтому повторная загрузка одного и того же чата маловероятна и безвредна.
+        // Если чат был вытеснен совсем недавно, последние сообщения могут быть еще в очереди
+        // записи и не попадут в загруженную историю — для контекста AI это допустимо
+        List<ChatMessage> newestFirst = chatMessageRepository.findTop30ByChatIdAndBotIdentifierOrderByIdDesc(chatId, botIdentifier);
+        RingBuffer loaded = new RingBuffer(capacity);
+        for (int i = Math.min(newestFirst.size(), capacity) - 1; i >= 0; i--) {
+            loaded.add(newestFirst.get(i));
+        }
+        loads.incrementAndGet();
+
+        synchronized (histories) {
+            RingBuffer existing = histories.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            histories.put(key, loaded);
+            return loaded;
+        }
+    }
+
+    /**
+     * Возвращает метрики кэша: количество чатов в памяти, попадания, загрузки из БД и вытеснения.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (histories) {
+            stats.put("chats", histories.size());
+        }
+        stats.put("maxChats", maxChats);
+        stats.put("capacity", capacity);
+        stats.put("hits", hits.get());
+        stats.put("loads", loads.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Кольцевой буфер фиксированного размера: при переполнении затирается самое старое сообщение.
+     */
+    private static final class RingBuffer {
+        private final ChatMessage[] messages;
+        private int head;
+        private int size;
+
+        RingBuffer(int capacity) {
+            this.messages = new ChatMessage[capacity];
+        }
+
+        synchronized void add(ChatMessage message) {
+            messages[(head + size) % messages.length] = message;
+            if (size < messages.length) {
+                size++;
+            } else {
+                head = (head + 1) % messages.length;
+            }
+        }
+
+        synchronized List<ChatMessage> toList() {
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            List<ChatMessage> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(messages[(head + i) % messages.length]);
+            }
+            return result;
+        }
+    }
+}
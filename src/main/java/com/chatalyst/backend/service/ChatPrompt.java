@@ -0,0 +1,16 @@
+package com.chatalyst.backend.service;
+
+import java.util.List;
+
+/**
+ * Готовый промпт для chat completions: сообщения в порядке отправки и оценка их размера в токенах.
+ * @param messages Сообщения (system, история, текущий вопрос).
+ * @param estimatedTokens Оценка prompt_tokens.
+ * @param productCount Количество товаров, попавших в контекст.
+ * @param historyCount Количество сообщений истории, попавших в контекст.
+ */
+public record ChatPrompt(List<Message> messages, int estimatedTokens, int productCount, int historyCount) {
+
+    public record Message(String role, String content) {
+    }
+}
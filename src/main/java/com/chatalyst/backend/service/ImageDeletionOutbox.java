@@ -0,0 +1,257 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.ImageDeletionTaskRepository;
+import com.chatalyst.backend.model.ImageDeletionTask;
+import com.chatalyst.backend.security.services.PsObjectStorageService;
+import com.chatalyst.backend.util.LatencyRecorder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbox удаления изображений из Object Storage.
+ *
+ * URL изображений записываются в таблицу image_deletion_outbox в той же транзакции,
+ * что и удаление товаров: если транзакция откатится, изображения останутся на месте,
+ * а если приложение упадет после коммита — удаление выполнится при следующем проходе.
+ * После коммита фоновый поток забирает задачи пачками и удаляет объекты через
+ * DeleteObjects (до 1000 ключей за запрос). Неудачные удаления повторяются
+ * с нарастающей паузой, после max-attempts попыток задача снимается. Раз в orphan-sweep-interval-ms
+ * в очередь попадают загруженные изображения, на которые так и не сослался ни один товар.
+ */
+@Service
+@Slf4j
+public class ImageDeletionOutbox {
+
+    private static final String INSERT_SQL = "INSERT INTO image_deletion_outbox "
+            + "(image_url, attempts, next_attempt_at, created_at) VALUES (?, 0, ?, ?)";
+
+    private final ImageDeletionTaskRepository taskRepository;
+    private final PsObjectStorageService psObjectStorageService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long retryBaseMs;
+    private final long retryMaxMs;
+
+    private final ExecutorService drainer = Executors.newSingleThreadExecutor(
+            TelegramUpdateDispatcher.namedThreadFactory("image-delete-"));
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong orphansFound = new AtomicLong();
+    private final LatencyRecorder batchTime = new LatencyRecorder();
+
+    public ImageDeletionOutbox(ImageDeletionTaskRepository taskRepository,
+                               PsObjectStorageService psObjectStorageService,
+                               JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${storage.delete-outbox.max-attempts:10}") int maxAttempts,
+                               @Value("${storage.delete-outbox.retry-base-ms:30000}") long retryBaseMs,
+                               @Value("${storage.delete-outbox.retry-max-ms:3600000}") long retryMaxMs) {
+        this.taskRepository = taskRepository;
+        this.psObjectStorageService = psObjectStorageService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.maxAttempts = maxAttempts;
+        this.retryBaseMs = retryBaseMs;
+        this.retryMaxMs = retryMaxMs;
+    }
+
+    /**
+     * Снимает ссылки на изображения и ставит их в очередь на удаление. Записи попадают в текущую транзакцию,
+     * удаление из хранилища начинается после ее коммита; изображения, на которые ссылаются другие товары, остаются.
+     * @param imageUrls URL изображений по одному на товар; пустые значения пропускаются.
+     */
+    public void enqueue(Collection<String> imageUrls) {
+        psObjectStorageService.releaseImages(imageUrls);
+        scheduleDeletion(imageUrls);
+    }
+
+    /**
+     * Ставит изображения в очередь на удаление, не снимая ссылок: удалены будут только объекты,
+     * на которые к моменту обработки нет ссылок товаров и срок ожидания после загрузки истек.
+     * @param imageUrls URL изображений; пустые значения пропускаются.
+     */
+    public void scheduleDeletion(Collection<String> imageUrls) {
+        List<String> urls = imageUrls.stream()
+                .filter(url -> url != null && !url.isEmpty())
+                .distinct()
+                .toList();
+        if (urls.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT_SQL, urls, 1000, (ps, url) -> {
+            ps.setString(1, url);
+            ps.setTimestamp(2, now);
+            ps.setTimestamp(3, now);
+        });
+        enqueued.addAndGet(urls.size());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    requestDrain();
+                }
+            });
+        } else {
+            requestDrain();
+        }
+    }
+
+    private void requestDrain() {
+        if (drainRequested.compareAndSet(false, true)) {
+            try {
+                drainer.execute(() -> {
+                    drainRequested.set(false);
+                    drain();
+                });
+            } catch (RuntimeException e) {
+                // Поток уже остановлен: задачи остались в таблице и будут обработаны после перезапуска
+                drainRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Периодический проход по outbox: повторы после ошибок и задачи, оставшиеся после перезапуска.
+     */
+    @Scheduled(fixedDelayString = "${storage.delete-outbox.poll-interval-ms:60000}")
+    public void retryDue() {
+        requestDrain();
+    }
+
+    /**
+     * Ставит в очередь объекты без ссылок, для которых так и не был сохранен товар
+     * (ошибка записи, отмена импорта, загрузка без последующего сохранения).
+     */
+    @Scheduled(fixedDelayString = "${storage.delete-outbox.orphan-sweep-interval-ms:600000}")
+    public void sweepOrphans() {
+        try {
+            List<String> orphans = psObjectStorageService.findOrphanUrls(PsObjectStorageService.MAX_KEYS_PER_DELETE);
+            if (!orphans.isEmpty()) {
+                transactionTemplate.executeWithoutResult(status -> scheduleDeletion(orphans));
+                orphansFound.addAndGet(orphans.size());
+                log.info("Найдено изображений без ссылок: {}", orphans.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка поиска изображений без ссылок: {}", e.getMessage(), e);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (drainBatch() == PsObjectStorageService.MAX_KEYS_PER_DELETE) {
+                // полные пачки обрабатываем подряд, пока есть готовые задачи
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка обработки outbox удаления изображений: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Забирает одну пачку готовых задач (строки блокируются до конца транзакции,
+     * другие экземпляры их пропускают) и удаляет изображения одним запросом DeleteObjects.
+     * @return Количество обработанных задач.
+     */
+    private int drainBatch() {
+        Integer processed = transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<ImageDeletionTask> tasks = taskRepository.lockDue(now, PsObjectStorageService.MAX_KEYS_PER_DELETE);
+            if (tasks.isEmpty()) {
+                return 0;
+            }
+            long start = System.nanoTime();
+            Map<String, String> failed = psObjectStorageService.deleteImages(
+                    tasks.stream().map(ImageDeletionTask::getImageUrl).toList());
+            batchTime.record(System.nanoTime() - start);
+            requests.incrementAndGet();
+
+            List<ImageDeletionTask> done = new ArrayList<>();
+            List<ImageDeletionTask> retry = new ArrayList<>();
+            for (ImageDeletionTask task : tasks) {
+                String error = failed.get(task.getImageUrl());
+                if (error == null) {
+                    done.add(task);
+                    continue;
+                }
+                int attempts = task.getAttempts() + 1;
+                if (attempts >= maxAttempts) {
+                    log.error("Изображение {} не удалено после {} попыток, задача снята: {}",
+                            task.getImageUrl(), attempts, error);
+                    abandoned.incrementAndGet();
+                    done.add(task);
+                    continue;
+                }
+                task.setAttempts(attempts);
+                task.setLastError(error.length() > 1000 ? error.substring(0, 1000) : error);
+                task.setNextAttemptAt(now.plusNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs(attempts))));
+                retry.add(task);
+            }
+            taskRepository.deleteAllInBatch(done);
+            taskRepository.saveAll(retry);
+            deleted.addAndGet(tasks.size() - failed.size());
+            failedAttempts.addAndGet(failed.size());
+            return tasks.size();
+        });
+        return processed != null ? processed : 0;
+    }
+
+    private long backoffMs(int attempts) {
+        long delay = retryBaseMs << Math.min(attempts - 1, 20);
+        return Math.min(delay, retryMaxMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Возвращает метрики outbox: поставлено, удалено, неудачных попыток, снятых задач,
+     * число запросов DeleteObjects и их длительность, текущая глубина очереди.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxAttempts", maxAttempts);
+        stats.put("enqueued", enqueued.get());
+        stats.put("deleted", deleted.get());
+        stats.put("failedAttempts", failedAttempts.get());
+        stats.put("abandoned", abandoned.get());
+        stats.put("deleteRequests", requests.get());
+        stats.put("orphansFound", orphansFound.get());
+        stats.put("pending", taskRepository.count());
+        stats.put("batchTime", batchTime.snapshot());
+        return stats;
+    }
+}
@@ -0,0 +1,328 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.security.services.PsObjectStorageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Параллельное скачивание изображений товаров по URL и загрузка их в Object Storage при импорте.
+ *
+ * Параллелизм ограничен общим пулом и отдельно на каждый хост, чтобы импорт не положил
+ * чужой сервер с картинками. У скачивания есть таймауты и лимит размера; если размер известен,
+ * изображение передается на нормализацию и в хранилище прямо из ответа, без временного файла.
+ * Одинаковые URL в рамках одного импорта скачиваются один раз.
+ */
+@Service
+@Slf4j
+public class ImageIngestionService {
+
+    private final PsObjectStorageService psObjectStorageService;
+    private final ExecutorService executor;
+    private final int perHostLimit;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final long maxBytes;
+
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong tooLarge = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public ImageIngestionService(PsObjectStorageService psObjectStorageService,
+                                 @Value("${import.images.parallelism:16}") int parallelism,
+                                 @Value("${import.images.per-host-limit:4}") int perHostLimit,
+                                 @Value("${import.images.connect-timeout-ms:5000}") int connectTimeoutMs,
+                                 @Value("${import.images.read-timeout-ms:15000}") int readTimeoutMs,
+                                 @Value("${import.images.max-bytes:10485760}") long maxBytes) {
+        this.psObjectStorageService = psObjectStorageService;
+        this.perHostLimit = perHostLimit;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBytes = maxBytes;
+        // Потоки заняты в основном ожиданием сети, поэтому их больше, чем ядер
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), TelegramUpdateDispatcher.namedThreadFactory("image-ingest-"));
+    }
+
+    /**
+     * Начинает новый импорт. Дедупликация URL действует в пределах возвращенного объекта.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Загруженное изображение.
+     * @param url URL изображения в хранилище.
+     * @param sha256 SHA-256 содержимого (hex).
+     * @param reused true, если содержимое совпало с прежним изображением товара и загрузка не понадобилась.
+     */
+    public record IngestedImage(String url, String sha256, boolean reused) {
+    }
+
+    /**
+     * Изображения одного импорта: дедупликация URL и счетчики прогресса.
+     */
+    public final class Batch {
+
+        private final ConcurrentHashMap<String, CompletableFuture<IngestedImage>> byUrl = new ConcurrentHashMap<>();
+        private final AtomicInteger submitted = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failedInBatch = new AtomicInteger();
+        private final AtomicInteger deduplicatedInBatch = new AtomicInteger();
+        private final AtomicInteger reusedInBatch = new AtomicInteger();
+
+        private Batch() {
+        }
+
+        /**
+         * Ставит изображение в очередь на скачивание и загрузку.
+         * @param imageUrl Исходный URL изображения.
+         * @param productName Название товара (для имени файла в хранилище).
+         * @return Загруженное изображение; завершается с ошибкой, если изображение обработать не удалось.
+         */
+        public CompletableFuture<IngestedImage> submit(String imageUrl, String productName) {
+            return submit(imageUrl, productName, null, null);
+        }
+
+        /**
+         * Как {@link #submit(String, String)}, но для товара, у которого уже есть изображение:
+         * если скачанное содержимое совпадает с previousHash, повторно в хранилище не загружается.
+         * @param previousImageUrl Текущий URL изображения товара в хранилище.
+         * @param previousHash SHA-256 текущего изображения товара.
+         */
+        public CompletableFuture<IngestedImage> submit(String imageUrl, String productName,
+                                                       String previousImageUrl, String previousHash) {
+            String url = imageUrl.trim();
+            CompletableFuture<IngestedImage> existing = byUrl.get(url);
+            if (existing == null) {
+                CompletableFuture<IngestedImage> future = new CompletableFuture<>();
+                existing = byUrl.putIfAbsent(url, future);
+                if (existing == null) {
+                    start(future, url, productName, previousImageUrl, previousHash);
+                    return future;
+                }
+            }
+            deduplicatedInBatch.incrementAndGet();
+            deduplicated.incrementAndGet();
+            // Ссылку на общий объект каждый товар берет сам, когда его строка записывается в products
+            return existing;
+        }
+
+        private void start(CompletableFuture<IngestedImage> future, String url, String productName,
+                           String previousImageUrl, String previousHash) {
+            submitted.incrementAndGet();
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    IngestedImage image = ingest(url, productName, previousImageUrl, previousHash);
+                    if (image.reused()) {
+                        reusedInBatch.incrementAndGet();
+                    }
+                    future.complete(image);
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failedInBatch.incrementAndGet();
+                    failed.incrementAndGet();
+                    log.warn("Не удалось загрузить изображение для товара '{}' с URL '{}': {}",
+                            productName, url, e.getMessage());
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        /**
+         * Прогресс импорта изображений: поставлено, загружено, с ошибкой, повторных URL, без изменений содержимого.
+         */
+        public Map<String, Object> getProgress() {
+            Map<String, Object> progress = new LinkedHashMap<>();
+            progress.put("submitted", submitted.get());
+            progress.put("completed", completed.get());
+            progress.put("failed", failedInBatch.get());
+            progress.put("deduplicated", deduplicatedInBatch.get());
+            progress.put("unchanged", reusedInBatch.get());
+            return progress;
+        }
+    }
+
+    private IngestedImage ingest(String imageUrl, String productName, String previousImageUrl, String previousHash)
+            throws IOException, InterruptedException {
+        URL url = URI.create(imageUrl).toURL();
+        String host = url.getHost().toLowerCase(Locale.ROOT);
+        Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(perHostLimit));
+        permits.acquire();
+        try {
+            return download(url, productName, previousImageUrl, previousHash);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private IngestedImage download(URL url, String productName, String previousImageUrl, String previousHash)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setInstanceFollowRedirects(true);
+        try {
+            int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException("HTTP " + status);
+            }
+            String contentType = resolveContentType(connection.getContentType(), url.getPath());
+            String extension = extensionFor(contentType);
+            long contentLength = connection.getContentLengthLong();
+            if (contentLength > maxBytes) {
+                tooLarge.incrementAndGet();
+                throw new IOException("Изображение больше " + maxBytes + " байт: " + contentLength);
+            }
+
+            MessageDigest digest = sha256();
+            try (InputStream body = new DigestInputStream(connection.getInputStream(), digest)) {
+                IngestedImage image;
+                if (contentLength > 0 && previousHash == null) {
+                    // Размер известен заранее и сравнивать не с чем: передаем поток в хранилище напрямую
+                    String uploadedUrl = psObjectStorageService.uploadImage(body, contentLength, contentType, extension, productName);
+                    bytesUploaded.addAndGet(contentLength);
+                    image = new IngestedImage(uploadedUrl, HexFormat.of().formatHex(digest.digest()), false);
+                } else {
+                    image = uploadViaTempFile(body, digest, contentType, extension, productName, previousImageUrl, previousHash);
+                }
+                downloaded.incrementAndGet();
+                return image;
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Сохраняет поток во временный файл с проверкой лимита: так становятся известны размер
+     * (без Content-Length S3 его не примет) и хэш содержимого до загрузки.
+     * Если хэш совпал с прежним изображением товара, загрузка пропускается.
+     */
+    private IngestedImage uploadViaTempFile(InputStream body, MessageDigest digest, String contentType, String extension,
+                                            String productName, String previousImageUrl, String previousHash)
+            throws IOException {
+        Path tempFile = Files.createTempFile("product-image-", extension);
+        try {
+            long size = 0;
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxBytes) {
+                        tooLarge.incrementAndGet();
+                        throw new IOException("Изображение больше " + maxBytes + " байт");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            if (hash.equals(previousHash) && previousImageUrl != null) {
+                unchanged.incrementAndGet();
+                return new IngestedImage(previousImageUrl, hash, true);
+            }
+            try (InputStream in = Files.newInputStream(tempFile)) {
+                String uploadedUrl = psObjectStorageService.uploadImage(in, size, contentType, extension, productName);
+                bytesUploaded.addAndGet(size);
+                return new IngestedImage(uploadedUrl, hash, false);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static String resolveContentType(String headerValue, String path) {
+        if (headerValue != null) {
+            String type = headerValue.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+            if (type.startsWith("image/")) {
+                return type;
+            }
+        }
+        // Многие хостинги отдают application/octet-stream: определяем тип по расширению
+        String lowerPath = path.toLowerCase(Locale.ROOT);
+        if (lowerPath.endsWith(".png")) {
+            return "image/png";
+        } else if (lowerPath.endsWith(".gif")) {
+            return "image/gif";
+        } else if (lowerPath.endsWith(".webp")) {
+            return "image/webp";
+        }
+        return "image/jpeg";
+    }
+
+    private static String extensionFor(String contentType) {
+        return switch (contentType) {
+            case "image/png" -> ".png";
+            case "image/gif" -> ".gif";
+            case "image/webp" -> ".webp";
+            default -> ".jpg";
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Возвращает метрики: загружено изображений, ошибки, повторные URL, превышения лимита,
+     * изображения без изменений содержимого, объем и текущая нагрузка.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("downloaded", downloaded.get());
+        stats.put("failed", failed.get());
+        stats.put("deduplicated", deduplicated.get());
+        stats.put("tooLarge", tooLarge.get());
+        stats.put("unchanged", unchanged.get());
+        stats.put("bytesUploaded", bytesUploaded.get());
+        stats.put("inFlight", inFlight.get());
+        stats.put("hosts", hostPermits.size());
+        return stats;
+    }
+}
@@ -0,0 +1,385 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.util.LatencyRecorder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нормализация фотографий товаров перед загрузкой в хранилище.
+ *
+ * Изображение декодируется, поворачивается по EXIF Orientation, уменьшается до max-dimension
+ * по большей стороне и перекодируется в JPEG без метаданных; дополнительно строится миниатюра.
+ * Декодирование и кодирование нагружают CPU, поэтому выполняются в ограниченном пуле
+ * (по числу ядер) с ограниченной очередью. Форматы, которые не удалось декодировать,
+ * возвращаются без изменений.
+ */
+@Service
+@Slf4j
+public class ImageProcessingService {
+
+    public static final String OUTPUT_CONTENT_TYPE = "image/jpeg";
+    public static final String OUTPUT_EXTENSION = ".jpg";
+
+    // Защита от «декомпрессионных бомб»: такие изображения не декодируем
+    private static final long MAX_SOURCE_PIXELS = 60_000_000L;
+
+    private final boolean enabled;
+    private final int maxDimension;
+    private final int thumbnailDimension;
+    private final float jpegQuality;
+    private final long maxSourceBytes;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong normalized = new AtomicLong();
+    private final AtomicLong passedThrough = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final LatencyRecorder processingTime = new LatencyRecorder();
+
+    public ImageProcessingService(@Value("${image.processing.enabled:true}") boolean enabled,
+                                  @Value("${image.processing.max-dimension:1280}") int maxDimension,
+                                  @Value("${image.processing.thumbnail-dimension:320}") int thumbnailDimension,
+                                  @Value("${image.processing.jpeg-quality:0.85}") float jpegQuality,
+                                  @Value("${image.processing.max-source-bytes:20971520}") long maxSourceBytes,
+                                  @Value("${image.processing.parallelism:0}") int parallelism,
+                                  @Value("${image.processing.queue-capacity:64}") int queueCapacity) {
+        this.enabled = enabled;
+        this.maxDimension = maxDimension;
+        this.thumbnailDimension = thumbnailDimension;
+        this.jpegQuality = jpegQuality;
+        this.maxSourceBytes = maxSourceBytes;
+        // По умолчанию по одному потоку на ядро: работа чисто вычислительная
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), TelegramUpdateDispatcher.namedThreadFactory("image-process-"));
+    }
+
+    /**
+     * Результат обработки.
+     * @param image Содержимое для загрузки (нормализованное или исходное).
+     * @param contentType MIME тип содержимого.
+     * @param extension Расширение файла.
+     * @param thumbnail Миниатюра в JPEG; null, если изображение не нормализовано.
+     */
+    public record ProcessedImage(byte[] image, String contentType, String extension, byte[] thumbnail) {
+
+        public boolean normalized() {
+            return thumbnail != null;
+        }
+    }
+
+    /**
+     * Обработка включена и файл не больше max-source-bytes. Более крупные файлы загружаются как есть.
+     */
+    public boolean accepts(long contentLength) {
+        return enabled && contentLength <= maxSourceBytes;
+    }
+
+    /**
+     * Читает изображение из потока и нормализует его в пуле обработки; вызывающий поток ждет результат.
+     * Поток читается в вызывающем потоке: при импорте это ответ удаленного сервера, и медленный
+     * источник не должен занимать поток пула, рассчитанного на число ядер.
+     * @param content Поток с исходным изображением (не больше max-source-bytes).
+     * @param contentType Исходный MIME тип.
+     * @param extension Исходное расширение файла.
+     * @throws RuntimeException если очередь обработки переполнена, поток не удалось прочитать или он больше max-source-bytes.
+     */
+    public ProcessedImage process(InputStream content, String contentType, String extension) {
+        byte[] source;
+        try {
+            source = content.readNBytes((int) Math.min(maxSourceBytes + 1, Integer.MAX_VALUE - 8));
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при чтении файла изображения: " + e.getMessage(), e);
+        }
+        if (source.length > maxSourceBytes) {
+            throw new RuntimeException("Изображение больше " + maxSourceBytes + " байт");
+        }
+        Future<ProcessedImage> future;
+        try {
+            future = executor.submit(() -> normalize(source, contentType, extension));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new RuntimeException("Сервер обработки изображений перегружен, попробуйте позже");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Обработка изображения прервана");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new RuntimeException("Ошибка при обработке файла изображения: " + cause.getMessage(), cause);
+        }
+    }
+
+    private ProcessedImage normalize(byte[] source, String contentType, String extension) {
+        long start = System.nanoTime();
+        bytesIn.addAndGet(source.length);
+        try {
+            BufferedImage decoded = decode(source);
+            if (decoded == null) {
+                passedThrough.incrementAndGet();
+                bytesOut.addAndGet(source.length);
+                return new ProcessedImage(source, contentType, extension, null);
+            }
+            BufferedImage oriented = orient(decoded, readExifOrientation(source));
+            BufferedImage resized = resize(oriented, maxDimension);
+            byte[] image = encodeJpeg(resized);
+            byte[] thumbnail = encodeJpeg(resize(resized, thumbnailDimension));
+            normalized.incrementAndGet();
+            bytesOut.addAndGet(image.length + thumbnail.length);
+            log.debug("Изображение нормализовано: {} -> {} байт, {}x{}",
+                    source.length, image.length, resized.getWidth(), resized.getHeight());
+            return new ProcessedImage(image, OUTPUT_CONTENT_TYPE, OUTPUT_EXTENSION, thumbnail);
+        } catch (IOException | RuntimeException e) {
+            // Поврежденный или экзотический файл загружаем как есть, как до появления обработки
+            log.warn("Не удалось нормализовать изображение, загружается исходное: {}", e.getMessage());
+            passedThrough.incrementAndGet();
+            bytesOut.addAndGet(source.length);
+            return new ProcessedImage(source, contentType, extension, null);
+        } finally {
+            processingTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Декодирует изображение. Если оно намного больше целевого размера, читается с прореживанием
+     * строк и столбцов, чтобы не держать в памяти полноразмерный растр.
+     * @return Изображение или null, если формат не поддерживается.
+     */
+    private BufferedImage decode(byte[] source) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(source))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    throw new IOException("Слишком большое разрешение: " + width + "x" + height);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Оставляем запас в 2 раза для качественного уменьшения
+                int subsampling = Math.max(1, Math.max(width, height) / (maxDimension * 2));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Поворачивает изображение по значению EXIF Orientation и переводит его в RGB без альфа-канала
+     * (прозрачные области заливаются белым).
+     */
+    private BufferedImage orient(BufferedImage image, int orientation) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+            case 2 -> { transform.scale(-1.0, 1.0); transform.translate(-width, 0); }
+            case 3 -> { transform.translate(width, height); transform.rotate(Math.PI); }
+            case 4 -> { transform.scale(1.0, -1.0); transform.translate(0, -height); }
+            case 5 -> { transform.rotate(-Math.PI / 2); transform.scale(-1.0, 1.0); }
+            case 6 -> { transform.translate(height, 0); transform.rotate(Math.PI / 2); }
+            case 7 -> { transform.scale(-1.0, 1.0); transform.translate(-height, 0);
+                        transform.translate(0, width); transform.rotate(3 * Math.PI / 2); }
+            case 8 -> { transform.translate(0, width); transform.rotate(3 * Math.PI / 2); }
+            default -> { }
+        }
+        boolean swap = orientation >= 5 && orientation <= 8;
+        BufferedImage result = new BufferedImage(swap ? height : width, swap ? width : height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, result.getWidth(), result.getHeight());
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Уменьшает изображение так, чтобы большая сторона не превышала maxSide. Крупные изображения
+     * уменьшаются в несколько шагов вдвое: один шаг билинейной интерполяции дает заметные артефакты.
+     */
+    private BufferedImage resize(BufferedImage image, int maxSide) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (Math.max(width, height) <= maxSide) {
+            return image;
+        }
+        double scale = maxSide / (double) Math.max(width, height);
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return current.getWidth() == targetWidth && current.getHeight() == targetHeight
+                ? current
+                : draw(current, targetWidth, targetHeight);
+    }
+
+    private BufferedImage draw(BufferedImage image, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Кодирует изображение в JPEG с заданным качеством. Метаданные не записываются.
+     */
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Читает тег Orientation (0x0112) из блока EXIF в JPEG.
+     * @return Значение от 1 до 8; 1, если тега нет или файл не JPEG.
+     */
+    static int readExifOrientation(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int offset = 2;
+        while (offset + 4 <= data.length && (data[offset] & 0xFF) == 0xFF) {
+            int marker = data[offset + 1] & 0xFF;
+            int length = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+            if (marker == 0xDA || length < 2) {
+                // Начались данные изображения: EXIF дальше не бывает
+                return 1;
+            }
+            int segment = offset + 4;
+            if (marker == 0xE1 && segment + 14 <= data.length
+                    && data[segment] == 'E' && data[segment + 1] == 'x' && data[segment + 2] == 'i' && data[segment + 3] == 'f') {
+                return readTiffOrientation(data, segment + 6, Math.min(data.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return 1;
+    }
+
+    private static int readTiffOrientation(byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 1;
+        }
+        boolean littleEndian = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        // Смещение IFD0 берется из файла: отрицательное или указывающее внутрь заголовка TIFF — файл поврежден
+        int ifdOffset = readInt(data, tiff + 4, littleEndian);
+        if (ifdOffset < 8 || ifdOffset > end - tiff - 2) {
+            return 1;
+        }
+        int ifd = tiff + ifdOffset;
+        int entries = readShort(data, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return 1;
+            }
+            if (readShort(data, entry, littleEndian) == 0x0112) {
+                int value = readShort(data, entry + 8, littleEndian);
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        int high = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        int low = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return (high << 16) | low;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Возвращает метрики обработки: нормализовано, пропущено без изменений, отказы из-за очереди,
+     * объем до и после, длительность обработки и загрузка пула.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxDimension", maxDimension);
+        stats.put("thumbnailDimension", thumbnailDimension);
+        stats.put("jpegQuality", jpegQuality);
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("normalized", normalized.get());
+        stats.put("passedThrough", passedThrough.get());
+        stats.put("rejected", rejected.get());
+        stats.put("bytesIn", bytesIn.get());
+        stats.put("bytesOut", bytesOut.get());
+        stats.put("processingTime", processingTime.snapshot());
+        return stats;
+    }
+}
@@ -0,0 +1,92 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.util.SpreadsheetRowStream;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Схема импорта: какая колонка таблицы соответствует какому полю товара,
+ * и значения по умолчанию для полей без колонки (например, общая категория листа).
+ * Применяется к каждой строке локально, без обращения к OpenAI.
+ *
+ * @param columns Номер колонки для поля.
+ * @param defaults Значение поля, если колонки нет или ячейка пустая.
+ * @param source Откуда получена схема: heuristic, openai.
+ */
+public record ImportColumnMapping(Map<Field, Integer> columns, Map<Field, String> defaults, String source) {
+
+    /**
+     * Поля товара, которые можно заполнить из таблицы. key — имя поля в данных строки.
+     */
+    public enum Field {
+        NAME("name"),
+        PRICE("price"),
+        DESCRIPTION("description"),
+        CATALOG("catalog"),
+        SUBCATEGORY("subcategory"),
+        IMAGE_URL("imageUrl"),
+        IN_STOCK("inStock"),
+        SKU("sku");
+
+        private final String key;
+
+        Field(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public static Field fromKey(String key) {
+            for (Field field : values()) {
+                if (field.key.equalsIgnoreCase(key)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    public ImportColumnMapping {
+        Map<Field, Integer> columnsCopy = new EnumMap<>(Field.class);
+        columnsCopy.putAll(columns);
+        columns = Collections.unmodifiableMap(columnsCopy);
+        Map<Field, String> defaultsCopy = new EnumMap<>(Field.class);
+        defaultsCopy.putAll(defaults);
+        defaults = Collections.unmodifiableMap(defaultsCopy);
+    }
+
+    public boolean has(Field field) {
+        return columns.containsKey(field) || defaults.containsKey(field);
+    }
+
+    /**
+     * Схема пригодна для импорта: есть название и цена.
+     */
+    public boolean isComplete() {
+        return columns.containsKey(Field.NAME) && has(Field.PRICE);
+    }
+
+    /**
+     * Применяет схему к строке таблицы.
+     * @return Данные товара по ключам полей (name, price, ...); отсутствующие поля не заполняются.
+     */
+    public Map<String, Object> apply(SpreadsheetRowStream.SheetRow row) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        for (Field field : Field.values()) {
+            Integer column = columns.get(field);
+            String value = column != null ? row.get(column).trim() : "";
+            if (value.isEmpty()) {
+                value = defaults.getOrDefault(field, "");
+            }
+            if (!value.isEmpty()) {
+                data.put(field.key(), value);
+            }
+        }
+        return data;
+    }
+}
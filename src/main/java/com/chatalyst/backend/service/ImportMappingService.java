@@ -0,0 +1,337 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.util.SpreadsheetRowStream;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Определение схемы импорта (колонка -> поле товара) по заголовкам и нескольким строкам-примерам.
+ *
+ * Сначала колонки сопоставляются локально по словарю названий заголовков. Если так не удалось
+ * найти название, цену или категорию, один раз спрашиваем OpenAI — в запрос попадают только
+ * заголовки и пара строк, поэтому его стоимость не зависит от размера файла.
+ * Готовая схема кэшируется по боту и набору заголовков: повторный импорт того же прайса
+ * не обращается к OpenAI вовсе. Схема, собранная локально из-за ошибки OpenAI, в кэш не попадает,
+ * чтобы следующий импорт снова попробовал OpenAI.
+ */
+@Service
+@Slf4j
+public class ImportMappingService {
+
+    private static final int PROMPT_SAMPLE_ROWS = 3;
+    private static final String DEFAULT_CATALOG = "Без категории";
+    // Источник схемы, полученной локально после ошибки OpenAI. Такие схемы не кэшируются
+    private static final String FALLBACK_SOURCE = "heuristic-fallback";
+
+    // Синонимы заголовков (рус., англ., каз.). Проверяются на точное совпадение и на вхождение
+    private static final Map<ImportColumnMapping.Field, List<String>> SYNONYMS = new EnumMap<>(Map.of(
+            ImportColumnMapping.Field.NAME, List.of("название", "наименование", "товар", "продукт", "name", "title", "product", "атауы"),
+            ImportColumnMapping.Field.PRICE, List.of("цена", "стоимость", "прайс", "price", "cost", "баға", "бағасы"),
+            ImportColumnMapping.Field.DESCRIPTION, List.of("описание", "характеристики", "description", "desc", "сипаттамасы"),
+            ImportColumnMapping.Field.CATALOG, List.of("категория", "каталог", "раздел", "группа", "category", "catalog", "санат"),
+            ImportColumnMapping.Field.SUBCATEGORY, List.of("подкатегория", "подраздел", "подгруппа", "subcategory", "тип", "вид"),
+            ImportColumnMapping.Field.IMAGE_URL, List.of("фото", "изображение", "картинка", "image", "photo", "picture", "img", "сурет"),
+            ImportColumnMapping.Field.IN_STOCK, List.of("наличие", "в наличии", "остаток", "stock", "available", "availability"),
+            ImportColumnMapping.Field.SKU, List.of("артикул", "арт", "sku", "код товара", "код", "article", "vendor code", "part number")));
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final int maxCachedMappings;
+
+    @Value("${openai.api.key}")
+    private String openaiApiKey;
+
+    @Value("${openai.model:gpt-3.5-turbo}")
+    private String openaiModel;
+
+    // LRU по порядку доступа; все обращения синхронизированы на самой карте
+    private final LinkedHashMap<String, ImportColumnMapping> cache;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong heuristicMappings = new AtomicLong();
+    private final AtomicLong openAiMappings = new AtomicLong();
+    private final AtomicLong openAiFailures = new AtomicLong();
+
+    public ImportMappingService(RestTemplate restTemplate, ObjectMapper objectMapper,
+                                @Value("${import.mapping.cache-size:1000}") int maxCachedMappings) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.maxCachedMappings = maxCachedMappings;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImportColumnMapping> eldest) {
+                return size() > ImportMappingService.this.maxCachedMappings;
+            }
+        };
+    }
+
+    /**
+     * Возвращает схему импорта для таблицы.
+     * @param botId ID бота (схема кэшируется отдельно для каждого бота).
+     * @param headers Заголовки колонок.
+     * @param sampleRows Первые строки таблицы.
+     * @return Схема, в которой есть как минимум название и цена.
+     * @throws RuntimeException если колонки с названием или ценой определить не удалось.
+     */
+    public ImportColumnMapping resolve(Long botId, List<String> headers, List<SpreadsheetRowStream.SheetRow> sampleRows) {
+        String cacheKey = botId + "\u001F" + signature(headers);
+        synchronized (cache) {
+            ImportColumnMapping cached = cache.get(cacheKey);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        ImportColumnMapping mapping = inferLocally(headers, sampleRows);
+        if (mapping.columns().containsKey(ImportColumnMapping.Field.NAME)
+                && mapping.columns().containsKey(ImportColumnMapping.Field.PRICE)
+                && mapping.columns().containsKey(ImportColumnMapping.Field.CATALOG)) {
+            heuristicMappings.incrementAndGet();
+        } else {
+            mapping = inferWithOpenAI(headers, sampleRows, mapping);
+        }
+        if (!mapping.has(ImportColumnMapping.Field.CATALOG)) {
+            Map<ImportColumnMapping.Field, String> defaults = new EnumMap<>(ImportColumnMapping.Field.class);
+            defaults.putAll(mapping.defaults());
+            defaults.put(ImportColumnMapping.Field.CATALOG, DEFAULT_CATALOG);
+            mapping = new ImportColumnMapping(mapping.columns(), defaults, mapping.source());
+        }
+        if (!mapping.isComplete()) {
+            throw new RuntimeException("Не удалось определить колонки с названием и ценой товара. Заголовки: " + headers);
+        }
+
+        log.info("Схема импорта для бота {} ({}): колонки {}, значения по умолчанию {}",
+                botId, mapping.source(), describe(mapping, headers), mapping.defaults());
+        if (!FALLBACK_SOURCE.equals(mapping.source())) {
+            synchronized (cache) {
+                cache.put(cacheKey, mapping);
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Сопоставление по словарю заголовков; колонка с URL изображений дополнительно ищется по содержимому.
+     */
+    ImportColumnMapping inferLocally(List<String> headers, List<SpreadsheetRowStream.SheetRow> sampleRows) {
+        // Оценки всех пар (поле, колонка); назначаем жадно от лучшей, каждая колонка — одному полю
+        List<int[]> candidates = new ArrayList<>();
+        for (ImportColumnMapping.Field field : ImportColumnMapping.Field.values()) {
+            for (int column = 0; column < headers.size(); column++) {
+                int score = headerScore(field, normalize(headers.get(column)));
+                if (score > 0) {
+                    candidates.add(new int[]{score, field.ordinal(), column});
+                }
+            }
+        }
+        candidates.sort((a, b) -> a[0] != b[0] ? Integer.compare(b[0], a[0])
+                : a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[2], b[2]));
+
+        Map<ImportColumnMapping.Field, Integer> columns = new EnumMap<>(ImportColumnMapping.Field.class);
+        boolean[] used = new boolean[headers.size()];
+        for (int[] candidate : candidates) {
+            ImportColumnMapping.Field field = ImportColumnMapping.Field.values()[candidate[1]];
+            if (!columns.containsKey(field) && !used[candidate[2]]) {
+                columns.put(field, candidate[2]);
+                used[candidate[2]] = true;
+            }
+        }
+
+        if (!columns.containsKey(ImportColumnMapping.Field.IMAGE_URL)) {
+            for (int column = 0; column < headers.size(); column++) {
+                if (!used[column] && looksLikeUrls(sampleRows, column)) {
+                    columns.put(ImportColumnMapping.Field.IMAGE_URL, column);
+                    break;
+                }
+            }
+        }
+        return new ImportColumnMapping(columns, Map.of(), "heuristic");
+    }
+
+    private static int headerScore(ImportColumnMapping.Field field, String header) {
+        int best = 0;
+        for (String synonym : SYNONYMS.get(field)) {
+            if (header.equals(synonym)) {
+                return 3;
+            }
+            if (header.startsWith(synonym + " ") || header.endsWith(" " + synonym) || header.contains(" " + synonym + " ")) {
+                best = Math.max(best, 2);
+            } else if (synonym.length() >= 4 && header.contains(synonym)) {
+                best = Math.max(best, 1);
+            }
+        }
+        return best;
+    }
+
+    private static boolean looksLikeUrls(List<SpreadsheetRowStream.SheetRow> sampleRows, int column) {
+        int urls = 0;
+        int values = 0;
+        for (SpreadsheetRowStream.SheetRow row : sampleRows) {
+            String value = row.get(column).trim().toLowerCase(Locale.ROOT);
+            if (!value.isEmpty()) {
+                values++;
+                if (value.startsWith("http://") || value.startsWith("https://")) {
+                    urls++;
+                }
+            }
+        }
+        return values > 0 && urls * 2 > values;
+    }
+
+    /**
+     * Спрашивает у OpenAI соответствие колонок полям. Ответ дополняет локальную схему;
+     * при ошибке OpenAI используется локальная схема как есть.
+     */
+    private ImportColumnMapping inferWithOpenAI(List<String> headers, List<SpreadsheetRowStream.SheetRow> sampleRows,
+                                                ImportColumnMapping local) {
+        try {
+            JsonNode answer = objectMapper.readTree(stripMarkdown(callOpenAI(createMappingPrompt(headers, sampleRows))));
+            Map<ImportColumnMapping.Field, Integer> columns = new EnumMap<>(ImportColumnMapping.Field.class);
+            columns.putAll(local.columns());
+            Map<ImportColumnMapping.Field, String> defaults = new EnumMap<>(ImportColumnMapping.Field.class);
+
+            Iterator<Map.Entry<String, JsonNode>> fields = answer.path("columns").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> entry = fields.next();
+                ImportColumnMapping.Field field = ImportColumnMapping.Field.fromKey(entry.getKey());
+                int column = entry.getValue().isTextual() ? headers.indexOf(entry.getValue().asText().trim()) : -1;
+                if (field != null && column >= 0) {
+                    // Колонку, уже назначенную другому полю, отдаем полю из ответа OpenAI
+                    columns.values().removeIf(existing -> existing == column);
+                    columns.put(field, column);
+                }
+            }
+            Iterator<Map.Entry<String, JsonNode>> defaultValues = answer.path("defaults").fields();
+            while (defaultValues.hasNext()) {
+                Map.Entry<String, JsonNode> entry = defaultValues.next();
+                ImportColumnMapping.Field field = ImportColumnMapping.Field.fromKey(entry.getKey());
+                String value = entry.getValue().isTextual() ? entry.getValue().asText().trim() : "";
+                if ((field == ImportColumnMapping.Field.CATALOG || field == ImportColumnMapping.Field.SUBCATEGORY)
+                        && !value.isEmpty()) {
+                    defaults.put(field, value);
+                }
+            }
+            openAiMappings.incrementAndGet();
+            return new ImportColumnMapping(columns, defaults, "openai");
+        } catch (Exception e) {
+            openAiFailures.incrementAndGet();
+            log.warn("Не удалось определить схему импорта через OpenAI, используется локальная: {}", e.getMessage());
+            return new ImportColumnMapping(local.columns(), local.defaults(), FALLBACK_SOURCE);
+        }
+    }
+
+    private String createMappingPrompt(List<String> headers, List<SpreadsheetRowStream.SheetRow> sampleRows) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("Ты помощник для обработки данных о товарах. ");
+        prompt.append("Определи, какие колонки таблицы соответствуют полям товара.\n\n");
+        prompt.append("Поля товара:\n");
+        prompt.append("- name: название товара\n");
+        prompt.append("- price: цена товара\n");
+        prompt.append("- description: описание товара\n");
+        prompt.append("- catalog: основная категория товара\n");
+        prompt.append("- subcategory: подкатегория товара\n");
+        prompt.append("- imageUrl: прямая ссылка на изображение (http/https)\n");
+        prompt.append("- inStock: наличие товара\n");
+        prompt.append("- sku: артикул или код товара\n\n");
+
+        prompt.append("Заголовки колонок: ").append(headers).append("\n");
+        for (int i = 0; i < Math.min(PROMPT_SAMPLE_ROWS, sampleRows.size()); i++) {
+            prompt.append("Строка ").append(i + 1).append(": ").append(sampleRows.get(i).cells()).append("\n");
+        }
+
+        prompt.append("\nВерни JSON объект вида {\"columns\": {\"name\": \"<заголовок>\", ...}, ");
+        prompt.append("\"defaults\": {\"catalog\": \"...\", \"subcategory\": \"...\"}}. ");
+        prompt.append("В columns укажи точные заголовки из списка только для полей, для которых колонка есть. ");
+        prompt.append("Если колонки с категорией нет, в defaults укажи одну подходящую категорию для всех товаров по примерам строк. ");
+        prompt.append("Верни только JSON без дополнительного текста.");
+        return prompt.toString();
+    }
+
+    private String callOpenAI(String prompt) throws Exception {
+        String url = "https://api.openai.com/v1/chat/completions";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(openaiApiKey);
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", openaiModel);
+        requestBody.put("max_tokens", 500);
+        requestBody.put("temperature", 0.0);
+        requestBody.put("messages", List.of(Map.of("role", "user", "content", prompt)));
+
+        ResponseEntity<String> response = restTemplate.postForEntity(url, new HttpEntity<>(requestBody, headers), String.class);
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new RuntimeException("Ошибка при вызове OpenAI API: " + response.getStatusCode());
+        }
+        JsonNode responseJson = objectMapper.readTree(response.getBody());
+        return responseJson.path("choices").get(0).path("message").path("content").asText();
+    }
+
+    private static String stripMarkdown(String response) {
+        String clean = response.trim();
+        if (clean.startsWith("```json")) {
+            clean = clean.substring(7);
+        } else if (clean.startsWith("```")) {
+            clean = clean.substring(3);
+        }
+        if (clean.endsWith("```")) {
+            clean = clean.substring(0, clean.length() - 3);
+        }
+        return clean.trim();
+    }
+
+    private static String signature(List<String> headers) {
+        StringBuilder signature = new StringBuilder();
+        for (String header : headers) {
+            signature.append(normalize(header)).append('\u001E');
+        }
+        return signature.toString();
+    }
+
+    private static String normalize(String header) {
+        return header.toLowerCase(Locale.ROOT).replace('ё', 'е')
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .trim();
+    }
+
+    private static Map<String, String> describe(ImportColumnMapping mapping, List<String> headers) {
+        Map<String, String> description = new LinkedHashMap<>();
+        mapping.columns().forEach((field, column) -> description.put(field.key(), headers.get(column)));
+        return description;
+    }
+
+    /**
+     * Возвращает метрики: размер кэша схем, попадания, схемы по словарю и через OpenAI.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (cache) {
+            stats.put("cachedMappings", cache.size());
+        }
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("heuristicMappings", heuristicMappings.get());
+        stats.put("openAiMappings", openAiMappings.get());
+        stats.put("openAiFailures", openAiFailures.get());
+        return stats;
+    }
+}
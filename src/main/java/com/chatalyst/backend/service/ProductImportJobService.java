@@ -0,0 +1,448 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.BotRepository;
+import com.chatalyst.backend.Repository.ProductImportJobRepository;
+import com.chatalyst.backend.dto.ProductImportJobResponse;
+import com.chatalyst.backend.model.Bot;
+import com.chatalyst.backend.model.ProductImportJob;
+import com.chatalyst.backend.security.services.ExcelProductImportService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновые задачи импорта товаров из файлов.
+ *
+ * Загрузка файла только сохраняет его и ставит задачу в очередь; импорт выполняется на
+ * ограниченном пуле потоков. Прогресс сохраняется в ProductImportJob после каждой
+ * записанной пачки товаров в той же транзакции, поэтому после перезапуска приложения незавершенные
+ * задачи продолжаются со следующей строки. Экземпляр закрепляет задачу за собой (owner_id) и регулярно
+ * продлевает отметку heartbeat_at; продолжить задачу можно, только забрав ее, поэтому два экземпляра
+ * не выполняют одну задачу. Файлы хранятся в локальном каталоге, так что задачу с истекшей отметкой
+ * забирает другой экземпляр только при общем каталоге import.jobs.storage-dir.
+ */
+@Service
+@Slf4j
+public class ProductImportJobService {
+
+    private static final List<ProductImportJob.Status> ACTIVE_STATUSES =
+            List.of(ProductImportJob.Status.QUEUED, ProductImportJob.Status.RUNNING);
+    private static final int MAX_STORED_ERRORS = 100;
+
+    private final ProductImportJobRepository jobRepository;
+    private final BotRepository botRepository;
+    private final ExcelProductImportService excelProductImportService;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final Path storageDir;
+    private final int maxActivePerUser;
+    private final String instanceId;
+    private final long leaseMs;
+
+    // Флаги отмены задач, выполняемых или ожидающих в этом экземпляре
+    private final Map<Long, AtomicBoolean> cancelFlags = new ConcurrentHashMap<>();
+    private final Object submitLock = new Object();
+
+    public ProductImportJobService(ProductImportJobRepository jobRepository,
+                                   BotRepository botRepository,
+                                   ExcelProductImportService excelProductImportService,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${import.jobs.parallelism:2}") int parallelism,
+                                   @Value("${import.jobs.queue-capacity:50}") int queueCapacity,
+                                   @Value("${import.jobs.max-active-per-user:2}") int maxActivePerUser,
+                                   @Value("${import.jobs.storage-dir:${java.io.tmpdir}/chatalyst-imports}") String storageDir,
+                                   @Value("${import.jobs.instance-id:}") String instanceId,
+                                   @Value("${import.jobs.lease-ms:120000}") long leaseMs) {
+        this.jobRepository = jobRepository;
+        this.botRepository = botRepository;
+        this.excelProductImportService = excelProductImportService;
+        this.transactionTemplate = transactionTemplate;
+        this.maxActivePerUser = maxActivePerUser;
+        this.storageDir = Paths.get(storageDir);
+        this.instanceId = instanceId.isBlank() ? defaultInstanceId() : instanceId;
+        this.leaseMs = leaseMs;
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), TelegramUpdateDispatcher.namedThreadFactory("product-import-"));
+    }
+
+    /**
+     * Сохраняет файл и ставит задачу импорта в очередь.
+     * @param file Загруженный файл (.xlsx, .xls или .csv).
+     * @param botId ID бота, к которому привязываются товары.
+     * @param userId ID пользователя (для проверки прав).
+     * @param mode CREATE — создать все строки как новые товары, UPSERT — обновить каталог по артикулу или названию.
+     * @param deleteMissing Для UPSERT: удалить товары, которых нет в файле.
+     * @return Созданная задача.
+     * @throws RuntimeException если бот не найден, нет прав, превышен лимит задач или очередь переполнена.
+     */
+    public ProductImportJobResponse submit(MultipartFile file, Long botId, Long userId,
+                                           ProductImportJob.Mode mode, boolean deleteMissing) {
+        Bot bot = botRepository.findById(botId)
+                .orElseThrow(() -> new RuntimeException("Бот не найден с ID: " + botId));
+        if (!bot.getOwner().getId().equals(userId)) {
+            throw new RuntimeException("У вас нет прав для добавления товаров в этого бота.");
+        }
+
+        ProductImportJob job;
+        synchronized (submitLock) {
+            if (jobRepository.countByUserIdAndStatusIn(userId, ACTIVE_STATUSES) >= maxActivePerUser) {
+                throw new RuntimeException("Одновременно можно выполнять не более " + maxActivePerUser
+                        + " импортов. Дождитесь завершения текущих.");
+            }
+            Path stored = storeFile(file);
+            LocalDateTime now = LocalDateTime.now();
+            job = jobRepository.save(ProductImportJob.builder()
+                    .userId(userId)
+                    .botId(botId)
+                    .filename(file.getOriginalFilename())
+                    .storedFile(stored.toString())
+                    .status(ProductImportJob.Status.QUEUED)
+                    .mode(mode)
+                    .deleteMissing(mode == ProductImportJob.Mode.UPSERT && deleteMissing)
+                    .lastCommittedRow(0)
+                    .processedRows(0)
+                    .createdCount(0)
+                    .updatedCount(0)
+                    .unchangedCount(0)
+                    .deletedCount(0)
+                    .failedCount(0)
+                    .cancelRequested(false)
+                    .ownerId(instanceId)
+                    .heartbeatAt(now)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build());
+            // Под той же блокировкой, что и resumeUnfinished: задача не попадет в очередь дважды
+            enqueue(job);
+        }
+        log.info("Задача импорта {} поставлена в очередь: файл '{}', бот {}", job.getId(), job.getFilename(), botId);
+        return toResponse(job);
+    }
+
+    /**
+     * Возвращает состояние задачи пользователя.
+     * @throws RuntimeException если задача не найдена или принадлежит другому пользователю.
+     */
+    public ProductImportJobResponse getJob(Long jobId, Long userId) {
+        return toResponse(findJob(jobId, userId));
+    }
+
+    /**
+     * Отменяет задачу. Уже созданные товары остаются; выполняющаяся задача останавливается до следующей строки,
+     * а на другом экземпляре — после текущей пачки. Задачу меняют только точечные UPDATE: прогресс
+     * и счетчики пишет лишь поток импорта.
+     * @throws RuntimeException если задача не найдена или принадлежит другому пользователю.
+     */
+    public ProductImportJobResponse cancel(Long jobId, Long userId) {
+        ProductImportJob job = findJob(jobId, userId);
+        if (!job.getStatus().isActive()) {
+            return toResponse(job);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> jobRepository.requestCancel(jobId, userId, now));
+        AtomicBoolean flag = cancelFlags.get(jobId);
+        if (flag != null) {
+            flag.set(true);
+        }
+        // Задача еще не начата: сразу помечаем отмененной, поток пропустит ее
+        Integer cancelledQueued = transactionTemplate.execute(status ->
+                jobRepository.cancelQueued(jobId, "Импорт отменен", now));
+        if (cancelledQueued != null && cancelledQueued > 0) {
+            deleteQuietly(Paths.get(job.getStoredFile()));
+        }
+        log.info("Запрошена отмена задачи импорта {}", jobId);
+        return toResponse(findJob(jobId, userId));
+    }
+
+    /**
+     * После перезапуска, а затем периодически продолжает незавершенные задачи с последней записанной пачки:
+     * свои и чужие с истекшей отметкой владельца. Задача сначала закрепляется за экземпляром, и только потом продолжается.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        synchronized (submitLock) {
+            resumeClaimable();
+        }
+    }
+
+    private void resumeClaimable() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expiredBefore = now.minusNanos(TimeUnit.MILLISECONDS.toNanos(leaseMs));
+        for (ProductImportJob candidate : jobRepository.findByStatusInOrderByIdAsc(ACTIVE_STATUSES)) {
+            boolean own = candidate.getOwnerId() == null || instanceId.equals(candidate.getOwnerId());
+            if (cancelFlags.containsKey(candidate.getId())
+                    || (!own && !Files.exists(Paths.get(candidate.getStoredFile())))) {
+                // Задача уже выполняется здесь или ее файл доступен только другому экземпляру
+                continue;
+            }
+            Integer claimed = transactionTemplate.execute(status ->
+                    jobRepository.claim(candidate.getId(), instanceId, now, expiredBefore));
+            if (claimed == null || claimed == 0) {
+                continue;
+            }
+            ProductImportJob job = jobRepository.findById(candidate.getId()).orElse(null);
+            if (job == null || !job.getStatus().isActive()) {
+                continue;
+            }
+            if (Boolean.TRUE.equals(job.getCancelRequested())) {
+                finish(job, ProductImportJob.Status.CANCELLED, "Импорт отменен");
+            } else if (!Files.exists(Paths.get(job.getStoredFile()))) {
+                finish(job, ProductImportJob.Status.FAILED, "Файл импорта не найден после перезапуска");
+            } else {
+                log.info("Продолжение задачи импорта {} со строки {}", job.getId(), job.getLastCommittedRow() + 1);
+                job.setStatus(ProductImportJob.Status.QUEUED);
+                jobRepository.save(job);
+                try {
+                    enqueue(job);
+                } catch (RuntimeException e) {
+                    log.warn("Задачу импорта {} не удалось продолжить: {}", job.getId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Повторно проверяет задачи, владелец которых перестал продлевать отметку.
+     */
+    @Scheduled(fixedDelayString = "${import.jobs.lease-ms:120000}", initialDelayString = "${import.jobs.lease-ms:120000}")
+    public void resumeAbandoned() {
+        try {
+            resumeUnfinished();
+        } catch (RuntimeException e) {
+            log.error("Ошибка проверки незавершенных задач импорта: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Продлевает отметку владельца у задач, которые выполняются или ждут в очереди этого экземпляра.
+     */
+    @Scheduled(fixedDelayString = "${import.jobs.heartbeat-interval-ms:30000}")
+    public void heartbeat() {
+        List<Long> ids = new ArrayList<>(cancelFlags.keySet());
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    jobRepository.heartbeat(ids, instanceId, LocalDateTime.now()));
+        } catch (RuntimeException e) {
+            log.warn("Не удалось продлить отметку задач импорта: {}", e.getMessage());
+        }
+    }
+
+    private void enqueue(ProductImportJob job) {
+        Long jobId = job.getId();
+        cancelFlags.put(jobId, new AtomicBoolean(false));
+        try {
+            executor.execute(() -> run(jobId));
+        } catch (RejectedExecutionException e) {
+            cancelFlags.remove(jobId);
+            finish(job, ProductImportJob.Status.FAILED, "Очередь импорта переполнена, попробуйте позже");
+            throw new RuntimeException("Очередь импорта переполнена, попробуйте позже");
+        }
+    }
+
+    private void run(Long jobId) {
+        AtomicBoolean cancelled = cancelFlags.get(jobId);
+        try {
+            // Условный UPDATE: задача, отмененная в очереди, не перезапишется статусом RUNNING
+            Integer started = transactionTemplate.execute(status -> jobRepository.start(jobId, LocalDateTime.now()));
+            if (started == null || started == 0) {
+                // Отмененную в очереди задачу могли отменить через другой экземпляр: файл удаляется здесь
+                jobRepository.findById(jobId)
+                        .filter(job -> job.getStatus() == ProductImportJob.Status.CANCELLED)
+                        .ifPresent(job -> deleteQuietly(Paths.get(job.getStoredFile())));
+                return;
+            }
+            ProductImportJob job = jobRepository.findById(jobId).orElse(null);
+            if (job == null) {
+                return;
+            }
+            if (Boolean.TRUE.equals(job.getCancelRequested())) {
+                cancelled.set(true);
+            }
+
+            ExcelProductImportService.ImportListener listener = new ExcelProductImportService.ImportListener() {
+                @Override
+                public void onBatchCommitted(ExcelProductImportService.ImportProgress progress) {
+                    job.setLastCommittedRow(progress.lastCommittedRow());
+                    job.setProcessedRows(job.getProcessedRows() + progress.processedRows());
+                    job.setCreatedCount(job.getCreatedCount() + progress.created());
+                    job.setUpdatedCount(job.getUpdatedCount() + progress.updated());
+                    job.setUnchangedCount(job.getUnchangedCount() + progress.unchanged());
+                    job.setDeletedCount(job.getDeletedCount() + progress.deleted());
+                    job.setFailedCount(job.getFailedCount() + progress.failed());
+                    job.setErrors(appendErrors(job.getErrors(), progress.errors()));
+                    // Отмену могли запросить через другой экземпляр: флаг перечитывается в транзакции пачки
+                    if (jobRepository.isCancelRequested(jobId)) {
+                        cancelled.set(true);
+                    }
+                    job.setCancelRequested(cancelled.get());
+                    job.setUpdatedAt(LocalDateTime.now());
+                    job.setHeartbeatAt(job.getUpdatedAt());
+                    // Вызывается в транзакции пачки товаров: прогресс фиксируется вместе с ней
+                    jobRepository.save(job);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return cancelled.get();
+                }
+            };
+
+            try {
+                boolean completed = excelProductImportService.importFromFile(Paths.get(job.getStoredFile()),
+                        job.getFilename(), job.getBotId(), job.getUserId(), job.getMode(),
+                        Boolean.TRUE.equals(job.getDeleteMissing()), job.getLastCommittedRow(), listener);
+                if (completed) {
+                    finish(job, ProductImportJob.Status.COMPLETED, summary(job));
+                } else {
+                    finish(job, ProductImportJob.Status.CANCELLED, "Импорт отменен. Создано товаров: " + job.getCreatedCount());
+                }
+            } catch (RuntimeException e) {
+                if (executor.isShutdown()) {
+                    // Остановка приложения: задача остается RUNNING и продолжится после запуска
+                    log.info("Задача импорта {} прервана остановкой приложения на строке {}", jobId, job.getLastCommittedRow());
+                    return;
+                }
+                log.error("Задача импорта {} завершилась ошибкой: {}", jobId, e.getMessage());
+                finish(job, ProductImportJob.Status.FAILED, e.getMessage());
+            }
+        } finally {
+            cancelFlags.remove(jobId);
+        }
+    }
+
+    private void finish(ProductImportJob job, ProductImportJob.Status status, String message) {
+        LocalDateTime now = LocalDateTime.now();
+        job.setStatus(status);
+        job.setMessage(message != null && message.length() > 1000 ? message.substring(0, 1000) : message);
+        job.setFinishedAt(now);
+        job.setUpdatedAt(now);
+        jobRepository.save(job);
+        deleteQuietly(Paths.get(job.getStoredFile()));
+        log.info("Задача импорта {} завершена со статусом {}: {}", job.getId(), status, message);
+    }
+
+    private static String defaultInstanceId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "import-" + UUID.randomUUID();
+        }
+    }
+
+    private static String summary(ProductImportJob job) {
+        StringBuilder message = new StringBuilder(job.getFailedCount() == 0
+                ? "Импорт завершен успешно. Создано товаров: " : "Импорт завершен. Создано товаров: ")
+                .append(job.getCreatedCount());
+        if (job.getMode() == ProductImportJob.Mode.UPSERT) {
+            message.append(", обновлено: ").append(job.getUpdatedCount())
+                    .append(", без изменений: ").append(job.getUnchangedCount());
+            if (job.getDeletedCount() > 0) {
+                message.append(", удалено: ").append(job.getDeletedCount());
+            }
+        }
+        if (job.getFailedCount() > 0) {
+            message.append(", не импортировано строк: ").append(job.getFailedCount());
+        }
+        return message.toString();
+    }
+
+    private ProductImportJob findJob(Long jobId, Long userId) {
+        return jobRepository.findByIdAndUserId(jobId, userId)
+                .orElseThrow(() -> new RuntimeException("Задача импорта не найдена с ID: " + jobId));
+    }
+
+    private Path storeFile(MultipartFile file) {
+        try {
+            Files.createDirectories(storageDir);
+            Path stored = storageDir.resolve("import-" + UUID.randomUUID() + ".tmp");
+            file.transferTo(stored);
+            return stored;
+        } catch (IOException e) {
+            log.error("Не удалось сохранить файл импорта: {}", e.getMessage());
+            throw new RuntimeException("Не удалось сохранить файл импорта: " + e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл импорта {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static String appendErrors(String stored, List<String> errors) {
+        List<String> all = new ArrayList<>();
+        if (stored != null && !stored.isEmpty()) {
+            all.addAll(Arrays.asList(stored.split("\n")));
+        }
+        for (String error : errors) {
+            if (all.size() >= MAX_STORED_ERRORS) {
+                break;
+            }
+            all.add(error.replace('\n', ' '));
+        }
+        return all.isEmpty() ? null : String.join("\n", all);
+    }
+
+    private ProductImportJobResponse toResponse(ProductImportJob job) {
+        ProductImportJobResponse response = new ProductImportJobResponse();
+        response.setId(job.getId());
+        response.setBotId(job.getBotId());
+        response.setFilename(job.getFilename());
+        response.setStatus(job.getStatus().name());
+        response.setMode(job.getMode().name());
+        response.setProcessedRows(job.getProcessedRows());
+        response.setLastCommittedRow(job.getLastCommittedRow());
+        response.setSuccessfullyCreated(job.getCreatedCount());
+        response.setUpdated(job.getUpdatedCount());
+        response.setUnchanged(job.getUnchangedCount());
+        response.setDeleted(job.getDeletedCount());
+        response.setFailed(job.getFailedCount());
+        response.setErrors(job.getErrors() == null ? List.of() : Arrays.asList(job.getErrors().split("\n")));
+        response.setMessage(job.getMessage());
+        response.setCreatedAt(job.getCreatedAt());
+        response.setStartedAt(job.getStartedAt());
+        response.setFinishedAt(job.getFinishedAt());
+        if (job.getStartedAt() != null) {
+            LocalDateTime end = job.getFinishedAt() != null ? job.getFinishedAt() : LocalDateTime.now();
+            long millis = Math.max(1, Duration.between(job.getStartedAt(), end).toMillis());
+            response.setRowsPerSecond(Math.round(job.getProcessedRows() * 10_000.0 / millis) / 10.0);
+        }
+        return response;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Незавершенные задачи остаются RUNNING/QUEUED и продолжатся после запуска
+        executor.shutdownNow();
+    }
+}
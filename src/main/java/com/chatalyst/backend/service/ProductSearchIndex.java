@@ -0,0 +1,256 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.util.TextAnalyzer;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс товаров одного бота с ранжированием BM25.
+ *
+ * Поля товара имеют разный вес (название важнее описания). Слова запроса, которых
+ * нет в словаре индекса, заменяются похожими по триграммам — это покрывает опечатки
+ * ("кросовки" -> "кроссовки"). Индекс обновляется инкрементально по одному товару.
+ */
+public final class ProductSearchIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final float NAME_WEIGHT = 3f;
+    private static final float SUBCATEGORY_WEIGHT = 2f;
+    private static final float CATALOG_WEIGHT = 1.5f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+    private static final double MIN_TRIGRAM_SIMILARITY = 0.4;
+    private static final int MAX_FUZZY_EXPANSIONS = 3;
+
+    /**
+     * Результат поиска.
+     * @param item Товар.
+     * @param score Релевантность BM25 (0, если запрос пустой и применен только фильтр).
+     */
+    public record Hit(CatalogSnapshot.Item item, double score) {
+    }
+
+    /**
+     * Ограничения поиска: диапазон цен (границы включительно, null — без ограничения) и наличие.
+     */
+    public record Filter(BigDecimal minPrice, BigDecimal maxPrice, boolean inStockOnly) {
+
+        public static final Filter NONE = new Filter(null, null, false);
+
+        boolean accepts(CatalogSnapshot.Item item) {
+            if (inStockOnly && !item.inStock()) {
+                return false;
+            }
+            BigDecimal price = item.price();
+            if (minPrice != null && (price == null || price.compareTo(minPrice) < 0)) {
+                return false;
+            }
+            return maxPrice == null || (price != null && price.compareTo(maxPrice) <= 0);
+        }
+    }
+
+    private record Document(CatalogSnapshot.Item item, Map<String, Float> termFrequencies, float length) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Document> documents = new HashMap<>();
+    private final Map<String, Map<Long, Float>> postings = new HashMap<>();
+    private final Map<String, Set<String>> termsByTrigram = new HashMap<>();
+    private double totalLength;
+
+    public static ProductSearchIndex build(Collection<CatalogSnapshot.Item> items) {
+        ProductSearchIndex index = new ProductSearchIndex();
+        items.forEach(index::put);
+        return index;
+    }
+
+    /**
+     * Добавляет товар или заменяет его предыдущую версию.
+     */
+    public void put(CatalogSnapshot.Item item) {
+        Map<String, Float> frequencies = new HashMap<>();
+        addTerms(frequencies, item.name(), NAME_WEIGHT);
+        addTerms(frequencies, item.subcategory(), SUBCATEGORY_WEIGHT);
+        addTerms(frequencies, item.catalog(), CATALOG_WEIGHT);
+        addTerms(frequencies, item.description(), DESCRIPTION_WEIGHT);
+        float length = 0;
+        for (float tf : frequencies.values()) {
+            length += tf;
+        }
+        Document document = new Document(item, frequencies, length);
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(item.id());
+            documents.put(item.id(), document);
+            totalLength += length;
+            frequencies.forEach((term, tf) -> {
+                Map<Long, Float> termPostings = postings.get(term);
+                if (termPostings == null) {
+                    termPostings = new HashMap<>();
+                    postings.put(term, termPostings);
+                    for (String trigram : trigrams(term)) {
+                        termsByTrigram.computeIfAbsent(trigram, k -> new HashSet<>()).add(term);
+                    }
+                }
+                termPostings.put(item.id(), tf);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(Long productId) {
+        Document document = documents.remove(productId);
+        if (document == null) {
+            return;
+        }
+        totalLength -= document.length();
+        for (String term : document.termFrequencies().keySet()) {
+            Map<Long, Float> termPostings = postings.get(term);
+            termPostings.remove(productId);
+            if (termPostings.isEmpty()) {
+                postings.remove(term);
+                for (String trigram : trigrams(term)) {
+                    Set<String> terms = termsByTrigram.get(trigram);
+                    terms.remove(term);
+                    if (terms.isEmpty()) {
+                        termsByTrigram.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ищет товары по запросу.
+     * @param query Текст запроса. Пустой запрос возвращает все товары, подходящие под фильтр.
+     * @param filter Ограничения по цене и наличию.
+     * @param limit Максимальное количество результатов.
+     * @return Товары по убыванию релевантности.
+     */
+    public List<Hit> search(String query, Filter filter, int limit) {
+        Set<String> queryTerms = new LinkedHashSet<>(TextAnalyzer.analyze(query));
+
+        lock.readLock().lock();
+        try {
+            if (queryTerms.isEmpty()) {
+                return documents.values().stream()
+                        .map(Document::item)
+                        .filter(filter::accepts)
+                        .sorted(Comparator.comparing(CatalogSnapshot.Item::name, Comparator.nullsLast(String::compareTo)))
+                        .limit(limit)
+                        .map(item -> new Hit(item, 0))
+                        .toList();
+            }
+
+            double averageLength = documents.isEmpty() ? 1 : totalLength / documents.size();
+            Map<Long, Double> scores = new HashMap<>();
+            for (String term : queryTerms) {
+                for (Map.Entry<String, Double> expansion : expand(term).entrySet()) {
+                    Map<Long, Float> termPostings = postings.get(expansion.getKey());
+                    double idf = Math.log(1 + (documents.size() - termPostings.size() + 0.5) / (termPostings.size() + 0.5));
+                    for (Map.Entry<Long, Float> posting : termPostings.entrySet()) {
+                        Document document = documents.get(posting.getKey());
+                        double tf = posting.getValue();
+                        double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * document.length() / averageLength));
+                        scores.merge(posting.getKey(), expansion.getValue() * idf * norm, Double::sum);
+                    }
+                }
+            }
+
+            // Частичная сортировка: держим в куче только limit лучших результатов
+            PriorityQueue<Hit> top = new PriorityQueue<>(Comparator.comparingDouble(Hit::score));
+            scores.forEach((productId, score) -> {
+                CatalogSnapshot.Item item = documents.get(productId).item();
+                if (filter.accepts(item)) {
+                    top.add(new Hit(item, score));
+                    if (top.size() > limit) {
+                        top.poll();
+                    }
+                }
+            });
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Точное слово из словаря — с весом 1, иначе до трех похожих по триграммам слов
+     * с весом, равным их сходству.
+     */
+    private Map<String, Double> expand(String term) {
+        if (postings.containsKey(term)) {
+            return Map.of(term, 1.0);
+        }
+        Set<String> queryTrigrams = trigrams(term);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : queryTrigrams) {
+            Set<String> candidates = termsByTrigram.get(trigram);
+            if (candidates != null) {
+                candidates.forEach(candidate -> shared.merge(candidate, 1, Integer::sum));
+            }
+        }
+
+        Map<String, Double> expansions = new LinkedHashMap<>();
+        shared.entrySet().stream()
+                .map(e -> Map.entry(e.getKey(),
+                        e.getValue() / (double) (queryTrigrams.size() + trigrams(e.getKey()).size() - e.getValue())))
+                .filter(e -> e.getValue() >= MIN_TRIGRAM_SIMILARITY)
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(MAX_FUZZY_EXPANSIONS)
+                .forEach(e -> expansions.put(e.getKey(), e.getValue()));
+        return expansions;
+    }
+
+    private static void addTerms(Map<String, Float> frequencies, String text, float weight) {
+        for (String term : TextAnalyzer.analyze(text)) {
+            frequencies.merge(term, weight, Float::sum);
+        }
+    }
+
+    /**
+     * Триграммы слова с границами: "сок" -> "$со", "сок", "ок$".
+     */
+    private static Set<String> trigrams(String term) {
+        String padded = "$" + term + "$";
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.model.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Полнотекстовый поиск товаров по ботам.
+ * Индекс бота строится лениво из снимка каталога и дальше обновляется
+ * инкрементально при создании, изменении и удалении отдельных товаров
+ * (после коммита транзакции). Массовые изменения сбрасывают индекс целиком.
+ */
+@Service
+@Slf4j
+public class ProductSearchService {
+
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final int maxBots;
+
+    private final ConcurrentHashMap<Long, ProductSearchIndex> indexes = new ConcurrentHashMap<>();
+    // Счетчик изменений по боту: индекс, построенный до изменения, не сохраняется
+    private final ConcurrentHashMap<Long, Long> generations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Object> buildLocks = new ConcurrentHashMap<>();
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchNanos = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong incrementalUpdates = new AtomicLong();
+
+    public ProductSearchService(CatalogSnapshotCache catalogSnapshotCache,
+                                @Value("${catalog.search.max-bots:1000}") int maxBots) {
+        this.catalogSnapshotCache = catalogSnapshotCache;
+        this.maxBots = maxBots;
+    }
+
+    /**
+     * Ищет товары бота.
+     * @param botId ID бота.
+     * @param query Текст запроса.
+     * @param filter Ограничения по цене и наличию.
+     * @param limit Максимальное количество результатов.
+     * @return Товары по убыванию релевантности.
+     */
+    public List<ProductSearchIndex.Hit> search(Long botId, String query, ProductSearchIndex.Filter filter, int limit) {
+        long start = System.nanoTime();
+        List<ProductSearchIndex.Hit> hits = getIndex(botId).search(query, filter, limit);
+        searches.incrementAndGet();
+        searchNanos.addAndGet(System.nanoTime() - start);
+        return hits;
+    }
+
+    /**
+     * Отражает в индексе созданный или измененный товар.
+     */
+    public void onProductSaved(Product product) {
+        Long botId = product.getBot().getId();
+        CatalogSnapshot.Item item = CatalogSnapshot.Item.of(product);
+        afterCommit(() -> {
+            generations.merge(botId, 1L, Long::sum);
+            ProductSearchIndex index = indexes.get(botId);
+            if (index != null) {
+                index.put(item);
+                incrementalUpdates.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Удаляет товар из индекса.
+     */
+    public void onProductDeleted(Long botId, Long productId) {
+        afterCommit(() -> {
+            generations.merge(botId, 1L, Long::sum);
+            ProductSearchIndex index = indexes.get(botId);
+            if (index != null) {
+                index.remove(productId);
+                incrementalUpdates.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Сбрасывает индекс бота после массового изменения товаров; он будет построен заново при следующем поиске.
+     */
+    public void invalidate(Long botId) {
+        afterCommit(() -> {
+            generations.merge(botId, 1L, Long::sum);
+            indexes.remove(botId);
+        });
+    }
+
+    private ProductSearchIndex getIndex(Long botId) {
+        ProductSearchIndex index = indexes.get(botId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (buildLocks.computeIfAbsent(botId, k -> new Object())) {
+            index = indexes.get(botId);
+            if (index != null) {
+                return index;
+            }
+            long generation = generations.getOrDefault(botId, 0L);
+            index = ProductSearchIndex.build(catalogSnapshotCache.get(botId).getItems());
+            builds.incrementAndGet();
+            if (generations.getOrDefault(botId, 0L) == generation) {
+                // Простое ограничение памяти: при переполнении вытесняем произвольный индекс
+                if (indexes.size() >= maxBots) {
+                    indexes.keySet().stream().findFirst().ifPresent(indexes::remove);
+                }
+                indexes.put(botId, index);
+            }
+            log.debug("Поисковый индекс бота {} построен: товаров {}", botId, index.size());
+            return index;
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Возвращает метрики поиска: количество индексов, запросов, среднее время запроса.
+     */
+    public Map<String, Object> getStats() {
+        long count = searches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("indexedBots", indexes.size());
+        stats.put("searches", count);
+        stats.put("avgSearchMicros", count == 0 ? 0.0 : searchNanos.get() / 1000.0 / count);
+        stats.put("builds", builds.get());
+        stats.put("incrementalUpdates", incrementalUpdates.get());
+        return stats;
+    }
+}
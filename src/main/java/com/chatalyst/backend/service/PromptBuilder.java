@@ -0,0 +1,154 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.util.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Собирает промпт для AI-консультанта в пределах бюджета токенов.
+ *
+ * Порядок заполнения бюджета:
+ *  1. системная инструкция и текущий вопрос пользователя — всегда;
+ *  2. каталог: целиком, если помещается в свою долю бюджета, иначе только top-K товаров,
+ *     релевантных вопросу по поисковому индексу BM25 (при отсутствии совпадений — список каталогов и подкаталогов);
+ *  3. история диалога: от новых сообщений к старым, пока хватает оставшегося бюджета.
+ */
+@Component
+@Slf4j
+public class PromptBuilder {
+
+    private static final String SYSTEM_TEMPLATE =
+            "Ты — умный Telegram-бот-консультант, который помогает пользователю найти товары в магазине \"%s\". " +
+            "Вот информация из каталога:\n%s\n" +
+            "Отвечай кратко и по делу, если пользователь что-то просит — предлагай товары по смыслу. " +
+            "Ты можешь догадываться, что он имеет в виду, даже если формулировка не точная. " +
+            "Не выдумывай товары — только из каталога. Если ничего не найдено — мягко скажи об этом. " +
+            "Когда рекомендуешь товары, упоминай их точные названия в своем ответе — это поможет системе автоматически показать изображения товаров пользователю.";
+
+    private final ProductSearchService productSearchService;
+    private final int maxPromptTokens;
+    private final double catalogShare;
+    private final int topK;
+
+    public PromptBuilder(ProductSearchService productSearchService,
+                         @Value("${openai.prompt.max-tokens:3000}") int maxPromptTokens,
+                         @Value("${openai.prompt.catalog-share:0.6}") double catalogShare,
+                         @Value("${openai.prompt.top-k:15}") int topK) {
+        this.productSearchService = productSearchService;
+        this.maxPromptTokens = maxPromptTokens;
+        this.catalogShare = catalogShare;
+        this.topK = topK;
+    }
+
+    /**
+     * Собирает промпт.
+     * @param shopName Название магазина.
+     * @param catalog Снимок каталога бота.
+     * @param history История диалога в хронологическом порядке.
+     * @param userMessage Текущий вопрос пользователя.
+     * @return Сообщения для OpenAI с оценкой размера.
+     */
+    public ChatPrompt build(String shopName, CatalogSnapshot catalog, List<ChatMessage> history, String userMessage) {
+        int fixedTokens = TokenEstimator.estimateMessage(String.format(SYSTEM_TEMPLATE, shopName, ""))
+                + TokenEstimator.estimateMessage(userMessage);
+        int available = Math.max(0, maxPromptTokens - fixedTokens);
+
+        CatalogContext catalogContext = selectCatalog(catalog, userMessage, (int) (available * catalogShare));
+        String systemContent = String.format(SYSTEM_TEMPLATE, shopName, catalogContext.text());
+        int usedTokens = TokenEstimator.estimateMessage(systemContent) + TokenEstimator.estimateMessage(userMessage);
+
+        // История: берем самые свежие сообщения, пока они помещаются в остаток бюджета
+        List<ChatPrompt.Message> selectedHistory = new ArrayList<>();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            ChatMessage message = history.get(i);
+            int tokens = TokenEstimator.estimateMessage(message.getContent());
+            if (usedTokens + tokens > maxPromptTokens) {
+                break;
+            }
+            usedTokens += tokens;
+            selectedHistory.add(new ChatPrompt.Message(message.getRole(), message.getContent()));
+        }
+        Collections.reverse(selectedHistory);
+
+        List<ChatPrompt.Message> messages = new ArrayList<>(selectedHistory.size() + 2);
+        messages.add(new ChatPrompt.Message("system", systemContent));
+        messages.addAll(selectedHistory);
+        messages.add(new ChatPrompt.Message("user", userMessage));
+
+        log.debug("Prompt for shop '{}': ~{} tokens, {} products, {} history messages",
+                shopName, usedTokens, catalogContext.productCount(), selectedHistory.size());
+        return new ChatPrompt(messages, usedTokens, catalogContext.productCount(), selectedHistory.size());
+    }
+
+    private CatalogContext selectCatalog(CatalogSnapshot catalog, String userMessage, int budget) {
+        // Небольшой каталог передаем целиком, как и раньше
+        String fullText = catalog.getPromptText();
+        if (TokenEstimator.estimate(fullText) <= budget) {
+            return new CatalogContext(fullText, catalog.getItems().size());
+        }
+
+        List<CatalogSnapshot.Item> relevant = productSearchService
+                .search(catalog.getBotId(), userMessage, ProductSearchIndex.Filter.NONE, topK)
+                .stream()
+                .map(ProductSearchIndex.Hit::item)
+                .toList();
+        if (relevant.isEmpty()) {
+            return new CatalogContext(truncate(renderOverview(catalog), budget), 0);
+        }
+
+        StringBuilder text = new StringBuilder();
+        int used = 0;
+        int count = 0;
+        for (CatalogSnapshot.Item item : relevant) {
+            String line = "- [" + item.catalog() + " / " + item.subcategory() + "] "
+                    + CatalogSnapshot.renderItem(item).substring(2) + "\n";
+            int tokens = TokenEstimator.estimate(line);
+            if (used + tokens > budget) {
+                break;
+            }
+            text.append(line);
+            used += tokens;
+            count++;
+        }
+        return new CatalogContext(text.toString(), count);
+    }
+
+    /**
+     * Краткий обзор ассортимента, когда в вопросе нет слов из каталога (например, приветствие).
+     */
+    private static String renderOverview(CatalogSnapshot catalog) {
+        Map<String, String> lines = new LinkedHashMap<>();
+        for (String catalogName : catalog.getCatalogs()) {
+            lines.put(catalogName, String.join(", ", catalog.getSubcategories(catalogName)));
+        }
+        return lines.entrySet().stream()
+                .map(e -> "Каталог: " + e.getKey() + (e.getValue().isEmpty() ? "" : " (" + e.getValue() + ")"))
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static String truncate(String text, int budget) {
+        StringBuilder result = new StringBuilder();
+        int used = 0;
+        for (String line : text.split("\n")) {
+            int tokens = TokenEstimator.estimate(line) + 1;
+            if (used + tokens > budget) {
+                break;
+            }
+            result.append(line).append('\n');
+            used += tokens;
+        }
+        return result.toString();
+    }
+
+    private record CatalogContext(String text, int productCount) {
+    }
+}
@@ -2,40 +2,229 @@ package com.chatalyst.backend.service;
 
 import com.chatalyst.backend.exception.QuotaExceededException;
 import com.chatalyst.backend.Repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import com.chatalyst.backend.util.LatencyRecorder;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Лимиты пользователей.
+ *
+ * Сообщения списываются не из строки users на каждый запрос, а из локальной "аренды":
+ * сервис заранее резервирует в БД блок из lease-size сообщений (тем же условным UPDATE,
+ * что и раньше) и дальше списывает из него атомарным счетчиком без обращения к БД.
+ * Неиспользованный остаток возвращается в БД, когда аренда простаивает или устарела,
+ * и при остановке приложения. Резерв делается до расходования, поэтому лимит
+ * в БД никогда не превышается; счетчик использованных сообщений может опережать
+ * фактический расход не больше чем на lease-size на экземпляр приложения.
+ * Когда до лимита остается меньше блока, сообщения списываются из БД по одному, как раньше.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class QuotaService {
     
     private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean leaseEnabled;
+    private final int leaseSize;
+    private final long leaseIdleNanos;
+    private final long leaseMaxAgeNanos;
+
+    private final ConcurrentHashMap<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private final AtomicLong localConsumes = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong exactConsumes = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong releasedUnits = new AtomicLong();
+    private final LatencyRecorder refillLatency = new LatencyRecorder();
+    private final LatencyRecorder lockWait = new LatencyRecorder();
+
+    public QuotaService(UserRepository userRepository,
+                        TransactionTemplate transactionTemplate,
+                        @Value("${quota.lease.enabled:true}") boolean leaseEnabled,
+                        @Value("${quota.lease.size:20}") int leaseSize,
+                        @Value("${quota.lease.idle-seconds:30}") long leaseIdleSeconds,
+                        @Value("${quota.lease.max-age-seconds:120}") long leaseMaxAgeSeconds) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.leaseEnabled = leaseEnabled;
+        this.leaseSize = leaseSize;
+        this.leaseIdleNanos = TimeUnit.SECONDS.toNanos(leaseIdleSeconds);
+        this.leaseMaxAgeNanos = TimeUnit.SECONDS.toNanos(leaseMaxAgeSeconds);
+    }
 
     /**
      * Пытается списать указанное количество сообщений из лимита пользователя.
-     * Операция атомарная на уровне БД.
+     * Обычно списание идет из локальной аренды без обращения к БД.
      * 
      * @param userId ID пользователя
      * @param units количество сообщений для списания
      * @throws QuotaExceededException если лимит исчерпан или тариф не активен
      */
-    @Transactional
     public void consumeOrThrow(Long userId, int units) {
+        if (!leaseEnabled || units > leaseSize) {
+            consumeExact(userId, units);
+            return;
+        }
+        while (true) {
+            Lease lease = leases.computeIfAbsent(userId, id -> new Lease());
+            if (lease.tryTake(units)) {
+                localConsumes.incrementAndGet();
+                return;
+            }
+            long waitStart = System.nanoTime();
+            synchronized (lease) {
+                lockWait.record(System.nanoTime() - waitStart);
+                if (lease.closed) {
+                    // Аренду только что вернули в БД — берем новую
+                    continue;
+                }
+                if (lease.tryTake(units)) {
+                    // Пока ждали блокировку, аренду пополнил другой поток
+                    contended.incrementAndGet();
+                    localConsumes.incrementAndGet();
+                    return;
+                }
+                refill(userId, lease, units);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Пополняет аренду блоком из БД и сразу списывает из него units.
+     * Вызывается под блокировкой аренды.
+     */
+    private void refill(Long userId, Lease lease, int units) {
+        long start = System.nanoTime();
+        Integer leased = transactionTemplate.execute(status -> userRepository.tryConsumeMessages(userId, leaseSize));
+        refillLatency.record(System.nanoTime() - start);
+        if (leased != null && leased == 1) {
+            refills.incrementAndGet();
+            lease.remaining.addAndGet(leaseSize - units);
+            lease.refilledAt = System.nanoTime();
+            lease.touch();
+            log.debug("Аренда лимита пользователя {} пополнена на {} сообщений", userId, leaseSize);
+            return;
+        }
+        // До лимита осталось меньше блока (или тариф не активен): списываем точно
+        consumeExact(userId, units);
+        lease.touch();
+    }
+
+    private void consumeExact(Long userId, int units) {
         log.debug("Попытка списать {} сообщений для пользователя {}", units, userId);
+        Integer updated = transactionTemplate.execute(status -> userRepository.tryConsumeMessages(userId, units));
         
-        int updated = userRepository.tryConsumeMessages(userId, units);
-        
-        if (updated != 1) {
+        if (updated == null || updated != 1) {
+            rejections.incrementAndGet();
             log.warn("Не удалось списать {} сообщений для пользователя {}. Лимит исчерпан или тариф не активен.", units, userId);
             throw new QuotaExceededException("Лимит сообщений исчерпан или тариф не активен.");
         }
+        exactConsumes.incrementAndGet();
         
         log.debug("Успешно списано {} сообщений для пользователя {}", units, userId);
     }
 
+    /**
+     * Сбрасывает аренду пользователя без возврата остатка (после коммита транзакции).
+     * Вызывается при смене тарифа и обнулении счетчика: остаток относится к прошлому периоду
+     * и не должен вычитаться из нового.
+     * @param userId ID пользователя
+     */
+    public void discardLease(Long userId) {
+        Runnable discard = () -> {
+            Lease lease = leases.remove(userId);
+            if (lease != null) {
+                lease.close();
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    discard.run();
+                }
+            });
+        } else {
+            discard.run();
+        }
+    }
+
+    /**
+     * Возвращает в БД остатки простаивающих и устаревших аренд.
+     */
+    @Scheduled(fixedDelayString = "${quota.lease.reconcile-interval-ms:10000}")
+    public void reconcileLeases() {
+        long now = System.nanoTime();
+        leases.forEach((userId, lease) -> {
+            if (now - lease.lastUsedAt > leaseIdleNanos || now - lease.refilledAt > leaseMaxAgeNanos) {
+                release(userId, lease);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Возврат остатков аренды лимитов: {} пользователей", leases.size());
+        leases.forEach(this::release);
+    }
+
+    private void release(Long userId, Lease lease) {
+        if (!leases.remove(userId, lease)) {
+            return;
+        }
+        int leftover = lease.close();
+        if (leftover <= 0) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> userRepository.releaseMessages(userId, leftover));
+            releasedUnits.addAndGet(leftover);
+            log.debug("Возвращено {} неиспользованных сообщений в лимит пользователя {}", leftover, userId);
+        } catch (RuntimeException e) {
+            // Остаток останется учтенным как использованный; лимит при этом не превышается
+            log.error("Не удалось вернуть {} сообщений в лимит пользователя {}: {}", leftover, userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает метрики аренды: локальные списания, пополнения из БД, отказы и ожидание блокировки.
+     */
+    public Map<String, Object> getStats() {
+        long outstanding = 0;
+        for (Lease lease : leases.values()) {
+            outstanding += lease.remaining.get();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("leaseEnabled", leaseEnabled);
+        stats.put("leaseSize", leaseSize);
+        stats.put("activeLeases", leases.size());
+        stats.put("outstandingUnits", outstanding);
+        stats.put("localConsumes", localConsumes.get());
+        stats.put("refills", refills.get());
+        stats.put("exactConsumes", exactConsumes.get());
+        stats.put("rejections", rejections.get());
+        stats.put("contended", contended.get());
+        stats.put("releasedUnits", releasedUnits.get());
+        stats.put("refillLatency", refillLatency.snapshot());
+        stats.put("lockWait", lockWait.snapshot());
+        return stats;
+    }
+
     /**
      * Проверяет, может ли пользователь создать бота
      * 
@@ -62,7 +251,7 @@ public class QuotaService {
         
         return UserQuotaInfo.builder()
             .monthlyMessagesLimit(user.getMonthlyMessagesLimit())
-            .monthlyMessagesUsed(user.getMonthlyMessagesUsed())
+            .monthlyMessagesUsed(Math.max(0, user.getMonthlyMessagesUsed() - leasedButUnused(userId)))
             .botsAllowed(user.getBotsAllowed())
             .botsCreated(userRepository.countBotsByOwner(userId))
             .supportLevel(user.getSupportLevel())
@@ -71,6 +260,46 @@ public class QuotaService {
             .build();
     }
 
+    // Зарезервировано в БД, но еще не израсходовано на этом экземпляре
+    private int leasedButUnused(Long userId) {
+        Lease lease = leases.get(userId);
+        return lease == null ? 0 : (int) Math.max(0, lease.remaining.get());
+    }
+
+    /**
+     * Локальный остаток зарезервированных сообщений пользователя.
+     */
+    private static final class Lease {
+        private final AtomicLong remaining = new AtomicLong();
+        private volatile long refilledAt = System.nanoTime();
+        private volatile long lastUsedAt = System.nanoTime();
+        private volatile boolean closed;
+
+        boolean tryTake(int units) {
+            long current;
+            do {
+                current = remaining.get();
+                if (current < units) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - units));
+            lastUsedAt = System.nanoTime();
+            return true;
+        }
+
+        void touch() {
+            lastUsedAt = System.nanoTime();
+        }
+
+        /**
+         * Закрывает аренду и забирает остаток; после этого tryTake всегда неуспешен.
+         */
+        synchronized int close() {
+            closed = true;
+            return (int) remaining.getAndSet(0);
+        }
+    }
+
     public static class UserQuotaInfo {
         private final Integer monthlyMessagesLimit;
         private final Integer monthlyMessagesUsed;
@@ -0,0 +1,245 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.util.MinHash;
+import com.chatalyst.backend.util.TextAnalyzer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш ответов AI на повторяющиеся вопросы покупателей.
+ *
+ * Ключ — нормализованный вопрос и версия снимка каталога, поэтому после изменения
+ * каталога старые ответы не используются (и удаляются при инвалидации снимка).
+ * Кроме точного совпадения поддерживается поиск похожего вопроса по MinHash-сигнатуре
+ * ("сколько стоит доставка" ~ "доставка сколько стоит?").
+ *
+ * Кэшируются только первые вопросы диалога: смысл продолжения ("а в черном есть?") зависит
+ * от истории, и по одному тексту вопроса отличить его от самостоятельного вопроса нельзя.
+ */
+@Service
+@Slf4j
+public class ResponseCache {
+
+    private final boolean enabled;
+    private final boolean similarityEnabled;
+    private final double similarityThreshold;
+    private final long ttlNanos;
+    private final int maxEntriesPerBot;
+    private final MinHash minHash = new MinHash(64, 16);
+
+    private final ConcurrentHashMap<Long, BotCache> caches = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BotCounters> counters = new ConcurrentHashMap<>();
+
+    public ResponseCache(CatalogSnapshotCache catalogSnapshotCache,
+                         @Value("${ai.response-cache.enabled:true}") boolean enabled,
+                         @Value("${ai.response-cache.similarity-enabled:true}") boolean similarityEnabled,
+                         @Value("${ai.response-cache.similarity-threshold:0.8}") double similarityThreshold,
+                         @Value("${ai.response-cache.ttl-minutes:360}") long ttlMinutes,
+                         @Value("${ai.response-cache.max-entries-per-bot:500}") int maxEntriesPerBot) {
+        this.enabled = enabled;
+        this.similarityEnabled = similarityEnabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        this.maxEntriesPerBot = maxEntriesPerBot;
+        catalogSnapshotCache.addInvalidationListener(caches::remove);
+    }
+
+    /**
+     * Ищет готовый ответ на вопрос.
+     * @param botId ID бота.
+     * @param botIdentifier Идентификатор бота (для статистики).
+     * @param catalogVersion Версия снимка каталога, по которому строится ответ.
+     * @param question Вопрос пользователя.
+     * @param firstTurn true, если в чате нет предыдущих сообщений.
+     * @return Ответ из кэша, если он есть и не устарел.
+     */
+    public Optional<String> lookup(Long botId, String botIdentifier, long catalogVersion, String question, boolean firstTurn) {
+        Question q = firstTurn ? analyze(question) : null;
+        if (!enabled || q == null) {
+            return Optional.empty();
+        }
+        BotCounters botCounters = counters(botIdentifier);
+        BotCache cache = caches.get(botId);
+        Entry entry = cache == null ? null : cache.find(q, catalogVersion);
+        if (entry == null) {
+            botCounters.misses.incrementAndGet();
+            return Optional.empty();
+        }
+        botCounters.hits.incrementAndGet();
+        botCounters.tokensSaved.addAndGet(entry.tokens());
+        log.debug("Ответ для бота {} взят из кэша: '{}'", botIdentifier, question);
+        return Optional.of(entry.response());
+    }
+
+    /**
+     * Сохраняет ответ AI.
+     * @param botId ID бота.
+     * @param catalogVersion Версия снимка каталога.
+     * @param question Вопрос пользователя.
+     * @param response Ответ AI.
+     * @param tokens Оценка токенов (промпт и ответ), которые сэкономит повторное использование.
+     * @param firstTurn true, если вопрос задан в чате без предыдущих сообщений; иначе ответ не сохраняется.
+     */
+    public void put(Long botId, long catalogVersion, String question, String response, int tokens, boolean firstTurn) {
+        Question q = firstTurn ? analyze(question) : null;
+        if (!enabled || q == null || response == null || response.isBlank()) {
+            return;
+        }
+        caches.computeIfAbsent(botId, k -> new BotCache())
+                .put(q, new Entry(q, catalogVersion, response, tokens, System.nanoTime()));
+    }
+
+    /**
+     * @return Количество обращений, попаданий и сэкономленных токенов по боту.
+     */
+    public Map<String, Long> getBotStats(String botIdentifier) {
+        BotCounters botCounters = counters.get(botIdentifier);
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", botCounters == null ? 0 : botCounters.hits.get());
+        stats.put("misses", botCounters == null ? 0 : botCounters.misses.get());
+        stats.put("tokensSaved", botCounters == null ? 0 : botCounters.tokensSaved.get());
+        return stats;
+    }
+
+    /**
+     * Нормализует вопрос. Возвращает null для вопросов, которые нельзя кэшировать.
+     */
+    private Question analyze(String question) {
+        if (question == null) {
+            return null;
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : question.toLowerCase().replace('ё', 'е').split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        List<String> terms = TextAnalyzer.analyze(question);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        String key = String.join(" ", words);
+
+        // Сравниваем множества основ слов: порядок слов в коротких вопросах не важен
+        int[] signature = similarityEnabled ? minHash.signature(new HashSet<>(terms)) : null;
+        return new Question(key, signature);
+    }
+
+    private BotCounters counters(String botIdentifier) {
+        return counters.computeIfAbsent(botIdentifier, k -> new BotCounters());
+    }
+
+    private record Question(String key, int[] signature) {
+    }
+
+    private record Entry(Question question, long catalogVersion, String response, int tokens, long createdAt) {
+    }
+
+    private static final class BotCounters {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong tokensSaved = new AtomicLong();
+    }
+
+    /**
+     * Кэш одного бота: LRU по точному ключу и LSH-корзины для поиска похожих вопросов.
+     */
+    private final class BotCache {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Long, Set<String>> buckets = new HashMap<>();
+
+        synchronized Entry find(Question question, long catalogVersion) {
+            long now = System.nanoTime();
+            Entry exact = entries.get(question.key());
+            if (exact != null) {
+                if (isUsable(exact, catalogVersion, now)) {
+                    return exact;
+                }
+                remove(exact);
+            }
+            if (question.signature() == null) {
+                return null;
+            }
+
+            Entry best = null;
+            double bestSimilarity = similarityThreshold;
+            for (long bandKey : minHash.bandKeys(question.signature())) {
+                Set<String> keys = buckets.get(bandKey);
+                if (keys == null) {
+                    continue;
+                }
+                for (String key : keys) {
+                    Entry candidate = entries.get(key);
+                    if (candidate == null || candidate.question().signature() == null
+                            || !isUsable(candidate, catalogVersion, now)) {
+                        continue;
+                    }
+                    double similarity = MinHash.similarity(question.signature(), candidate.question().signature());
+                    if (similarity >= bestSimilarity) {
+                        best = candidate;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+            return best;
+        }
+
+        synchronized void put(Question question, Entry entry) {
+            Entry previous = entries.remove(question.key());
+            if (previous != null) {
+                removeFromBuckets(previous);
+            }
+            entries.put(question.key(), entry);
+            if (question.signature() != null) {
+                for (long bandKey : minHash.bandKeys(question.signature())) {
+                    buckets.computeIfAbsent(bandKey, k -> new HashSet<>()).add(question.key());
+                }
+            }
+            // LRU: вытесняем самые давно использованные записи
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntriesPerBot && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                removeFromBuckets(evicted);
+            }
+        }
+
+        private boolean isUsable(Entry entry, long catalogVersion, long now) {
+            return entry.catalogVersion() == catalogVersion && now - entry.createdAt() < ttlNanos;
+        }
+
+        private void remove(Entry entry) {
+            entries.remove(entry.question().key());
+            removeFromBuckets(entry);
+        }
+
+        private void removeFromBuckets(Entry entry) {
+            if (entry.question().signature() == null) {
+                return;
+            }
+            for (long bandKey : minHash.bandKeys(entry.question().signature())) {
+                Set<String> keys = buckets.get(bandKey);
+                if (keys != null) {
+                    keys.remove(entry.question().key());
+                    if (keys.isEmpty()) {
+                        buckets.remove(bandKey);
+                    }
+                }
+            }
+        }
+    }
+}
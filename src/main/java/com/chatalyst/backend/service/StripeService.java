@@ -31,6 +31,7 @@ import java.util.stream.Collectors;
 public class StripeService {
 
     private final UserRepository userRepository;
+    private final QuotaService quotaService;
 
     @Value("${stripe.secret-key}")
     private String stripeSecretKey;
@@ -204,6 +205,7 @@ public class StripeService {
             user.setSubscriptionEnd(LocalDateTime.now().plusMonths(1));
 
             userRepository.save(user);
+            quotaService.discardLease(userId);
             log.info("Plan {} activated for user {}", planType, userId);
 
         } catch (Exception e) {
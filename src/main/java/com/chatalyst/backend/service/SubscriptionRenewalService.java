@@ -20,6 +20,7 @@ import java.util.List;
 public class SubscriptionRenewalService {
 
     private final UserRepository userRepository;
+    private final QuotaService quotaService;
 
     /**
      * Плановое задание для обновления тарифов каждый день в 00:00 (Asia/Almaty)
@@ -48,12 +49,14 @@ public class SubscriptionRenewalService {
                     user.setSubscriptionStart(now);
                     user.setSubscriptionEnd(now.plusMonths(1));
                     userRepository.save(user);
+                    quotaService.discardLease(user.getId());
                     log.info("Тариф BASIC продлен для пользователя {}", user.getEmail());
                 } else if ("PREMIUM".equals(user.getSupportLevel())) {
                     user.setMonthlyMessagesUsed(0);
                     user.setSubscriptionStart(now);
                     user.setSubscriptionEnd(now.plusMonths(1));
                     userRepository.save(user);
+                    quotaService.discardLease(user.getId());
                     log.info("Тариф PREMIUM продлен для пользователя {}", user.getEmail());
                 }
                 // Пользователи с NONE тарифом не продлеваются
@@ -88,6 +91,7 @@ public class SubscriptionRenewalService {
         user.setSubscriptionStart(now);
         user.setSubscriptionEnd(now.plusMonths(1));
         userRepository.save(user);
+        quotaService.discardLease(userId);
         
         log.info("Тариф {} успешно продлен для пользователя {}", user.getSupportLevel(), userId);
         return true;
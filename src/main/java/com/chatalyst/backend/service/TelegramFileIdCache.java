@@ -0,0 +1,200 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.TelegramPhotoFileIdRepository;
+import com.chatalyst.backend.model.TelegramPhotoFileId;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш file_id фотографий Telegram по паре (бот, URL изображения).
+ *
+ * После первой отправки фото по ссылке Telegram возвращает file_id, и следующие отправки
+ * используют его: Telegram не скачивает изображение из хранилища повторно. Записи хранятся в БД
+ * (переживают перезапуск), последние используемые — в памяти. URL изображения входит в ключ,
+ * поэтому смена Product.imageUrl автоматически означает промах. Промахи тоже запоминаются
+ * в памяти на miss-ttl-ms, чтобы повторные показы фото, которых еще нет в БД, не ходили в БД каждый раз.
+ * Запись в БД выполняется в отдельном потоке: результат отправки приходит в потоке HTTP-клиента,
+ * блокировать его нельзя.
+ */
+@Service
+@Slf4j
+public class TelegramFileIdCache {
+
+    private final TelegramPhotoFileIdRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxEntries;
+    private final long missTtlNanos;
+    private final LinkedHashMap<String, String> memory;
+    // Ключ -> момент (System.nanoTime), до которого промах считается актуальным
+    private final LinkedHashMap<String, Long> knownMisses;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(
+            TelegramUpdateDispatcher.namedThreadFactory("tg-file-id-"));
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong dbHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong cachedMisses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public TelegramFileIdCache(TelegramPhotoFileIdRepository repository,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${telegram.file-id-cache.size:10000}") int maxEntries,
+                               @Value("${telegram.file-id-cache.miss-ttl-ms:60000}") long missTtlMs) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.maxEntries = maxEntries;
+        this.missTtlNanos = TimeUnit.MILLISECONDS.toNanos(missTtlMs);
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > TelegramFileIdCache.this.maxEntries;
+            }
+        };
+        this.knownMisses = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > TelegramFileIdCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Возвращает сохраненный file_id фотографии для бота.
+     * @param botId ID бота.
+     * @param imageUrl Текущий URL изображения товара.
+     */
+    public Optional<String> get(Long botId, String imageUrl) {
+        String key = key(botId, imageUrl);
+        synchronized (memory) {
+            String fileId = memory.get(key);
+            if (fileId != null) {
+                memoryHits.incrementAndGet();
+                return Optional.of(fileId);
+            }
+            Long missUntil = knownMisses.get(key);
+            if (missUntil != null) {
+                if (missUntil - System.nanoTime() > 0) {
+                    cachedMisses.incrementAndGet();
+                    return Optional.empty();
+                }
+                knownMisses.remove(key);
+            }
+        }
+        Optional<String> fileId = repository.findByBotIdAndImageUrl(botId, imageUrl).map(TelegramPhotoFileId::getFileId);
+        if (fileId.isPresent()) {
+            dbHits.incrementAndGet();
+            synchronized (memory) {
+                memory.put(key, fileId.get());
+            }
+        } else {
+            misses.incrementAndGet();
+            synchronized (memory) {
+                // put() мог успеть сохранить file_id, пока шел запрос в БД
+                if (!memory.containsKey(key)) {
+                    knownMisses.put(key, System.nanoTime() + missTtlNanos);
+                }
+            }
+        }
+        return fileId;
+    }
+
+    /**
+     * Запоминает file_id, полученный в ответе sendPhoto или sendMediaGroup.
+     */
+    public void put(Long botId, String imageUrl, String fileId) {
+        if (fileId == null || fileId.isEmpty()) {
+            return;
+        }
+        synchronized (memory) {
+            knownMisses.remove(key(botId, imageUrl));
+            if (fileId.equals(memory.put(key(botId, imageUrl), fileId))) {
+                return;
+            }
+        }
+        stored.incrementAndGet();
+        write(() -> repository.upsert(botId, imageUrl, fileId));
+    }
+
+    /**
+     * Удаляет file_id, который Telegram отклонил; следующая отправка пойдет по URL.
+     */
+    public void invalidate(Long botId, String imageUrl, String fileId) {
+        rejected.incrementAndGet();
+        synchronized (memory) {
+            memory.remove(key(botId, imageUrl), fileId);
+        }
+        write(() -> repository.deleteRejected(botId, imageUrl, fileId));
+    }
+
+    /**
+     * Удаляет все записи бота (при удалении бота) в текущей транзакции.
+     */
+    public void invalidateBot(Long botId) {
+        String prefix = botId + ":";
+        synchronized (memory) {
+            memory.keySet().removeIf(key -> key.startsWith(prefix));
+            knownMisses.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        repository.deleteByBot(botId);
+    }
+
+    private void write(Runnable operation) {
+        try {
+            writer.execute(() -> {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> operation.run());
+                } catch (RuntimeException e) {
+                    log.warn("Не удалось сохранить file_id Telegram: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Приложение останавливается: запись останется только в памяти
+        }
+    }
+
+    private static String key(Long botId, String imageUrl) {
+        return botId + ":" + imageUrl;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Возвращает метрики кэша: попадания в памяти и в БД, промахи (в том числе запомненные), сохранено, отклонено Telegram.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (memory) {
+            stats.put("inMemory", memory.size());
+            stats.put("knownMisses", knownMisses.size());
+        }
+        stats.put("maxInMemory", maxEntries);
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("dbHits", dbHits.get());
+        stats.put("misses", misses.get());
+        stats.put("cachedMisses", cachedMisses.get());
+        stats.put("stored", stored.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
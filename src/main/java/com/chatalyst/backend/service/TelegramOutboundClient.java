@@ -0,0 +1,280 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.exception.TelegramApiException;
+import com.chatalyst.backend.util.LatencyRecorder;
+import com.chatalyst.backend.util.ThroughputMeter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Неблокирующая отправка запросов в Telegram Bot API с ограничением скорости.
+ *
+ * Лимиты Telegram (token bucket / GCRA):
+ *  - не чаще ~1 сообщения в секунду в один чат;
+ *  - не более 30 сообщений в секунду на бота;
+ *  - не более 20 сообщений в минуту в одну группу.
+ *
+ * Сообщения одного чата отправляются строго по очереди. При ответе 429 запрос
+ * повторяется после указанного Telegram retry_after. Вызывающий код получает
+ * CompletableFuture с JSON-ответом Telegram и не блокирует свой поток.
+ */
+@Service
+@Slf4j
+public class TelegramOutboundClient {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final WebClient telegramWebClient;
+    private final ObjectMapper objectMapper;
+    private final int maxPending;
+    private final int maxRetries;
+    private final long chatIntervalNanos;
+    private final long botIntervalNanos;
+    private final int botBurst;
+    private final long groupIntervalNanos;
+
+    private final ConcurrentHashMap<String, RateBucket> chatBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RateBucket> botBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<?>> chatTails = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final ThroughputMeter throughput = new ThroughputMeter();
+    private final LatencyRecorder totalLatency = new LatencyRecorder();
+    private final LatencyRecorder requestLatency = new LatencyRecorder();
+
+    public TelegramOutboundClient(@Qualifier("telegramWebClient") WebClient telegramWebClient,
+                                  ObjectMapper objectMapper,
+                                  @Value("${telegram.outbound.max-pending:10000}") int maxPending,
+                                  @Value("${telegram.outbound.max-retries:3}") int maxRetries,
+                                  @Value("${telegram.outbound.per-chat-per-second:1}") double perChatPerSecond,
+                                  @Value("${telegram.outbound.per-bot-per-second:30}") double perBotPerSecond,
+                                  @Value("${telegram.outbound.per-group-per-minute:20}") double perGroupPerMinute) {
+        this.telegramWebClient = telegramWebClient;
+        this.objectMapper = objectMapper;
+        this.maxPending = maxPending;
+        this.maxRetries = maxRetries;
+        this.chatIntervalNanos = (long) (NANOS_PER_SECOND / perChatPerSecond);
+        this.botIntervalNanos = (long) (NANOS_PER_SECOND / perBotPerSecond);
+        // Пачка не больше секундного лимита: за любую секунду бот отправит не больше per-bot-per-second сообщений
+        this.botBurst = Math.max(1, (int) perBotPerSecond);
+        this.groupIntervalNanos = (long) (60 * NANOS_PER_SECOND / perGroupPerMinute);
+    }
+
+    /**
+     * Ставит вызов метода Bot API в очередь чата.
+     * @param botToken Токен бота.
+     * @param chatId ID чата (отрицательный для групп).
+     * @param method Метод Bot API, например sendMessage.
+     * @param body Тело запроса.
+     * @return Future с полем result ответа Telegram; завершается с TelegramApiException при ok=false.
+     */
+    public CompletableFuture<JsonNode> send(String botToken, long chatId, String method, ObjectNode body) {
+        if (!tryAcquirePending()) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Очередь исходящих сообщений Telegram переполнена"));
+        }
+
+        long enqueuedAt = System.nanoTime();
+        String chatKey = botToken + ":" + chatId;
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+
+        // Новый запрос стартует только после завершения предыдущего в этом чате
+        CompletableFuture<?> tail = chatTails.compute(chatKey, (key, previous) -> {
+            CompletableFuture<?> start = previous == null ? CompletableFuture.completedFuture(null) : previous;
+            return start.handle((ignored, error) -> null)
+                    .thenCompose(ignored -> execute(botToken, chatId, true, method, body, 0).toFuture())
+                    .whenComplete((response, error) -> complete(result, response, error, enqueuedAt));
+        });
+        tail.whenComplete((ignored, error) -> chatTails.remove(chatKey, tail));
+        return result;
+    }
+
+    /**
+     * Вызывает метод Bot API, не отправляющий сообщений в чат (например, answerCallbackQuery),
+     * вне очереди чата: ограничивается только лимитом бота.
+     * @param botToken Токен бота.
+     * @param method Метод Bot API.
+     * @param body Тело запроса.
+     * @return Future с полем result ответа Telegram; завершается с TelegramApiException при ok=false.
+     */
+    public CompletableFuture<JsonNode> sendOutsideChat(String botToken, String method, ObjectNode body) {
+        if (!tryAcquirePending()) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Очередь исходящих сообщений Telegram переполнена"));
+        }
+        long enqueuedAt = System.nanoTime();
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        execute(botToken, 0, false, method, body, 0).toFuture()
+                .whenComplete((response, error) -> complete(result, response, error, enqueuedAt));
+        return result;
+    }
+
+    private boolean tryAcquirePending() {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void complete(CompletableFuture<JsonNode> result, JsonNode response, Throwable error, long enqueuedAt) {
+        pending.decrementAndGet();
+        totalLatency.record(System.nanoTime() - enqueuedAt);
+        if (error == null) {
+            sent.incrementAndGet();
+            throughput.mark();
+            result.complete(response);
+        } else {
+            failed.incrementAndGet();
+            result.completeExceptionally(error);
+        }
+    }
+
+    private Mono<JsonNode> execute(String botToken, long chatId, boolean chatLimited, String method, ObjectNode body, int attempt) {
+        long delayNanos = reserve(botToken, chatId, chatLimited);
+        Mono<Long> wait = delayNanos > 0 ? Mono.delay(Duration.ofNanos(delayNanos)) : Mono.just(0L);
+
+        return wait.then(Mono.defer(() -> {
+                    long startedAt = System.nanoTime();
+                    return telegramWebClient.post()
+                            .uri(String.format("/bot%s/%s", botToken, method))
+                            .bodyValue(body)
+                            .retrieve()
+                            .bodyToMono(String.class)
+                            .doFinally(signal -> requestLatency.record(System.nanoTime() - startedAt));
+                }))
+                .map(this::parseResponse)
+                .onErrorResume(WebClientResponseException.class, e -> {
+                    if (e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS && attempt < maxRetries) {
+                        long retryAfter = retryAfterSeconds(e.getResponseBodyAsString());
+                        retried.incrementAndGet();
+                        log.warn("Telegram вернул 429 для чата {} ({}), повтор через {} с", chatId, method, retryAfter);
+                        return Mono.delay(Duration.ofSeconds(retryAfter))
+                                .then(Mono.defer(() -> execute(botToken, chatId, chatLimited, method, body, attempt + 1)));
+                    }
+                    JsonNode error = readTreeQuietly(e.getResponseBodyAsString());
+                    return Mono.error(new TelegramApiException(e.getStatusCode().value(),
+                            error.path("description").asText(e.getStatusText())));
+                });
+    }
+
+    private JsonNode parseResponse(String responseString) {
+        JsonNode rootNode = readTreeQuietly(responseString);
+        if (!rootNode.path("ok").asBoolean()) {
+            throw new TelegramApiException(rootNode.path("error_code").asInt(), rootNode.path("description").asText());
+        }
+        return rootNode.path("result");
+    }
+
+    /**
+     * Резервирует слот во всех применимых бакетах и возвращает необходимую задержку.
+     * Сначала чат (и группа), затем бот — начиная с момента, когда разрешит чат.
+     * Вызовы вне чата резервируют слот только у бота.
+     */
+    private long reserve(String botToken, long chatId, boolean chatLimited) {
+        long now = System.nanoTime();
+        long chatReady = now;
+        if (chatLimited) {
+            String chatKey = botToken + ":" + chatId;
+            // Для групп лимит строже (20 в минуту), поэтому используется он вместо лимита чата
+            long interval = chatId < 0 ? groupIntervalNanos : chatIntervalNanos;
+            chatReady = chatBuckets.computeIfAbsent(chatKey, k -> new RateBucket(interval, 1)).reserve(now);
+        }
+        long botReady = botBuckets.computeIfAbsent(botToken, k -> new RateBucket(botIntervalNanos, botBurst)).reserve(chatReady);
+        return Math.max(0, botReady - now);
+    }
+
+    private long retryAfterSeconds(String body) {
+        long retryAfter = readTreeQuietly(body).path("parameters").path("retry_after").asLong(1);
+        return Math.max(1, retryAfter);
+    }
+
+    private JsonNode readTreeQuietly(String json) {
+        try {
+            return json == null || json.isEmpty() ? objectMapper.createObjectNode() : objectMapper.readTree(json);
+        } catch (Exception e) {
+            return objectMapper.createObjectNode();
+        }
+    }
+
+    /**
+     * Удаляет бакеты чатов, которые давно не использовались.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        chatBuckets.entrySet().removeIf(entry -> entry.getValue().isIdle(now));
+    }
+
+    /**
+     * Возвращает метрики: количество отправленных, ошибок, повторов, пропускную способность и задержки.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.get());
+        stats.put("sent", sent.get());
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("retried429", retried.get());
+        stats.put("sentLastMinute", throughput.lastMinute());
+        stats.put("sentPerSecond", throughput.perSecond());
+        stats.put("totalLatency", totalLatency.snapshot());
+        stats.put("requestLatency", requestLatency.snapshot());
+        return stats;
+    }
+
+    /**
+     * Ограничитель скорости по алгоритму GCRA: одно значение "теоретического времени прибытия"
+     * вместо счетчика токенов. burst определяет, сколько запросов можно отправить подряд.
+     */
+    static final class RateBucket {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private long theoreticalArrival = Long.MIN_VALUE;
+
+        RateBucket(long intervalNanos, int burst) {
+            this.intervalNanos = intervalNanos;
+            this.toleranceNanos = intervalNanos * (burst - 1);
+        }
+
+        /**
+         * @param at Момент, не раньше которого нужен слот.
+         * @return Момент, когда слот доступен.
+         */
+        synchronized long reserve(long at) {
+            long tat = theoreticalArrival == Long.MIN_VALUE ? at : Math.max(theoreticalArrival, at);
+            long allowedAt = Math.max(at, tat - toleranceNanos);
+            theoreticalArrival = tat + intervalNanos;
+            return allowedAt;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return theoreticalArrival == Long.MIN_VALUE || theoreticalArrival - now < 0;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.security.services.TelegramService;
+import com.chatalyst.backend.util.LatencyRecorder;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронная обработка входящих обновлений Telegram.
+ * Вебхук только кладет обновление в очередь бота и сразу отвечает 200 OK,
+ * а обработка (OpenAI, история, отправка сообщений) выполняется пулом воркеров.
+ *
+ * Гарантии:
+ *  - очередь каждого бота ограничена (при переполнении обновление отклоняется, и Telegram повторит доставку позже);
+ *  - сообщения одного чата обрабатываются строго последовательно в порядке поступления;
+ *  - разные чаты обрабатываются параллельно.
+ */
+@Service
+@Slf4j
+public class TelegramUpdateDispatcher {
+
+    private final TelegramService telegramService;
+    private final int botQueueCapacity;
+    private final long drainTimeoutSeconds;
+    private final ExecutorService workers;
+    private volatile boolean accepting = true;
+
+    // Очереди по ключу "бот:чат". Все изменения очереди выполняются внутри compute(), что дает атомарность по ключу.
+    private final ConcurrentHashMap<String, ArrayDeque<QueuedUpdate>> chatLanes = new ConcurrentHashMap<>();
+    // Число необработанных обновлений по боту. Запись удаляется, как только счетчик доходит до нуля,
+    // поэтому карта не растет от произвольных идентификаторов из пути вебхука.
+    private final ConcurrentHashMap<String, Integer> botQueueDepth = new ConcurrentHashMap<>();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyRecorder waitTime = new LatencyRecorder();
+    private final LatencyRecorder processingTime = new LatencyRecorder();
+
+    public TelegramUpdateDispatcher(TelegramService telegramService,
+                                    @Value("${telegram.dispatcher.workers:16}") int workerCount,
+                                    @Value("${telegram.dispatcher.bot-queue-capacity:500}") int botQueueCapacity,
+                                    @Value("${telegram.dispatcher.drain-timeout-seconds:120}") long drainTimeoutSeconds) {
+        this.telegramService = telegramService;
+        this.botQueueCapacity = botQueueCapacity;
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), namedThreadFactory("tg-update-"));
+        log.info("TelegramUpdateDispatcher инициализирован: воркеров={}, емкость очереди бота={}", workerCount, botQueueCapacity);
+    }
+
+    /**
+     * Ставит обновление в очередь бота.
+     * @param botIdentifier Идентификатор бота.
+     * @param updateJson JSON-объект обновления.
+     * @return false, если очередь бота переполнена или приложение останавливается и обновление не принято.
+     */
+    public boolean submit(String botIdentifier, JsonNode updateJson) {
+        if (!accepting) {
+            // Во время остановки новые обновления не подтверждаем — Telegram доставит их повторно
+            rejected.incrementAndGet();
+            return false;
+        }
+        boolean[] admitted = new boolean[1];
+        botQueueDepth.compute(botIdentifier, (key, depth) -> {
+            int current = depth == null ? 0 : depth;
+            if (current >= botQueueCapacity) {
+                return depth;
+            }
+            admitted[0] = true;
+            return current + 1;
+        });
+        if (!admitted[0]) {
+            rejected.incrementAndGet();
+            log.warn("Очередь бота {} переполнена ({}), обновление отклонено", botIdentifier, botQueueCapacity);
+            return false;
+        }
+
+        String laneKey = botIdentifier + ":" + extractChatId(updateJson);
+        QueuedUpdate update = new QueuedUpdate(botIdentifier, updateJson, System.nanoTime());
+        boolean[] startDrain = new boolean[1];
+
+        chatLanes.compute(laneKey, (key, lane) -> {
+            if (lane == null) {
+                lane = new ArrayDeque<>();
+                // Новая очередь — значит, по этому чату сейчас никто не работает
+                startDrain[0] = true;
+            }
+            lane.addLast(update);
+            return lane;
+        });
+
+        if (startDrain[0]) {
+            try {
+                workers.execute(() -> drain(laneKey));
+            } catch (RejectedExecutionException e) {
+                // Остановка началась после проверки accepting: обновление не подтверждаем, Telegram доставит его повторно
+                withdraw(laneKey, update);
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Убирает из очереди чата обновление, для которого не удалось запустить воркер, и освобождает его место в очереди бота.
+     */
+    private void withdraw(String laneKey, QueuedUpdate update) {
+        int[] stranded = new int[1];
+        chatLanes.computeIfPresent(laneKey, (key, lane) -> {
+            lane.remove(update);
+            stranded[0] = lane.size();
+            return lane.isEmpty() ? null : lane;
+        });
+        botQueueDepth.computeIfPresent(update.botIdentifier(), (key, depth) -> depth <= 1 ? null : depth - 1);
+        if (stranded[0] > 0) {
+            log.error("Очередь чата {} осталась без воркера при остановке: {} обновлений не будут обработаны",
+                    laneKey, stranded[0]);
+        }
+    }
+
+    /**
+     * Последовательно обрабатывает все обновления одного чата.
+     * Очередь удаляется из карты только когда она пуста, поэтому для одного чата
+     * в каждый момент времени работает не более одного воркера.
+     */
+    private void drain(String laneKey) {
+        QueuedUpdate update = peekHead(laneKey);
+        while (update != null) {
+            process(update);
+            update = pollAndPeekNext(laneKey);
+        }
+    }
+
+    private QueuedUpdate peekHead(String laneKey) {
+        ArrayDeque<QueuedUpdate> lane = chatLanes.get(laneKey);
+        return lane == null ? null : lane.peekFirst();
+    }
+
+    private QueuedUpdate pollAndPeekNext(String laneKey) {
+        QueuedUpdate[] next = new QueuedUpdate[1];
+        chatLanes.computeIfPresent(laneKey, (key, lane) -> {
+            lane.pollFirst();
+            next[0] = lane.peekFirst();
+            return lane.isEmpty() ? null : lane;
+        });
+        return next[0];
+    }
+
+    private void process(QueuedUpdate update) {
+        long startedAt = System.nanoTime();
+        waitTime.record(startedAt - update.enqueuedAt());
+        try {
+            telegramService.processUpdate(update.botIdentifier(), update.payload());
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Ошибка обработки обновления Telegram для бота {}: {}", update.botIdentifier(), e.getMessage(), e);
+        } finally {
+            processingTime.record(System.nanoTime() - startedAt);
+            botQueueDepth.computeIfPresent(update.botIdentifier(), (key, depth) -> depth <= 1 ? null : depth - 1);
+        }
+    }
+
+    /**
+     * Определяет ID чата, к которому относится обновление. Обновления без чата
+     * попадают в общую очередь бота.
+     */
+    static String extractChatId(JsonNode updateJson) {
+        JsonNode chat = updateJson.path("message").path("chat");
+        if (chat.isMissingNode()) {
+            chat = updateJson.path("callback_query").path("message").path("chat");
+        }
+        return chat.has("id") ? chat.get("id").asText() : "none";
+    }
+
+    /**
+     * Возвращает метрики диспетчера: глубину очередей, время ожидания и обработки.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accepted", accepted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("activeChats", chatLanes.size());
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        depths.putAll(botQueueDepth);
+        stats.put("queueDepthByBot", depths);
+        stats.put("botQueueCapacity", botQueueCapacity);
+        stats.put("waitTime", waitTime.snapshot());
+        stats.put("processingTime", processingTime.snapshot());
+        return stats;
+    }
+
+    /**
+     * Останавливает прием новых обновлений и дожидается обработки уже подтвержденных.
+     * Обновления, на которые Telegram уже получил 200 OK, повторно доставлены не будут,
+     * поэтому очереди дорабатываются до конца, а не отбрасываются.
+     */
+    @PreDestroy
+    public void shutdown() {
+        accepting = false;
+        log.info("Остановка TelegramUpdateDispatcher: дорабатываем {} обновлений в {} чатах",
+                pendingUpdates(), chatLanes.size());
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(drainTimeoutSeconds, TimeUnit.SECONDS)) {
+                log.error("Очереди не обработаны за {} с, осталось {} обновлений в {} чатах",
+                        drainTimeoutSeconds, pendingUpdates(), chatLanes.size());
+            }
+        } catch (InterruptedException e) {
+            log.warn("Ожидание обработки очередей прервано, осталось {} обновлений", pendingUpdates());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int pendingUpdates() {
+        return botQueueDepth.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record QueuedUpdate(String botIdentifier, JsonNode payload, long enqueuedAt) {
+    }
+}
@@ -0,0 +1,173 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.OpenAITokenUsageRepository;
+import com.chatalyst.backend.Repository.TokenUsageRollupRepository;
+import com.chatalyst.backend.model.OpenAITokenUsage;
+import com.chatalyst.backend.model.TokenUsageRollup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поддержка агрегатов статистики токенов (TokenUsageRollup).
+ *
+ * Новые записи OpenAITokenUsage попадают в агрегаты в той же транзакции, в которой
+ * сохраняются (через {@link WriteBehindPersister}), поэтому строка учитывается ровно один раз.
+ * Записи, сделанные до появления агрегатов, учитываются фоновым backfill порциями.
+ */
+@Service
+@Slf4j
+public class TokenUsageRollupService {
+
+    private static final Comparator<Key> KEY_ORDER = Comparator
+            .comparing(Key::granularity)
+            .thenComparing(Key::botIdentifier)
+            .thenComparingLong(Key::chatId)
+            .thenComparing(Key::bucketStart);
+
+    private final OpenAITokenUsageRepository tokenUsageRepository;
+    private final TokenUsageRollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int backfillChunkSize;
+    private final boolean backfillOnStartup;
+    private final AtomicBoolean backfillRunning = new AtomicBoolean();
+
+    public TokenUsageRollupService(OpenAITokenUsageRepository tokenUsageRepository,
+                                   TokenUsageRollupRepository rollupRepository,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${token-usage.rollup.backfill-chunk-size:1000}") int backfillChunkSize,
+                                   @Value("${token-usage.rollup.backfill-on-startup:true}") boolean backfillOnStartup) {
+        this.tokenUsageRepository = tokenUsageRepository;
+        this.rollupRepository = rollupRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.backfillChunkSize = backfillChunkSize;
+        this.backfillOnStartup = backfillOnStartup;
+    }
+
+    /**
+     * Сохраняет записи и прибавляет их к агрегатам. Должен вызываться внутри транзакции.
+     * @param usages Новые записи статистики токенов.
+     */
+    public void saveWithRollups(List<OpenAITokenUsage> usages) {
+        usages.forEach(usage -> usage.setRolledUp(true));
+        tokenUsageRepository.saveAll(usages);
+        applyToRollups(usages);
+    }
+
+    /**
+     * Учитывает в агрегатах все записи, которые еще не учтены. Безопасно запускать
+     * параллельно с обычной записью и на нескольких экземплярах.
+     * @return Количество учтенных записей.
+     */
+    public long backfill() {
+        if (!backfillRunning.compareAndSet(false, true)) {
+            log.info("Backfill агрегатов токенов уже выполняется");
+            return 0;
+        }
+        try {
+            long total = 0;
+            int processed;
+            do {
+                processed = transactionTemplate.execute(status -> backfillChunk());
+                total += processed;
+            } while (processed == backfillChunkSize);
+            if (total > 0) {
+                log.info("Backfill агрегатов токенов завершен, учтено записей: {}", total);
+            }
+            return total;
+        } finally {
+            backfillRunning.set(false);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        Thread thread = TelegramUpdateDispatcher.namedThreadFactory("token-rollup-backfill-").newThread(() -> {
+            try {
+                backfill();
+            } catch (RuntimeException e) {
+                log.error("Ошибка backfill агрегатов токенов: {}", e.getMessage(), e);
+            }
+        });
+        thread.start();
+    }
+
+    private int backfillChunk() {
+        List<OpenAITokenUsage> usages = tokenUsageRepository.findNotRolledUp(PageRequest.of(0, backfillChunkSize));
+        if (usages.isEmpty()) {
+            return 0;
+        }
+        // Сущности управляемые: флаг запишется при коммите вместе с агрегатами
+        usages.forEach(usage -> usage.setRolledUp(true));
+        applyToRollups(usages);
+        return usages.size();
+    }
+
+    private void applyToRollups(List<OpenAITokenUsage> usages) {
+        // Сначала суммируем пачку в памяти: одна строка агрегата — один UPSERT.
+        // Строки обновляются в фиксированном порядке, чтобы параллельные транзакции не блокировали друг друга взаимно
+        Map<Key, Delta> deltas = new TreeMap<>(KEY_ORDER);
+        for (OpenAITokenUsage usage : usages) {
+            LocalDateTime timestamp = usage.getTimestamp() != null ? usage.getTimestamp() : LocalDateTime.now();
+            LocalDateTime hour = timestamp.truncatedTo(ChronoUnit.HOURS);
+            LocalDateTime day = timestamp.truncatedTo(ChronoUnit.DAYS);
+            String botIdentifier = usage.getBotIdentifier();
+
+            add(deltas, new Key(TokenUsageRollup.Granularity.HOUR, botIdentifier, TokenUsageRollup.ALL_CHATS, hour), usage);
+            add(deltas, new Key(TokenUsageRollup.Granularity.DAY, botIdentifier, TokenUsageRollup.ALL_CHATS, day), usage);
+            add(deltas, new Key(TokenUsageRollup.Granularity.TOTAL, botIdentifier, TokenUsageRollup.ALL_CHATS,
+                    TokenUsageRollup.TOTAL_BUCKET_START), usage);
+            if (usage.getChatId() != null && usage.getChatId() != TokenUsageRollup.ALL_CHATS) {
+                long chatId = usage.getChatId();
+                add(deltas, new Key(TokenUsageRollup.Granularity.HOUR, botIdentifier, chatId, hour), usage);
+                add(deltas, new Key(TokenUsageRollup.Granularity.DAY, botIdentifier, chatId, day), usage);
+                add(deltas, new Key(TokenUsageRollup.Granularity.TOTAL, botIdentifier, chatId,
+                        TokenUsageRollup.TOTAL_BUCKET_START), usage);
+            }
+        }
+        deltas.forEach((key, delta) -> rollupRepository.increment(key.granularity().name(), key.bucketStart(),
+                key.botIdentifier(), key.chatId(), delta.requests, delta.promptTokens, delta.completionTokens,
+                delta.totalTokens, delta.usdCost, delta.kztCost));
+    }
+
+    private static void add(Map<Key, Delta> deltas, Key key, OpenAITokenUsage usage) {
+        Delta delta = deltas.computeIfAbsent(key, k -> new Delta());
+        delta.requests++;
+        delta.promptTokens += valueOf(usage.getPromptTokens());
+        delta.completionTokens += valueOf(usage.getCompletionTokens());
+        delta.totalTokens += valueOf(usage.getTotalTokens());
+        delta.usdCost += usage.getUsdCost() != null ? usage.getUsdCost() : 0.0;
+        delta.kztCost += usage.getKztCost() != null ? usage.getKztCost() : 0.0;
+    }
+
+    private static long valueOf(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private record Key(TokenUsageRollup.Granularity granularity, String botIdentifier, long chatId, LocalDateTime bucketStart) {
+    }
+
+    private static final class Delta {
+        private long requests;
+        private long promptTokens;
+        private long completionTokens;
+        private long totalTokens;
+        private double usdCost;
+        private double kztCost;
+    }
+}
@@ -0,0 +1,341 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.ChatMessageRepository;
+import com.chatalyst.backend.model.ChatMessage;
+import com.chatalyst.backend.model.OpenAITokenUsage;
+import com.chatalyst.backend.util.LatencyRecorder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Отложенная пакетная запись сообщений чата и статистики токенов (write-behind).
+ *
+ * Обработчик диалога только кладет сущности в ограниченную очередь, а фоновый поток
+ * сохраняет их пачками: когда накопилось batch-size записей или прошло flush-interval-ms.
+ * Сущности используют идентификаторы из последовательности, поэтому Hibernate
+ * отправляет вставку пачки одним JDBC batch.
+ *
+ * При переполнении очереди (БД не успевает) действует политика overflow:
+ * BLOCK — подождать место в очереди, а затем записать синхронно в потоке вызова;
+ * DROP — отбросить запись (учитывается в метриках).
+ * При остановке приложения очередь дописывается в БД до конца.
+ */
+@Service
+@Slf4j
+public class WriteBehindPersister {
+
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP
+    }
+
+    // Должен совпадать с allocationSize последовательностей в ChatMessage и OpenAITokenUsage
+    private static final int SEQUENCE_ALLOCATION_SIZE = 50;
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowWaitMs;
+    private final long shutdownTimeoutSeconds;
+
+    private final Buffer<ChatMessage> chatMessages;
+    private final Buffer<OpenAITokenUsage> tokenUsages;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    public WriteBehindPersister(ChatMessageRepository chatMessageRepository,
+                                TokenUsageRollupService tokenUsageRollupService,
+                                EntityManager entityManager,
+                                TransactionTemplate transactionTemplate,
+                                @Value("${persistence.write-behind.enabled:true}") boolean enabled,
+                                @Value("${persistence.write-behind.batch-size:50}") int batchSize,
+                                @Value("${persistence.write-behind.flush-interval-ms:500}") long flushIntervalMs,
+                                @Value("${persistence.write-behind.capacity:10000}") int capacity,
+                                @Value("${persistence.write-behind.overflow:BLOCK}") OverflowPolicy overflowPolicy,
+                                @Value("${persistence.write-behind.overflow-wait-ms:200}") long overflowWaitMs,
+                                @Value("${persistence.write-behind.shutdown-timeout-seconds:30}") long shutdownTimeoutSeconds) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowWaitMs = overflowWaitMs;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        this.chatMessages = new Buffer<>("chatMessages", chatMessageRepository::saveAll, m -> m.setId(null), capacity);
+        // Статистика токенов пишется вместе с приращением агрегатов в одной транзакции
+        this.tokenUsages = new Buffer<>("tokenUsages", tokenUsageRollupService::saveWithRollups, u -> u.setId(null), capacity);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(TelegramUpdateDispatcher.namedThreadFactory("write-behind-"));
+    }
+
+    @PostConstruct
+    public void start() {
+        // Таблицы заполнялись с IDENTITY: создаем последовательности и сдвигаем их за уже выданные id
+        prepareSequence("chat_message_seq", "ChatMessage");
+        prepareSequence("openai_token_usage_seq", "OpenAITokenUsage");
+        if (enabled) {
+            flusher.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            log.info("WriteBehindPersister запущен: пачка={}, интервал={} мс, политика переполнения={}",
+                    batchSize, flushIntervalMs, overflowPolicy);
+        }
+    }
+
+    /**
+     * Ставит сообщения чата в очередь на запись. Порядок сообщений сохраняется.
+     */
+    public void enqueueChatMessages(List<ChatMessage> messages) {
+        submit(chatMessages, messages);
+    }
+
+    /**
+     * Ставит запись статистики токенов в очередь на запись.
+     */
+    public void enqueueTokenUsage(OpenAITokenUsage tokenUsage) {
+        submit(tokenUsages, List.of(tokenUsage));
+    }
+
+    private <T> void submit(Buffer<T> buffer, List<T> entities) {
+        if (!enabled) {
+            buffer.writeNow(entities);
+            return;
+        }
+        for (int i = 0; i < entities.size(); i++) {
+            if (!buffer.offer(entities.get(i))) {
+                List<T> rest = entities.subList(i, entities.size());
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    buffer.dropped.addAndGet(rest.size());
+                    log.warn("Очередь записи {} переполнена, отброшено записей: {}", buffer.name, rest.size());
+                } else {
+                    buffer.writeNow(rest);
+                }
+                break;
+            }
+        }
+        if (buffer.queue.size() >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushRequested.set(false);
+                    flushAll();
+                });
+            } catch (RuntimeException e) {
+                // Планировщик уже остановлен: остаток допишет shutdown()
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void flushAll() {
+        try {
+            while (chatMessages.flushBatch() == batchSize) {
+                // полные пачки пишем подряд, пока очередь не опустеет
+            }
+            while (tokenUsages.flushBatch() == batchSize) {
+                // то же для статистики токенов
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка фоновой записи: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Дописываем остаток в потоке остановки, пока репозитории еще доступны
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        while ((!chatMessages.queue.isEmpty() || !tokenUsages.queue.isEmpty()) && System.nanoTime() < deadline) {
+            chatMessages.flushBatch();
+            tokenUsages.flushBatch();
+        }
+        int left = chatMessages.queue.size() + tokenUsages.queue.size();
+        if (left > 0) {
+            log.error("WriteBehindPersister остановлен, не записано: {}", left);
+        } else {
+            log.info("WriteBehindPersister остановлен, очередь записана полностью");
+        }
+    }
+
+    /**
+     * Создает последовательность, если ее еще нет, приводит шаг к allocationSize сущности
+     * и сдвигает ее за максимальный существующий id. DDL идемпотентен и выполняется при каждом старте.
+     * Если подготовить последовательность не удалось, приложение не стартует: иначе Hibernate
+     * начнет выдавать id, которые пересекаются с уже записанными строками.
+     */
+    private void prepareSequence(String sequence, String entityName) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                entityManager.createNativeQuery("CREATE SEQUENCE IF NOT EXISTS " + sequence
+                        + " START WITH 1 INCREMENT BY " + SEQUENCE_ALLOCATION_SIZE).executeUpdate();
+                entityManager.createNativeQuery("ALTER SEQUENCE " + sequence
+                        + " INCREMENT BY " + SEQUENCE_ALLOCATION_SIZE).executeUpdate();
+                Long maxId = entityManager.createQuery("SELECT COALESCE(MAX(e.id), 0) FROM " + entityName + " e", Long.class)
+                        .getSingleResult();
+                Number lastValue = (Number) entityManager.createNativeQuery("SELECT last_value FROM " + sequence)
+                        .getSingleResult();
+                if (lastValue.longValue() < maxId + SEQUENCE_ALLOCATION_SIZE) {
+                    entityManager.createNativeQuery("SELECT setval('" + sequence + "', " + (maxId + SEQUENCE_ALLOCATION_SIZE) + ")")
+                            .getSingleResult();
+                    log.info("Последовательность {} сдвинута за максимальный id {}", sequence, maxId);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Не удалось подготовить последовательность " + sequence + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Возвращает метрики записи: глубина очередей, возраст самой старой записи,
+     * задержка от постановки в очередь до коммита, размер пачек и потери.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("batchSize", batchSize);
+        stats.put("flushIntervalMs", flushIntervalMs);
+        stats.put("overflowPolicy", overflowPolicy.name());
+        stats.put(chatMessages.name, chatMessages.stats());
+        stats.put(tokenUsages.name, tokenUsages.stats());
+        return stats;
+    }
+
+    private record Pending<T>(T entity, long enqueuedAt) {
+    }
+
+    /**
+     * Очередь одного типа сущностей со своими счетчиками.
+     */
+    private final class Buffer<T> {
+        private final String name;
+        private final Consumer<List<T>> writer;
+        private final Consumer<T> idReset;
+        private final ArrayBlockingQueue<Pending<T>> queue;
+
+        private final AtomicLong enqueued = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong syncWrites = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        // От постановки в очередь до коммита
+        private final LatencyRecorder lag = new LatencyRecorder();
+        private final LatencyRecorder flushTime = new LatencyRecorder();
+
+        Buffer(String name, Consumer<List<T>> writer, Consumer<T> idReset, int capacity) {
+            this.name = name;
+            this.writer = writer;
+            this.idReset = idReset;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        boolean offer(T entity) {
+            Pending<T> pending = new Pending<>(entity, System.nanoTime());
+            boolean accepted = queue.offer(pending);
+            if (!accepted && overflowPolicy == OverflowPolicy.BLOCK) {
+                requestFlush();
+                try {
+                    accepted = queue.offer(pending, overflowWaitMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (accepted) {
+                enqueued.incrementAndGet();
+            }
+            return accepted;
+        }
+
+        void writeNow(List<T> entities) {
+            write(entities);
+            syncWrites.addAndGet(entities.size());
+        }
+
+        /**
+         * Записывает одну пачку из очереди.
+         * @return Количество взятых из очереди записей.
+         */
+        int flushBatch() {
+            List<Pending<T>> batch = new ArrayList<>(batchSize);
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            List<T> entities = new ArrayList<>(batch.size());
+            batch.forEach(pending -> entities.add(pending.entity()));
+
+            long start = System.nanoTime();
+            try {
+                write(entities);
+                written.addAndGet(entities.size());
+            } catch (RuntimeException e) {
+                // Пачка откатилась целиком: пишем записи по одной, чтобы одна плохая строка не потянула остальные
+                log.warn("Пачка {} ({} записей) не записана: {}. Повтор по одной записи", name, entities.size(), e.getMessage());
+                for (T entity : entities) {
+                    idReset.accept(entity);
+                    try {
+                        write(List.of(entity));
+                        written.incrementAndGet();
+                    } catch (RuntimeException single) {
+                        failed.incrementAndGet();
+                        log.error("Запись {} потеряна: {}", name, single.getMessage());
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            flushTime.record(now - start);
+            batches.incrementAndGet();
+            batch.forEach(pending -> lag.record(now - pending.enqueuedAt()));
+            return batch.size();
+        }
+
+        private void write(List<T> entities) {
+            transactionTemplate.executeWithoutResult(status -> writer.accept(entities));
+        }
+
+        Map<String, Object> stats() {
+            Pending<T> oldest = queue.peek();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("queued", queue.size());
+            stats.put("oldestPendingMs", oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedAt()));
+            stats.put("enqueued", enqueued.get());
+            stats.put("written", written.get());
+            stats.put("batches", batches.get());
+            stats.put("avgBatchSize", batches.get() == 0 ? 0.0 : written.get() / (double) batches.get());
+            stats.put("syncWrites", syncWrites.get());
+            stats.put("dropped", dropped.get());
+            stats.put("failed", failed.get());
+            stats.put("lag", lag.snapshot());
+            stats.put("flushTime", flushTime.snapshot());
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.chatalyst.backend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Автомат Ахо–Корасик для поиска упоминаний множества строк (например, названий товаров)
+ * в тексте за один проход.
+ *
+ * Особенности:
+ *  - регистр не учитывается (включая кириллицу), "ё" приравнивается к "е";
+ *  - нормализация посимвольная, поэтому смещения совпадений соответствуют исходному тексту;
+ *  - при пересечении совпадений предпочитается самое длинное;
+ *  - несколько значений с одинаковым ключом возвращаются вместе.
+ *
+ * Экземпляр неизменяем после построения и безопасен для использования из нескольких потоков.
+ *
+ * @param <T> Тип значений, привязанных к ключам.
+ */
+public final class AhoCorasickMatcher<T> {
+
+    /**
+     * Найденное упоминание: полуинтервал [start, end) в исходном тексте и значения с этим ключом.
+     */
+    public record Match<T>(int start, int end, List<T> values) {
+    }
+
+    private static final int ROOT = 0;
+
+    private final TransitionTable transitions = new TransitionTable();
+    private int[] fail = new int[64];
+    private int[] outputLink = new int[64];
+    private int[] patternAt = new int[64];
+    private int[] depth = new int[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    private char[] nodeChar = new char[64];
+    private int nodeCount = 1;
+
+    private final List<List<T>> patternValues = new ArrayList<>();
+
+    private AhoCorasickMatcher() {
+        Arrays.fill(patternAt, -1);
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+    }
+
+    /**
+     * Строит автомат по набору значений.
+     * @param values Значения (например, товары).
+     * @param keyExtractor Функция получения ключа для поиска (например, названия товара).
+     * @return Готовый автомат.
+     */
+    public static <T> AhoCorasickMatcher<T> build(Collection<T> values, Function<T, String> keyExtractor) {
+        AhoCorasickMatcher<T> matcher = new AhoCorasickMatcher<>();
+        Map<String, List<T>> byKey = new LinkedHashMap<>();
+        for (T value : values) {
+            String key = keyExtractor.apply(value);
+            if (key == null) {
+                continue;
+            }
+            String normalized = normalize(key.trim());
+            if (!normalized.isEmpty()) {
+                byKey.computeIfAbsent(normalized, k -> new ArrayList<>()).add(value);
+            }
+        }
+        byKey.forEach(matcher::insert);
+        matcher.buildFailureLinks();
+        return matcher;
+    }
+
+    /**
+     * Приводит символ к виду для сравнения: нижний регистр, "ё" -> "е", неразрывный пробел -> пробел.
+     */
+    public static char fold(char c) {
+        char lower = Character.toLowerCase(c);
+        if (lower == 'ё') {
+            return 'е';
+        }
+        if (lower == '\u00A0') {
+            return ' ';
+        }
+        return lower;
+    }
+
+    public static String normalize(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    public int getPatternCount() {
+        return patternValues.size();
+    }
+
+    /**
+     * Находит все упоминания в тексте за один проход. Пересекающиеся совпадения
+     * разрешаются в пользу самого длинного (при равной длине — более раннего).
+     * @param text Текст для поиска.
+     * @return Непересекающиеся совпадения в порядке появления в тексте.
+     */
+    public List<Match<T>> findAll(String text) {
+        List<int[]> selected = scan(text);
+        List<Match<T>> result = new ArrayList<>(selected.size());
+        for (int[] m : selected) {
+            result.add(new Match<>(m[0], m[1], patternValues.get(m[2])));
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает значения всех упомянутых ключей без повторов в порядке первого упоминания.
+     */
+    public List<T> findDistinctValues(String text) {
+        List<T> result = new ArrayList<>();
+        boolean[] seen = new boolean[patternValues.size()];
+        for (int[] m : scan(text)) {
+            if (!seen[m[2]]) {
+                seen[m[2]] = true;
+                result.addAll(patternValues.get(m[2]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Один проход автомата по тексту.
+     * @return Выбранные совпадения в виде {start, end, patternIndex}.
+     */
+    private List<int[]> scan(String text) {
+        if (text == null || text.isEmpty() || patternValues.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<int[]> raw = new ArrayList<>();
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = fold(text.charAt(i));
+            int next = transitions.get(state, c);
+            while (next < 0 && state != ROOT) {
+                state = fail[state];
+                next = transitions.get(state, c);
+            }
+            state = next < 0 ? ROOT : next;
+
+            int node = patternAt[state] >= 0 ? state : outputLink[state];
+            while (node != ROOT) {
+                raw.add(new int[]{i + 1 - depth[node], i + 1, patternAt[node]});
+                node = outputLink[node];
+            }
+        }
+        return selectLongest(raw);
+    }
+
+    /**
+     * Из пересекающихся совпадений оставляет самые длинные.
+     */
+    private static List<int[]> selectLongest(List<int[]> raw) {
+        if (raw.isEmpty()) {
+            return raw;
+        }
+        raw.sort(Comparator.<int[]>comparingInt(m -> m[0]).thenComparingInt(m -> m[0] - m[1]));
+        List<int[]> selected = new ArrayList<>();
+        int[] pending = null;
+        for (int[] m : raw) {
+            if (pending != null && m[0] < pending[1]) {
+                // Пересечение: оставляем более длинное совпадение
+                if (m[1] - m[0] > pending[1] - pending[0]) {
+                    pending = m;
+                }
+                continue;
+            }
+            if (pending != null) {
+                selected.add(pending);
+            }
+            pending = m;
+        }
+        selected.add(pending);
+        return selected;
+    }
+
+    private void insert(String key, List<T> values) {
+        int node = ROOT;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            int next = transitions.get(node, c);
+            if (next < 0) {
+                next = newNode(node, c, i + 1);
+                transitions.put(node, c, next);
+            }
+            node = next;
+        }
+        patternAt[node] = patternValues.size();
+        patternValues.add(Collections.unmodifiableList(values));
+    }
+
+    private int newNode(int parent, char c, int nodeDepth) {
+        if (nodeCount == fail.length) {
+            int newSize = fail.length * 2;
+            fail = Arrays.copyOf(fail, newSize);
+            outputLink = Arrays.copyOf(outputLink, newSize);
+            patternAt = grow(patternAt, newSize);
+            depth = Arrays.copyOf(depth, newSize);
+            firstChild = grow(firstChild, newSize);
+            nextSibling = grow(nextSibling, newSize);
+            nodeChar = Arrays.copyOf(nodeChar, newSize);
+        }
+        int node = nodeCount++;
+        depth[node] = nodeDepth;
+        nodeChar[node] = c;
+        nextSibling[node] = firstChild[parent];
+        firstChild[parent] = node;
+        return node;
+    }
+
+    private static int[] grow(int[] array, int newSize) {
+        int oldSize = array.length;
+        int[] result = Arrays.copyOf(array, newSize);
+        Arrays.fill(result, oldSize, newSize, -1);
+        return result;
+    }
+
+    private void buildFailureLinks() {
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+            fail[child] = ROOT;
+            outputLink[child] = ROOT;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                char c = nodeChar[child];
+                int f = fail[node];
+                int next = transitions.get(f, c);
+                while (next < 0 && f != ROOT) {
+                    f = fail[f];
+                    next = transitions.get(f, c);
+                }
+                fail[child] = next < 0 ? ROOT : next;
+                outputLink[child] = patternAt[fail[child]] >= 0 ? fail[child] : outputLink[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Таблица переходов (узел, символ) -> узел на открытой адресации,
+     * чтобы не хранить отдельную HashMap в каждом узле.
+     */
+    private static final class TransitionTable {
+        private static final long EMPTY = -1L;
+
+        private long[] keys = filled(1 << 10);
+        private int[] targets = new int[1 << 10];
+        private int size;
+
+        int get(int node, char c) {
+            long key = key(node, c);
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return targets[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void put(int node, char c, int target) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            insert(key(node, c), target);
+            size++;
+        }
+
+        private void insert(long key, int target) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            targets[slot] = target;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldTargets = targets;
+            keys = filled(oldKeys.length * 2);
+            targets = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    insert(oldKeys[i], oldTargets[i]);
+                }
+            }
+        }
+
+        private static long key(int node, char c) {
+            return ((long) node << 16) | c;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static long[] filled(int size) {
+            long[] array = new long[size];
+            Arrays.fill(array, EMPTY);
+            return array;
+        }
+    }
+}
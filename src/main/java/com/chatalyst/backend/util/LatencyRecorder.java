@@ -0,0 +1,50 @@
+package com.chatalyst.backend.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Простой потокобезопасный накопитель длительностей (количество, сумма, максимум).
+ * Используется для внутренних метрик без внешних зависимостей.
+ */
+public class LatencyRecorder {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Регистрирует одно измерение.
+     * @param nanos Длительность в наносекундах.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Возвращает снимок метрик в миллисекундах.
+     * @return Карта с полями count, avgMs, maxMs, totalMs.
+     */
+    public Map<String, Object> snapshot() {
+        long c = count.sum();
+        long total = totalNanos.sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", c);
+        result.put("avgMs", c == 0 ? 0.0 : total / (double) c / TimeUnit.MILLISECONDS.toNanos(1));
+        result.put("maxMs", maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        result.put("totalMs", TimeUnit.NANOSECONDS.toMillis(total));
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+package com.chatalyst.backend.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * MinHash-сигнатуры для быстрой оценки сходства Жаккара между множествами слов.
+ * Сигнатура делится на полосы (LSH): два множества становятся кандидатами,
+ * если совпала хотя бы одна полоса целиком.
+ */
+public final class MinHash {
+
+    private final int numHashes;
+    private final int bands;
+    private final long[] seeds;
+
+    /**
+     * @param numHashes Длина сигнатуры.
+     * @param bands Количество полос LSH (должно делить numHashes).
+     */
+    public MinHash(int numHashes, int bands) {
+        if (numHashes % bands != 0) {
+            throw new IllegalArgumentException("numHashes must be divisible by bands");
+        }
+        this.numHashes = numHashes;
+        this.bands = bands;
+        this.seeds = new long[numHashes];
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < numHashes; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            seeds[i] = seed;
+        }
+    }
+
+    public int[] signature(Collection<String> shingles) {
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (String shingle : shingles) {
+            long base = shingle.hashCode();
+            for (int i = 0; i < numHashes; i++) {
+                int h = (int) mix(base ^ seeds[i]);
+                if (h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * @return Оценка сходства Жаккара: доля совпавших позиций сигнатур.
+     */
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return equal / (double) a.length;
+    }
+
+    /**
+     * @return Ключи полос LSH: номер полосы в старших битах, хэш значений полосы — в младших.
+     */
+    public long[] bandKeys(int[] signature) {
+        int rows = numHashes / bands;
+        long[] keys = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            long h = band;
+            for (int r = 0; r < rows; r++) {
+                h = h * 31 + signature[band * rows + r];
+            }
+            keys[band] = ((long) band << 56) ^ (mix(h) >>> 8);
+        }
+        return keys;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,60 @@
+package com.chatalyst.backend.util;
+
+/**
+ * Легкий стеммер для русского (и частично казахского) языка: отбрасывает
+ * самое длинное словоизменительное окончание, оставляя основу не короче 3 символов.
+ *
+ * В отличие от полного алгоритма Портера не различает части речи, но для поиска
+ * по названиям и описаниям товаров этого достаточно: "кроссовки", "кроссовкам",
+ * "кроссовками" дают одну основу. Беглые гласные не обрабатываются ("кроссовок" остается как есть).
+ * Ожидает слово в нижнем регистре (см. AhoCorasickMatcher.normalize).
+ */
+public final class RussianStemmer {
+
+    private static final int MIN_STEM = 3;
+
+    // Окончания упорядочены по убыванию длины: берется первое подходящее
+    private static final String[] RUSSIAN_ENDINGS = {
+            "иями", "ются", "ться",
+            "ями", "ами", "ыми", "ими", "его", "ого", "ему", "ому", "ией", "иям", "иях",
+            "ешь", "ете", "ишь", "ите",
+            "ая", "яя", "ое", "ее", "ые", "ие", "ый", "ий", "ой", "ую", "юю", "ым", "им", "ом", "ем",
+            "ам", "ям", "ах", "ях", "ов", "ев", "ей", "ия", "ию", "ье", "ья", "ть",
+            "а", "я", "о", "е", "ы", "и", "у", "ю", "ь", "й"
+    };
+
+    // Казахские окончания множественного числа и падежей
+    private static final String[] KAZAKH_ENDINGS = {
+            "лары", "лері", "дары", "дері", "тары", "тері",
+            "лар", "лер", "дар", "дер", "тар", "тер", "ның", "нің", "дың", "дің", "тың", "тің",
+            "ға", "ге", "қа", "ке", "да", "де", "та", "те"
+    };
+
+    private RussianStemmer() {
+    }
+
+    public static String stem(String word) {
+        if (word.length() <= MIN_STEM || !Character.isLetter(word.charAt(0))) {
+            return word;
+        }
+        String[] endings = isKazakh(word) ? KAZAKH_ENDINGS : RUSSIAN_ENDINGS;
+        for (String ending : endings) {
+            if (word.length() - ending.length() >= MIN_STEM && word.endsWith(ending)) {
+                return word.substring(0, word.length() - ending.length());
+            }
+        }
+        return word;
+    }
+
+    private static boolean isKazakh(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            switch (word.charAt(i)) {
+                case 'ә', 'ғ', 'қ', 'ң', 'ө', 'ұ', 'ү', 'һ', 'і':
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,447 @@
+package com.chatalyst.backend.util;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Потоковое чтение строк таблицы (.xlsx, .xls, .csv) через ограниченную очередь.
+ *
+ * Разбор выполняется отдельным потоком и кладет строки в очередь фиксированной емкости,
+ * а вызывающий код забирает их итератором. Пока обработчик занят (OpenAI, изображения, БД),
+ * разбор приостанавливается на заполненной очереди, поэтому память не зависит от числа строк.
+ * Для .xlsx используется событийная модель XSSF (SAX) без построения книги в памяти;
+ * значения ячеек возвращаются в том виде, как они отображаются в Excel.
+ * Старый формат .xls (не больше 65 536 строк) читается целиком средствами HSSF.
+ *
+ * Первая непустая строка файла считается заголовком и доступна через {@link #getHeaders()}.
+ */
+public final class SpreadsheetRowStream implements Iterator<SpreadsheetRowStream.SheetRow>, AutoCloseable {
+
+    /**
+     * Строка данных.
+     * @param rowNumber Номер строки в файле (с 1, как в Excel).
+     * @param cells Значения ячеек по номеру колонки; пустые ячейки — пустые строки.
+     */
+    public record SheetRow(int rowNumber, List<String> cells) {
+
+        public String get(int column) {
+            return column < cells.size() ? cells.get(column) : "";
+        }
+
+        public boolean isBlank() {
+            return cells.stream().allMatch(String::isBlank);
+        }
+    }
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final Charset WINDOWS_1251 = Charset.forName("windows-1251");
+    private static final SheetRow END = new SheetRow(-1, List.of());
+
+    private final Path file;
+    private final String filename;
+    private final BlockingQueue<SheetRow> queue;
+    private final Thread producer;
+    private volatile boolean closed;
+    private volatile Exception failure;
+    private List<String> headers;
+    private SheetRow next;
+
+    private SpreadsheetRowStream(Path file, String filename, int capacity) {
+        this.file = file;
+        this.filename = filename.toLowerCase();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.producer = new Thread(this::produceSafely, "sheet-reader-" + THREAD_COUNTER.incrementAndGet());
+        this.producer.setDaemon(true);
+    }
+
+    /**
+     * Открывает файл и читает строку заголовков.
+     * @param file Файл на диске.
+     * @param filename Исходное имя файла (по расширению выбирается формат).
+     * @param capacity Емкость очереди строк между разбором и обработкой.
+     * @throws IOException если файл не удалось прочитать или в нем нет заголовков.
+     */
+    public static SpreadsheetRowStream open(Path file, String filename, int capacity) throws IOException {
+        SpreadsheetRowStream stream = new SpreadsheetRowStream(file, filename, capacity);
+        stream.producer.start();
+        SheetRow header = stream.take();
+        if (header == null) {
+            stream.close();
+            throw new IOException("Файл пуст: не найдена строка с заголовками");
+        }
+        List<String> headers = new ArrayList<>();
+        for (String cell : header.cells()) {
+            headers.add(cell.trim());
+        }
+        stream.headers = List.copyOf(headers);
+        return stream;
+    }
+
+    public static boolean isSupported(String filename) {
+        String lower = filename == null ? "" : filename.toLowerCase();
+        return lower.endsWith(".xlsx") || lower.endsWith(".xls") || lower.endsWith(".csv");
+    }
+
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = take();
+        }
+        return next != null;
+    }
+
+    @Override
+    public SheetRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SheetRow row = next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * Останавливает разбор; оставшиеся строки не читаются.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        queue.clear();
+    }
+
+    /**
+     * Следующая непустая строка или null в конце файла.
+     */
+    private SheetRow take() {
+        while (true) {
+            SheetRow row;
+            try {
+                row = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Чтение файла прервано", e);
+            }
+            if (row == END) {
+                // Повторные вызовы после конца тоже должны видеть конец
+                queue.offer(END);
+                if (failure != null) {
+                    throw new IllegalStateException("Ошибка при чтении файла: " + failure.getMessage(), failure);
+                }
+                return null;
+            }
+            if (!row.isBlank()) {
+                return row;
+            }
+        }
+    }
+
+    private void produceSafely() {
+        try {
+            if (filename.endsWith(".csv")) {
+                produceCsv();
+            } else if (filename.endsWith(".xls")) {
+                produceHssf();
+            } else {
+                produceXssf();
+            }
+        } catch (StopReading e) {
+            // Поток закрыт потребителем
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            if (!closed) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void emit(int rowNumber, List<String> cells) {
+        if (closed) {
+            throw new StopReading();
+        }
+        try {
+            while (!queue.offer(new SheetRow(rowNumber, cells), 200, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    throw new StopReading();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new StopReading();
+        }
+    }
+
+    private void produceXssf() throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader reader = new XSSFReader(pkg);
+            StylesTable styles = reader.getStylesTable();
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, new RowCollector(), new DataFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+        }
+    }
+
+    /**
+     * Собирает ячейки одной строки из SAX-событий. Пропущенные (пустые) ячейки заполняются пустыми строками.
+     */
+    private final class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private List<String> cells;
+        private int nextColumn;
+
+        @Override
+        public void startRow(int rowNum) {
+            cells = new ArrayList<>();
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            emit(rowNum + 1, cells);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? new CellReference(cellReference).getCol() : nextColumn;
+            while (cells.size() < column) {
+                cells.add("");
+            }
+            cells.add(formattedValue != null ? formattedValue : "");
+            nextColumn = column + 1;
+        }
+    }
+
+    private void produceHssf() throws Exception {
+        try (Workbook workbook = WorkbookFactory.create(file.toFile(), null, true)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            DataFormatter formatter = new DataFormatter();
+            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+            for (Row row : sheet) {
+                List<String> cells = new ArrayList<>();
+                for (int column = 0; column < Math.max(row.getLastCellNum(), 0); column++) {
+                    Cell cell = row.getCell(column);
+                    cells.add(cell == null ? "" : formatter.formatCellValue(cell, evaluator));
+                }
+                emit(row.getRowNum() + 1, cells);
+            }
+        }
+    }
+
+    private void produceCsv() throws IOException {
+        Charset charset = detectCsvCharset(file);
+        try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), charset))) {
+            CsvParser parser = new CsvParser(reader);
+            List<String> cells;
+            while ((cells = parser.nextRecord()) != null) {
+                emit(parser.recordNumber(), cells);
+            }
+        }
+    }
+
+    /**
+     * Определяет кодировку CSV: по BOM (UTF-8, UTF-16), иначе UTF-8, если файл целиком в ней корректен.
+     * Остальные файлы читаются как Windows-1251 — так сохраняет CSV Excel с русской локалью.
+     */
+    static Charset detectCsvCharset(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] bom = in.readNBytes(3);
+            if (bom.length == 3 && (bom[0] & 0xFF) == 0xEF && (bom[1] & 0xFF) == 0xBB && (bom[2] & 0xFF) == 0xBF) {
+                return StandardCharsets.UTF_8;
+            }
+            if (bom.length >= 2 && (bom[0] & 0xFF) == 0xFF && (bom[1] & 0xFF) == 0xFE) {
+                return StandardCharsets.UTF_16LE;
+            }
+            if (bom.length >= 2 && (bom[0] & 0xFF) == 0xFE && (bom[1] & 0xFF) == 0xFF) {
+                return StandardCharsets.UTF_16BE;
+            }
+        }
+        // Проверяется весь файл: первые строки часто только из ASCII (заголовки, артикулы)
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8.newDecoder())) {
+            char[] buffer = new char[8192];
+            while (reader.read(buffer) != -1) {
+                // только проверка декодирования
+            }
+            return StandardCharsets.UTF_8;
+        } catch (CharacterCodingException e) {
+            return WINDOWS_1251;
+        }
+    }
+
+    /**
+     * Разбор CSV по RFC 4180: кавычки, экранирование "" и переводы строк внутри кавычек.
+     * Разделитель (запятая, точка с запятой или табуляция) определяется по первой строке,
+     * BOM в начале файла пропускается.
+     */
+    static final class CsvParser {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        // Первая строка, прочитанная для определения разделителя
+        private String lookahead = "";
+        private int lookaheadPosition;
+        private char delimiter;
+        private boolean started;
+        private int recordNumber;
+
+        CsvParser(Reader reader) {
+            this.reader = reader;
+        }
+
+        int recordNumber() {
+            return recordNumber;
+        }
+
+        List<String> nextRecord() throws IOException {
+            if (!started) {
+                started = true;
+                detectDelimiter();
+            }
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> cells = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean fieldStart = true;
+            while (c != -1) {
+                char ch = (char) c;
+                if (quoted) {
+                    if (ch == '"') {
+                        c = read();
+                        if (c == '"') {
+                            field.append('"');
+                            c = read();
+                        } else {
+                            quoted = false;
+                        }
+                        continue;
+                    }
+                    field.append(ch);
+                } else if (ch == '"' && fieldStart) {
+                    quoted = true;
+                    fieldStart = false;
+                } else if (ch == delimiter) {
+                    cells.add(field.toString());
+                    field.setLength(0);
+                    fieldStart = true;
+                } else if (ch == '\n') {
+                    break;
+                } else if (ch != '\r') {
+                    field.append(ch);
+                    fieldStart = false;
+                }
+                c = read();
+            }
+            cells.add(field.toString());
+            recordNumber++;
+            return cells;
+        }
+
+        private void detectDelimiter() throws IOException {
+            StringBuilder line = new StringBuilder();
+            boolean quoted = false;
+            int commas = 0;
+            int semicolons = 0;
+            int tabs = 0;
+            int c = readRaw();
+            if (c == '\uFEFF') {
+                c = readRaw();
+            }
+            for (; c != -1; c = readRaw()) {
+                char ch = (char) c;
+                line.append(ch);
+                if (ch == '"') {
+                    quoted = !quoted;
+                } else if (!quoted) {
+                    if (ch == '\n') {
+                        break;
+                    } else if (ch == ',') {
+                        commas++;
+                    } else if (ch == ';') {
+                        semicolons++;
+                    } else if (ch == '\t') {
+                        tabs++;
+                    }
+                }
+            }
+            lookahead = line.toString();
+            delimiter = semicolons > commas && semicolons >= tabs ? ';' : tabs > commas ? '\t' : ',';
+        }
+
+        private int read() throws IOException {
+            if (lookaheadPosition < lookahead.length()) {
+                return lookahead.charAt(lookaheadPosition++);
+            }
+            return readRaw();
+        }
+
+        private int readRaw() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+    }
+
+    private static final class StopReading extends RuntimeException {
+        StopReading() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.chatalyst.backend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Разбор текста для поискового индекса: нормализация символов, разбиение на слова,
+ * удаление служебных слов и стемминг.
+ */
+public final class TextAnalyzer {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "и", "в", "во", "на", "с", "со", "по", "для", "из", "от", "до", "за", "к", "о", "об",
+            "у", "не", "ли", "а", "но", "или", "же", "бы", "то", "это", "как", "что", "есть",
+            "вас", "мне", "нам", "меня", "какие", "какой", "какая", "хочу", "нужен", "нужна", "нужно",
+            "the", "a", "an", "of", "for", "and", "or", "in", "on");
+
+    private TextAnalyzer() {
+    }
+
+    /**
+     * @return Основы значимых слов текста в порядке появления (с повторами).
+     */
+    public static List<String> analyze(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        List<String> terms = new ArrayList<>();
+        String normalized = AhoCorasickMatcher.normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = normalized.substring(start, i);
+                if (!STOP_WORDS.contains(word)) {
+                    terms.add(RussianStemmer.stem(word));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,54 @@
+package com.chatalyst.backend.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Счетчик событий в скользящем окне последних 60 секунд (кольцо из секундных ячеек).
+ */
+public class ThroughputMeter {
+
+    private static final int WINDOW_SECONDS = 60;
+
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray epochs = new AtomicLongArray(WINDOW_SECONDS);
+
+    public void mark() {
+        mark(1);
+    }
+
+    public void mark(long events) {
+        long second = currentSecond();
+        int slot = (int) Math.floorMod(second, (long) WINDOW_SECONDS);
+        long epoch = epochs.get(slot);
+        if (epoch != second && epochs.compareAndSet(slot, epoch, second)) {
+            counts.set(slot, 0);
+        }
+        counts.addAndGet(slot, events);
+    }
+
+    /**
+     * @return Количество событий за последние 60 секунд.
+     */
+    public long lastMinute() {
+        long now = currentSecond();
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (now - epochs.get(i) < WINDOW_SECONDS) {
+                total += counts.get(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return Среднее количество событий в секунду за последнюю минуту.
+     */
+    public double perSecond() {
+        return lastMinute() / (double) WINDOW_SECONDS;
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
@@ -0,0 +1,48 @@
+package com.chatalyst.backend.util;
+
+/**
+ * Быстрая оценка количества токенов без полноценного BPE-токенизатора.
+ *
+ * Веса подобраны под словари GPT (cl100k): латиница и цифры ~4 символа на токен,
+ * кириллица ~2.5 символа на токен, знаки препинания и эмодзи — отдельные токены.
+ * Точность оценки сверяется с фактическим usage.prompt_tokens (см. OpenAITokenUsage).
+ */
+public final class TokenEstimator {
+
+    // Служебные токены на каждое сообщение в формате chat completions
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        double tokens = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                tokens += 0.25;
+            } else if (Character.isLetter(c)) {
+                tokens += 0.4;
+            } else if (Character.isLowSurrogate(c)) {
+                // Вторая половина суррогатной пары уже учтена
+                continue;
+            } else {
+                tokens += 1;
+            }
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    /**
+     * @return Оценка токенов одного сообщения чата вместе со служебными токенами.
+     */
+    public static int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD;
+    }
+}
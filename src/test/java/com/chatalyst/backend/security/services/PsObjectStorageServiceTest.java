@@ -0,0 +1,319 @@
+package com.chatalyst.backend.security.services;
+
+import com.chatalyst.backend.Repository.ImageDeletionTaskRepository;
+import com.chatalyst.backend.Repository.ImageObjectRepository;
+import com.chatalyst.backend.model.ImageDeletionTask;
+import com.chatalyst.backend.model.ImageObject;
+import com.chatalyst.backend.service.ImageProcessingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class PsObjectStorageServiceTest {
+
+    private static final String PREFIX = "https://object.example/bucket/";
+    private static final String KEY_A = "a".repeat(64) + ".jpg";
+    private static final String KEY_B = "b".repeat(64) + ".jpg";
+    private static final String KEY_C = "c".repeat(64) + ".jpg";
+    private static final long GRACE_MS = 60_000;
+
+    private S3Client s3Client;
+    private S3AsyncClient s3AsyncClient;
+    private ImageProcessingService imageProcessingService;
+    private ImageObjectRepository imageObjectRepository;
+    private ImageDeletionTaskRepository imageDeletionTaskRepository;
+    private PsObjectStorageService storage;
+
+    // Ключи, запись которых в хранилище завершается ошибкой
+    private final Set<String> failingKeys = new HashSet<>();
+    private final List<String> putKeys = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        s3Client = mock(S3Client.class);
+        s3AsyncClient = mock(S3AsyncClient.class);
+        imageProcessingService = mock(ImageProcessingService.class);
+        imageObjectRepository = mock(ImageObjectRepository.class);
+        imageDeletionTaskRepository = mock(ImageDeletionTaskRepository.class);
+        storage = new PsObjectStorageService(s3Client, s3AsyncClient, imageProcessingService, imageObjectRepository,
+                imageDeletionTaskRepository, new TransactionTemplate(mock(PlatformTransactionManager.class)), 4);
+        ReflectionTestUtils.setField(storage, "bucketName", "bucket");
+        ReflectionTestUtils.setField(storage, "endpointUrl", "https://object.example");
+        ReflectionTestUtils.setField(storage, "multipartThresholdBytes", 16L * 1024 * 1024);
+        ReflectionTestUtils.setField(storage, "acquireTimeoutMs", 1_000L);
+        ReflectionTestUtils.setField(storage, "unreferencedGraceMs", GRACE_MS);
+
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            AsyncRequestBody body = invocation.getArgument(1);
+            putKeys.add(request.key());
+            CompletableFuture<PutObjectResponse> response = new CompletableFuture<>();
+            // Тело читается до конца, как это делает HTTP-клиент, иначе загрузка ждет подписчика
+            body.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer buffer) {
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    response.completeExceptionally(error);
+                }
+
+                @Override
+                public void onComplete() {
+                    if (failingKeys.contains(request.key())) {
+                        response.completeExceptionally(S3Exception.builder().message("PUT failed").build());
+                    } else {
+                        response.complete(PutObjectResponse.builder().build());
+                    }
+                }
+            });
+            return response;
+        });
+    }
+
+    private static ImageObject object(String key, int refCount, LocalDateTime updatedAt) {
+        return ImageObject.builder().objectKey(key).refCount(refCount).sizeBytes(10L).stored(true)
+                .createdAt(updatedAt).updatedAt(updatedAt).build();
+    }
+
+    private String processImage(byte[] image) throws Exception {
+        when(imageProcessingService.accepts(anyLong())).thenReturn(true);
+        when(imageProcessingService.process(any(), anyString(), anyString())).thenReturn(
+                new ImageProcessingService.ProcessedImage(image, "image/jpeg", ".jpg", new byte[]{9, 9}));
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(image)) + "_norm.jpg";
+    }
+
+    @Test
+    void retainCountsReferencesPerContentKeyInSortedOrder() {
+        storage.retainImages(Arrays.asList(PREFIX + KEY_B, PREFIX + KEY_A, null, "", "https://cdn.example/photo.jpg",
+                PREFIX + KEY_A));
+
+        InOrder order = inOrder(imageObjectRepository);
+        order.verify(imageObjectRepository).acquire(KEY_A, 2);
+        order.verify(imageObjectRepository).acquire(KEY_B, 1);
+        verify(imageObjectRepository, never()).acquire(eq("photo.jpg"), anyInt());
+    }
+
+    @Test
+    void releaseDropsOneReferencePerUrl() {
+        storage.releaseImages(List.of(PREFIX + KEY_A, PREFIX + KEY_A, PREFIX + "product_tea_1234abcd.jpg"));
+
+        verify(imageObjectRepository).release(KEY_A, 2);
+        verify(imageObjectRepository, never()).release(eq("product_tea_1234abcd.jpg"), anyInt());
+    }
+
+    @Test
+    void retainWithoutContentKeysDoesNotTouchDatabase() {
+        storage.retainImages(List.of("https://cdn.example/photo.jpg"));
+
+        verifyNoInteractions(imageObjectRepository);
+    }
+
+    @Test
+    void deleteSkipsReferencedAndRecentlyUploadedObjects() {
+        LocalDateTime old = LocalDateTime.now().minusHours(2);
+        when(imageObjectRepository.lockAll(anyCollection())).thenReturn(List.of(
+                object(KEY_A, 1, old), object(KEY_B, 0, LocalDateTime.now()), object(KEY_C, 0, old)));
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        String legacy = PREFIX + "product_tea_1234abcd.png";
+
+        Map<String, String> failed = storage.deleteImages(List.of(PREFIX + KEY_A, PREFIX + KEY_B, PREFIX + KEY_C, legacy));
+
+        assertTrue(failed.isEmpty());
+        // Строки блокируются в одном порядке во всех транзакциях
+        verify(imageObjectRepository).lockAll(new TreeSet<>(List.of(KEY_A, KEY_B, KEY_C)));
+        ArgumentCaptor<DeleteObjectsRequest> request = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(request.capture());
+        Set<String> deletedKeys = new HashSet<>();
+        for (ObjectIdentifier identifier : request.getValue().delete().objects()) {
+            deletedKeys.add(identifier.key());
+        }
+        assertEquals(Set.of(KEY_C, "c".repeat(64) + "_thumb.jpg", "product_tea_1234abcd.png", "product_tea_1234abcd_thumb.jpg"),
+                deletedKeys);
+        verify(imageObjectRepository).deleteByKeys(List.of(KEY_C));
+    }
+
+    @Test
+    void clearsStoredFlagBeforeDeletingFromStorage() {
+        LocalDateTime old = LocalDateTime.now().minusHours(2);
+        when(imageObjectRepository.lockAll(anyCollection())).thenReturn(List.of(object(KEY_C, 0, old)));
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        LocalDateTime before = LocalDateTime.now();
+        storage.deleteImages(List.of(PREFIX + KEY_C));
+
+        // Откат транзакции после удаления из хранилища не оставит записи stored=true без объекта
+        InOrder order = inOrder(imageObjectRepository, s3Client);
+        ArgumentCaptor<LocalDateTime> graceStart = ArgumentCaptor.forClass(LocalDateTime.class);
+        order.verify(imageObjectRepository).markUnstored(eq(new TreeSet<>(List.of(KEY_C))), graceStart.capture());
+        order.verify(imageObjectRepository).lockAll(anyCollection());
+        order.verify(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
+        order.verify(imageObjectRepository).deleteByKeys(List.of(KEY_C));
+        assertFalse(graceStart.getValue().isBefore(before.minusNanos(GRACE_MS * 1_000_000)));
+    }
+
+    @Test
+    void deleteWithoutContentKeysDoesNotTouchDatabase() {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        assertTrue(storage.deleteImages(List.of(PREFIX + "product_tea_1234abcd.png")).isEmpty());
+
+        verify(imageObjectRepository, never()).markUnstored(anyCollection(), any(LocalDateTime.class));
+        verify(imageObjectRepository, never()).lockAll(anyCollection());
+    }
+
+    @Test
+    void deleteKeepsCounterRowWhenStorageDeleteFails() {
+        LocalDateTime old = LocalDateTime.now().minusHours(2);
+        when(imageObjectRepository.lockAll(anyCollection())).thenReturn(List.of(object(KEY_C, 0, old)));
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder()
+                .errors(S3Error.builder().key(KEY_C).code("InternalError").message("try again").build())
+                .build());
+
+        Map<String, String> failed = storage.deleteImages(List.of(PREFIX + KEY_C));
+
+        assertEquals(Map.of(PREFIX + KEY_C, "InternalError: try again"), failed);
+        verify(imageObjectRepository, never()).deleteByKeys(anyCollection());
+    }
+
+    @Test
+    void reusesStoredObjectWithoutUpload() throws Exception {
+        byte[] image = "same image".getBytes(StandardCharsets.UTF_8);
+        String key = processImage(image);
+        when(imageObjectRepository.findById(key)).thenReturn(Optional.of(object(key, 1, LocalDateTime.now())));
+
+        String url = storage.uploadImage(new ByteArrayInputStream(image), image.length, "image/jpeg", ".jpg", "Чай");
+
+        assertEquals(PREFIX + key, url);
+        verify(imageObjectRepository).touch(key, image.length);
+        verify(imageObjectRepository, never()).markStored(anyString());
+        assertTrue(putKeys.isEmpty());
+    }
+
+    @Test
+    void marksObjectStoredOnlyAfterImageAndThumbnailAreWritten() throws Exception {
+        byte[] image = "new image".getBytes(StandardCharsets.UTF_8);
+        String key = processImage(image);
+        when(imageObjectRepository.findById(key)).thenReturn(Optional.empty());
+
+        String url = storage.uploadImage(new ByteArrayInputStream(image), image.length, "image/jpeg", ".jpg", "Чай");
+
+        assertEquals(PREFIX + key, url);
+        assertEquals(List.of(key, key.replace(".jpg", "_thumb.jpg")), putKeys);
+        verify(imageObjectRepository).markStored(key);
+        // Загрузка ссылку не берет: ее берет товар вместе с image_url
+        verify(imageObjectRepository, never()).acquire(anyString(), anyInt());
+        assertEquals(PREFIX + key.replace(".jpg", "_thumb.jpg"), storage.thumbnailUrl(url));
+    }
+
+    @Test
+    void schedulesDeletionOfImageWhenThumbnailUploadFails() throws Exception {
+        byte[] image = "broken thumbnail".getBytes(StandardCharsets.UTF_8);
+        String key = processImage(image);
+        when(imageObjectRepository.findById(key)).thenReturn(Optional.empty());
+        failingKeys.add(key.replace(".jpg", "_thumb.jpg"));
+
+        LocalDateTime before = LocalDateTime.now();
+        assertThrows(RuntimeException.class,
+                () -> storage.uploadImage(new ByteArrayInputStream(image), image.length, "image/jpeg", ".jpg", "Чай"));
+
+        verify(imageObjectRepository, never()).markStored(anyString());
+        ArgumentCaptor<ImageDeletionTask> task = ArgumentCaptor.forClass(ImageDeletionTask.class);
+        verify(imageDeletionTaskRepository).save(task.capture());
+        assertEquals(PREFIX + key, task.getValue().getImageUrl());
+        assertEquals(0, task.getValue().getAttempts());
+        // Удаление не раньше конца срока ожидания: до него объект мог получить ссылку от другого товара
+        assertFalse(task.getValue().getNextAttemptAt().isBefore(before.plusNanos(GRACE_MS * 1_000_000)));
+    }
+
+    @Test
+    void storesUndecodableImageWithoutThumbnailOrNormalizedKey() throws Exception {
+        byte[] image = "cmyk jpeg".getBytes(StandardCharsets.UTF_8);
+        when(imageProcessingService.accepts(anyLong())).thenReturn(true);
+        when(imageProcessingService.process(any(), anyString(), anyString())).thenReturn(
+                new ImageProcessingService.ProcessedImage(image, "image/jpeg", ".jpg", null));
+        String key = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(image)) + ".jpg";
+        when(imageObjectRepository.findById(key)).thenReturn(Optional.empty());
+
+        String url = storage.uploadImage(new ByteArrayInputStream(image), image.length, "image/jpeg", ".jpg", "Чай");
+
+        assertEquals(PREFIX + key, url);
+        assertEquals(List.of(key), putKeys);
+        // Миниатюры нет: ссылка на нее не выдается
+        assertNull(storage.thumbnailUrl(url));
+    }
+
+    @Test
+    void thumbnailUrlOnlyForNormalizedImagesInStorage() {
+        String normalized = "a".repeat(64) + "_norm.jpg";
+        assertEquals(PREFIX + "a".repeat(64) + "_norm_thumb.jpg", storage.thumbnailUrl(PREFIX + normalized));
+        assertNull(storage.thumbnailUrl("https://cdn.example/" + normalized));
+        assertNull(storage.thumbnailUrl(PREFIX + KEY_A));
+        assertNull(storage.thumbnailUrl(PREFIX + "a".repeat(64) + ".png"));
+        assertNull(storage.thumbnailUrl(PREFIX + "product_tea_1234abcd.jpg"));
+        assertNull(storage.thumbnailUrl(null));
+    }
+
+    @Test
+    void orphanUrlsAreBuiltFromKeys() {
+        when(imageObjectRepository.findOrphans(any(LocalDateTime.class), eq(PREFIX), eq(10))).thenReturn(List.of(KEY_A));
+
+        assertEquals(List.of(PREFIX + KEY_A), storage.findOrphanUrls(10));
+    }
+}
@@ -0,0 +1,127 @@
+package com.chatalyst.backend.security.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserPrincipalCacheTest {
+
+    private static final String EMAIL = "owner@example.com";
+
+    private UserDetailsServiceImpl userDetailsService;
+
+    @BeforeEach
+    void setUp() {
+        userDetailsService = mock(UserDetailsServiceImpl.class);
+        when(userDetailsService.loadUserByUsername(EMAIL)).thenAnswer(invocation -> principal(EMAIL));
+    }
+
+    private static UserDetails principal(String email) {
+        return User.withUsername(email).password("hash").authorities("ROLE_USER").build();
+    }
+
+    @Test
+    void servesRepeatedLookupsFromCacheWithinTtl() {
+        UserPrincipalCache cache = new UserPrincipalCache(userDetailsService, 60, 100);
+
+        UserDetails first = cache.get(EMAIL);
+        UserDetails second = cache.get(EMAIL);
+
+        assertSame(first, second);
+        verify(userDetailsService, times(1)).loadUserByUsername(EMAIL);
+        assertEquals(1L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+
+    @Test
+    void reloadsExpiredEntry() {
+        UserPrincipalCache cache = new UserPrincipalCache(userDetailsService, 0, 100);
+
+        cache.get(EMAIL);
+        cache.get(EMAIL);
+
+        verify(userDetailsService, times(2)).loadUserByUsername(EMAIL);
+    }
+
+    @Test
+    void invalidateEvictsEntry() {
+        UserPrincipalCache cache = new UserPrincipalCache(userDetailsService, 60, 100);
+
+        cache.get(EMAIL);
+        cache.invalidate(EMAIL);
+        cache.get(EMAIL);
+
+        verify(userDetailsService, times(2)).loadUserByUsername(EMAIL);
+        assertEquals(1L, cache.getStats().get("invalidations"));
+    }
+
+    @Test
+    void loadStartedBeforeInvalidationIsNotCached() {
+        UserPrincipalCache cache = new UserPrincipalCache(userDetailsService, 60, 100);
+        AtomicBoolean invalidatedDuringLoad = new AtomicBoolean();
+        when(userDetailsService.loadUserByUsername(EMAIL)).thenAnswer(invocation -> {
+            // Роли поменялись, пока шла загрузка: прочитанные данные уже устарели
+            if (!invalidatedDuringLoad.getAndSet(true)) {
+                cache.invalidate(EMAIL);
+            }
+            return principal(EMAIL);
+        });
+
+        cache.get(EMAIL);
+        cache.get(EMAIL);
+        cache.get(EMAIL);
+
+        // Первая загрузка не попала в кэш, вторая попала
+        verify(userDetailsService, times(2)).loadUserByUsername(EMAIL);
+    }
+
+    @Test
+    void invalidationInsideTransactionWaitsForCommit() {
+        UserPrincipalCache cache = new UserPrincipalCache(userDetailsService, 60, 100);
+        cache.get(EMAIL);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidate(EMAIL);
+            cache.get(EMAIL);
+            verify(userDetailsService, times(1)).loadUserByUsername(EMAIL);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        cache.get(EMAIL);
+        verify(userDetailsService, times(2)).loadUserByUsername(EMAIL);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntryOverMaxSize() {
+        when(userDetailsService.loadUserByUsername("a")).thenAnswer(invocation -> principal("a"));
+        when(userDetailsService.loadUserByUsername("b")).thenAnswer(invocation -> principal("b"));
+        UserPrincipalCache cache = new UserPrincipalCache(userDetailsService, 60, 2);
+
+        cache.get(EMAIL);
+        cache.get("a");
+        cache.get(EMAIL);
+        cache.get("b");
+        cache.get(EMAIL);
+        cache.get("a");
+
+        assertEquals(2, cache.getStats().get("size"));
+        verify(userDetailsService, times(1)).loadUserByUsername(EMAIL);
+        verify(userDetailsService, times(2)).loadUserByUsername("a");
+    }
+}
@@ -0,0 +1,167 @@
+package com.chatalyst.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageProcessingServiceTest {
+
+    private static final byte[] SOI = {(byte) 0xFF, (byte) 0xD8};
+    private static final byte[] SOS = {(byte) 0xFF, (byte) 0xDA, 0x00, 0x02};
+
+    private final ImageProcessingService service = new ImageProcessingService(true, 64, 16, 0.85f, 1_048_576, 1, 4);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    /**
+     * APP1-сегмент EXIF с одной записью IFD0 типа SHORT.
+     */
+    private static byte[] exifSegment(boolean littleEndian, int tag, int value) {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        if (littleEndian) {
+            tiff.writeBytes(new byte[]{'I', 'I', 42, 0, 8, 0, 0, 0});
+        } else {
+            tiff.writeBytes(new byte[]{'M', 'M', 0, 42, 0, 0, 0, 8});
+        }
+        writeShort(tiff, 1, littleEndian);
+        writeShort(tiff, tag, littleEndian);
+        writeShort(tiff, 3, littleEndian); // SHORT
+        writeShort(tiff, 1, littleEndian);
+        writeShort(tiff, 0, littleEndian);
+        writeShort(tiff, value, littleEndian);
+        writeShort(tiff, 0, littleEndian);
+        tiff.writeBytes(new byte[]{0, 0, 0, 0});
+
+        byte[] body = tiff.toByteArray();
+        int length = 2 + 6 + body.length;
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8), (byte) length});
+        segment.writeBytes(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        segment.writeBytes(body);
+        return segment.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        } else {
+            out.write((value >> 8) & 0xFF);
+            out.write(value & 0xFF);
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void readsOrientationInBothByteOrders() {
+        assertEquals(6, ImageProcessingService.readExifOrientation(concat(SOI, exifSegment(true, 0x0112, 6), SOS)));
+        assertEquals(8, ImageProcessingService.readExifOrientation(concat(SOI, exifSegment(false, 0x0112, 8), SOS)));
+    }
+
+    @Test
+    void skipsSegmentsBeforeExif() {
+        byte[] app0 = {(byte) 0xFF, (byte) 0xE0, 0x00, 0x07, 'J', 'F', 'I', 'F', 0};
+
+        assertEquals(3, ImageProcessingService.readExifOrientation(concat(SOI, app0, exifSegment(true, 0x0112, 3), SOS)));
+    }
+
+    @Test
+    void defaultsToNormalOrientation() {
+        // Не JPEG
+        assertEquals(1, ImageProcessingService.readExifOrientation(new byte[]{(byte) 0x89, 'P', 'N', 'G'}));
+        // Без EXIF
+        assertEquals(1, ImageProcessingService.readExifOrientation(concat(SOI, SOS)));
+        // EXIF без тега Orientation
+        assertEquals(1, ImageProcessingService.readExifOrientation(concat(SOI, exifSegment(true, 0x010F, 6), SOS)));
+        // Недопустимое значение
+        assertEquals(1, ImageProcessingService.readExifOrientation(concat(SOI, exifSegment(true, 0x0112, 9), SOS)));
+        // EXIF после начала данных изображения не читается
+        assertEquals(1, ImageProcessingService.readExifOrientation(concat(SOI, SOS, exifSegment(true, 0x0112, 6))));
+    }
+
+    @Test
+    void survivesTruncatedAndCorruptedExif() {
+        byte[] valid = concat(SOI, exifSegment(true, 0x0112, 6), SOS);
+        // SOI (2) + заголовок APP1 (4) + "Exif\0\0" (6) + заголовок TIFF (8) + число записей (2) + запись (12)
+        int orientationEnd = 34;
+        for (int length = 0; length < valid.length; length++) {
+            assertEquals(length >= orientationEnd ? 6 : 1, ImageProcessingService.readExifOrientation(Arrays.copyOf(valid, length)),
+                    "length " + length);
+        }
+
+        byte[] badOffset = concat(SOI, exifSegment(true, 0x0112, 6), SOS);
+        // Смещение IFD0 0x80000000: как int оно отрицательное и указывает до начала массива
+        badOffset[SOI.length + 17] = (byte) 0x80;
+        assertEquals(1, ImageProcessingService.readExifOrientation(badOffset));
+        // Смещение меньше заголовка TIFF указывает внутрь самого заголовка
+        badOffset[SOI.length + 14] = 2;
+        badOffset[SOI.length + 17] = 0;
+        assertEquals(1, ImageProcessingService.readExifOrientation(badOffset));
+    }
+
+    @Test
+    void appliesOrientationAndBuildsThumbnail() throws IOException {
+        BufferedImage source = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(source, "jpg", jpeg);
+        byte[] encoded = jpeg.toByteArray();
+        // EXIF вставляется сразу после SOI: поворот на 90 градусов меняет ширину и высоту местами
+        byte[] rotated = concat(SOI, exifSegment(true, 0x0112, 6), Arrays.copyOfRange(encoded, 2, encoded.length));
+
+        ImageProcessingService.ProcessedImage processed = service.process(new ByteArrayInputStream(rotated), "image/jpeg", ".jpeg");
+
+        assertTrue(processed.normalized());
+        assertEquals(ImageProcessingService.OUTPUT_CONTENT_TYPE, processed.contentType());
+        assertEquals(ImageProcessingService.OUTPUT_EXTENSION, processed.extension());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(processed.image()));
+        assertEquals(20, image.getWidth());
+        assertEquals(40, image.getHeight());
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(processed.thumbnail()));
+        assertNotNull(thumbnail);
+        assertEquals(16, Math.max(thumbnail.getWidth(), thumbnail.getHeight()));
+    }
+
+    @Test
+    void passesThroughUndecodableContent() {
+        byte[] garbage = {1, 2, 3, 4, 5};
+
+        ImageProcessingService.ProcessedImage processed = service.process(new ByteArrayInputStream(garbage), "image/webp", ".webp");
+
+        assertFalse(processed.normalized());
+        assertArrayEquals(garbage, processed.image());
+        assertEquals("image/webp", processed.contentType());
+        assertEquals(".webp", processed.extension());
+    }
+
+    @Test
+    void rejectsStreamLargerThanSourceLimit() {
+        // Заявленная длина могла быть меньше: лимит проверяется по фактически прочитанным байтам
+        byte[] oversized = new byte[1_048_577];
+
+        assertThrows(RuntimeException.class,
+                () -> service.process(new ByteArrayInputStream(oversized), "image/jpeg", ".jpg"));
+    }
+}
@@ -0,0 +1,162 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.Repository.UserRepository;
+import com.chatalyst.backend.exception.QuotaExceededException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QuotaServiceTest {
+
+    private static final long USER_ID = 7L;
+    private static final int LEASE_SIZE = 20;
+
+    private UserRepository userRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        // Менеджер-заглушка: TransactionTemplate просто выполняет колбэк
+        transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+    }
+
+    private QuotaService quotaService(long idleSeconds) {
+        return new QuotaService(userRepository, transactionTemplate, true, LEASE_SIZE, idleSeconds, 120);
+    }
+
+    @Test
+    void consumesFromLeaseAndRefillsWhenExhausted() {
+        when(userRepository.tryConsumeMessages(USER_ID, LEASE_SIZE)).thenReturn(1);
+        QuotaService quotaService = quotaService(30);
+
+        for (int i = 0; i < LEASE_SIZE; i++) {
+            quotaService.consumeOrThrow(USER_ID, 1);
+        }
+        verify(userRepository, times(1)).tryConsumeMessages(USER_ID, LEASE_SIZE);
+
+        quotaService.consumeOrThrow(USER_ID, 1);
+        verify(userRepository, times(2)).tryConsumeMessages(USER_ID, LEASE_SIZE);
+        assertEquals(2L, quotaService.getStats().get("refills"));
+        assertEquals(19L, quotaService.getStats().get("outstandingUnits"));
+    }
+
+    @Test
+    void fallsBackToExactConsumeWhenBlockDoesNotFit() {
+        when(userRepository.tryConsumeMessages(USER_ID, LEASE_SIZE)).thenReturn(0);
+        when(userRepository.tryConsumeMessages(USER_ID, 1)).thenReturn(1);
+        QuotaService quotaService = quotaService(30);
+
+        quotaService.consumeOrThrow(USER_ID, 1);
+
+        verify(userRepository).tryConsumeMessages(USER_ID, 1);
+        assertEquals(1L, quotaService.getStats().get("exactConsumes"));
+        assertEquals(0L, quotaService.getStats().get("outstandingUnits"));
+    }
+
+    @Test
+    void rejectsWhenLimitIsExhausted() {
+        when(userRepository.tryConsumeMessages(eq(USER_ID), anyInt())).thenReturn(0);
+        QuotaService quotaService = quotaService(30);
+
+        assertThrows(QuotaExceededException.class, () -> quotaService.consumeOrThrow(USER_ID, 1));
+        assertEquals(1L, quotaService.getStats().get("rejections"));
+    }
+
+    @Test
+    void consumesLargeRequestsExactly() {
+        when(userRepository.tryConsumeMessages(USER_ID, LEASE_SIZE + 1)).thenReturn(1);
+        QuotaService quotaService = quotaService(30);
+
+        quotaService.consumeOrThrow(USER_ID, LEASE_SIZE + 1);
+
+        verify(userRepository, never()).tryConsumeMessages(USER_ID, LEASE_SIZE);
+        assertEquals(0, quotaService.getStats().get("activeLeases"));
+    }
+
+    @Test
+    void reconcileReturnsLeftoverOfIdleLease() throws InterruptedException {
+        when(userRepository.tryConsumeMessages(USER_ID, LEASE_SIZE)).thenReturn(1);
+        QuotaService quotaService = quotaService(0);
+
+        quotaService.consumeOrThrow(USER_ID, 3);
+        Thread.sleep(5);
+        quotaService.reconcileLeases();
+
+        verify(userRepository).releaseMessages(USER_ID, LEASE_SIZE - 3);
+        assertEquals(0, quotaService.getStats().get("activeLeases"));
+        assertEquals((long) (LEASE_SIZE - 3), quotaService.getStats().get("releasedUnits"));
+    }
+
+    @Test
+    void discardedLeaseIsNotReturnedAndNextConsumeRefills() {
+        when(userRepository.tryConsumeMessages(USER_ID, LEASE_SIZE)).thenReturn(1);
+        QuotaService quotaService = quotaService(30);
+
+        quotaService.consumeOrThrow(USER_ID, 1);
+        quotaService.discardLease(USER_ID);
+        quotaService.consumeOrThrow(USER_ID, 1);
+
+        verify(userRepository, never()).releaseMessages(anyLong(), anyInt());
+        verify(userRepository, times(2)).tryConsumeMessages(USER_ID, LEASE_SIZE);
+    }
+
+    @Test
+    void concurrentConsumersNeverTakeMoreThanLeased() throws Exception {
+        AtomicInteger leasedBlocks = new AtomicInteger();
+        when(userRepository.tryConsumeMessages(USER_ID, LEASE_SIZE)).thenAnswer(invocation -> {
+            leasedBlocks.incrementAndGet();
+            return 1;
+        });
+        QuotaService quotaService = quotaService(30);
+        int threads = 8;
+        int perThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        quotaService.consumeOrThrow(USER_ID, 1);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Каждое сообщение списано ровно один раз, блоки берутся только когда предыдущий исчерпан
+        int consumed = threads * perThread;
+        assertEquals(consumed / LEASE_SIZE, leasedBlocks.get());
+        assertEquals(0L, quotaService.getStats().get("outstandingUnits"));
+        verify(userRepository, never()).tryConsumeMessages(USER_ID, 1);
+    }
+}
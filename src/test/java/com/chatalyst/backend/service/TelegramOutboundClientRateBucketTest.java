@@ -0,0 +1,89 @@
+package com.chatalyst.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TelegramOutboundClientRateBucketTest {
+
+    private static final long INTERVAL = 1_000;
+
+    @Test
+    void allowsBurstThenSpacesByInterval() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 3);
+
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(1_000, bucket.reserve(0));
+        assertEquals(2_000, bucket.reserve(0));
+    }
+
+    @Test
+    void burstOfOneIsStrictSpacing() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 1);
+
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(1_000, bucket.reserve(0));
+        assertEquals(2_000, bucket.reserve(500));
+    }
+
+    @Test
+    void recoversOneSlotPerElapsedInterval() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 3);
+        for (int i = 0; i < 3; i++) {
+            bucket.reserve(0);
+        }
+
+        // Через один интервал освободился ровно один слот
+        assertEquals(1_000, bucket.reserve(1_000));
+        assertEquals(2_000, bucket.reserve(1_000));
+    }
+
+    @Test
+    void restoresFullBurstAfterIdlePeriod() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 3);
+        for (int i = 0; i < 5; i++) {
+            bucket.reserve(0);
+        }
+
+        assertEquals(10_000, bucket.reserve(10_000));
+        assertEquals(10_000, bucket.reserve(10_000));
+        assertEquals(10_000, bucket.reserve(10_000));
+        assertEquals(11_000, bucket.reserve(10_000));
+    }
+
+    @Test
+    void slotIsBoundedByRequestedMomentAndBurst() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 3);
+
+        assertEquals(5_000, bucket.reserve(5_000));
+        assertEquals(7_000, bucket.reserve(7_000));
+        // Запас пачки уже израсходован до 6 000: раньше слот не выдается, даже если просили 4 000
+        assertEquals(6_000, bucket.reserve(4_000));
+    }
+
+    @Test
+    void worksWithNegativeNanoTime() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 2);
+        long start = Long.MIN_VALUE / 2;
+
+        assertEquals(start, bucket.reserve(start));
+        assertEquals(start, bucket.reserve(start));
+        assertEquals(start + 1_000, bucket.reserve(start));
+    }
+
+    @Test
+    void isIdleOnceAllReservedSlotsHavePassed() {
+        TelegramOutboundClient.RateBucket bucket = new TelegramOutboundClient.RateBucket(INTERVAL, 3);
+        assertTrue(bucket.isIdle(0));
+
+        bucket.reserve(0);
+        bucket.reserve(0);
+
+        assertFalse(bucket.isIdle(1_999));
+        assertTrue(bucket.isIdle(2_001));
+    }
+}
@@ -0,0 +1,48 @@
+package com.chatalyst.backend.service;
+
+import com.chatalyst.backend.security.services.TelegramService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class TelegramUpdateDispatcherTest {
+
+    private final TelegramService telegramService = mock(TelegramService.class);
+    private final TelegramUpdateDispatcher dispatcher = new TelegramUpdateDispatcher(telegramService, 1, 10, 1);
+
+    private static JsonNode update(long chatId) throws Exception {
+        return new ObjectMapper().readTree("{\"message\":{\"chat\":{\"id\":" + chatId + "},\"text\":\"hi\"}}");
+    }
+
+    @Test
+    void rejectsUpdatesAfterShutdown() throws Exception {
+        dispatcher.shutdown();
+
+        assertFalse(dispatcher.submit("bot", update(1)));
+        verifyNoInteractions(telegramService);
+    }
+
+    @Test
+    void withdrawsUpdateWhenWorkersStopAfterAcceptCheck() throws Exception {
+        dispatcher.shutdown();
+        // Остановка между проверкой accepting и запуском воркера
+        ReflectionTestUtils.setField(dispatcher, "accepting", true);
+
+        assertFalse(dispatcher.submit("bot", update(1)));
+
+        Map<String, Object> stats = dispatcher.getStats();
+        assertEquals(Map.of(), stats.get("queueDepthByBot"));
+        assertEquals(0, stats.get("activeChats"));
+        assertEquals(0L, stats.get("accepted"));
+        assertEquals(1L, stats.get("rejected"));
+        verifyNoInteractions(telegramService);
+    }
+}
@@ -0,0 +1,94 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AhoCorasickMatcherTest {
+
+    private static AhoCorasickMatcher<String> matcher(String... keys) {
+        return AhoCorasickMatcher.build(Arrays.asList(keys), Function.identity());
+    }
+
+    @Test
+    void findsAllKeysWithOffsetsInOriginalText() {
+        AhoCorasickMatcher<String> matcher = matcher("чай", "кофе");
+        String text = "Есть Кофе и ЧАЙ";
+
+        List<AhoCorasickMatcher.Match<String>> matches = matcher.findAll(text);
+
+        assertEquals(2, matches.size());
+        assertEquals("Кофе", text.substring(matches.get(0).start(), matches.get(0).end()));
+        assertEquals(List.of("кофе"), matches.get(0).values());
+        assertEquals("ЧАЙ", text.substring(matches.get(1).start(), matches.get(1).end()));
+        assertEquals(List.of("чай"), matches.get(1).values());
+    }
+
+    @Test
+    void foldsYoAndNonBreakingSpace() {
+        AhoCorasickMatcher<String> matcher = matcher("Ёлочная игрушка");
+
+        List<AhoCorasickMatcher.Match<String>> matches = matcher.findAll("купите елочная\u00A0ИГРУШКА сегодня");
+
+        assertEquals(1, matches.size());
+        assertEquals(7, matches.get(0).start());
+        assertEquals(22, matches.get(0).end());
+    }
+
+    @Test
+    void prefersLongestOfOverlappingMatches() {
+        AhoCorasickMatcher<String> matcher = matcher("iphone 15", "iphone 15 pro", "pro max");
+
+        List<AhoCorasickMatcher.Match<String>> matches = matcher.findAll("Новый iPhone 15 Pro Max");
+
+        assertEquals(1, matches.size());
+        assertEquals(List.of("iphone 15 pro"), matches.get(0).values());
+    }
+
+    @Test
+    void resolvesClassicDictionaryThroughFailureLinks() {
+        AhoCorasickMatcher<String> matcher = matcher("he", "she", "his", "hers");
+
+        List<AhoCorasickMatcher.Match<String>> matches = matcher.findAll("ushers");
+
+        assertEquals(1, matches.size());
+        assertEquals(2, matches.get(0).start());
+        assertEquals(6, matches.get(0).end());
+        assertEquals(List.of("hers"), matches.get(0).values());
+    }
+
+    @Test
+    void groupsValuesWithSameKey() {
+        record Product(long id, String name) {
+        }
+        List<Product> products = List.of(new Product(1, "Латте"), new Product(2, "латте"), new Product(3, "Раф"));
+        AhoCorasickMatcher<Product> matcher = AhoCorasickMatcher.build(products, Product::name);
+
+        List<AhoCorasickMatcher.Match<Product>> matches = matcher.findAll("Большой латте");
+
+        assertEquals(2, matcher.getPatternCount());
+        assertEquals(1, matches.size());
+        assertEquals(List.of(products.get(0), products.get(1)), matches.get(0).values());
+    }
+
+    @Test
+    void distinctValuesKeepOrderOfFirstMention() {
+        AhoCorasickMatcher<String> matcher = matcher("раф", "латте", "капучино");
+
+        assertEquals(List.of("латте", "раф"), matcher.findDistinctValues("латте, раф и еще латте"));
+    }
+
+    @Test
+    void skipsBlankAndNullKeys() {
+        AhoCorasickMatcher<String> matcher = AhoCorasickMatcher.build(Arrays.asList("  ", null, "чай"), Function.identity());
+
+        assertEquals(1, matcher.getPatternCount());
+        assertTrue(matcher.findAll("").isEmpty());
+        assertTrue(matcher.findAll("без совпадений").isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinHashTest {
+
+    private static List<String> words(String prefix, int from, int to) {
+        List<String> words = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            words.add(prefix + i);
+        }
+        return words;
+    }
+
+    @Test
+    void signatureDependsOnlyOnSetContent() {
+        MinHash minHash = new MinHash(64, 16);
+
+        int[] signature = minHash.signature(List.of("доставка", "цена", "кофе"));
+
+        assertArrayEquals(signature, minHash.signature(List.of("кофе", "доставка", "цена", "кофе")));
+        // Сиды фиксированы: сигнатуры из разных экземпляров сравнимы (например, после перезапуска)
+        assertArrayEquals(signature, new MinHash(64, 16).signature(Set.of("цена", "кофе", "доставка")));
+        assertEquals(1.0, MinHash.similarity(signature, signature));
+    }
+
+    @Test
+    void estimatesJaccardSimilarity() {
+        MinHash minHash = new MinHash(128, 16);
+        // 100 общих слов из 200: коэффициент Жаккара 0.5
+        List<String> a = words("w", 0, 150);
+        List<String> b = words("w", 50, 200);
+
+        double estimate = MinHash.similarity(minHash.signature(a), minHash.signature(b));
+
+        assertEquals(0.5, estimate, 0.15);
+    }
+
+    @Test
+    void disjointSetsAreDissimilar() {
+        MinHash minHash = new MinHash(64, 16);
+
+        double estimate = MinHash.similarity(minHash.signature(words("a", 0, 50)), minHash.signature(words("b", 0, 50)));
+
+        assertTrue(estimate < 0.1, "similarity " + estimate);
+    }
+
+    @Test
+    void emptySetHasMaximalSignature() {
+        int[] signature = new MinHash(8, 4).signature(List.of());
+
+        for (int value : signature) {
+            assertEquals(Integer.MAX_VALUE, value);
+        }
+    }
+
+    @Test
+    void bandKeysShareBandsOnlyForSimilarSets() {
+        MinHash minHash = new MinHash(64, 16);
+        List<String> base = words("w", 0, 20);
+        List<String> nearDuplicate = new ArrayList<>(base);
+        nearDuplicate.add("extra");
+
+        long[] baseKeys = minHash.bandKeys(minHash.signature(base));
+        long[] nearKeys = minHash.bandKeys(minHash.signature(nearDuplicate));
+        long[] otherKeys = minHash.bandKeys(minHash.signature(words("x", 0, 20)));
+
+        assertEquals(16, baseKeys.length);
+        assertTrue(countShared(baseKeys, nearKeys) > 0);
+        assertEquals(0, countShared(baseKeys, otherKeys));
+    }
+
+    @Test
+    void bandNumberIsEncodedInKey() {
+        MinHash minHash = new MinHash(16, 4);
+        // Одинаковые значения во всех полосах не должны давать одинаковые ключи
+        int[] signature = new int[16];
+
+        long[] keys = minHash.bandKeys(signature);
+
+        Set<Long> distinct = new HashSet<>();
+        for (int band = 0; band < keys.length; band++) {
+            assertEquals(band, keys[band] >>> 56);
+            distinct.add(keys[band]);
+        }
+        assertEquals(4, distinct.size());
+    }
+
+    @Test
+    void rejectsBandsThatDoNotDivideSignature() {
+        assertThrows(IllegalArgumentException.class, () -> new MinHash(64, 10));
+    }
+
+    private static int countShared(long[] a, long[] b) {
+        int shared = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,127 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpreadsheetRowStreamTest {
+
+    private static List<List<String>> parse(String csv) throws IOException {
+        SpreadsheetRowStream.CsvParser parser = new SpreadsheetRowStream.CsvParser(new StringReader(csv));
+        List<List<String>> records = new ArrayList<>();
+        for (List<String> record = parser.nextRecord(); record != null; record = parser.nextRecord()) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    void parsesCommaSeparatedRecords() throws IOException {
+        assertEquals(List.of(List.of("name", "price"), List.of("Чай", "100")), parse("name,price\nЧай,100\n"));
+    }
+
+    @Test
+    void detectsSemicolonAndTabDelimiters() throws IOException {
+        assertEquals(List.of(List.of("Название", "Цена, тг", "Описание"), List.of("Кофе", "1 500,50", "")),
+                parse("Название;Цена, тг;Описание\nКофе;1 500,50;"));
+        assertEquals(List.of(List.of("name", "price"), List.of("a,b", "1")), parse("name\tprice\na,b\t1\n"));
+    }
+
+    @Test
+    void ignoresDelimitersInsideQuotedHeaderWhenDetecting() throws IOException {
+        assertEquals(List.of(List.of("a;b", "c"), List.of("1", "2")), parse("\"a;b\",c\n1,2\n"));
+    }
+
+    @Test
+    void skipsByteOrderMark() throws IOException {
+        assertEquals(List.of(List.of("name", "price")), parse("\uFEFFname;price"));
+    }
+
+    @Test
+    void unescapesQuotesAndKeepsLineBreaksInsideQuotedFields() throws IOException {
+        SpreadsheetRowStream.CsvParser parser = new SpreadsheetRowStream.CsvParser(new StringReader(
+                "name,description\r\n\"Чай \"\"Зеленый\"\"\",\"Строка 1\r\nСтрока 2, с запятой\"\r\nКофе,\"\"\r\n"));
+
+        assertEquals(List.of("name", "description"), parser.nextRecord());
+        assertEquals(List.of("Чай \"Зеленый\"", "Строка 1\r\nСтрока 2, с запятой"), parser.nextRecord());
+        assertEquals(List.of("Кофе", ""), parser.nextRecord());
+        assertNull(parser.nextRecord());
+        // Многострочное поле — одна запись
+        assertEquals(3, parser.recordNumber());
+    }
+
+    @Test
+    void keepsQuoteInsideUnquotedField() throws IOException {
+        assertEquals(List.of(List.of("name", "size"), List.of("Экран 15\"", "15")), parse("name,size\nЭкран 15\",15\n"));
+    }
+
+    @Test
+    void returnsEmptyResultForEmptyInput() throws IOException {
+        assertEquals(List.of(), parse(""));
+    }
+
+    @Test
+    void streamReadsHeadersAndSkipsBlankRows(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("import.csv");
+        Files.writeString(file, "\uFEFF Название ; Цена \n\nЧай;100\n;\nКофе;200\n", StandardCharsets.UTF_8);
+
+        try (SpreadsheetRowStream stream = SpreadsheetRowStream.open(file, "import.csv", 1)) {
+            assertEquals(List.of("Название", "Цена"), stream.getHeaders());
+            List<SpreadsheetRowStream.SheetRow> rows = new ArrayList<>();
+            stream.forEachRemaining(rows::add);
+
+            assertEquals(2, rows.size());
+            assertEquals(List.of("Чай", "100"), rows.get(0).cells());
+            assertEquals(List.of("Кофе", "200"), rows.get(1).cells());
+            assertEquals("", rows.get(1).get(5));
+            assertFalse(stream.hasNext());
+        }
+    }
+
+    @Test
+    void readsWindows1251FromRussianExcel(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("excel.csv");
+        // Первая строка только из ASCII: кодировка видна лишь по данным
+        Files.write(file, "name;price\nЧай зеленый;100\n".getBytes("windows-1251"));
+
+        assertEquals("windows-1251", SpreadsheetRowStream.detectCsvCharset(file).name());
+        try (SpreadsheetRowStream stream = SpreadsheetRowStream.open(file, "excel.csv", 4)) {
+            assertEquals(List.of("Чай зеленый", "100"), stream.next().cells());
+        }
+    }
+
+    @Test
+    void detectsUtf8AndUtf16(@TempDir Path dir) throws IOException {
+        Path utf8 = dir.resolve("utf8.csv");
+        Files.writeString(utf8, "name;price\nЧай;100\n", StandardCharsets.UTF_8);
+        Path utf16 = dir.resolve("utf16.csv");
+        Files.write(utf16, "\uFEFFname\tprice\nЧай\t100\n".getBytes(StandardCharsets.UTF_16LE));
+
+        assertEquals(StandardCharsets.UTF_8, SpreadsheetRowStream.detectCsvCharset(utf8));
+        assertEquals(StandardCharsets.UTF_16LE, SpreadsheetRowStream.detectCsvCharset(utf16));
+        try (SpreadsheetRowStream stream = SpreadsheetRowStream.open(utf16, "utf16.csv", 4)) {
+            assertEquals(List.of("name", "price"), stream.getHeaders());
+            assertEquals(List.of("Чай", "100"), stream.next().cells());
+        }
+    }
+
+    @Test
+    void rejectsFileWithoutHeaders(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("empty.csv");
+        Files.writeString(file, "\n\n", StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> SpreadsheetRowStream.open(file, "empty.csv", 4));
+    }
+}
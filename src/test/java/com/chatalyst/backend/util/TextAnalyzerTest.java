@@ -0,0 +1,65 @@
+package com.chatalyst.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TextAnalyzerTest {
+
+    @Test
+    void stemsInflectedRussianForms() {
+        assertEquals("кроссовк", RussianStemmer.stem("кроссовки"));
+        assertEquals("кроссовк", RussianStemmer.stem("кроссовкам"));
+        assertEquals("кроссовк", RussianStemmer.stem("кроссовками"));
+        assertEquals("красн", RussianStemmer.stem("красная"));
+        assertEquals("красн", RussianStemmer.stem("красный"));
+        assertEquals("красн", RussianStemmer.stem("красное"));
+    }
+
+    @Test
+    void prefersLongestEnding() {
+        assertEquals("истор", RussianStemmer.stem("историями"));
+        assertEquals("истор", RussianStemmer.stem("историям"));
+        assertEquals("истор", RussianStemmer.stem("историях"));
+    }
+
+    @Test
+    void keepsStemOfAtLeastThreeCharacters() {
+        assertEquals("чай", RussianStemmer.stem("чай"));
+        assertEquals("мам", RussianStemmer.stem("мама"));
+        // "ами" отрезать нельзя: осталось бы две буквы
+        assertEquals("рам", RussianStemmer.stem("рами"));
+    }
+
+    @Test
+    void leavesNumbersAndLatinWordsUnchanged() {
+        assertEquals("15pro", RussianStemmer.stem("15pro"));
+        assertEquals("iphone", RussianStemmer.stem("iphone"));
+    }
+
+    @Test
+    void stemsKazakhWordsWithKazakhEndings() {
+        assertEquals("кітап", RussianStemmer.stem("кітаптар"));
+        assertEquals("кітап", RussianStemmer.stem("кітапқа"));
+    }
+
+    @Test
+    void analyzesTextIntoStemsWithoutStopWords() {
+        assertEquals(List.of("красн", "кроссовк", "бег", "кроссовк"),
+                TextAnalyzer.analyze("Какие КРАСНЫЕ кроссовки есть для бега? Кроссовки!"));
+    }
+
+    @Test
+    void foldsYoAndSplitsOnPunctuation() {
+        assertEquals(List.of("елк", "iphone", "15", "pro"), TextAnalyzer.analyze("Ёлка/iPhone-15 Pro"));
+    }
+
+    @Test
+    void returnsNothingForEmptyText() {
+        assertEquals(List.of(), TextAnalyzer.analyze(null));
+        assertEquals(List.of(), TextAnalyzer.analyze(""));
+        assertEquals(List.of(), TextAnalyzer.analyze("и в на, а?"));
+    }
+}